@@ -125,6 +125,24 @@ public class MainActivity extends Activity {
             mContext.runOnUiThread(() -> Toast.makeText(mContext, "Iniciando GPS Nativo...", Toast.LENGTH_SHORT).show());
         }
 
+        // La web informa del conductor logueado para que TrackingService abra su canal de comandos
+        @JavascriptInterface
+        public void setConductor(String conductorId) {
+            mContext.getSharedPreferences(TrackingService.PREFS, MODE_PRIVATE)
+                    .edit()
+                    .putString(TrackingService.PREF_CONDUCTOR_ID, conductorId)
+                    .apply();
+        }
+
+        // Empresa del conductor: el servidor solo atiende sus datos con la cabecera X-User-Id
+        @JavascriptInterface
+        public void setEmpresa(String empresaId) {
+            mContext.getSharedPreferences(TrackingService.PREFS, MODE_PRIVATE)
+                    .edit()
+                    .putString(TrackingService.PREF_EMPRESA_ID, empresaId)
+                    .apply();
+        }
+
         @JavascriptInterface
         public void stopTracking() {
             Intent intent = new Intent(mContext, TrackingService.class);
@@ -21,6 +21,11 @@ import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -28,7 +33,13 @@ import java.nio.charset.StandardCharsets;
 
 public class TrackingService extends Service {
 
+    static final String PREFS = "ecofleet";
+    static final String PREF_CONDUCTOR_ID = "conductorId";
+    static final String PREF_EMPRESA_ID = "empresaId";
+
     private static final String CHANNEL_ID = "TrackingChannel";
+    // Espera del long-poll en el servidor; el timeout de lectura debe ser mayor
+    private static final int ESPERA_POLL_MS = 25000;
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
     private String rutaId;
@@ -37,6 +48,11 @@ public class TrackingService extends Service {
     // URL de tu backend - Usamos la de Railway por defecto
     private String API_URL = "https://saas-carcare-production.up.railway.app"; 
 
+    // Canal de comandos del conductor (long-poll): peticiones de posición inmediata, etc.
+    private volatile boolean canalActivo;
+    private Thread hiloCanal;
+    private volatile HttpURLConnection conexionPoll;
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -77,6 +93,7 @@ public class TrackingService extends Service {
         }
         
         solicitarActualizacionesUbicacion();
+        iniciarCanalComandos();
         
         return START_NOT_STICKY;
     }
@@ -107,6 +124,7 @@ public class TrackingService extends Service {
                 HttpURLConnection conn = (HttpURLConnection) url.openConnection();
                 conn.setRequestMethod("PUT");
                 conn.setRequestProperty("Content-Type", "application/json");
+                ponerEmpresa(conn);
                 conn.setDoOutput(true);
                 conn.setConnectTimeout(5000);
                 conn.setReadTimeout(5000);
@@ -136,6 +154,97 @@ public class TrackingService extends Service {
         }).start();
     }
 
+    private void iniciarCanalComandos() {
+        String conductorId = getSharedPreferences(PREFS, MODE_PRIVATE).getString(PREF_CONDUCTOR_ID, null);
+        if (conductorId == null || hiloCanal != null) {
+            return;
+        }
+        canalActivo = true;
+        hiloCanal = new Thread(() -> {
+            long espera = 1000;
+            while (canalActivo) {
+                try {
+                    JSONArray comandos = new JSONArray(peticion("GET",
+                            "/api/conductores/" + conductorId + "/canal/poll?timeoutMs=" + ESPERA_POLL_MS, null));
+                    JSONArray confirmados = new JSONArray();
+                    for (int i = 0; i < comandos.length(); i++) {
+                        JSONObject comando = comandos.getJSONObject(i);
+                        if ("ENVIAR_POSICION".equals(comando.optString("tipo"))) {
+                            enviarPosicionAhora();
+                        }
+                        // El resto (asignaciones, chat) los muestra la web; aquí solo se confirman
+                        confirmados.put(comando.getString("id"));
+                    }
+                    if (confirmados.length() > 0) {
+                        peticion("POST", "/api/conductores/" + conductorId + "/canal/ack",
+                                new JSONObject().put("ids", confirmados).toString());
+                    }
+                    espera = 1000;
+                } catch (Exception e) {
+                    if (!canalActivo) break;
+                    Log.w(TAG, "Canal de comandos caído, reintentando en " + espera + " ms: " + e.getMessage());
+                    try {
+                        Thread.sleep(espera);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                    espera = Math.min(30000, espera * 2);
+                }
+            }
+        }, "canal-comandos");
+        hiloCanal.start();
+    }
+
+    private void enviarPosicionAhora() {
+        try {
+            fusedLocationClient.getCurrentLocation(Priority.PRIORITY_HIGH_ACCURACY, null)
+                    .addOnSuccessListener(location -> {
+                        if (location != null) enviarUbicacionAlBackend(location);
+                    });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Error: Sin permisos de ubicación", e);
+        }
+    }
+
+    private String peticion(String metodo, String ruta, String cuerpo) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL(API_URL + ruta).openConnection();
+        conexionPoll = conn;
+        try {
+            conn.setRequestMethod(metodo);
+            ponerEmpresa(conn);
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(ESPERA_POLL_MS + 10000);
+            if (cuerpo != null) {
+                conn.setRequestProperty("Content-Type", "application/json");
+                conn.setDoOutput(true);
+                try (OutputStream os = conn.getOutputStream()) {
+                    os.write(cuerpo.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            if (conn.getResponseCode() != 200) {
+                throw new IllegalStateException("HTTP " + conn.getResponseCode());
+            }
+            try (BufferedReader lector = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                StringBuilder sb = new StringBuilder();
+                String linea;
+                while ((linea = lector.readLine()) != null) {
+                    sb.append(linea);
+                }
+                return sb.toString();
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // Sin la cabecera el servidor no sabe en qué base están los datos de la empresa
+    private void ponerEmpresa(HttpURLConnection conn) {
+        String empresaId = getSharedPreferences(PREFS, MODE_PRIVATE).getString(PREF_EMPRESA_ID, null);
+        if (empresaId != null) {
+            conn.setRequestProperty("X-User-Id", empresaId);
+        }
+    }
+
     private void crearCanalNotificacion() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel serviceChannel = new NotificationChannel(
@@ -153,6 +262,9 @@ public class TrackingService extends Service {
     @Override
     public void onDestroy() {
         fusedLocationClient.removeLocationUpdates(locationCallback);
+        canalActivo = false;
+        if (conexionPoll != null) conexionPoll.disconnect();
+        if (hiloCanal != null) hiloCanal.interrupt();
         super.onDestroy();
     }
 
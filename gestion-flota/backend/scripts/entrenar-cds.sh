@@ -0,0 +1,31 @@
+#!/usr/bin/env bash
+# Genera el archivo AppCDS del arranque de producción.
+#
+# Requiere haber empaquetado con el perfil produccion (mvn -Pproduccion package), que deja
+# en target/app el jar de la aplicación con sus dependencias en lib/. La JVM arranca el
+# contexto con AOT, sale nada más refrescarlo y vuelca las clases cargadas en ecofleet.jsa.
+# Hay que repetirlo cada vez que cambian el jar o las dependencias.
+#
+# Arranque en producción con el archivo:
+#   java -XX:SharedArchiveFile=target/app/ecofleet.jsa -Dspring.aot.enabled=true \
+#        -Dspring.profiles.active=produccion -jar target/app/backend-0.0.1-SNAPSHOT-app.jar
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+JAR=$(ls target/app/*-app.jar 2>/dev/null | head -n 1 || true)
+if [ -z "$JAR" ]; then
+    echo "No hay jar en target/app: ejecuta antes 'mvn -Pproduccion package'" >&2
+    exit 1
+fi
+
+# El contexto se refresca sin atender peticiones, pero los repositorios necesitan una URI válida
+export MONGO_URI="${MONGO_URI:-mongodb://localhost:27017/ecofleet}"
+
+java -XX:ArchiveClassesAtExit=target/app/ecofleet.jsa \
+     -Dspring.aot.enabled=true \
+     -Dspring.context.exit=onRefresh \
+     -Dspring.profiles.active=produccion \
+     -jar "$JAR"
+
+echo "Archivo CDS generado en target/app/ecofleet.jsa"
@@ -0,0 +1,51 @@
+#!/usr/bin/env bash
+# Benchmark de arranque: tiempo hasta readiness y hasta la primera petición real.
+#
+# Arranca la aplicación N veces con los argumentos de JVM que se le pasen, espera a que
+# /actuator/health/readiness responda UP, mide la primera GET /api/vehiculos desde fuera y
+# muestra lo que la propia instancia registró en /api/arranque. Comparar, por ejemplo:
+#   scripts/medir-arranque.sh 5
+#   scripts/medir-arranque.sh 5 -XX:SharedArchiveFile=target/app/ecofleet.jsa -Dspring.aot.enabled=true
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+REPETICIONES="${1:-3}"
+shift || true
+PUERTO="${PUERTO:-8080}"
+USUARIO="${USUARIO:-benchmark}"
+JAR=$(ls target/app/*-app.jar 2>/dev/null | head -n 1 || true)
+if [ -z "$JAR" ]; then
+    echo "No hay jar en target/app: ejecuta antes 'mvn -Pproduccion package'" >&2
+    exit 1
+fi
+export MONGO_URI="${MONGO_URI:-mongodb://localhost:27017/ecofleet}"
+
+ms() { date +%s%3N; }
+
+for i in $(seq 1 "$REPETICIONES"); do
+    inicio=$(ms)
+    java "$@" -Dspring.profiles.active=produccion -Dserver.port="$PUERTO" -jar "$JAR" > "target/arranque-$i.log" 2>&1 &
+    pid=$!
+    trap 'kill $pid 2>/dev/null || true' EXIT
+
+    until curl -fs "http://localhost:$PUERTO/actuator/health/readiness" > /dev/null; do
+        if ! kill -0 "$pid" 2>/dev/null; then
+            echo "La aplicación terminó antes de estar lista (ver target/arranque-$i.log)" >&2
+            exit 1
+        fi
+        sleep 0.05
+    done
+    listo=$(ms)
+
+    curl -fs -o /dev/null -H "X-User-Id: $USUARIO" "http://localhost:$PUERTO/api/vehiculos"
+    primera=$(ms)
+
+    echo "Ejecución $i: listo en $((listo - inicio)) ms, primera petición respondida en $((primera - inicio)) ms ($((primera - listo)) ms de petición)"
+    curl -fs "http://localhost:$PUERTO/api/arranque"
+    echo
+
+    kill "$pid"
+    wait "$pid" 2>/dev/null || true
+    trap - EXIT
+done
@@ -0,0 +1,42 @@
+package com.ecofleet.config;
+
+import com.ecofleet.service.ArranqueService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Mide la primera petición real tras el arranque (sin contar el calentamiento ni las
+ * sondas de actuator). Después de la primera solo cuesta leer un booleano.
+ */
+@Component
+public class ArranqueFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private ArranqueService arranque;
+
+    private volatile boolean medida;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (medida || request.getHeader(ArranqueService.CABECERA_CALENTAMIENTO) != null
+                || request.getRequestURI().startsWith("/actuator")) {
+            chain.doFilter(request, response);
+            return;
+        }
+        long inicio = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            medida = true;
+            arranque.peticionAtendida(request.getMethod() + " " + request.getRequestURI(), System.nanoTime() - inicio);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.ecofleet.config;
+
+import com.ecofleet.service.Bulkhead;
+import com.ecofleet.service.BulkheadService;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Filtro que hace pasar cada petición /api por su compartimento (bulkhead).
+ * Si no hay sitio se responde 503 con Retry-After en lugar de encolarla sin límite.
+ * Las peticiones asíncronas (CompletableFuture) liberan su permiso al completarse.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class BulkheadFilter extends OncePerRequestFilter {
+
+    @Autowired
+    private BulkheadService bulkheadService;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/api/") || "OPTIONS".equals(request.getMethod())
+                || bulkheadService.exenta(request.getRequestURI());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Bulkhead bulkhead = bulkheadService.clasificar(request.getMethod(), request.getRequestURI());
+        String tenant = tenantDe(request);
+
+        boolean admitida;
+        try {
+            admitida = bulkhead.entrar(tenant);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitida = false;
+        }
+        if (!admitida) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "1");
+            // La respuesta no llega a los controladores: sin esta cabecera el navegador oculta el 503 tras un error CORS
+            response.setHeader("Access-Control-Allow-Origin", "*");
+            response.setContentType("application/json");
+            response.getWriter().write("{\"error\":\"Servidor ocupado (" + bulkhead.getNombre() + "), reintenta en unos segundos\"}");
+            return;
+        }
+
+        AtomicBoolean liberado = new AtomicBoolean();
+        Runnable liberar = () -> {
+            if (liberado.compareAndSet(false, true)) {
+                bulkhead.salir(tenant);
+            }
+        };
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new LiberarAlTerminar(liberar));
+            } else {
+                liberar.run();
+            }
+        }
+    }
+
+    // Sin cabecera de empresa se agrupa por IP para que un cliente anónimo tampoco acapare
+    private static String tenantDe(HttpServletRequest request) {
+        String usuarioId = request.getHeader("X-User-Id");
+        return usuarioId != null ? usuarioId : "ip:" + request.getRemoteAddr();
+    }
+
+    private static class LiberarAlTerminar implements AsyncListener {
+        private final Runnable liberar;
+
+        LiberarAlTerminar(Runnable liberar) {
+            this.liberar = liberar;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            liberar.run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            liberar.run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            liberar.run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
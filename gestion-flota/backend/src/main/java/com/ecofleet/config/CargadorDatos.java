@@ -2,37 +2,71 @@ package com.ecofleet.config;
 
 import com.ecofleet.model.Vehiculo;
 import com.ecofleet.repository.VehiculoRepository;
-import org.springframework.boot.CommandLineRunner;
-import org.springframework.context.annotation.Bean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Configuration;
-    
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Vehículos de demostración para una base vacía en desarrollo.
+ *
+ * Fuera del camino de arranque: se insertan en segundo plano una vez la aplicación está
+ * lista, y en producción no se ejecuta (ecofleet.datos-demo.habilitado=false). Para datos
+ * de prueba a escala está /api/generador.
+ */
 @Configuration
 public class CargadorDatos {
 
-    @Bean
-    public CommandLineRunner iniciarDatos(VehiculoRepository vehiculoRepository) {
-        return args -> {
-            if (vehiculoRepository.count() == 0) {
-                Vehiculo v1 = new Vehiculo();
-                v1.setMarca("Toyota");
-                v1.setModelo("Corolla Hybrid");
-                v1.setMatricula("1234-KBC");
-                v1.setKilometraje(15000.0);
-                v1.setCombustibleActual(45.0);
-                v1.setActivo(true);
-                
-                Vehiculo v2 = new Vehiculo();
-                v2.setMarca("Ford");
-                v2.setModelo("Transit");
-                v2.setMatricula("5678-LMN");
-                v2.setKilometraje(54000.0);
-                v2.setCombustibleActual(60.0);
-                v2.setActivo(true);
-
-                vehiculoRepository.save(v1);
-                vehiculoRepository.save(v2);
-                System.out.println("Vehiculos de prueba insertados en MongoDB.");
+    private static final Logger log = LoggerFactory.getLogger(CargadorDatos.class);
+
+    @Value("${ecofleet.datos-demo.habilitado:true}")
+    private boolean habilitado;
+
+    @Autowired
+    private VehiculoRepository vehiculoRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciarDatos() {
+        if (!habilitado) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                // estimatedCount lee los metadatos de la colección en vez de contar documentos
+                if (mongoTemplate.estimatedCount(Vehiculo.class) == 0) {
+                    Vehiculo v1 = new Vehiculo();
+                    v1.setMarca("Toyota");
+                    v1.setModelo("Corolla Hybrid");
+                    v1.setMatricula("1234-KBC");
+                    v1.setKilometraje(15000.0);
+                    v1.setCombustibleActual(45.0);
+                    v1.setActivo(true);
+
+                    Vehiculo v2 = new Vehiculo();
+                    v2.setMarca("Ford");
+                    v2.setModelo("Transit");
+                    v2.setMatricula("5678-LMN");
+                    v2.setKilometraje(54000.0);
+                    v2.setCombustibleActual(60.0);
+                    v2.setActivo(true);
+
+                    vehiculoRepository.save(v1);
+                    vehiculoRepository.save(v2);
+                    log.info("Vehiculos de prueba insertados en MongoDB.");
+                }
+            } catch (DataAccessException e) {
+                log.warn("No se pudieron insertar los vehículos de prueba: {}", e.getMessage());
             }
-        };
+        });
     }
 }
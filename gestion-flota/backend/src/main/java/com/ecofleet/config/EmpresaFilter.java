@@ -0,0 +1,42 @@
+package com.ecofleet.config;
+
+import com.ecofleet.util.ContextoEmpresa;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Fija la empresa de la petición (ContextoEmpresa) a partir de la cabecera X-User-Id. Los
+ * EventSource del navegador no pueden enviar cabeceras, así que en ese caso vale también
+ * el parámetro usuarioId. Sin ninguno de los dos, la petición no puede tocar datos de
+ * empresa: MongoTemplateEmpresas la rechaza con 400. El contexto se quita al terminar la
+ * petición para que no quede en el hilo de Tomcat.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class EmpresaFilter extends OncePerRequestFilter {
+
+    public static final String CABECERA = "X-User-Id";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String empresa = request.getHeader(CABECERA);
+        if (empresa == null || empresa.isBlank()) {
+            empresa = request.getParameter("usuarioId");
+        }
+        ContextoEmpresa.iniciarPeticion(empresa);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ContextoEmpresa.limpiar();
+        }
+    }
+}
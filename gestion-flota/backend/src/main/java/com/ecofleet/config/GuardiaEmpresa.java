@@ -0,0 +1,40 @@
+package com.ecofleet.config;
+
+import com.ecofleet.util.ContextoEmpresa;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.mapping.event.AfterConvertCallback;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Última barrera del aislamiento entre empresas: cualquier documento leído con empresa en
+ * el contexto que sea de otra empresa hace fallar la lectura.
+ *
+ * Cubre las consultas derivadas de los repositorios (findByVehiculoId, findByRutaId...),
+ * que MongoTemplateEmpresas no puede filtrar. Los documentos sin usuarioId (datos de
+ * demostración, anteriores a la empresa) se dejan pasar.
+ */
+@Component
+public class GuardiaEmpresa implements AfterConvertCallback<Object> {
+
+    private final AtomicLong rechazados = new AtomicLong();
+
+    @Override
+    public Object onAfterConvert(Object entity, Document document, String collection) {
+        String empresa = ContextoEmpresa.actual();
+        if (empresa == null || !MongoTemplateEmpresas.COLECCIONES_CON_EMPRESA.contains(collection)) {
+            return entity;
+        }
+        Object propietario = document.get(MongoTemplateEmpresas.CAMPO);
+        if (propietario != null && !empresa.equals(propietario)) {
+            rechazados.incrementAndGet();
+            throw new MongoTemplateEmpresas.EmpresaAjenaException("Documento de otra empresa en " + collection);
+        }
+        return entity;
+    }
+
+    public long getRechazados() {
+        return rechazados.get();
+    }
+}
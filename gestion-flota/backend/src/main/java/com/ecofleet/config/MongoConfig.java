@@ -0,0 +1,152 @@
+package com.ecofleet.config;
+
+import com.ecofleet.service.EnrutadorEmpresas;
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.Fechas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversiones e índices de Mongo.
+ *
+ * Las fechas de rutas se guardan como Date nativo; mientras la migración convierte los
+ * documentos antiguos, los convertidores de lectura siguen aceptando el texto ISO que
+ * tenían. Los índices declarados en los modelos (@CompoundIndex, @Indexed) se crean al
+ * arrancar en cada base con datos de empresa, ya que la creación automática de Spring
+ * Data está desactivada por defecto. Los índices que dejaron de declararse porque ahora
+ * empiezan por usuarioId se borran.
+ */
+@Configuration
+public class MongoConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(MongoConfig.class);
+
+    // Índices sustituidos por su versión con usuarioId delante
+    private static final Map<String, List<String>> INDICES_RETIRADOS = Map.of(
+            "rutas", List.of("vehiculo_fecha"),
+            "repostajes", List.of("vehiculo_fecha"),
+            "alertas", List.of("ruta_creada"),
+            "mensajes", List.of("ruta_timestamp"),
+            "viajes", List.of("conductor_fin"));
+
+    @Value("${ecofleet.mongo.crear-indices:true}")
+    private boolean crearIndices;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private MongoMappingContext mappingContext;
+
+    // Estático: el MongoTemplate que usa esta clase depende a su vez de estas conversiones
+    @Bean
+    public static MongoCustomConversions mongoCustomConversions() {
+        return new MongoCustomConversions(List.of(new TextoALocalDate(), new TextoAInstant()));
+    }
+
+    // Sustituye al MongoTemplate de Spring Boot, que solo se crea si no hay otro
+    @Bean
+    public static MongoTemplateEmpresas mongoTemplate(MongoDatabaseFactory factory, MongoConverter converter,
+                                                      EnrutadorEmpresas enrutador) {
+        return new MongoTemplateEmpresas(factory, converter, enrutador);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void asegurarIndices() {
+        if (!crearIndices) {
+            return;
+        }
+        for (String base : mongoTemplate.bases()) {
+            ContextoEmpresa.enBase(base, () -> asegurarIndices(base));
+        }
+    }
+
+    private void asegurarIndices(String base) {
+        boolean compartida = base.equals(mongoTemplate.getBaseCompartida());
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        int creados = 0;
+        for (MongoPersistentEntity<?> entidad : mappingContext.getPersistentEntities()) {
+            if (!entidad.isAnnotationPresent(Document.class)) {
+                continue;
+            }
+            // Las bases dedicadas solo tienen las colecciones de empresa
+            if (!compartida && !MongoTemplateEmpresas.COLECCIONES_EMPRESA.contains(entidad.getCollection())) {
+                continue;
+            }
+            IndexOperations indices = mongoTemplate.indexOps(entidad.getType());
+            for (String retirado : INDICES_RETIRADOS.getOrDefault(entidad.getCollection(), List.of())) {
+                retirar(indices, retirado, entidad.getCollection());
+            }
+            for (var indice : resolver.resolveIndexFor(entidad.getTypeInformation())) {
+                try {
+                    indices.ensureIndex(indice);
+                    creados++;
+                } catch (DataAccessException e) {
+                    // Un índice existente con otras opciones no impide arrancar
+                    log.warn("No se pudo crear el índice {} en {}: {}",
+                            indice.getIndexKeys(), entidad.getCollection(), e.getMessage());
+                }
+            }
+        }
+        log.info("Índices de Mongo asegurados en {}: {}", base, creados);
+    }
+
+    private void retirar(IndexOperations indices, String nombre, String coleccion) {
+        try {
+            if (indices.getIndexInfo().stream().anyMatch(i -> i.getName().equals(nombre))) {
+                indices.dropIndex(nombre);
+                log.info("Índice {} de {} retirado", nombre, coleccion);
+            }
+        } catch (DataAccessException e) {
+            log.warn("No se pudo retirar el índice {} de {}: {}", nombre, coleccion, e.getMessage());
+        }
+    }
+
+    @ReadingConverter
+    static class TextoALocalDate implements Converter<String, LocalDate> {
+        @Override
+        public LocalDate convert(String valor) {
+            try {
+                return valor.isBlank() ? null : Fechas.dia(valor);
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+
+    @ReadingConverter
+    static class TextoAInstant implements Converter<String, Instant> {
+        @Override
+        public Instant convert(String valor) {
+            try {
+                return valor.isBlank() ? null : Fechas.instante(valor);
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package com.ecofleet.config;
+
+import com.ecofleet.service.EnrutadorEmpresas;
+import com.ecofleet.util.ContextoEmpresa;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.CollectionPreparer;
+import org.springframework.data.mongodb.core.CursorPreparer;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * MongoTemplate que aísla los datos de cada empresa.
+ *
+ * Enrutado: las colecciones con datos de empresa se abren en la base que el
+ * EnrutadorEmpresas asigna a la empresa del hilo (ContextoEmpresa), o en la compartida.
+ * Pasa por aquí todo acceso a una colección (repositorios, consultas, agregaciones,
+ * bulkOps, índices y getCollection), así que ningún servicio necesita saber dónde están
+ * los datos. Usuarios, conductores y las colecciones del sistema son globales y siempre
+ * van a la compartida.
+ *
+ * Filtrado: con empresa en el contexto, find, findOne, count, exists, update, remove,
+ * findAndModify y stream añaden usuarioId = empresa a la consulta si no lo lleva, y
+ * rechazan las que piden otra empresa. Las consultas derivadas de los repositorios no
+ * pasan por un método que se pueda sobrescribir; para ellas GuardiaEmpresa rechaza al
+ * leer cualquier documento de otra empresa. Las agregaciones y el acceso directo a la
+ * colección no se filtran: los servicios ponen el usuarioId en el $match.
+ *
+ * Sin empresa en el contexto (procesos en segundo plano) no se filtra, pero las escrituras
+ * y las consultas que fijan un usuarioId concreto se enrutan a la base de esa empresa. Una
+ * petición sin empresa ni base declarada no llega a abrir ninguna colección de empresa:
+ * responde 400 (SinEmpresaException).
+ *
+ * Congelación: mientras una empresa se copia a su base propia (ParticionEmpresasService)
+ * no se escribe nada suyo en la compartida. Sus escrituras responden 503 hasta que la
+ * instancia arranca con la empresa ya enrutada, y las de los procesos sin empresa excluyen
+ * sus documentos.
+ */
+public class MongoTemplateEmpresas extends MongoTemplate {
+
+    public static final String CAMPO = "usuarioId";
+
+    // Colecciones que se enrutan a la base de la empresa
+    public static final Set<String> COLECCIONES_EMPRESA = Set.of(
+            "vehiculos", "rutas", "rutas_archivadas", "repostajes", "mantenimientos",
+            "mantenimientos_preventivos", "mantenimientos_correctivos", "alertas", "mensajes",
+            "eventos_ruta", "snapshots_ruta", "comandos_conductor", "viajes",
+            "puntuaciones_conductor", "costes_mensuales", "mapa_calor");
+
+    // De ellas, las que llevan usuarioId en cada documento (los snapshots van por rutaId)
+    public static final Set<String> COLECCIONES_CON_EMPRESA = COLECCIONES_EMPRESA.stream()
+            .filter(c -> !c.equals("snapshots_ruta"))
+            .collect(Collectors.toUnmodifiableSet());
+
+    private final EnrutadorEmpresas enrutador;
+    private final String baseCompartida;
+
+    private final AtomicLong filtradas = new AtomicLong();
+    private final AtomicLong enrutadasPorDocumento = new AtomicLong();
+    private final AtomicLong rechazadas = new AtomicLong();
+    private final AtomicLong congeladasRechazadas = new AtomicLong();
+
+    // Empresas en traslado a su base propia; las publica ParticionEmpresasService
+    private volatile Set<String> congeladas = Set.of();
+
+    public MongoTemplateEmpresas(MongoDatabaseFactory factory, MongoConverter converter, EnrutadorEmpresas enrutador) {
+        super(factory, converter);
+        this.enrutador = enrutador;
+        this.baseCompartida = factory.getMongoDatabase().getName();
+    }
+
+    public String getBaseCompartida() {
+        return baseCompartida;
+    }
+
+    // Todas las bases con datos de empresa, la compartida primero
+    public List<String> bases() {
+        Set<String> bases = new LinkedHashSet<>();
+        bases.add(baseCompartida);
+        bases.addAll(enrutador.basesDedicadas());
+        return new ArrayList<>(bases);
+    }
+
+    // Para las cargas de arranque que necesitan los datos de todas las empresas
+    public <T> List<T> buscarEnTodasLasBases(Query query, Class<T> clase) {
+        List<T> resultado = new ArrayList<>();
+        for (String base : bases()) {
+            ContextoEmpresa.enBase(base, () -> resultado.addAll(find(query, clase)));
+        }
+        return resultado;
+    }
+
+    // Base en la que está ahora la empresa
+    public String baseDe(String empresa) {
+        String dedicada = enrutador.baseDe(empresa);
+        return dedicada != null ? dedicada : baseCompartida;
+    }
+
+    public void setCongeladas(Set<String> congeladas) {
+        this.congeladas = Set.copyOf(congeladas);
+    }
+
+    public Set<String> getCongeladas() {
+        return congeladas;
+    }
+
+    // Si las escrituras de la empresa irían ahora a la compartida estando congelada
+    public boolean escrituraCongelada(String empresa) {
+        return congeladas.contains(empresa) && baseDe(empresa).equals(baseCompartida);
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("baseCompartida", baseCompartida);
+        stats.put("empresasDedicadas", enrutador.empresasDedicadas());
+        stats.put("consultasFiltradas", filtradas.get());
+        stats.put("operacionesEnrutadasPorDocumento", enrutadasPorDocumento.get());
+        stats.put("accesosRechazados", rechazadas.get());
+        stats.put("empresasCongeladas", congeladas);
+        stats.put("escriturasCongeladasRechazadas", congeladasRechazadas.get());
+        return stats;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Enrutado
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    @Override
+    protected MongoCollection<Document> prepareCollection(MongoCollection<Document> collection) {
+        return super.prepareCollection(enrutar(collection));
+    }
+
+    // getCollection no pasa por prepareCollection
+    @Override
+    public MongoCollection<Document> getCollection(String collectionName) {
+        return enrutar(super.getCollection(collectionName));
+    }
+
+    private MongoCollection<Document> enrutar(MongoCollection<Document> coleccion) {
+        MongoNamespace ns = coleccion.getNamespace();
+        if (!COLECCIONES_EMPRESA.contains(ns.getCollectionName())) {
+            return coleccion;
+        }
+        comprobarAmbito(ns.getCollectionName());
+        String base = ContextoEmpresa.base();
+        if (base == null) {
+            base = baseDe(ContextoEmpresa.actual());
+        }
+        if (base.equals(ns.getDatabaseName())) {
+            return coleccion;
+        }
+        return getMongoDatabaseFactory().getMongoDatabase(base).getCollection(ns.getCollectionName())
+                .withCodecRegistry(coleccion.getCodecRegistry())
+                .withReadPreference(coleccion.getReadPreference())
+                .withReadConcern(coleccion.getReadConcern())
+                .withWriteConcern(coleccion.getWriteConcern());
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Escrituras: la empresa del documento
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    @Override
+    protected Object insertDocument(String collectionName, Document document, Class<?> entityClass) {
+        return comoPropietario(collectionName, document, () -> {
+            comprobarEscritura(collectionName);
+            return super.insertDocument(collectionName, document, entityClass);
+        });
+    }
+
+    @Override
+    protected Object saveDocument(String collectionName, Document document, Class<?> entityClass) {
+        return comoPropietario(collectionName, document, () -> {
+            comprobarEscritura(collectionName);
+            return super.saveDocument(collectionName, document, entityClass);
+        });
+    }
+
+    @Override
+    protected List<Object> insertDocumentList(String collectionName, List<Document> documents) {
+        if (!COLECCIONES_CON_EMPRESA.contains(collectionName) || ContextoEmpresa.actual() != null
+                || ContextoEmpresa.base() != null) {
+            documents.forEach(d -> comprobarPropietario(collectionName, d));
+            comprobarEscritura(collectionName);
+            return super.insertDocumentList(collectionName, documents);
+        }
+        // Sin contexto, un lote puede mezclar empresas: cada grupo va a su base y los ids
+        // vuelven en el orden de entrada, que es como los asigna MongoTemplate
+        Map<String, List<Integer>> posiciones = new LinkedHashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            Object propietario = documents.get(i).get(CAMPO);
+            posiciones.computeIfAbsent(propietario instanceof String s ? s : null, k -> new ArrayList<>()).add(i);
+        }
+        if (posiciones.size() == 1) {
+            String empresa = posiciones.keySet().iterator().next();
+            return ContextoEmpresa.ejecutarComo(empresa, () -> {
+                comprobarEscritura(collectionName);
+                return super.insertDocumentList(collectionName, documents);
+            });
+        }
+        // Se comprueban todas antes de escribir nada, para no dejar el lote a medias
+        posiciones.keySet().forEach(empresa -> ContextoEmpresa.ejecutarComo(empresa, () -> comprobarEscritura(collectionName)));
+        Object[] ids = new Object[documents.size()];
+        posiciones.forEach((empresa, indices) -> {
+            List<Document> grupo = indices.stream().map(documents::get).toList();
+            List<Object> insertados = ContextoEmpresa.ejecutarComo(empresa, () -> super.insertDocumentList(collectionName, grupo));
+            for (int i = 0; i < indices.size() && i < insertados.size(); i++) {
+                ids[indices.get(i)] = insertados.get(i);
+            }
+        });
+        enrutadasPorDocumento.incrementAndGet();
+        return new ArrayList<>(Arrays.asList(ids));
+    }
+
+    private <T> T comoPropietario(String coleccion, Document documento, Supplier<T> escritura) {
+        if (!COLECCIONES_CON_EMPRESA.contains(coleccion)) {
+            return escritura.get();
+        }
+        if (ContextoEmpresa.actual() != null || ContextoEmpresa.base() != null) {
+            comprobarPropietario(coleccion, documento);
+            return escritura.get();
+        }
+        if (documento.get(CAMPO) instanceof String empresa) {
+            enrutadasPorDocumento.incrementAndGet();
+            return ContextoEmpresa.ejecutarComo(empresa, escritura);
+        }
+        return escritura.get();
+    }
+
+    // Con empresa en el contexto, el documento es suyo: se marca si no lo está y se rechaza si es de otra
+    private void comprobarPropietario(String coleccion, Document documento) {
+        String empresa = ContextoEmpresa.actual();
+        if (empresa == null || !COLECCIONES_CON_EMPRESA.contains(coleccion)) {
+            return;
+        }
+        Object propietario = documento.get(CAMPO);
+        if (propietario == null) {
+            documento.put(CAMPO, empresa);
+        } else if (!empresa.equals(propietario)) {
+            throw ajena(coleccion);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Consultas: filtro por empresa
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    @Override
+    protected <T> List<T> doFind(String collectionName, CollectionPreparer<MongoCollection<Document>> collectionPreparer,
+                                 Document query, Document fields, Class<T> entityClass) {
+        return conEmpresa(collectionName, query, q -> super.doFind(collectionName, collectionPreparer, q, fields, entityClass));
+    }
+
+    @Override
+    protected <T> List<T> doFind(String collectionName, CollectionPreparer<MongoCollection<Document>> collectionPreparer,
+                                 Document query, Document fields, Class<T> entityClass, CursorPreparer preparer) {
+        return conEmpresa(collectionName, query,
+                q -> super.doFind(collectionName, collectionPreparer, q, fields, entityClass, preparer));
+    }
+
+    @Override
+    protected <T> T doFindOne(String collectionName, CollectionPreparer<MongoCollection<Document>> collectionPreparer,
+                              Document query, Document fields, Class<T> entityClass) {
+        return conEmpresa(collectionName, query, q -> super.doFindOne(collectionName, collectionPreparer, q, fields, entityClass));
+    }
+
+    @Override
+    protected <T> T doFindOne(String collectionName, CollectionPreparer<MongoCollection<Document>> collectionPreparer,
+                              Document query, Document fields, CursorPreparer preparer, Class<T> entityClass) {
+        return conEmpresa(collectionName, query,
+                q -> super.doFindOne(collectionName, collectionPreparer, q, fields, preparer, entityClass));
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    protected long doCount(CollectionPreparer collectionPreparer, String collectionName, Document filter, CountOptions options) {
+        return conEmpresa(collectionName, filter, q -> super.doCount(collectionPreparer, collectionName, q, options));
+    }
+
+    @Override
+    protected long doExactCount(CollectionPreparer<MongoCollection<Document>> collectionPreparer, String collectionName,
+                                Document filter, CountOptions options) {
+        return conEmpresa(collectionName, filter, q -> super.doExactCount(collectionPreparer, collectionName, q, options));
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    protected <T> T doFindAndModify(CollectionPreparer collectionPreparer, String collectionName, Document query,
+                                    Document fields, Document sort, Class<T> entityClass, UpdateDefinition update,
+                                    FindAndModifyOptions options) {
+        return conEmpresa(collectionName, query,
+                q -> super.doFindAndModify(collectionPreparer, collectionName, escribible(collectionName, q), fields, sort,
+                        entityClass, update, options));
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    protected <T> T doFindAndRemove(CollectionPreparer collectionPreparer, String collectionName, Document query,
+                                    Document fields, Document sort, Collation collation, Class<T> entityClass) {
+        return conEmpresa(collectionName, query,
+                q -> super.doFindAndRemove(collectionPreparer, collectionName, escribible(collectionName, q), fields, sort,
+                        collation, entityClass));
+    }
+
+    @Override
+    protected UpdateResult doUpdate(String collectionName, Query query, UpdateDefinition update, Class<?> entityClass,
+                                    boolean upsert, boolean multi) {
+        return conEmpresa(collectionName, query,
+                q -> super.doUpdate(collectionName, escribible(collectionName, q), update, entityClass, upsert, multi));
+    }
+
+    @Override
+    protected <T> DeleteResult doRemove(String collectionName, Query query, Class<T> entityClass, boolean multi) {
+        return conEmpresa(collectionName, query, q -> super.doRemove(collectionName, escribible(collectionName, q), entityClass, multi));
+    }
+
+    // bulkOps escribe directamente en la colección: la empresa del contexto decide al crearlo
+    @Override
+    public BulkOperations bulkOps(BulkMode mode, Class<?> entityType, String collectionName) {
+        comprobarEscritura(collectionName);
+        return super.bulkOps(mode, entityType, collectionName);
+    }
+
+    @Override
+    public boolean exists(Query query, Class<?> entityClass, String collectionName) {
+        return conEmpresa(collectionName, query, q -> super.exists(q, entityClass, collectionName));
+    }
+
+    @Override
+    protected <T> Stream<T> doStream(Query query, Class<?> entityType, String collectionName, Class<T> returnType) {
+        return conEmpresa(collectionName, query, q -> super.doStream(q, entityType, collectionName, returnType));
+    }
+
+    private <T> T conEmpresa(String coleccion, Document consulta, Function<Document, T> operacion) {
+        if (!COLECCIONES_CON_EMPRESA.contains(coleccion)) {
+            return operacion.apply(consulta);
+        }
+        String empresa = ContextoEmpresa.actual();
+        if (empresa != null) {
+            return operacion.apply(restringir(coleccion, consulta, empresa));
+        }
+        return comoEmpresaDe(consulta, () -> operacion.apply(consulta));
+    }
+
+    private <T> T conEmpresa(String coleccion, Query query, Function<Query, T> operacion) {
+        if (!COLECCIONES_CON_EMPRESA.contains(coleccion)) {
+            return operacion.apply(query);
+        }
+        String empresa = ContextoEmpresa.actual();
+        if (empresa != null) {
+            return operacion.apply(restringir(coleccion, query, empresa));
+        }
+        return comoEmpresaDe(query.getQueryObject(), () -> operacion.apply(query));
+    }
+
+    // Sin contexto, una consulta que fija la empresa va a la base de esa empresa
+    private <T> T comoEmpresaDe(Document consulta, Supplier<T> operacion) {
+        if (ContextoEmpresa.base() == null && consulta.get(CAMPO) instanceof String empresa) {
+            enrutadasPorDocumento.incrementAndGet();
+            return ContextoEmpresa.ejecutarComo(empresa, operacion);
+        }
+        return operacion.get();
+    }
+
+    private Document restringir(String coleccion, Document consulta, String empresa) {
+        Object fijada = consulta.get(CAMPO);
+        if (empresa.equals(fijada)) {
+            return consulta;
+        }
+        if (fijada instanceof String) {
+            throw ajena(coleccion);
+        }
+        filtradas.incrementAndGet();
+        if (fijada == null) {
+            Document restringida = new Document(CAMPO, empresa);
+            restringida.putAll(consulta);
+            return restringida;
+        }
+        return new Document("$and", List.of(consulta, new Document(CAMPO, empresa)));
+    }
+
+    private Query restringir(String coleccion, Query query, String empresa) {
+        Document consulta = query.getQueryObject();
+        Object fijada = consulta.get(CAMPO);
+        if (empresa.equals(fijada)) {
+            return query;
+        }
+        if (fijada instanceof String) {
+            throw ajena(coleccion);
+        }
+        filtradas.incrementAndGet();
+        if (fijada == null) {
+            return Query.of(query).addCriteria(Criteria.where(CAMPO).is(empresa));
+        }
+        // usuarioId con operadores ($in, $exists...): la empresa va en un $and aparte
+        return Query.of(query).addCriteria(new Criteria().andOperator(Criteria.where(CAMPO).is(empresa)));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Congelación durante el traslado
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private void comprobarEscritura(String coleccion) {
+        String empresa = ContextoEmpresa.actual();
+        if (empresa == null || !congeladas.contains(empresa) || !COLECCIONES_EMPRESA.contains(coleccion)) {
+            return;
+        }
+        String base = ContextoEmpresa.base() != null ? ContextoEmpresa.base() : baseDe(empresa);
+        if (base.equals(baseCompartida)) {
+            congeladasRechazadas.incrementAndGet();
+            throw new EmpresaCongeladaException("La empresa " + empresa + " se está trasladando a su base: "
+                    + "no se admiten cambios hasta que termine");
+        }
+    }
+
+    // Sin empresa en el contexto, las escrituras en la compartida no tocan las empresas congeladas
+    private boolean excluirCongeladas(String coleccion) {
+        if (ContextoEmpresa.actual() != null) {
+            comprobarEscritura(coleccion);
+            return false;
+        }
+        String base = ContextoEmpresa.base();
+        return !congeladas.isEmpty() && COLECCIONES_CON_EMPRESA.contains(coleccion)
+                && (base == null || base.equals(baseCompartida));
+    }
+
+    private Query escribible(String coleccion, Query query) {
+        if (!excluirCongeladas(coleccion)) {
+            return query;
+        }
+        return Query.of(query).addCriteria(new Criteria().andOperator(Criteria.where(CAMPO).nin(congeladas)));
+    }
+
+    private Document escribible(String coleccion, Document consulta) {
+        if (!excluirCongeladas(coleccion)) {
+            return consulta;
+        }
+        return new Document("$and", List.of(consulta, new Document(CAMPO, new Document("$nin", List.copyOf(congeladas)))));
+    }
+
+    // Para las lecturas que no llegan a Mongo, como las cachés de entidades
+    public static void comprobarAmbito(String coleccion) {
+        if (ContextoEmpresa.sinAmbito()) {
+            throw new SinEmpresaException("Falta la cabecera X-User-Id para acceder a " + coleccion);
+        }
+    }
+
+    private EmpresaAjenaException ajena(String coleccion) {
+        rechazadas.incrementAndGet();
+        return new EmpresaAjenaException("Acceso a datos de otra empresa en " + coleccion);
+    }
+
+    /**
+     * Acceso a un documento de otra empresa. Se responde como si no existiera, para no
+     * revelar ids ajenos.
+     */
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public static class EmpresaAjenaException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public EmpresaAjenaException(String mensaje) {
+            super(mensaje);
+        }
+    }
+
+    /** Escritura de una empresa cuyo traslado a su base propia está en curso. */
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public static class EmpresaCongeladaException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public EmpresaCongeladaException(String mensaje) {
+            super(mensaje);
+        }
+    }
+
+    /** Petición sin empresa que intenta acceder a datos de empresa. */
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public static class SinEmpresaException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public SinEmpresaException(String mensaje) {
+            super(mensaje);
+        }
+    }
+}
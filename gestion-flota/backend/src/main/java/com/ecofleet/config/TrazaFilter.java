@@ -0,0 +1,43 @@
+package com.ecofleet.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.MDC;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Identificador de traza por petición: se reutiliza la cabecera X-Trace-Id si el cliente
+ * la envía y si no se genera uno. Va en el MDC (sale en cada línea de log) y en la
+ * respuesta, para poder seguir una petición concreta entre frontend, backend y logs.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TrazaFilter extends OncePerRequestFilter {
+
+    public static final String CABECERA = "X-Trace-Id";
+    public static final String CLAVE_MDC = "traceId";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String traza = request.getHeader(CABECERA);
+        if (traza == null || traza.isBlank() || traza.length() > 64) {
+            traza = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        }
+        MDC.put(CLAVE_MDC, traza);
+        response.setHeader(CABECERA, traza);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            MDC.remove(CLAVE_MDC);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.model.Alerta;
+import com.ecofleet.repository.AlertaRepository;
+import com.ecofleet.service.AlertasService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Alertas de rutas en curso (sin GPS, exceso de velocidad, parada larga).
+ *
+ * ENDPOINTS:
+ * - GET  /api/alertas?pendientes=&limite= → Últimas alertas de la empresa (X-User-Id)
+ * - GET  /api/alertas/ruta/{rutaId}       → Alertas de una ruta (X-User-Id)
+ * - POST /api/alertas/{id}/reconocer      → Marca la alerta como vista
+ * - GET  /api/alertas/motor               → Rutas vigiladas, plazos programados y reglas
+ *
+ * Las alertas nuevas se empujan como evento "alerta" por GET /api/rutas/stream.
+ */
+@RestController
+@RequestMapping("/api/alertas")
+@CrossOrigin(origins = "*")
+public class AlertaController {
+
+    private static final int MAX_LIMITE = 500;
+
+    @Autowired
+    private AlertaRepository alertaRepository;
+
+    @Autowired
+    private AlertasService alertasService;
+
+    @GetMapping
+    public ResponseEntity<?> listar(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                    @RequestParam(defaultValue = "false") boolean pendientes,
+                                    @RequestParam(defaultValue = "100") int limite) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        PageRequest pagina = PageRequest.of(0, Math.max(1, Math.min(limite, MAX_LIMITE)));
+        List<Alerta> alertas = pendientes
+                ? alertaRepository.findByUsuarioIdAndReconocidaIsNullOrderByCreadaDesc(usuarioId, pagina)
+                : alertaRepository.findByUsuarioIdOrderByCreadaDesc(usuarioId, pagina);
+        return ResponseEntity.ok(alertas);
+    }
+
+    @GetMapping("/ruta/{rutaId}")
+    public ResponseEntity<?> porRuta(@PathVariable String rutaId,
+                                     @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        return ResponseEntity.ok(alertaRepository.findByUsuarioIdAndRutaIdOrderByCreadaDesc(usuarioId, rutaId));
+    }
+
+    @PostMapping("/{id}/reconocer")
+    public ResponseEntity<?> reconocer(@PathVariable String id) {
+        return alertaRepository.findById(id)
+                .<ResponseEntity<?>>map(alerta -> {
+                    if (alerta.getReconocida() == null) {
+                        alerta.setReconocida(Instant.now());
+                        alerta = alertaRepository.save(alerta);
+                    }
+                    return ResponseEntity.ok(alerta);
+                })
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/motor")
+    public Map<String, Object> motor() {
+        return alertasService.estadisticas();
+    }
+}
@@ -0,0 +1,32 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.ArchivadoService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Archivado de rutas completadas y su chat (almacenamiento frío).
+ *
+ * ENDPOINTS:
+ * - POST /api/archivo/ejecutar     → Lanza ahora el job de archivado (además del programado)
+ * - GET  /api/archivo/estadisticas → Tamaño de colecciones activas y archivo, ratio de compresión
+ */
+@RestController
+@RequestMapping("/api/archivo")
+@CrossOrigin(origins = "*")
+public class ArchivoController {
+
+    @Autowired
+    private ArchivadoService archivadoService;
+
+    @PostMapping("/ejecutar")
+    public ResponseEntity<?> ejecutar() {
+        return ResponseEntity.ok(archivadoService.ejecutar());
+    }
+
+    @GetMapping("/estadisticas")
+    public ResponseEntity<?> estadisticas() {
+        return ResponseEntity.ok(archivadoService.estadisticas());
+    }
+}
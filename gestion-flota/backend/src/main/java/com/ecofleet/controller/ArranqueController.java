@@ -0,0 +1,27 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.ArranqueService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Medidas del arranque de esta instancia.
+ *
+ * ENDPOINTS:
+ * - GET /api/arranque → AOT/CDS activos, tiempos JVM → contexto → listo → primera petición y pasos del calentamiento
+ */
+@RestController
+@RequestMapping("/api/arranque")
+@CrossOrigin(origins = "*")
+public class ArranqueController {
+
+    @Autowired
+    private ArranqueService arranque;
+
+    @GetMapping
+    public Map<String, Object> estadisticas() {
+        return arranque.estadisticas();
+    }
+}
@@ -4,9 +4,14 @@ import com.ecofleet.model.Usuario;
 import com.ecofleet.model.Conductor;
 import com.ecofleet.repository.UsuarioRepository;
 import com.ecofleet.repository.ConductorRepository;
+import com.ecofleet.service.DifusionCambiosService;
+import com.ecofleet.service.HashContrasenaService;
+import com.ecofleet.service.HashContrasenaService.RechazoHashException;
+import com.ecofleet.util.LogMuestreado;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +20,10 @@ import jakarta.validation.Valid;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * Controlador de autenticación.
@@ -24,6 +33,13 @@ import java.util.Optional;
  * - POST /api/auth/login             → Login de ADMINS (colección: usuarios)
  * - POST /api/auth/register/conductor → Registro de CONDUCTORES (colección: conductores)
  * - POST /api/auth/login/conductor   → Login de CONDUCTORES (colección: conductores)
+ * - GET  /api/auth/hash-stats        → Métricas del ejecutor de BCrypt
+ *
+ * El hash y la verificación de contraseñas se hacen en el ejecutor acotado de
+ * HashContrasenaService; los endpoints devuelven CompletableFuture para liberar el hilo
+ * de Tomcat mientras tanto. Las lecturas y escrituras en Mongo posteriores al hash siguen
+ * en el ejecutor de tareas de la aplicación, de modo que el de BCrypt solo calcula hashes.
+ * Si el ejecutor está saturado se responde 503, y si el email tiene demasiados intentos, 429.
  */
 @RestController
 @RequestMapping("/api/auth")
@@ -31,6 +47,8 @@ import java.util.Optional;
 public class AuthController {
     
     private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
+    // Los fallos de login pueden llegar en ráfagas (fuerza bruta, cambio de turno): se muestrean
+    private static final LogMuestreado logFallos = new LogMuestreado(logger, 1000);
 
     @Autowired
     private UsuarioRepository usuarioRepository;
@@ -38,7 +56,16 @@ public class AuthController {
     @Autowired
     private ConductorRepository conductorRepository;
 
-    private BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    @Autowired
+    private HashContrasenaService hashService;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    // Lo que sigue al hash (Mongo, difusión, respuesta) no debe ocupar los hilos de BCrypt
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private Executor peticiones;
 
     // ═══════════════════════════════════════════════════════════════════════════
     // ADMINISTRADORES (Colección: usuarios)
@@ -49,25 +76,26 @@ public class AuthController {
      * Guarda en colección: usuarios
      */
     @PostMapping("/register")
-    public ResponseEntity<?> registerAdmin(@Valid @RequestBody Usuario usuario) {
-        logger.info("═══ REGISTRO ADMIN ═══");
-        logger.info("Email: {}", usuario.getEmail());
-        
+    public CompletableFuture<ResponseEntity<?>> registerAdmin(@Valid @RequestBody Usuario usuario) {
+        logger.debug("Registro admin: {}", usuario.getEmail());
+
         if (usuarioRepository.existsByEmail(usuario.getEmail())) {
             logger.warn("Email ya registrado: {}", usuario.getEmail());
-            return ResponseEntity.badRequest().body(Map.of("error", "El email ya está registrado"));
+            return inmediata(ResponseEntity.badRequest().body(Map.of("error", "El email ya está registrado")));
         }
 
-        usuario.setPassword(passwordEncoder.encode(usuario.getPassword()));
-        usuario.setRole("ADMIN");
-        
-        Usuario saved = usuarioRepository.save(usuario);
-        logger.info("✓ Admin registrado | ID: {}", saved.getId());
+        return enEjecutorHash(() -> hashService.codificar(usuario.getEmail(), usuario.getPassword()).thenApplyAsync(hash -> {
+            usuario.setPassword(hash);
+            usuario.setRole("ADMIN");
+
+            Usuario saved = usuarioRepository.save(usuario);
+            logger.info("✓ Admin registrado | ID: {}", saved.getId());
 
-        return ResponseEntity.ok(Map.of(
-            "message", "Empresa registrada correctamente",
-            "id", saved.getId()
-        ));
+            return ResponseEntity.ok(Map.of(
+                "message", "Empresa registrada correctamente",
+                "id", saved.getId()
+            ));
+        }, peticiones));
     }
 
     /**
@@ -75,29 +103,31 @@ public class AuthController {
      * Busca en colección: usuarios
      */
     @PostMapping("/login")
-    public ResponseEntity<?> loginAdmin(@RequestBody Map<String, String> credentials) {
-        logger.info("═══ LOGIN ADMIN ═══");
-        
+    public CompletableFuture<ResponseEntity<?>> loginAdmin(@RequestBody Map<String, String> credentials) {
         String email = credentials.get("email");
         String password = credentials.get("password");
 
         if (email == null || password == null) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Email y contraseña son obligatorios"));
+            return inmediata(ResponseEntity.badRequest().body(Map.of("error", "Email y contraseña son obligatorios")));
         }
 
-        logger.info("Buscando admin: {}", email);
+        logger.debug("Buscando admin: {}", email);
         Optional<Usuario> usuarioOpt = usuarioRepository.findByEmail(email.trim());
 
         if (usuarioOpt.isEmpty()) {
-            logger.warn("Admin no encontrado: {}", email);
-            return ResponseEntity.status(401).body(Map.of("error", "Credenciales inválidas"));
+            logFallos.warn("Admin no encontrado: {}", email);
+            return inmediata(ResponseEntity.status(401).body(Map.of("error", "Credenciales inválidas")));
         }
 
         Usuario usuario = usuarioOpt.get();
 
-        if (passwordEncoder.matches(password, usuario.getPassword())) {
-            logger.info("✓ Login admin exitoso: {}", email);
-            
+        return enEjecutorHash(() -> hashService.verificar(email, password, usuario.getPassword()).thenApplyAsync(valida -> {
+            if (!valida) {
+                logFallos.warn("Contraseña incorrecta para admin: {}", email);
+                return ResponseEntity.status(401).body(Map.of("error", "Credenciales inválidas"));
+            }
+            logger.debug("Login admin exitoso: {}", email);
+
             Map<String, Object> response = new HashMap<>();
             response.put("id", usuario.getId());
             response.put("email", usuario.getEmail());
@@ -105,12 +135,9 @@ public class AuthController {
             response.put("nombreEmpresa", usuario.getNombreEmpresa());
             response.put("role", "ADMIN");
             response.put("empresaId", null);
-            
+
             return ResponseEntity.ok(response);
-        } else {
-            logger.warn("Contraseña incorrecta para admin: {}", email);
-            return ResponseEntity.status(401).body(Map.of("error", "Credenciales inválidas"));
-        }
+        }, peticiones));
     }
 
     // ═══════════════════════════════════════════════════════════════════════════
@@ -131,10 +158,8 @@ public class AuthController {
      * Guarda en colección: conductores
      */
     @PostMapping("/register/conductor")
-    public ResponseEntity<?> registerConductor(@RequestBody Map<String, String> payload) {
+    public CompletableFuture<ResponseEntity<?>> registerConductor(@RequestBody Map<String, String> payload) {
         try {
-            logger.info("═══ REGISTRO CONDUCTOR ═══");
-            
             String email = payload.get("email");
             String password = payload.get("password");
             String nombre = payload.get("nombre");
@@ -142,64 +167,64 @@ public class AuthController {
 
             // Validaciones
             if (email == null || email.trim().isEmpty()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "El email es obligatorio"));
+                return inmediata(ResponseEntity.badRequest().body(Map.of("error", "El email es obligatorio")));
             }
             if (password == null || password.length() < 6) {
-                return ResponseEntity.badRequest().body(Map.of("error", "La contraseña debe tener mínimo 6 caracteres"));
+                return inmediata(ResponseEntity.badRequest().body(Map.of("error", "La contraseña debe tener mínimo 6 caracteres")));
             }
             if (nombre == null || nombre.trim().isEmpty()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "El nombre es obligatorio"));
+                return inmediata(ResponseEntity.badRequest().body(Map.of("error", "El nombre es obligatorio")));
             }
             if (empresaEmail == null || empresaEmail.trim().isEmpty()) {
-                return ResponseEntity.badRequest().body(Map.of("error", "El email de la empresa es obligatorio"));
+                return inmediata(ResponseEntity.badRequest().body(Map.of("error", "El email de la empresa es obligatorio")));
             }
 
-            email = email.trim().toLowerCase();
+            String emailConductor = email.trim().toLowerCase();
             empresaEmail = empresaEmail.trim().toLowerCase();
 
             // Verificar que no exista
-            if (conductorRepository.existsByEmail(email)) {
-                logger.warn("Conductor ya existe: {}", email);
-                return ResponseEntity.badRequest().body(Map.of("error", "Este email ya está registrado como conductor"));
+            if (conductorRepository.existsByEmail(emailConductor)) {
+                logger.warn("Conductor ya existe: {}", emailConductor);
+                return inmediata(ResponseEntity.badRequest().body(Map.of("error", "Este email ya está registrado como conductor")));
             }
 
             // Buscar la empresa (admin)
-            logger.info("Buscando empresa: {}", empresaEmail);
+            logger.debug("Buscando empresa: {}", empresaEmail);
             Optional<Usuario> adminOpt = usuarioRepository.findByEmail(empresaEmail);
             if (adminOpt.isEmpty()) {
                 logger.error("Empresa no encontrada: {}", empresaEmail);
-                return ResponseEntity.badRequest().body(Map.of("error", "No existe ninguna empresa con ese email"));
+                return inmediata(ResponseEntity.badRequest().body(Map.of("error", "No existe ninguna empresa con ese email")));
             }
             
             Usuario admin = adminOpt.get();
             if (!"ADMIN".equals(admin.getRole())) {
-                return ResponseEntity.badRequest().body(Map.of("error", "El email no corresponde a una cuenta de empresa"));
+                return inmediata(ResponseEntity.badRequest().body(Map.of("error", "El email no corresponde a una cuenta de empresa")));
             }
 
-            // Crear conductor
-            Conductor conductor = new Conductor();
-            conductor.setEmail(email);
-            conductor.setPassword(passwordEncoder.encode(password));
-            conductor.setNombre(nombre.trim());
-            conductor.setEmpresaId(admin.getId());
-            conductor.setNombreEmpresa(admin.getNombreEmpresa());
-            conductor.setActivo(true);
+            return enEjecutorHash(() -> hashService.codificar(emailConductor, password).thenApplyAsync(hash -> {
+                // Crear conductor
+                Conductor conductor = new Conductor();
+                conductor.setEmail(emailConductor);
+                conductor.setPassword(hash);
+                conductor.setNombre(nombre.trim());
+                conductor.setEmpresaId(admin.getId());
+                conductor.setNombreEmpresa(admin.getNombreEmpresa());
+                conductor.setActivo(true);
 
-            Conductor saved = conductorRepository.save(conductor);
-            
-            logger.info("✓ CONDUCTOR REGISTRADO");
-            logger.info("  ID: {}", saved.getId());
-            logger.info("  Email: {}", saved.getEmail());
-            logger.info("  Empresa: {}", saved.getNombreEmpresa());
+                Conductor saved = conductorRepository.save(conductor);
+                difusion.conductorGuardado(saved);
 
-            return ResponseEntity.ok(Map.of(
-                "message", "Conductor registrado correctamente",
-                "conductorId", saved.getId(),
-                "nombreEmpresa", saved.getNombreEmpresa() != null ? saved.getNombreEmpresa() : ""
-            ));
+                logger.info("✓ Conductor registrado | ID: {} | Empresa: {}", saved.getId(), saved.getNombreEmpresa());
+
+                return ResponseEntity.ok(Map.of(
+                    "message", "Conductor registrado correctamente",
+                    "conductorId", saved.getId(),
+                    "nombreEmpresa", saved.getNombreEmpresa() != null ? saved.getNombreEmpresa() : ""
+                ));
+            }, peticiones));
         } catch (Exception e) {
             logger.error("Error en registro de conductor: ", e);
-            return ResponseEntity.internalServerError().body(Map.of("error", "Error interno del servidor: " + e.getMessage()));
+            return inmediata(ResponseEntity.internalServerError().body(Map.of("error", "Error interno del servidor: " + e.getMessage())));
         }
     }
 
@@ -208,37 +233,39 @@ public class AuthController {
      * Busca en colección: conductores
      */
     @PostMapping("/login/conductor")
-    public ResponseEntity<?> loginConductor(@RequestBody Map<String, String> credentials) {
-        logger.info("═══ LOGIN CONDUCTOR ═══");
-        
+    public CompletableFuture<ResponseEntity<?>> loginConductor(@RequestBody Map<String, String> credentials) {
         String email = credentials.get("email");
         String password = credentials.get("password");
 
         if (email == null || password == null) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Email y contraseña son obligatorios"));
+            return inmediata(ResponseEntity.badRequest().body(Map.of("error", "Email y contraseña son obligatorios")));
         }
 
-        email = email.trim().toLowerCase();
-        logger.info("Buscando conductor: {}", email);
+        String emailConductor = email.trim().toLowerCase();
+        logger.debug("Buscando conductor: {}", emailConductor);
         
-        Optional<Conductor> conductorOpt = conductorRepository.findByEmail(email);
+        Optional<Conductor> conductorOpt = conductorRepository.findByEmail(emailConductor);
 
         if (conductorOpt.isEmpty()) {
-            logger.warn("Conductor no encontrado: {}", email);
-            return ResponseEntity.status(401).body(Map.of("error", "Credenciales inválidas"));
+            logFallos.warn("Conductor no encontrado: {}", emailConductor);
+            return inmediata(ResponseEntity.status(401).body(Map.of("error", "Credenciales inválidas")));
         }
 
         Conductor conductor = conductorOpt.get();
         
         // Verificar si está activo
         if (!conductor.isActivo()) {
-            logger.warn("Conductor desactivado: {}", email);
-            return ResponseEntity.status(403).body(Map.of("error", "Tu cuenta ha sido desactivada. Contacta a tu empresa."));
+            logger.warn("Conductor desactivado: {}", emailConductor);
+            return inmediata(ResponseEntity.status(403).body(Map.of("error", "Tu cuenta ha sido desactivada. Contacta a tu empresa.")));
         }
 
-        if (passwordEncoder.matches(password, conductor.getPassword())) {
-            logger.info("✓ Login conductor exitoso: {}", email);
-            
+        return enEjecutorHash(() -> hashService.verificar(emailConductor, password, conductor.getPassword()).thenApplyAsync(valida -> {
+            if (!valida) {
+                logFallos.warn("Contraseña incorrecta para conductor: {}", emailConductor);
+                return ResponseEntity.status(401).body(Map.of("error", "Credenciales inválidas"));
+            }
+            logger.debug("Login conductor exitoso: {}", emailConductor);
+
             Map<String, Object> response = new HashMap<>();
             response.put("id", conductor.getId());
             response.put("email", conductor.getEmail());
@@ -246,11 +273,46 @@ public class AuthController {
             response.put("nombreEmpresa", conductor.getNombreEmpresa());
             response.put("role", "CONDUCTOR");
             response.put("empresaId", conductor.getEmpresaId());
-            
+
             return ResponseEntity.ok(response);
-        } else {
-            logger.warn("Contraseña incorrecta para conductor: {}", email);
-            return ResponseEntity.status(401).body(Map.of("error", "Credenciales inválidas"));
+        }, peticiones));
+    }
+
+    /**
+     * Métricas del ejecutor de BCrypt: tiempo en cola y tiempo de hash por separado.
+     */
+    @GetMapping("/hash-stats")
+    public Map<String, Object> hashStats() {
+        return hashService.estadisticas();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // EJECUTOR DE CONTRASEÑAS
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private static CompletableFuture<ResponseEntity<?>> inmediata(ResponseEntity<?> respuesta) {
+        return CompletableFuture.completedFuture(respuesta);
+    }
+
+    // Lanza la operación de contraseña y traduce los rechazos del ejecutor a 429/503
+    private CompletableFuture<ResponseEntity<?>> enEjecutorHash(Supplier<CompletableFuture<ResponseEntity<?>>> operacion) {
+        try {
+            return operacion.get().exceptionally(this::respuestaError);
+        } catch (RechazoHashException e) {
+            return inmediata(respuestaError(e));
+        }
+    }
+
+    private ResponseEntity<?> respuestaError(Throwable ex) {
+        Throwable causa = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (causa instanceof RechazoHashException rechazo) {
+            logFallos.warn("Operación de contraseña rechazada: {}", rechazo.getMessage());
+            HttpStatus status = rechazo.isPorEmail() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+            return ResponseEntity.status(status)
+                    .header("Retry-After", rechazo.isPorEmail() ? "60" : "1")
+                    .body(Map.of("error", rechazo.getMessage()));
         }
+        logger.error("Error en operación de autenticación: ", causa);
+        return ResponseEntity.internalServerError().body(Map.of("error", "Error interno del servidor: " + causa.getMessage()));
     }
 }
@@ -0,0 +1,59 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.BulkheadService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Estado de los compartimentos de concurrencia.
+ *
+ * ENDPOINTS:
+ * - GET /api/bulkheads           → Límite, peticiones en curso y rechazos por compartimento
+ * - GET /api/bulkheads/benchmark → Admitidas, rechazadas y latencia con y sin el compartimento real
+ *                                  (solo con ecofleet.benchmarks.habilitado)
+ */
+@RestController
+@RequestMapping("/api/bulkheads")
+@CrossOrigin(origins = "*")
+public class BulkheadController {
+
+    private static final int MAX_PETICIONES_BENCHMARK = 10_000;
+    private static final int MAX_HILOS_BENCHMARK = 400;
+
+    @Autowired
+    private BulkheadService bulkheadService;
+
+    @Value("${ecofleet.benchmarks.habilitado:false}")
+    private boolean benchmarksHabilitado;
+
+    @GetMapping
+    public Map<String, Object> estadisticas() {
+        return bulkheadService.estadisticas();
+    }
+
+    @GetMapping("/benchmark")
+    public ResponseEntity<?> benchmark(@RequestParam(defaultValue = BulkheadService.INTERACTIVO) String compartimento,
+                                       @RequestParam(defaultValue = "5000") int peticiones,
+                                       @RequestParam(defaultValue = "20") long bloqueoMs,
+                                       @RequestParam(defaultValue = "200") int hilosPlataforma,
+                                       @RequestParam(defaultValue = "4") int tenants) throws InterruptedException {
+        if (!benchmarksHabilitado) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Los benchmarks están deshabilitados (ecofleet.benchmarks.habilitado)"));
+        }
+        if (peticiones < 1 || peticiones > MAX_PETICIONES_BENCHMARK || bloqueoMs < 0 || bloqueoMs > 1000
+                || hilosPlataforma < 1 || hilosPlataforma > MAX_HILOS_BENCHMARK || tenants < 1 || tenants > peticiones) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Parámetros fuera de rango"));
+        }
+        try {
+            return ResponseEntity.ok(bulkheadService.benchmark(compartimento, peticiones, bloqueoMs, hilosPlataforma, tenants));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+}
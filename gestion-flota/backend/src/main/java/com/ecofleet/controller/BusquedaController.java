@@ -0,0 +1,56 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.BusquedaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Búsqueda typeahead de vehículos (matrícula, marca, modelo), rutas (origen, destino) y
+ * conductores (nombre, email) de la empresa.
+ *
+ * ENDPOINTS:
+ * - GET  /api/search?q=&limite=        → Entidades cuyas palabras empiezan por las de q (X-User-Id)
+ * - GET  /api/search/estadisticas      → Entidades indexadas, última reconstrucción y latencia
+ * - POST /api/search/reconstruir       → Relee vehículos, rutas y conductores de Mongo
+ */
+@RestController
+@RequestMapping("/api/search")
+@CrossOrigin(origins = "*")
+public class BusquedaController {
+
+    private static final int MAX_LIMITE = 50;
+    private static final int MAX_LONGITUD_Q = 100;
+
+    @Autowired
+    private BusquedaService busqueda;
+
+    @GetMapping
+    public ResponseEntity<?> buscar(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                    @RequestParam String q,
+                                    @RequestParam(defaultValue = "10") int limite) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        if (q.length() > MAX_LONGITUD_Q) {
+            return ResponseEntity.badRequest().body(Map.of("error", "q no puede pasar de " + MAX_LONGITUD_Q + " caracteres"));
+        }
+        return ResponseEntity.ok(busqueda.buscar(usuarioId, q, Math.max(1, Math.min(limite, MAX_LIMITE))));
+    }
+
+    @GetMapping("/estadisticas")
+    public Map<String, Object> estadisticas() {
+        return busqueda.estadisticas();
+    }
+
+    @PostMapping("/reconstruir")
+    public ResponseEntity<?> reconstruir() {
+        if (!busqueda.reconstruir()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "La reconstrucción ya está en curso"));
+        }
+        return ResponseEntity.accepted().body(Map.of("estado", "LANZADA"));
+    }
+}
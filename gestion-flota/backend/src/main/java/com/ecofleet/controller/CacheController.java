@@ -0,0 +1,26 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.CacheEntidadesService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Estado de las cachés de lectura de vehículos y rutas.
+ *
+ * ENDPOINTS:
+ * - GET /api/cache → Entradas, aciertos, fallos, cargas coalescidas e invalidaciones por caché
+ */
+@RestController
+@RequestMapping("/api/cache")
+@CrossOrigin(origins = "*")
+public class CacheController {
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @GetMapping
+    public ResponseEntity<?> estadisticas() {
+        return ResponseEntity.ok(cacheEntidades.estadisticas());
+    }
+}
@@ -0,0 +1,89 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.ComandoConductor;
+import com.ecofleet.repository.ConductorRepository;
+import com.ecofleet.service.CanalConductoresService;
+import com.ecofleet.util.ContextoEmpresa;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canal push hacia los conductores: asignaciones, cambios de estado, chat y peticiones de posición.
+ *
+ * ENDPOINTS:
+ * - GET  /api/conductores/{id}/canal/stream          → SSE (app web): eventos "comando" con id = id del comando
+ * - GET  /api/conductores/{id}/canal/poll?timeoutMs= → Long-poll (Android): lista de comandos pendientes o [] al agotar la espera
+ * - POST /api/conductores/{id}/canal/ack             → Confirma la entrega: {"ids": [...]}
+ * - GET  /api/conductores/canal/comandos/{comandoId} → Estado de un comando (ackEn != null si se entregó)
+ * - GET  /api/conductores/canal/estadisticas         → Buzones, conexiones y contadores del nodo
+ *
+ * El conductor y los comandos deben ser de la empresa de la petición (cabecera X-User-Id o,
+ * desde EventSource, parámetro usuarioId); los de otra empresa se responden con 404.
+ */
+@RestController
+@RequestMapping("/api/conductores")
+@CrossOrigin(origins = "*")
+public class CanalConductorController {
+
+    @Autowired
+    private CanalConductoresService canal;
+
+    @Autowired
+    private ConductorRepository conductorRepository;
+
+    @GetMapping(value = "/{id}/canal/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@PathVariable String id) {
+        comprobarConductor(id);
+        return canal.conectarSse(id);
+    }
+
+    @GetMapping("/{id}/canal/poll")
+    public DeferredResult<List<ComandoConductor>> poll(@PathVariable String id,
+                                                       @RequestParam(defaultValue = "25000") long timeoutMs) {
+        comprobarConductor(id);
+        return canal.esperar(id, timeoutMs);
+    }
+
+    @PostMapping("/{id}/canal/ack")
+    public ResponseEntity<?> confirmar(@PathVariable String id, @RequestBody Map<String, List<String>> payload) {
+        List<String> ids = payload.get("ids");
+        if (ids == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la lista ids"));
+        }
+        comprobarConductor(id);
+        return ResponseEntity.ok(Map.of("confirmados", canal.confirmar(id, ids)));
+    }
+
+    @GetMapping("/canal/comandos/{comandoId}")
+    public ResponseEntity<ComandoConductor> consultar(@PathVariable String comandoId) {
+        String empresa = ContextoEmpresa.actual();
+        ComandoConductor comando = empresa != null ? canal.consultar(comandoId) : null;
+        return comando != null && empresa.equals(comando.getUsuarioId())
+                ? ResponseEntity.ok(comando)
+                : ResponseEntity.notFound().build();
+    }
+
+    @GetMapping("/canal/estadisticas")
+    public ResponseEntity<?> estadisticas() {
+        return ResponseEntity.ok(canal.estadisticas());
+    }
+
+    // Sin empresa en la petición no se puede comprobar: se trata igual que un conductor ajeno
+    private void comprobarConductor(String conductorId) {
+        String empresa = ContextoEmpresa.actual();
+        boolean propio = empresa != null && conductorRepository.findById(conductorId)
+                .map(c -> empresa.equals(c.getEmpresaId()))
+                .orElse(false);
+        if (!propio) {
+            throw new MongoTemplateEmpresas.EmpresaAjenaException("Canal de un conductor de otra empresa: " + conductorId);
+        }
+    }
+}
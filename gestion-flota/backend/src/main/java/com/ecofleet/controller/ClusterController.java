@@ -0,0 +1,92 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.ClustersService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Clusters de posiciones en vivo para el mapa global de la flota.
+ *
+ * ENDPOINTS:
+ * - GET /api/rutas/clusters?bbox=oeste,sur,este,norte&zoom= → Centroides y recuento por celda (X-User-Id)
+ * - GET /api/rutas/clusters/estadisticas                     → Rutas indexadas, celdas y latencia de consulta
+ * - GET /api/rutas/clusters/benchmark?rutas=&consultas=      → Índice frente a agrupar todas las posiciones por consulta
+ *                                                              (solo con ecofleet.benchmarks.habilitado)
+ *
+ * El bbox va en el orden de Leaflet (map.getBounds().toBBoxString()). Un cluster con
+ * cantidad 1 trae el rutaId de la ruta.
+ */
+@RestController
+@RequestMapping("/api/rutas/clusters")
+@CrossOrigin(origins = "*")
+public class ClusterController {
+
+    private static final int MAX_RUTAS_BENCHMARK = 1_000_000;
+
+    @Autowired
+    private ClustersService clustersService;
+
+    @Value("${ecofleet.benchmarks.habilitado:false}")
+    private boolean benchmarksHabilitado;
+
+    @GetMapping
+    public ResponseEntity<?> clusters(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                      @RequestParam String bbox,
+                                      @RequestParam int zoom) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        String[] partes = bbox.split(",");
+        if (partes.length != 4) {
+            return ResponseEntity.badRequest().body(Map.of("error", "bbox debe ser oeste,sur,este,norte"));
+        }
+        try {
+            double oeste = Double.parseDouble(partes[0].trim());
+            double sur = Double.parseDouble(partes[1].trim());
+            double este = Double.parseDouble(partes[2].trim());
+            double norte = Double.parseDouble(partes[3].trim());
+            if (sur > norte || Math.abs(sur) > 90 || Math.abs(norte) > 90) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Latitudes del bbox no válidas"));
+            }
+            // Leaflet da longitudes fuera de [-180, 180] al desplazarse por el mundo repetido
+            if (este - oeste >= 360) {
+                oeste = -180;
+                este = 180;
+            } else {
+                oeste = normalizarLongitud(oeste);
+                este = normalizarLongitud(este);
+            }
+            return ResponseEntity.ok(clustersService.clusters(usuarioId, zoom, oeste, sur, este, norte));
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "bbox no numérico"));
+        }
+    }
+
+    @GetMapping("/estadisticas")
+    public Map<String, Object> estadisticas() {
+        return clustersService.estadisticas();
+    }
+
+    @GetMapping("/benchmark")
+    public ResponseEntity<?> benchmark(@RequestParam(defaultValue = "10000") int rutas,
+                                       @RequestParam(defaultValue = "200") int consultas) {
+        if (!benchmarksHabilitado) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Los benchmarks están deshabilitados (ecofleet.benchmarks.habilitado)"));
+        }
+        if (rutas < 1 || rutas > MAX_RUTAS_BENCHMARK || consultas < 1 || consultas > 10_000) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Parámetros fuera de rango"));
+        }
+        return ResponseEntity.ok(clustersService.benchmark(rutas, consultas));
+    }
+
+    private static double normalizarLongitud(double longitud) {
+        double normalizada = ((longitud + 180) % 360 + 360) % 360 - 180;
+        return normalizada == -180 && longitud > 0 ? 180 : normalizada;
+    }
+}
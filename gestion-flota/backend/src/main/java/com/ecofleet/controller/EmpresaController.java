@@ -0,0 +1,93 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.config.GuardiaEmpresa;
+import com.ecofleet.service.ParticionEmpresasService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Aislamiento y reparto de las empresas entre la base compartida y las dedicadas.
+ *
+ * ENDPOINTS:
+ * - GET  /api/empresas/estadisticas        → Bases, empresas dedicadas, consultas filtradas y accesos rechazados
+ * - POST /api/empresas/{id}/copiar?base=   → Congela la empresa y copia en segundo plano sus datos a su base
+ * - POST /api/empresas/{id}/liberar        → Borra de la compartida los datos de una empresa ya enrutada y copiada
+ * - POST /api/empresas/{id}/descongelar    → Abandona el traslado de una empresa aún no enrutada
+ *
+ * copiar, liberar y descongelar son operaciones de mantenimiento: solo con ecofleet.empresas.admin.habilitado,
+ * que se activa en la instancia desde la que se hace el reparto y no en las que atienden tráfico.
+ */
+@RestController
+@RequestMapping("/api/empresas")
+@CrossOrigin(origins = "*")
+public class EmpresaController {
+
+    @Autowired
+    private ParticionEmpresasService particion;
+
+    @Autowired
+    private GuardiaEmpresa guardia;
+
+    @GetMapping("/estadisticas")
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = particion.estadisticas();
+        stats.put("lecturasRechazadas", guardia.getRechazados());
+        return stats;
+    }
+
+    @PostMapping("/{id}/copiar")
+    public ResponseEntity<?> copiar(@PathVariable String id, @RequestParam String base) {
+        if (!particion.adminHabilitado()) {
+            return deshabilitado();
+        }
+        try {
+            if (!particion.copiar(id, base)) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "Ya hay una copia o liberación en curso"));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.accepted().body(Map.of("estado", "LANZADA"));
+    }
+
+    @PostMapping("/{id}/liberar")
+    public ResponseEntity<?> liberar(@PathVariable String id) {
+        if (!particion.adminHabilitado()) {
+            return deshabilitado();
+        }
+        try {
+            if (!particion.liberar(id)) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "Ya hay una copia o liberación en curso"));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.accepted().body(Map.of("estado", "LANZADA"));
+    }
+
+    @PostMapping("/{id}/descongelar")
+    public ResponseEntity<?> descongelar(@PathVariable String id) {
+        if (!particion.adminHabilitado()) {
+            return deshabilitado();
+        }
+        try {
+            particion.descongelar(id);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.ok(Map.of("estado", "DESCONGELADA"));
+    }
+
+    private static ResponseEntity<?> deshabilitado() {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                .body(Map.of("error", "El reparto de empresas está deshabilitado (ecofleet.empresas.admin.habilitado)"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.model.EventoRuta;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.service.CacheEntidadesService;
+import com.ecofleet.service.EventosRutaService;
+import com.ecofleet.service.EventosRutaService.Reconstruccion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registro de eventos de cada ruta: auditoría, replay y reconstrucción de la proyección.
+ *
+ * ENDPOINTS:
+ * - GET  /api/rutas/{id}/eventos?desde=&limite= → Eventos en orden, a partir del id "desde"
+ * - GET  /api/rutas/{id}/replay?hasta=          → Estado de la ruta en un instante ISO o tras un id de evento
+ * - POST /api/rutas/{id}/reconstruir            → Reescribe el documento de rutas desde el registro
+ * - GET  /api/rutas/eventos/estadisticas        → Cola, lotes escritos y snapshots
+ *
+ * Los tres primeros exigen X-User-Id y responden 404 si la ruta no es de la empresa: los
+ * snapshots no llevan usuarioId y la consulta a Mongo no puede filtrarlos.
+ */
+@RestController
+@RequestMapping("/api/rutas")
+@CrossOrigin(origins = "*")
+public class EventoRutaController {
+
+    private static final int MAX_LIMITE = 5000;
+
+    @Autowired
+    private EventosRutaService eventosRuta;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @GetMapping("/{id}/eventos")
+    public ResponseEntity<?> eventos(@PathVariable String id,
+                                     @RequestParam(required = false) String desde,
+                                     @RequestParam(defaultValue = "1000") int limite,
+                                     @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return sinEmpresa();
+        }
+        if (desde != null && !esIdEvento(desde)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "'desde' debe ser un id de evento"));
+        }
+        List<EventoRuta> eventos = eventosRuta.eventos(id, desde, Math.max(1, Math.min(limite, MAX_LIMITE)));
+        return ResponseEntity.ok(eventos);
+    }
+
+    @GetMapping("/{id}/replay")
+    public ResponseEntity<?> replay(@PathVariable String id, @RequestParam(required = false) String hasta,
+                                    @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return sinEmpresa();
+        }
+        if (!deLaEmpresa(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        String hastaEvento;
+        try {
+            hastaEvento = hasta == null || esIdEvento(hasta) ? hasta : EventosRutaService.idHasta(Instant.parse(hasta));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "'hasta' debe ser un instante ISO-8601 o un id de evento"));
+        }
+        Reconstruccion r = eventosRuta.reconstruir(id, hastaEvento);
+        if (r.getEstado().isEmpty() && r.getEventosAplicados() == 0) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> respuesta = new LinkedHashMap<>();
+        respuesta.put("ruta", eventosRuta.aRuta(r));
+        respuesta.put("eliminada", r.isEliminada());
+        respuesta.put("ultimoEvento", r.getUltimoEvento());
+        respuesta.put("snapshot", r.getSnapshot());
+        respuesta.put("eventosAplicados", r.getEventosAplicados());
+        return ResponseEntity.ok(respuesta);
+    }
+
+    @PostMapping("/{id}/reconstruir")
+    public ResponseEntity<?> reconstruir(@PathVariable String id,
+                                         @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return sinEmpresa();
+        }
+        if (!deLaEmpresa(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        Ruta ruta = eventosRuta.reconstruirProyeccion(id);
+        if (ruta == null) {
+            return ResponseEntity.notFound().build();
+        }
+        cacheEntidades.rutaGuardada(ruta);
+        return ResponseEntity.ok(ruta);
+    }
+
+    @GetMapping("/eventos/estadisticas")
+    public Map<String, Object> estadisticas() {
+        return eventosRuta.estadisticas();
+    }
+
+    // Una ruta ya borrada solo queda en el registro de eventos
+    private boolean deLaEmpresa(String rutaId) {
+        return cacheEntidades.ruta(rutaId).isPresent() || eventosRuta.tieneEventos(rutaId);
+    }
+
+    private static ResponseEntity<?> sinEmpresa() {
+        return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+    }
+
+    private static boolean esIdEvento(String valor) {
+        return valor.length() == 24 && valor.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.ExportacionService;
+import com.ecofleet.service.ImportacionService;
+import com.ecofleet.util.ContextoEmpresa;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Exportación e importación masiva de los datos de una empresa.
+ *
+ * ENDPOINTS:
+ * - GET  /api/exportar/{coleccion}?formato=ndjson|csv → vehiculos, rutas, repostajes o mantenimientos en streaming
+ * - POST /api/importar/{coleccion}?formato=csv|ndjson → vehiculos o repostajes, inserción por lotes con errores por fila
+ */
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "*")
+public class ExportacionController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final MediaType CSV = MediaType.parseMediaType("text/csv;charset=UTF-8");
+
+    @Autowired
+    private ExportacionService exportacionService;
+
+    @Autowired
+    private ImportacionService importacionService;
+
+    @GetMapping("/exportar/{coleccion}")
+    public ResponseEntity<?> exportar(@PathVariable String coleccion,
+                                      @RequestParam(defaultValue = "ndjson") String formato,
+                                      @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        if (!ExportacionService.COLECCIONES.contains(coleccion) || !formatoValido(formato)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Colección o formato no soportado"));
+        }
+        // Se escribe desde el pool asíncrono de MVC, fuera del hilo que tiene la empresa
+        StreamingResponseBody cuerpo = out -> {
+            ContextoEmpresa.establecer(usuarioId);
+            try {
+                exportacionService.exportar(coleccion, usuarioId, formato, out);
+            } finally {
+                ContextoEmpresa.limpiar();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(ExportacionService.CSV.equals(formato) ? CSV : NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + coleccion + "." + formato + "\"")
+                .body(cuerpo);
+    }
+
+    @PostMapping("/importar/{coleccion}")
+    public ResponseEntity<?> importar(@PathVariable String coleccion,
+                                      @RequestParam(defaultValue = "csv") String formato,
+                                      @RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                      HttpServletRequest request) throws IOException {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        if (!ImportacionService.COLECCIONES.contains(coleccion) || !formatoValido(formato)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Colección o formato no soportado"));
+        }
+        // Se lee el cuerpo directamente del request para no cargarlo entero en memoria
+        return ResponseEntity.ok(importacionService.importar(coleccion, usuarioId, formato, request.getInputStream()));
+    }
+
+    private static boolean formatoValido(String formato) {
+        return ExportacionService.NDJSON.equals(formato) || ExportacionService.CSV.equals(formato);
+    }
+}
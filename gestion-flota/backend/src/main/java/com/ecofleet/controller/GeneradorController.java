@@ -0,0 +1,57 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.GeneradorDatosService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * Generador de datos sintéticos para pruebas de escala (solo con ecofleet.generador.habilitado).
+ *
+ * ENDPOINTS:
+ * - POST /api/generador           → Lanza la generación con la escala del cuerpo (semilla, empresas, vehiculosPorEmpresa...)
+ * - GET  /api/generador/estado    → Progreso: bloques, documentos insertados por colección y documentos/s
+ * - POST /api/generador/cancelar  → Detiene la generación tras los bloques en curso
+ *
+ * Ejemplo a escala de producción: {"empresas":1000,"vehiculosPorEmpresa":100,"rutasPorVehiculo":10,
+ * "fixesPorRuta":50,"mensajesPorRuta":10} → 100k vehículos, 1M rutas, 50M fixes y 10M mensajes.
+ */
+@RestController
+@RequestMapping("/api/generador")
+@CrossOrigin(origins = "*")
+public class GeneradorController {
+
+    @Autowired
+    private GeneradorDatosService generador;
+
+    @PostMapping
+    public ResponseEntity<?> generar(@RequestBody(required = false) GeneradorDatosService.Escala escala) {
+        if (!generador.habilitado()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "El generador está deshabilitado (ecofleet.generador.habilitado)"));
+        }
+        try {
+            if (!generador.lanzar(escala != null ? escala : new GeneradorDatosService.Escala())) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "Ya hay una generación en curso"));
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.accepted().body(Map.of("estado", "LANZADA"));
+    }
+
+    @GetMapping("/estado")
+    public Map<String, Object> estado() {
+        return generador.estado();
+    }
+
+    @PostMapping("/cancelar")
+    public ResponseEntity<?> cancelar() {
+        generador.cancelar();
+        return ResponseEntity.accepted().body(Map.of("estado", "CANCELANDO"));
+    }
+}
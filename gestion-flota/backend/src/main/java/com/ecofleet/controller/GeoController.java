@@ -0,0 +1,66 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.GeoProxyService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Proxy de geocodificación (Nominatim) y enrutado (OSRM) con caché.
+ *
+ * ENDPOINTS:
+ * - GET /api/geo/geocode?q=&limit=&countrycodes=           → Mismo JSON que Nominatim /search
+ * - GET /api/geo/route?latOrigen=&lonOrigen=&latDestino=&lonDestino=&enVivo= → Mismo JSON que OSRM /route
+ * - GET /api/geo/stats                                     → Aciertos, fallos, coalescidas y ocupación de la caché
+ *
+ * enVivo=true cuando el origen es la posición GPS actual del vehículo: se cachea solo en memoria.
+ */
+@RestController
+@RequestMapping("/api/geo")
+@CrossOrigin(origins = "*")
+public class GeoController {
+
+    private static final int MAX_RESULTADOS = 20;
+
+    @Autowired
+    private GeoProxyService geoProxyService;
+
+    @GetMapping("/geocode")
+    public ResponseEntity<?> geocodificar(@RequestParam("q") String consulta,
+                                          @RequestParam(defaultValue = "5") int limit,
+                                          @RequestParam(required = false) String countrycodes) {
+        if (consulta.trim().length() < 3) {
+            return ResponseEntity.badRequest().body(Map.of("error", "La búsqueda debe tener al menos 3 caracteres"));
+        }
+        try {
+            String json = geoProxyService.geocodificar(consulta, Math.max(1, Math.min(MAX_RESULTADOS, limit)), countrycodes);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/route")
+    public ResponseEntity<?> calcularRuta(@RequestParam double latOrigen, @RequestParam double lonOrigen,
+                                          @RequestParam double latDestino, @RequestParam double lonDestino,
+                                          @RequestParam(defaultValue = "false") boolean enVivo) {
+        if (Math.abs(latOrigen) > 90 || Math.abs(latDestino) > 90 || Math.abs(lonOrigen) > 180 || Math.abs(lonDestino) > 180) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Coordenadas fuera de rango"));
+        }
+        try {
+            String json = geoProxyService.calcularRuta(latOrigen, lonOrigen, latDestino, lonDestino, enVivo);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Long> estadisticas() {
+        return geoProxyService.estadisticas();
+    }
+}
@@ -0,0 +1,64 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.InformeCostesService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * Informes de costes de flota leídos de los cubos mensuales (costes_mensuales).
+ *
+ * ENDPOINTS:
+ * - GET  /api/informes/costes?desde=yyyy-MM&hasta=yyyy-MM&dimension=&clave= → Totales por mes y desglose
+ *        por VEHICULO, CATEGORIA, TALLER o REPUESTO (clave filtra, p. ej. un vehículo concreto)
+ * - POST /api/informes/costes/reconstruir → Recalcula los cubos de la empresa desde los registros
+ */
+@RestController
+@RequestMapping("/api/informes")
+@CrossOrigin(origins = "*")
+public class InformeController {
+
+    private static final int MAX_MESES = 120;
+
+    @Autowired
+    private InformeCostesService informeCostesService;
+
+    @GetMapping("/costes")
+    public ResponseEntity<?> costes(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                    @RequestParam(required = false) String desde,
+                                    @RequestParam(required = false) String hasta,
+                                    @RequestParam(defaultValue = InformeCostesService.VEHICULO) String dimension,
+                                    @RequestParam(required = false) String clave) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        String dim = dimension.toUpperCase();
+        if (!InformeCostesService.DIMENSIONES.contains(dim)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Dimensión no soportada: " + dimension));
+        }
+        YearMonth fin;
+        YearMonth inicio;
+        try {
+            fin = hasta != null ? YearMonth.parse(hasta) : YearMonth.now();
+            inicio = desde != null ? YearMonth.parse(desde) : fin.minusMonths(11);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Los meses deben tener formato yyyy-MM"));
+        }
+        if (inicio.isAfter(fin) || inicio.plusMonths(MAX_MESES).isBefore(fin)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Rango de meses inválido"));
+        }
+        return ResponseEntity.ok(informeCostesService.informe(usuarioId, inicio, fin, dim, clave));
+    }
+
+    @PostMapping("/costes/reconstruir")
+    public ResponseEntity<?> reconstruir(@RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        return ResponseEntity.ok(informeCostesService.reconstruir(usuarioId));
+    }
+}
@@ -0,0 +1,52 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.LimitadorIngestaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Estado del limitador de la ingesta GPS.
+ *
+ * ENDPOINTS:
+ * - GET /api/ingesta           → Cubetas por ruta y empresa, fixes admitidos, coalescidos y descartados
+ * - GET /api/ingesta/benchmark → Sobrecoste por fix del limitador sin bloqueos frente a un cerrojo global
+ *                                (solo con ecofleet.benchmarks.habilitado)
+ */
+@RestController
+@RequestMapping("/api/ingesta")
+@CrossOrigin(origins = "*")
+public class IngestaController {
+
+    private static final int MAX_OPERACIONES_BENCHMARK = 50_000_000;
+
+    @Autowired
+    private LimitadorIngestaService limitadorIngesta;
+
+    @Value("${ecofleet.benchmarks.habilitado:false}")
+    private boolean benchmarksHabilitado;
+
+    @GetMapping
+    public Map<String, Object> estadisticas() {
+        return limitadorIngesta.estadisticas();
+    }
+
+    @GetMapping("/benchmark")
+    public ResponseEntity<?> benchmark(@RequestParam(defaultValue = "8") int hilos,
+                                       @RequestParam(defaultValue = "5000000") int operaciones,
+                                       @RequestParam(defaultValue = "10000") int claves) throws InterruptedException {
+        if (!benchmarksHabilitado) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Los benchmarks están deshabilitados (ecofleet.benchmarks.habilitado)"));
+        }
+        if (hilos < 1 || hilos > 256 || operaciones < hilos || operaciones > MAX_OPERACIONES_BENCHMARK
+                || claves < 1 || claves > 1_000_000) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Parámetros fuera de rango"));
+        }
+        return ResponseEntity.ok(limitadorIngesta.benchmark(hilos, operaciones, claves));
+    }
+}
@@ -0,0 +1,41 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.LimpiezaCascadaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Limpieza en cascada de lo que dejan atrás los vehículos y rutas eliminados.
+ *
+ * ENDPOINTS:
+ * - GET  /api/limpieza/trabajos?estado=&limite= → Últimos trabajos de limpieza (PENDIENTE, EN_CURSO, COMPLETADO, FALLIDO)
+ * - POST /api/limpieza/barrer?simular=          → Busca huérfanos ahora y encola su limpieza (simular solo los lista)
+ * - GET  /api/limpieza/estadisticas             → Trabajos pendientes, documentos borrados y último barrido
+ */
+@RestController
+@RequestMapping("/api/limpieza")
+@CrossOrigin(origins = "*")
+public class LimpiezaController {
+
+    private static final int MAX_LIMITE = 200;
+
+    @Autowired
+    private LimpiezaCascadaService limpieza;
+
+    @GetMapping("/trabajos")
+    public ResponseEntity<?> trabajos(@RequestParam(required = false) String estado,
+                                      @RequestParam(defaultValue = "50") int limite) {
+        return ResponseEntity.ok(limpieza.trabajos(estado, Math.max(1, Math.min(limite, MAX_LIMITE))));
+    }
+
+    @PostMapping("/barrer")
+    public ResponseEntity<?> barrer(@RequestParam(defaultValue = "false") boolean simular) {
+        return ResponseEntity.ok(limpieza.barrer(simular));
+    }
+
+    @GetMapping("/estadisticas")
+    public ResponseEntity<?> estadisticas() {
+        return ResponseEntity.ok(limpieza.estadisticas());
+    }
+}
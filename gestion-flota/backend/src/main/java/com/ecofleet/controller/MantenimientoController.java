@@ -3,16 +3,29 @@ package com.ecofleet.controller;
 import com.ecofleet.model.Mantenimiento;
 import com.ecofleet.model.MantenimientoCorrectivo;
 import com.ecofleet.model.MantenimientoPreventivo;
+import com.ecofleet.model.MantenimientoResumen;
+import com.ecofleet.model.Vehiculo;
 import com.ecofleet.repository.MantenimientoCorrectivoRepository;
 import com.ecofleet.repository.MantenimientoPreventivoRepository;
 import com.ecofleet.repository.MantenimientoRepository;
+import com.ecofleet.service.CacheEntidadesService;
+import com.ecofleet.service.InformeCostesService;
+import com.ecofleet.service.VistaVehiculoService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/mantenimientos")
@@ -27,53 +40,131 @@ public class MantenimientoController {
     @Autowired
     private MantenimientoCorrectivoRepository correctivoRepository;
 
+    @Autowired
+    private InformeCostesService informeCostesService;
+
+    @Autowired
+    private VistaVehiculoService vistaVehiculo;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Los listados devuelven MantenimientoResumen; vista=completa, los registros con taller y repuestos
     @GetMapping
-    public List<Object> obtenerTodos() {
+    public ResponseEntity<?> obtenerTodos(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                          @RequestParam(defaultValue = "resumen") String vista) {
+        // Sin empresa no se listan los mantenimientos de todas
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
         List<Object> todos = new ArrayList<>();
-        todos.addAll(mantenimientoRepository.findAll());
-        todos.addAll(preventivoRepository.findAll());
-        todos.addAll(correctivoRepository.findAll());
-        return todos;
+        todos.addAll(mantenimientoRepository.findByUsuarioId(usuarioId));
+        todos.addAll(preventivoRepository.findByUsuarioId(usuarioId));
+        todos.addAll(correctivoRepository.findByUsuarioId(usuarioId));
+        return ResponseEntity.ok(enVista(todos, vista));
     }
 
     @GetMapping("/vehiculo/{vehiculoId}")
-    public List<Object> obtenerPorVehiculo(@PathVariable String vehiculoId) {
-        List<Object> todos = new ArrayList<>();
-        // Legacy data
-        todos.addAll(mantenimientoRepository.findByVehiculoIdOrderByFechaDesc(vehiculoId));
-        // New data
-        todos.addAll(preventivoRepository.findByVehiculoIdOrderByFechaDesc(vehiculoId));
-        addAllCorrectivosSorted(todos, vehiculoId);
-
-        // Simple sort by date descend (pseudo-code, in real Java we'd use a better way)
-        return todos;
+    public CompletableFuture<ResponseEntity<?>> obtenerPorVehiculo(@PathVariable String vehiculoId,
+                                                                   @RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                                                   @RequestParam(defaultValue = "resumen") String vista) {
+        if (usuarioId == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id")));
+        }
+        // Antiguos, preventivos y correctivos a la vez, mezclados de más reciente a más antiguo
+        CompletableFuture<List<Object>> mantenimientos = vistaVehiculo.mantenimientos(usuarioId, vehiculoId);
+        return mantenimientos.handle((todos, error) -> {
+            if (error == null) {
+                return ResponseEntity.ok(enVista(todos, vista));
+            }
+            if (VistaVehiculoService.rechazada(mantenimientos)) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1")
+                        .body(Map.of("error", "Servidor ocupado, reintenta en unos segundos"));
+            }
+            throw error instanceof CompletionException ce ? ce : new CompletionException(error);
+        });
     }
 
-    private void addAllCorrectivosSorted(List<Object> list, String vehiculoId) {
-        list.addAll(correctivoRepository.findByVehiculoIdOrderByFechaDesc(vehiculoId));
+    private static List<?> enVista(List<Object> mantenimientos, String vista) {
+        return "completa".equals(vista) ? mantenimientos : mantenimientos.stream().map(MantenimientoResumen::de).toList();
     }
 
     @PostMapping("/preventivo")
-    public MantenimientoPreventivo crearPreventivo(@RequestBody MantenimientoPreventivo m) {
-        return preventivoRepository.save(m);
+    public ResponseEntity<?> crearPreventivo(@RequestBody MantenimientoPreventivo m) {
+        m.setUsuarioId(empresaDelVehiculo(m.getVehiculoId()));
+        try {
+            MantenimientoPreventivo anterior = guardar(m.getId(), m.getUsuarioId(), m);
+            if (anterior != null) {
+                informeCostesService.registrar(anterior, InformeCostesService.BAJA);
+            }
+        } catch (DuplicateKeyException e) {
+            return idAjeno();
+        }
+        informeCostesService.registrar(m, InformeCostesService.ALTA);
+        return ResponseEntity.ok(m);
     }
 
     @PostMapping("/correctivo")
-    public MantenimientoCorrectivo crearCorrectivo(@RequestBody MantenimientoCorrectivo m) {
-        return correctivoRepository.save(m);
+    public ResponseEntity<?> crearCorrectivo(@RequestBody MantenimientoCorrectivo m) {
+        m.setUsuarioId(empresaDelVehiculo(m.getVehiculoId()));
+        try {
+            MantenimientoCorrectivo anterior = guardar(m.getId(), m.getUsuarioId(), m);
+            if (anterior != null) {
+                informeCostesService.registrar(anterior, InformeCostesService.BAJA);
+            }
+        } catch (DuplicateKeyException e) {
+            return idAjeno();
+        }
+        informeCostesService.registrar(m, InformeCostesService.ALTA);
+        return ResponseEntity.ok(m);
+    }
+
+    /**
+     * Sin id es un alta. Con id es una modificación: se reemplaza de forma atómica y se
+     * devuelve lo que había (o null) para que el informe descuente el registro anterior.
+     * Un id de otra empresa no coincide con el filtro y el upsert choca con su _id.
+     */
+    private <T> T guardar(String id, String usuarioId, T registro) {
+        if (id == null) {
+            mongoTemplate.insert(registro);
+            return null;
+        }
+        Query query = new Query(Criteria.where("_id").is(id).and("usuarioId").is(usuarioId));
+        return mongoTemplate.findAndReplace(query, registro, FindAndReplaceOptions.options().upsert());
+    }
+
+    private static ResponseEntity<?> idAjeno() {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "El id ya pertenece a otro registro"));
+    }
+
+    // El mantenimiento es de la empresa dueña del vehículo
+    private String empresaDelVehiculo(String vehiculoId) {
+        return vehiculoId != null ? cacheEntidades.vehiculo(vehiculoId).map(Vehiculo::getUsuarioId).orElse(null) : null;
     }
 
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> eliminar(@PathVariable String id) {
-        if (mantenimientoRepository.existsById(id)) {
-            mantenimientoRepository.deleteById(id);
-        } else if (preventivoRepository.existsById(id)) {
-            preventivoRepository.deleteById(id);
-        } else if (correctivoRepository.existsById(id)) {
-            correctivoRepository.deleteById(id);
-        } else {
-            return ResponseEntity.notFound().build();
+        // findAndRemove devuelve el registro solo a la petición que lo borró: dos borrados
+        // simultáneos no lo descuentan dos veces de los informes de costes
+        Query porId = new Query(Criteria.where("_id").is(id));
+        Mantenimiento legacy = mongoTemplate.findAndRemove(porId, Mantenimiento.class);
+        if (legacy != null) {
+            informeCostesService.registrar(legacy, InformeCostesService.BAJA);
+            return ResponseEntity.noContent().build();
+        }
+        MantenimientoPreventivo preventivo = mongoTemplate.findAndRemove(porId, MantenimientoPreventivo.class);
+        if (preventivo != null) {
+            informeCostesService.registrar(preventivo, InformeCostesService.BAJA);
+            return ResponseEntity.noContent().build();
+        }
+        MantenimientoCorrectivo correctivo = mongoTemplate.findAndRemove(porId, MantenimientoCorrectivo.class);
+        if (correctivo != null) {
+            informeCostesService.registrar(correctivo, InformeCostesService.BAJA);
+            return ResponseEntity.noContent().build();
         }
-        return ResponseEntity.noContent().build();
+        return ResponseEntity.notFound().build();
     }
 }
@@ -0,0 +1,91 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.MapaCalorService;
+import com.ecofleet.util.Fechas;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+
+/**
+ * Mapas de calor de actividad histórica de la flota (dónde circula y dónde se detiene).
+ *
+ * ENDPOINTS:
+ * - GET /api/analytics/heatmap?bbox=oeste,sur,este,norte&zoom=&from=&to= → Celdas con fixes, permanencia y velocidad media (X-User-Id)
+ * - GET /api/analytics/heatmap/estadisticas                             → Fixes agregados, volcados y latencia de consulta
+ *
+ * from y to son días (UTC), ambos incluidos; por defecto los últimos 30 días. La
+ * precisión de las celdas la elige el servidor según el zoom.
+ */
+@RestController
+@RequestMapping("/api/analytics/heatmap")
+@CrossOrigin(origins = "*")
+public class MapaCalorController {
+
+    private static final int DIAS_POR_DEFECTO = 30;
+    private static final int MAX_DIAS = 366;
+
+    @Autowired
+    private MapaCalorService mapaCalor;
+
+    @GetMapping
+    public ResponseEntity<?> heatmap(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                     @RequestParam String bbox,
+                                     @RequestParam int zoom,
+                                     @RequestParam(required = false) String from,
+                                     @RequestParam(required = false) String to) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        String[] partes = bbox.split(",");
+        if (partes.length != 4) {
+            return ResponseEntity.badRequest().body(Map.of("error", "bbox debe ser oeste,sur,este,norte"));
+        }
+        LocalDate hasta;
+        LocalDate desde;
+        try {
+            hasta = to != null ? Fechas.dia(to) : LocalDate.now(ZoneOffset.UTC);
+            desde = from != null ? Fechas.dia(from) : hasta.minusDays(DIAS_POR_DEFECTO - 1);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Fecha no válida: " + e.getParsedString()));
+        }
+        if (desde.isAfter(hasta) || ChronoUnit.DAYS.between(desde, hasta) >= MAX_DIAS) {
+            return ResponseEntity.badRequest().body(Map.of("error", "El rango de días debe ir de from a to y no pasar de " + MAX_DIAS));
+        }
+        try {
+            double oeste = Double.parseDouble(partes[0].trim());
+            double sur = Double.parseDouble(partes[1].trim());
+            double este = Double.parseDouble(partes[2].trim());
+            double norte = Double.parseDouble(partes[3].trim());
+            if (sur > norte || Math.abs(sur) > 90 || Math.abs(norte) > 90) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Latitudes del bbox no válidas"));
+            }
+            // Leaflet da longitudes fuera de [-180, 180] al desplazarse por el mundo repetido
+            if (este - oeste >= 360) {
+                oeste = -180;
+                este = 180;
+            } else {
+                oeste = normalizarLongitud(oeste);
+                este = normalizarLongitud(este);
+            }
+            return ResponseEntity.ok(mapaCalor.heatmap(usuarioId, zoom, oeste, sur, este, norte, desde, hasta));
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "bbox no numérico"));
+        }
+    }
+
+    @GetMapping("/estadisticas")
+    public Map<String, Object> estadisticas() {
+        return mapaCalor.estadisticas();
+    }
+
+    private static double normalizarLongitud(double longitud) {
+        double normalizada = ((longitud + 180) % 360 + 360) % 360 - 180;
+        return normalizada == -180 && longitud > 0 ? 180 : normalizada;
+    }
+}
@@ -2,22 +2,75 @@ package com.ecofleet.controller;
 
 import com.ecofleet.model.Mensaje;
 import com.ecofleet.repository.MensajeRepository;
+import com.ecofleet.service.ArchivadoService;
+import com.ecofleet.service.CacheEntidadesService;
+import com.ecofleet.service.CanalConductoresService;
+import com.ecofleet.service.DifusionCambiosService;
+import com.ecofleet.util.Fechas;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Range;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/mensajes")
 @CrossOrigin(origins = "*")
 public class MensajeController {
 
+    private static final int LIMITE_RANGO_MAXIMO = 5000;
+
     @Autowired
     private MensajeRepository mensajeRepository;
 
+    @Autowired
+    private ArchivadoService archivadoService;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @Autowired
+    private CanalConductoresService canalConductores;
+
+    // Mensajes del usuario en [desde, hasta); una fecha sola cubre el día entero (índice usuarioId + timestamp)
+    @GetMapping("/rango")
+    public ResponseEntity<?> mensajesEnRango(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                             @RequestParam String desde,
+                                             @RequestParam String hasta,
+                                             @RequestParam(defaultValue = "1000") int limite) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        try {
+            Range<LocalDateTime> rango = Range.rightOpen(Fechas.desde(desde), Fechas.hasta(hasta));
+            PageRequest pagina = PageRequest.of(0, Math.max(1, Math.min(limite, LIMITE_RANGO_MAXIMO)));
+            return ResponseEntity.ok(mensajeRepository.findByUsuarioIdAndTimestampBetweenOrderByTimestampAsc(usuarioId, rango, pagina));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Fecha no válida: " + e.getParsedString()));
+        }
+    }
+
     @GetMapping("/{rutaId}")
-    public List<Mensaje> obtenerMensajes(@PathVariable String rutaId) {
-        return mensajeRepository.findByRutaIdOrderByTimestampAsc(rutaId);
+    public ResponseEntity<?> obtenerMensajes(@PathVariable String rutaId,
+                                             @RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                             @RequestParam(defaultValue = "false") boolean includeArchived) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        List<Mensaje> mensajes = mensajeRepository.findByUsuarioIdAndRutaIdOrderByTimestampAsc(usuarioId, rutaId);
+        // El chat se archiva junto con su ruta: si no queda nada en caliente se mira el archivo
+        if (mensajes.isEmpty() && includeArchived) {
+            return ResponseEntity.ok(archivadoService.buscarMensajes(rutaId));
+        }
+        return ResponseEntity.ok(mensajes);
     }
 
     @PostMapping
@@ -25,6 +78,14 @@ public class MensajeController {
         if (usuarioId != null) {
             mensaje.setUsuarioId(usuarioId);
         }
-        return mensajeRepository.save(mensaje);
+        Mensaje guardado = mensajeRepository.save(mensaje);
+        difusion.mensajeGuardado(guardado);
+        if ("ADMIN".equals(guardado.getRemitente()) && guardado.getRutaId() != null && guardado.getContenido() != null) {
+            cacheEntidades.ruta(guardado.getRutaId())
+                    .filter(ruta -> ruta.getConductorId() != null)
+                    .ifPresent(ruta -> canalConductores.enviar(ruta.getConductorId(), guardado.getUsuarioId(),
+                            CanalConductoresService.MENSAJE, ruta.getId(), Map.of("contenido", guardado.getContenido())));
+        }
+        return guardado;
     }
 }
@@ -0,0 +1,38 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.MigracionFechasService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Migraciones de datos en línea.
+ *
+ * ENDPOINTS:
+ * - GET  /api/migraciones/fechas              → Progreso de la conversión de fechas de texto a Date
+ * - POST /api/migraciones/fechas?desdeCero=   → Relanza la migración (desdeCero olvida el progreso guardado)
+ */
+@RestController
+@RequestMapping("/api/migraciones")
+@CrossOrigin(origins = "*")
+public class MigracionController {
+
+    @Autowired
+    private MigracionFechasService migracionFechas;
+
+    @GetMapping("/fechas")
+    public Map<String, Object> estadoFechas() {
+        return migracionFechas.estadisticas();
+    }
+
+    @PostMapping("/fechas")
+    public ResponseEntity<?> lanzarFechas(@RequestParam(defaultValue = "false") boolean desdeCero) {
+        if (!migracionFechas.lanzar(desdeCero)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "La migración ya está en curso"));
+        }
+        return ResponseEntity.accepted().body(Map.of("estado", "LANZADA"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.OptimizadorAsignacionService;
+import com.ecofleet.service.OptimizadorAsignacionService.ResultadoOptimizacion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Asignación automática de vehículos y conductores a las rutas planificadas.
+ *
+ * ENDPOINTS:
+ * - POST /api/optimizacion/asignar   → Propone (o aplica con aplicar=true) la asignación
+ * - GET  /api/optimizacion/benchmark → Ejecuta el optimizador sobre una instancia generada (solo con ecofleet.benchmarks.habilitado)
+ */
+@RestController
+@RequestMapping("/api/optimizacion")
+@CrossOrigin(origins = "*")
+public class OptimizacionController {
+
+    private static final int MAX_RUTAS_BENCHMARK = 20_000;
+
+    @Autowired
+    private OptimizadorAsignacionService optimizadorService;
+
+    @Value("${ecofleet.benchmarks.habilitado:false}")
+    private boolean benchmarksHabilitado;
+
+    @PostMapping("/asignar")
+    public ResponseEntity<?> asignar(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                     @RequestParam(required = false) Long presupuestoMs,
+                                     @RequestParam(required = false) Integer maxRutasPorVehiculo,
+                                     @RequestParam(defaultValue = "false") boolean aplicar) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        return ResponseEntity.ok(optimizadorService.optimizar(usuarioId, presupuestoMs, maxRutasPorVehiculo, aplicar));
+    }
+
+    @GetMapping("/benchmark")
+    public ResponseEntity<?> benchmark(@RequestParam(defaultValue = "1000") int rutas,
+                                       @RequestParam(defaultValue = "100") int vehiculos,
+                                       @RequestParam(defaultValue = "42") long semilla,
+                                       @RequestParam(required = false) Long presupuestoMs) {
+        if (!benchmarksHabilitado) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Los benchmarks están deshabilitados (ecofleet.benchmarks.habilitado)"));
+        }
+        if (rutas < 1 || rutas > MAX_RUTAS_BENCHMARK || vehiculos < 1 || vehiculos > rutas) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Parámetros de instancia fuera de rango"));
+        }
+        ResultadoOptimizacion resultado = optimizadorService.benchmark(rutas, vehiculos, semilla, presupuestoMs);
+        // El detalle de asignaciones de una instancia sintética no interesa, solo las métricas
+        resultado.getAsignaciones().clear();
+        resultado.getSinAsignar().clear();
+        return ResponseEntity.ok(resultado);
+    }
+}
@@ -1,30 +1,111 @@
 package com.ecofleet.controller;
 
 import com.ecofleet.model.Repostaje;
+import com.ecofleet.model.Vehiculo;
 import com.ecofleet.repository.RepostajeRepository;
+import com.ecofleet.repository.VehiculoRepository;
+import com.ecofleet.service.InformeCostesService;
+import com.ecofleet.util.Fechas;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/repostajes")
 public class RepostajeController {
 
+    private static final int LIMITE_RANGO_MAXIMO = 5000;
+
     @Autowired
     private RepostajeRepository repostajeRepository;
 
+    @Autowired
+    private InformeCostesService informeCostesService;
+
+    @Autowired
+    private VehiculoRepository vehiculoRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     @GetMapping("/vehiculo/{vehiculoId}")
-    public List<Repostaje> obtenerRepostajesPorVehiculo(@PathVariable String vehiculoId) {
-        return repostajeRepository.findByVehiculoId(vehiculoId);
+    public ResponseEntity<?> obtenerRepostajesPorVehiculo(@PathVariable String vehiculoId,
+                                                          @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        return ResponseEntity.ok(repostajeRepository.findByUsuarioIdAndVehiculoId(usuarioId, vehiculoId));
+    }
+
+    // Repostajes de la empresa en [desde, hasta); una fecha sola cubre el día entero (índice usuario_fecha)
+    @GetMapping("/rango")
+    public ResponseEntity<?> repostajesEnRango(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                               @RequestParam String desde,
+                                               @RequestParam String hasta,
+                                               @RequestParam(defaultValue = "1000") int limite) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        try {
+            Range<LocalDateTime> rango = Range.rightOpen(Fechas.desde(desde), Fechas.hasta(hasta));
+            PageRequest pagina = PageRequest.of(0, Math.max(1, Math.min(limite, LIMITE_RANGO_MAXIMO)));
+            return ResponseEntity.ok(repostajeRepository.findByUsuarioIdAndFechaBetweenOrderByFechaAsc(usuarioId, rango, pagina));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Fecha no válida: " + e.getParsedString()));
+        }
     }
 
     @PostMapping
-    public Repostaje crearRepostaje(@RequestBody Repostaje repostaje) {
+    public ResponseEntity<?> crearRepostaje(@RequestBody Repostaje repostaje) {
         if (repostaje.getFecha() == null) {
             repostaje.setFecha(LocalDateTime.now());
         }
-        return repostajeRepository.save(repostaje);
+        // El repostaje es de la empresa dueña del vehículo
+        if (repostaje.getVehiculoId() != null) {
+            vehiculoRepository.findById(repostaje.getVehiculoId())
+                    .map(Vehiculo::getUsuarioId)
+                    .ifPresent(repostaje::setUsuarioId);
+        }
+        if (repostaje.getId() == null) {
+            mongoTemplate.insert(repostaje);
+        } else {
+            // Con id es una modificación: se descuenta lo que había y se suma lo nuevo. Un id
+            // de otra empresa no coincide con el filtro y el upsert choca con su _id
+            Query query = new Query(Criteria.where("_id").is(repostaje.getId()).and("usuarioId").is(repostaje.getUsuarioId()));
+            try {
+                Repostaje anterior = mongoTemplate.findAndReplace(query, repostaje, FindAndReplaceOptions.options().upsert());
+                if (anterior != null) {
+                    informeCostesService.registrar(anterior, InformeCostesService.BAJA);
+                }
+            } catch (DuplicateKeyException e) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "El id ya pertenece a otro registro"));
+            }
+        }
+        informeCostesService.registrar(repostaje, InformeCostesService.ALTA);
+        return ResponseEntity.ok(repostaje);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> eliminarRepostaje(@PathVariable String id) {
+        // Solo la petición que de verdad lo borra recibe el registro y lo descuenta de los informes
+        Repostaje borrado = mongoTemplate.findAndRemove(new Query(Criteria.where("_id").is(id)), Repostaje.class);
+        if (borrado == null) {
+            return ResponseEntity.notFound().build();
+        }
+        informeCostesService.registrar(borrado, InformeCostesService.BAJA);
+        return ResponseEntity.noContent().build();
     }
 }
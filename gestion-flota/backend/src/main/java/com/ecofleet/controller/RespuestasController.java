@@ -0,0 +1,46 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.service.MedicionRespuestasService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Tamaño y coste de serialización de los listados JSON.
+ *
+ * ENDPOINTS:
+ * - GET /api/respuestas/benchmark?iteraciones= → Por endpoint de listado: bytes (JSON, gzip, enviados) y CPU
+ *                                                 con entidades completas frente a los modelos de listado (X-User-Id;
+ *                                                 solo con ecofleet.benchmarks.habilitado)
+ */
+@RestController
+@RequestMapping("/api/respuestas")
+@CrossOrigin(origins = "*")
+public class RespuestasController {
+
+    @Autowired
+    private MedicionRespuestasService medicion;
+
+    @Value("${ecofleet.benchmarks.habilitado:false}")
+    private boolean benchmarksHabilitado;
+
+    @GetMapping("/benchmark")
+    public ResponseEntity<?> benchmark(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                       @RequestParam(defaultValue = "200") int iteraciones) {
+        if (!benchmarksHabilitado) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "Los benchmarks están deshabilitados (ecofleet.benchmarks.habilitado)"));
+        }
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        if (iteraciones < 1 || iteraciones > 10_000) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Parámetros fuera de rango"));
+        }
+        return ResponseEntity.ok(medicion.benchmark(usuarioId, iteraciones));
+    }
+}
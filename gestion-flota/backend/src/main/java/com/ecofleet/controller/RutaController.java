@@ -1,27 +1,121 @@
 package com.ecofleet.controller;
 
+import com.ecofleet.model.ComandoConductor;
 import com.ecofleet.model.Ruta;
+import com.ecofleet.model.RutaResumen;
 import com.ecofleet.repository.RutaRepository;
+import com.ecofleet.service.ArchivadoService;
+import com.ecofleet.service.CacheEntidadesService;
+import com.ecofleet.service.CanalConductoresService;
+import com.ecofleet.service.DifusionCambiosService;
+import com.ecofleet.service.EventosRutaService;
+import com.ecofleet.service.LimitadorIngestaService;
+import com.ecofleet.service.LimpiezaCascadaService;
+import com.ecofleet.service.MapaCalorService;
+import com.ecofleet.service.MetricasService;
+import com.ecofleet.util.Fechas;
+import com.ecofleet.util.LogMuestreado;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Objects;
+import java.util.function.Supplier;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
 @RestController
 @RequestMapping("/api/rutas")
 @CrossOrigin(origins = "*")
 public class RutaController {
 
+    private static final int LIMITE_RANGO_MAXIMO = 5000;
+
+    private static final String VISTA_COMPLETA = "completa";
+
+    // La ingesta GPS llega cada 1-2 s por dispositivo: como mucho una línea por segundo
+    private static final LogMuestreado logGps = new LogMuestreado(LoggerFactory.getLogger(RutaController.class), 1000);
+
     @Autowired
     private RutaRepository rutaRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MetricasService metricasService;
+
+    @Autowired
+    private ArchivadoService archivadoService;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    @Autowired
+    private CanalConductoresService canalConductores;
+
+    @Autowired
+    private LimitadorIngestaService limitadorIngesta;
+
+    @Autowired
+    private EventosRutaService eventosRuta;
+
+    @Autowired
+    private MapaCalorService mapaCalor;
+
+    @Autowired
+    private LimpiezaCascadaService limpieza;
+
+    // Los listados devuelven RutaResumen; vista=completa devuelve las rutas enteras
     @GetMapping
-    public List<Ruta> listarRutas(@RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
-        if (usuarioId != null) {
-            return rutaRepository.findByUsuarioId(usuarioId);
+    public ResponseEntity<?> listarRutas(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                         @RequestParam(defaultValue = "false") boolean includeArchived,
+                                         @RequestParam(defaultValue = "resumen") String vista) {
+        // Sin empresa no se listan las rutas de todas
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        boolean completa = VISTA_COMPLETA.equals(vista);
+        List<Ruta> rutas = completa ? rutaRepository.findByUsuarioId(usuarioId) : rutaRepository.findResumenByUsuarioId(usuarioId);
+        if (includeArchived) {
+            rutas.addAll(archivadoService.rutasDeUsuario(usuarioId));
+        }
+        return ResponseEntity.ok(enVista(rutas, completa));
+    }
+
+    // Rutas del usuario planificadas entre dos días, ambos incluidos (índice usuarioId + fecha)
+    @GetMapping("/rango")
+    public ResponseEntity<?> rutasEnRango(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                          @RequestParam String desde,
+                                          @RequestParam String hasta,
+                                          @RequestParam(defaultValue = "1000") int limite,
+                                          @RequestParam(defaultValue = "resumen") String vista) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        try {
+            Range<LocalDate> rango = Range.closed(Fechas.dia(desde), Fechas.dia(hasta));
+            PageRequest pagina = PageRequest.of(0, Math.max(1, Math.min(limite, LIMITE_RANGO_MAXIMO)));
+            return ResponseEntity.ok(enVista(rutaRepository.findByUsuarioIdAndFechaBetweenOrderByFechaAsc(usuarioId, rango, pagina),
+                    VISTA_COMPLETA.equals(vista)));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Fecha no válida: " + e.getParsedString()));
         }
-        return rutaRepository.findAll();
     }
 
     @PostMapping
@@ -32,30 +126,105 @@ public class RutaController {
         if (ruta.getEstado() == null) {
             ruta.setEstado("PLANIFICADA");
         }
-        return rutaRepository.save(ruta);
+        Ruta guardada = rutaRepository.save(ruta);
+        eventosRuta.creada(guardada);
+        cacheEntidades.rutaGuardada(guardada);
+        difusion.rutaGuardada(guardada);
+        canalConductores.avisarRuta(guardada, CanalConductoresService.RUTA_ASIGNADA);
+        return guardada;
     }
     
     @GetMapping("/vehiculo/{vehiculoId}")
-    public List<Ruta> obtenerRutasPorVehiculo(@PathVariable String vehiculoId) {
-        return rutaRepository.findByVehiculoId(vehiculoId);
+    public ResponseEntity<?> obtenerRutasPorVehiculo(@PathVariable String vehiculoId,
+                                                     @RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                                     @RequestParam(defaultValue = "false") boolean includeArchived,
+                                                     @RequestParam(defaultValue = "resumen") String vista) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        List<Ruta> rutas = rutaRepository.findByUsuarioIdAndVehiculoId(usuarioId, vehiculoId);
+        if (includeArchived) {
+            rutas.addAll(archivadoService.rutasDeVehiculo(usuarioId, vehiculoId));
+        }
+        return ResponseEntity.ok(enVista(rutas, VISTA_COMPLETA.equals(vista)));
+    }
+
+    private static List<?> enVista(List<Ruta> rutas, boolean completa) {
+        return completa ? rutas : rutas.stream().map(RutaResumen::de).toList();
     }
 
     @PutMapping("/{id}")
-    public Ruta actualizarRuta(@PathVariable String id, @RequestBody Ruta rutaActualizada) {
+    public ResponseEntity<?> actualizarRuta(@PathVariable String id, @RequestBody Ruta rutaActualizada,
+                                            HttpServletRequest request) {
+        if (!esSoloPosicion(rutaActualizada)) {
+            // La posición que esperaba turno es anterior a este cambio: no debe aplicarse después
+            limitadorIngesta.anularPendiente(id);
+            return ResponseEntity.ok(aplicarActualizacion(id, rutaActualizada));
+        }
+        // Diferida solo se aplica la posición: el "EN_CURSO" que la acompaña podría reabrir una
+        // ruta completada entre tanto
+        Ruta soloPosicion = new Ruta();
+        soloPosicion.setLatitudActual(rutaActualizada.getLatitudActual());
+        soloPosicion.setLongitudActual(rutaActualizada.getLongitudActual());
+        return limitarIngesta(id, request, () -> aplicarActualizacion(id, rutaActualizada),
+                () -> aplicarActualizacion(id, soloPosicion));
+    }
+
+    // Android repite "EN_CURSO" en cada posición; los cambios de estado reales no se limitan
+    private static boolean esSoloPosicion(Ruta cambios) {
+        return cambios.getLatitudActual() != null && cambios.getLongitudActual() != null
+                && (cambios.getEstado() == null || "EN_CURSO".equals(cambios.getEstado()))
+                && cambios.getDesviado() == null;
+    }
+
+    private ResponseEntity<?> limitarIngesta(String id, HttpServletRequest request, Supplier<Ruta> aplicar, Runnable diferida) {
+        // El cliente se limita antes de buscar la ruta: las ids que no existen cuestan un
+        // token del cliente y una ausencia cacheada, nunca una cubeta de ruta
+        if (!limitadorIngesta.admitirCliente(request.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Retry-After", "1")
+                    .body(Map.of("error", "Demasiadas posiciones desde este cliente, reintenta en unos segundos"));
+        }
+        Optional<Ruta> ruta = cacheEntidades.ruta(id);
+        if (ruta.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        String decision = limitadorIngesta.admitir(id, ruta.get().getUsuarioId(), diferida);
+        if (LimitadorIngestaService.ADMITIDA.equals(decision)) {
+            return ResponseEntity.ok(aplicar.get());
+        }
+        if (LimitadorIngestaService.COALESCIDA.equals(decision)) {
+            // Se aplicará la última posición recibida en cuanto la ruta tenga token
+            return ResponseEntity.accepted().body(Map.of("estado", "COALESCIDA"));
+        }
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header("Retry-After", "1")
+                .body(Map.of("error", "Demasiadas posiciones para esta ruta, reintenta en unos segundos"));
+    }
+
+    private Ruta aplicarActualizacion(String id, Ruta rutaActualizada) {
         return rutaRepository.findById(id)
                 .map(ruta -> {
+                    Map<String, Object> antes = eventosRuta.campos(ruta);
+                    String estadoAnterior = ruta.getEstado();
+                    Double latitudAnterior = ruta.getLatitudActual();
+                    Double longitudAnterior = ruta.getLongitudActual();
+                    Instant instanteAnterior = ruta.getUltimaActualizacionGPS();
                     // Si se está iniciando la ruta (cambio a EN_CURSO) y no tiene posición GPS actual
                     // Inicializar con la posición de origen
                     if (rutaActualizada.getEstado() != null && 
                         "EN_CURSO".equals(rutaActualizada.getEstado()) && 
                         ruta.getLatitudActual() == null) {
                        
-                        System.out.println("[RutaController] Iniciando ruta - ESPERANDO GPS REAL del dispositivo");
+                        logGps.debug("Iniciando ruta {} - esperando GPS real del dispositivo", id);
                         // NO inicializar con origen - esperar GPS real del emulador/dispositivo
                         ruta.setLatitudActual(null);
                         ruta.setLongitudActual(null);
                     }
                     
+                    if ("COMPLETADA".equals(rutaActualizada.getEstado()) && !"COMPLETADA".equals(ruta.getEstado())) {
+                        ruta.setFechaCompletada(Fechas.ahora());
+                    }
                     if (rutaActualizada.getEstado() != null) {
                         ruta.setEstado(rutaActualizada.getEstado());
                     }
@@ -66,44 +235,73 @@ public class RutaController {
                         ruta.setLongitudActual(rutaActualizada.getLongitudActual());
                     }
                     
-                    if (rutaActualizada.getLatitudActual() != null || rutaActualizada.getLongitudActual() != null) {
-                        String timestamp = Instant.now().toString();
-                        ruta.setUltimaActualizacionGPS(timestamp);
+                    boolean conPosicion = rutaActualizada.getLatitudActual() != null || rutaActualizada.getLongitudActual() != null;
+                    if (conPosicion) {
+                        ruta.setUltimaActualizacionGPS(Fechas.ahora());
+                        metricasService.registrarFixGps(ruta.getUsuarioId());
                     }
                     
                     if (rutaActualizada.getDesviado() != null) ruta.setDesviado(rutaActualizada.getDesviado());
                     
-                    return rutaRepository.save(ruta);
+                    Ruta guardada = eventosRuta.guardar(ruta, antes);
+                    cacheEntidades.rutaGuardada(guardada);
+                    difusion.rutaGuardada(guardada);
+                    if (conPosicion) {
+                        mapaCalor.registrarFix(guardada, latitudAnterior, longitudAnterior, instanteAnterior);
+                    }
+                    // Android repite el estado en cada posición: solo se avisa si cambia de verdad
+                    if (!Objects.equals(guardada.getEstado(), estadoAnterior)) {
+                        canalConductores.avisarRuta(guardada, CanalConductoresService.RUTA_ESTADO);
+                    }
+                    return guardada;
                 })
                 .orElse(null);
     }
 
     @GetMapping("/{id}")
-    public Ruta obtenerRuta(@PathVariable String id) {
-        return rutaRepository.findById(id).orElse(null);
+    public ResponseEntity<?> obtenerRuta(@PathVariable String id,
+                                         @RequestParam(defaultValue = "false") boolean includeArchived,
+                                         @RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                         HttpServletRequest request) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        Ruta ruta = cacheEntidades.ruta(id).orElse(null);
+        if (ruta != null) {
+            metricasService.registrarLectura(clienteDe(request), id, ruta.getUltimaActualizacionGPS());
+        } else if (includeArchived) {
+            ruta = archivadoService.buscarRuta(id).orElse(null);
+        }
+        return ResponseEntity.ok(ruta);
     }
 
     // Endpoint específico para que Android envíe actualizaciones de GPS en tiempo real
     @PostMapping("/{id}/gps")
-    public Ruta actualizarGPS(@PathVariable String id, @RequestBody GPSCoordinates gps) {
-        System.out.println("[RutaController] 📱 GPS RECIBIDO de Android: " + gps);
+    public ResponseEntity<?> actualizarGPS(@PathVariable String id, @RequestBody GPSCoordinates gps,
+                                           HttpServletRequest request) {
+        logGps.debug("GPS recibido para ruta {}: {}", id, gps);
+        return limitarIngesta(id, request, () -> aplicarGps(id, gps), () -> aplicarGps(id, gps));
+    }
+
+    private Ruta aplicarGps(String id, GPSCoordinates gps) {
         return rutaRepository.findById(id)
                 .map(ruta -> {
+                    Map<String, Object> antes = eventosRuta.campos(ruta);
                     // Guardar posición anterior para calcular velocidad
                     Double latitudAnterior = ruta.getLatitudActual();
                     Double longitudAnterior = ruta.getLongitudActual();
-                    String timestampAnterior = ruta.getUltimaActualizacionGPS();
+                    Instant instanteAnterior = ruta.getUltimaActualizacionGPS();
                     
                     // Actualizar posición actual
                     ruta.setLatitudActual(gps.getLatitud());
                     ruta.setLongitudActual(gps.getLongitud());
                     
                     // Guardar timestamp actual
-                    String timestampActual = Instant.now().toString();
-                    ruta.setUltimaActualizacionGPS(timestampActual);
+                    Instant instanteActual = Fechas.ahora();
+                    ruta.setUltimaActualizacionGPS(instanteActual);
                     
                     // Calcular velocidad si tenemos posición y timestamp anterior
-                    if (latitudAnterior != null && longitudAnterior != null && timestampAnterior != null) {
+                    if (latitudAnterior != null && longitudAnterior != null && instanteAnterior != null) {
                         try {
                             // Calcular distancia recorrida en km
                             double distanciaRecorrida = calcularDistancia(
@@ -112,8 +310,6 @@ public class RutaController {
                             );
                             
                             // Calcular tiempo transcurrido en horas
-                            Instant instanteAnterior = Instant.parse(timestampAnterior);
-                            Instant instanteActual = Instant.parse(timestampActual);
                             double segundosTranscurridos = (instanteActual.toEpochMilli() - instanteAnterior.toEpochMilli()) / 1000.0;
                             double horasTranscurridas = segundosTranscurridos / 3600.0;
                             
@@ -127,7 +323,7 @@ public class RutaController {
                                 ruta.setVelocidadActualKmh(0.0); // Detenido
                             }
                         } catch (Exception e) {
-                            System.err.println("[RutaController] Error calculando velocidad: " + e.getMessage());
+                            logGps.warn("Error calculando velocidad de la ruta {}: {}", id, e.getMessage());
                             ruta.setVelocidadActualKmh(0.0);
                         }
                     } else {
@@ -157,33 +353,81 @@ public class RutaController {
                         ruta.setDesviado(distanciaActualADestino > (distanciaTotal * 1.2));
                     }
                     
-                    return rutaRepository.save(ruta);
+                    metricasService.registrarFixGps(ruta.getUsuarioId());
+                    Ruta guardada = eventosRuta.guardar(ruta, antes);
+                    cacheEntidades.rutaGuardada(guardada);
+                    difusion.rutaGuardada(guardada);
+                    mapaCalor.registrarFix(guardada, latitudAnterior, longitudAnterior, instanteAnterior);
+                    return guardada;
                 })
                 .orElse(null);
     }
 
     // Endpoint para obtener última ubicación conocida
     @GetMapping("/{id}/last-location")
-    public GPSCoordinates obtenerUltimaUbicacion(@PathVariable String id) {
-        return rutaRepository.findById(id)
+    public ResponseEntity<?> obtenerUltimaUbicacion(@PathVariable String id,
+                                                    @RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                                    HttpServletRequest request) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        GPSCoordinates ubicacion = cacheEntidades.ruta(id)
                 .map(ruta -> {
+                    metricasService.registrarLectura(clienteDe(request), id, ruta.getUltimaActualizacionGPS());
                     GPSCoordinates gps = new GPSCoordinates();
                     gps.setLatitud(ruta.getLatitudActual());
                     gps.setLongitud(ruta.getLongitudActual());
                     return gps;
                 })
                 .orElse(null);
+        return ResponseEntity.ok(ubicacion);
     }
 
     // Endpoint para solicitar actualización de GPS al dispositivo móvil
     @PostMapping("/{id}/request-gps")
-    public String solicitarGPSMovil(@PathVariable String id) {
-        return "GPS_REQUEST_SENT";
+    public ResponseEntity<?> solicitarGPSMovil(@PathVariable String id,
+                                               @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        Ruta ruta = cacheEntidades.ruta(id).orElse(null);
+        if (ruta == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (ruta.getConductorId() == null) {
+            return ResponseEntity.unprocessableEntity().body(Map.of("error", "La ruta no tiene conductor asignado"));
+        }
+        ComandoConductor comando = canalConductores.enviar(ruta.getConductorId(), ruta.getUsuarioId(),
+                CanalConductoresService.ENVIAR_POSICION, id, null);
+        // El dispositivo confirma con un ack; el estado se consulta en /api/conductores/canal/comandos/{id}
+        return ResponseEntity.accepted().body(Map.of("estado", "GPS_REQUEST_SENT", "comandoId", comando.getId()));
     }
 
     @DeleteMapping("/{id}")
-    public void eliminarRuta(@PathVariable String id) {
-        rutaRepository.deleteById(id);
+    public ResponseEntity<?> eliminarRuta(@PathVariable String id,
+                                          @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        // Solo si de verdad se borró una ruta de la empresa: la limpieza borra por rutaId
+        Ruta borrada = mongoTemplate.findAndRemove(
+                new Query(Criteria.where("_id").is(id).and("usuarioId").is(usuarioId)), Ruta.class);
+        if (borrada == null) {
+            return ResponseEntity.notFound().build();
+        }
+        limitadorIngesta.anularPendiente(id);
+        eventosRuta.eliminada(id, borrada.getUsuarioId());
+        cacheEntidades.rutaEliminada(id);
+        difusion.rutaEliminada(id);
+        // Mensajes, alertas, comandos y snapshots de la ruta se borran en segundo plano
+        limpieza.encolar(LimpiezaCascadaService.RUTA, id, borrada.getUsuarioId());
+        return ResponseEntity.noContent().build();
+    }
+
+    // Identifica al visor para contar suscriptores por polling
+    private static String clienteDe(HttpServletRequest request) {
+        String usuarioId = request.getHeader("X-User-Id");
+        return usuarioId != null ? usuarioId + "@" + request.getRemoteAddr() : request.getRemoteAddr();
     }
 
     // Clase interna para recibir coordenadas GPS
@@ -0,0 +1,68 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.model.Ruta;
+import com.ecofleet.service.CacheEntidadesService;
+import com.ecofleet.service.DifusionCambiosService;
+import com.ecofleet.service.SuscripcionesService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Cambios de rutas y chat en tiempo real por Server-Sent Events.
+ *
+ * ENDPOINTS:
+ * - GET /api/rutas/stream?rutaId=     → Eventos "ruta", "ruta-eliminada" y "mensaje" de una ruta de la empresa
+ * - GET /api/rutas/stream?usuarioId=  → Los mismos eventos para todas las rutas de la empresa
+ * - GET /api/rutas/stream/estado      → Modo de difusión del nodo (change-stream o local) y contadores
+ *
+ * EventSource no permite cabeceras, por eso la empresa también se acepta como parámetro.
+ */
+@RestController
+@RequestMapping("/api/rutas/stream")
+@CrossOrigin(origins = "*")
+public class SuscripcionController {
+
+    @Autowired
+    private SuscripcionesService suscripciones;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> suscribir(@RequestParam(required = false) String rutaId,
+                                       @RequestParam(required = false) String usuarioId,
+                                       @RequestHeader(value = "X-User-Id", required = false) String cabeceraUsuario) {
+        String empresa = usuarioId != null ? usuarioId : cabeceraUsuario;
+        if (rutaId == null && empresa == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Indica rutaId o usuarioId"));
+        }
+        if (rutaId != null) {
+            if (empresa == null) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+            }
+            // Una ruta de otra empresa se responde como inexistente
+            Optional<Ruta> ruta = cacheEntidades.ruta(rutaId);
+            if (ruta.isEmpty() || !empresa.equals(ruta.get().getUsuarioId())) {
+                return ResponseEntity.notFound().build();
+            }
+        }
+        SseEmitter emitter = suscripciones.suscribir(empresa, rutaId);
+        return ResponseEntity.ok()
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+
+    @GetMapping("/estado")
+    public ResponseEntity<?> estado() {
+        return ResponseEntity.ok(difusion.estadisticas());
+    }
+}
@@ -2,12 +2,29 @@ package com.ecofleet.controller;
 
 import com.ecofleet.model.Vehiculo;
 import com.ecofleet.repository.VehiculoRepository;
+import com.ecofleet.service.CacheEntidadesService;
+import com.ecofleet.service.DifusionCambiosService;
+import com.ecofleet.service.LimpiezaCascadaService;
+import com.ecofleet.service.VistaVehiculoService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * ENDPOINTS:
+ * - GET    /api/vehiculos                → Vehículos de la empresa (X-User-Id)
+ * - POST   /api/vehiculos                → Crea un vehículo de la empresa (X-User-Id)
+ * - GET    /api/vehiculos/{id}           → Un vehículo de la empresa (X-User-Id)
+ * - GET    /api/vehiculos/{id}/overview  → Vehículo, últimas rutas, combustible y mantenimientos en una respuesta (X-User-Id)
+ * - DELETE /api/vehiculos/{id}           → Elimina un vehículo de la empresa (X-User-Id); sus rutas, repostajes y mantenimientos se borran en segundo plano
+ */
 @RestController
 @RequestMapping("/api/vehiculos")
 @CrossOrigin(origins = "*")
@@ -16,36 +33,87 @@ public class VehiculoController {
     @Autowired
     private VehiculoRepository vehiculoRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    @Autowired
+    private VistaVehiculoService vistaVehiculo;
+
+    @Autowired
+    private LimpiezaCascadaService limpieza;
+
     @GetMapping
-    public List<Vehiculo> obtenerTodos(@RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
-        if (usuarioId != null) {
-            return vehiculoRepository.findByUsuarioId(usuarioId);
+    public ResponseEntity<?> obtenerTodos(@RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        // Sin empresa no se listan los vehículos de todas
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
         }
-        return vehiculoRepository.findAll();
+        return ResponseEntity.ok(vehiculoRepository.findByUsuarioId(usuarioId));
     }
 
     @PostMapping
-    public Vehiculo crearVehiculo(@RequestBody Vehiculo vehiculo, 
-                                 @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
-        if (usuarioId != null) {
-            vehiculo.setUsuarioId(usuarioId);
+    public ResponseEntity<?> crearVehiculo(@RequestBody Vehiculo vehiculo,
+                                           @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        // Un vehículo sin empresa no lo vería nadie
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
         }
-        return vehiculoRepository.save(vehiculo);
+        vehiculo.setUsuarioId(usuarioId);
+        Vehiculo guardado = vehiculoRepository.save(vehiculo);
+        cacheEntidades.vehiculoGuardado(guardado);
+        difusion.vehiculoGuardado(guardado);
+        return ResponseEntity.ok(guardado);
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Vehiculo> obtenerVehiculo(@PathVariable String id) {
-        return vehiculoRepository.findById(id)
-                .map(ResponseEntity::ok)
+    public ResponseEntity<?> obtenerVehiculo(@PathVariable String id,
+                                             @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        return cacheEntidades.vehiculo(id)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @GetMapping("/{id}/overview")
+    public CompletableFuture<ResponseEntity<?>> obtenerVista(@PathVariable String id,
+                                                             @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id")));
+        }
+        return vistaVehiculo.vista(id, usuarioId).thenApply(vista -> {
+            if (vista.vehiculoPendiente) {
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(Map.of("error", "No se pudo leer el vehículo a tiempo"));
+            }
+            if (vista.vehiculo.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(vista.cuerpo);
+        });
+    }
+
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> eliminarVehiculo(@PathVariable String id) {
-        if (vehiculoRepository.existsById(id)) {
-            vehiculoRepository.deleteById(id);
-            return ResponseEntity.noContent().build();
+    public ResponseEntity<?> eliminarVehiculo(@PathVariable String id,
+                                              @RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        // Solo si de verdad se borró un vehículo de la empresa: la limpieza borra por vehiculoId
+        Vehiculo borrado = mongoTemplate.findAndRemove(
+                new Query(Criteria.where("_id").is(id).and("usuarioId").is(usuarioId)), Vehiculo.class);
+        if (borrado == null) {
+            return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.notFound().build();
+        cacheEntidades.vehiculoEliminado(id);
+        difusion.vehiculoEliminado(id);
+        limpieza.encolar(LimpiezaCascadaService.VEHICULO, id, borrado.getUsuarioId());
+        return ResponseEntity.noContent().build();
     }
 }
@@ -0,0 +1,125 @@
+package com.ecofleet.controller;
+
+import com.ecofleet.model.Conductor;
+import com.ecofleet.model.PuntuacionConductor;
+import com.ecofleet.repository.ConductorRepository;
+import com.ecofleet.repository.PuntuacionConductorRepository;
+import com.ecofleet.repository.ResumenViajeRepository;
+import com.ecofleet.service.AnaliticaViajesService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Analítica de conducción: resúmenes de viaje, eco-score y ranking de conductores.
+ *
+ * ENDPOINTS:
+ * - GET  /api/rutas/{id}/viaje                       → Resumen del viaje de una ruta completada
+ * - GET  /api/viajes?limite=                         → Últimos viajes de la empresa (X-User-Id)
+ * - GET  /api/conductores/{id}/viajes?limite=        → Últimos viajes de un conductor (X-User-Id)
+ * - GET  /api/conductores/ranking?limite=&minViajes= → Ranking de conductores de la empresa por eco-score
+ * - POST /api/conductores/ranking/recalcular         → Rehace los acumulados de la empresa desde los viajes
+ * - GET  /api/viajes/analitica                       → Rutas seguidas, fixes procesados y reglas
+ */
+@RestController
+@RequestMapping("/api")
+@CrossOrigin(origins = "*")
+public class ViajeController {
+
+    private static final int MAX_LIMITE = 500;
+
+    @Autowired
+    private ResumenViajeRepository resumenViajeRepository;
+
+    @Autowired
+    private PuntuacionConductorRepository puntuacionRepository;
+
+    @Autowired
+    private ConductorRepository conductorRepository;
+
+    @Autowired
+    private AnaliticaViajesService analiticaViajes;
+
+    @GetMapping("/rutas/{id}/viaje")
+    public ResponseEntity<?> viajeDeRuta(@PathVariable String id) {
+        return resumenViajeRepository.findById(id)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/viajes")
+    public ResponseEntity<?> viajes(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                    @RequestParam(defaultValue = "100") int limite) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        return ResponseEntity.ok(resumenViajeRepository.findByUsuarioIdOrderByFinDesc(usuarioId, pagina(limite)));
+    }
+
+    @GetMapping("/conductores/{id}/viajes")
+    public ResponseEntity<?> viajesDeConductor(@PathVariable String id,
+                                               @RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                               @RequestParam(defaultValue = "100") int limite) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        return ResponseEntity.ok(resumenViajeRepository.findByUsuarioIdAndConductorIdOrderByFinDesc(usuarioId, id, pagina(limite)));
+    }
+
+    @GetMapping("/conductores/ranking")
+    public ResponseEntity<?> ranking(@RequestHeader(value = "X-User-Id", required = false) String usuarioId,
+                                     @RequestParam(defaultValue = "20") int limite,
+                                     @RequestParam(defaultValue = "1") long minViajes) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        List<PuntuacionConductor> puntuaciones = puntuacionRepository
+                .findByUsuarioIdAndViajesGreaterThanEqualOrderByPuntuacionDesc(usuarioId, minViajes, pagina(limite));
+        Map<String, Conductor> conductores = new LinkedHashMap<>();
+        conductorRepository.findAllById(puntuaciones.stream().map(PuntuacionConductor::getConductorId).collect(Collectors.toList()))
+                .forEach(c -> conductores.put(c.getId(), c));
+
+        List<Map<String, Object>> ranking = new ArrayList<>(puntuaciones.size());
+        for (PuntuacionConductor p : puntuaciones) {
+            Map<String, Object> fila = new LinkedHashMap<>();
+            Conductor conductor = conductores.get(p.getConductorId());
+            double km = p.getDistanciaKm() != null ? p.getDistanciaKm() : 0;
+            fila.put("posicion", ranking.size() + 1);
+            fila.put("conductorId", p.getConductorId());
+            fila.put("nombre", conductor != null ? conductor.getNombre() : null);
+            fila.put("puntuacion", p.getPuntuacion());
+            fila.put("viajes", p.getViajes());
+            fila.put("distanciaKm", Math.round(km * 10) / 10.0);
+            fila.put("bruscosPor100Km", km > 0
+                    ? Math.round((p.getAceleracionesBruscas() + p.getFrenadasBruscas()) * 1000.0 / km) / 10.0 : null);
+            fila.put("pctRalenti", p.getDuracionMs() != null && p.getDuracionMs() > 0
+                    ? Math.round(p.getTiempoRalentiMs() * 1000.0 / p.getDuracionMs()) / 10.0 : null);
+            ranking.add(fila);
+        }
+        return ResponseEntity.ok(ranking);
+    }
+
+    @PostMapping("/conductores/ranking/recalcular")
+    public ResponseEntity<?> recalcular(@RequestHeader(value = "X-User-Id", required = false) String usuarioId) {
+        if (usuarioId == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Falta la cabecera X-User-Id"));
+        }
+        return ResponseEntity.ok(Map.of("conductores", analiticaViajes.recalcular(usuarioId)));
+    }
+
+    @GetMapping("/viajes/analitica")
+    public Map<String, Object> estadisticas() {
+        return analiticaViajes.estadisticas();
+    }
+
+    private static PageRequest pagina(int limite) {
+        return PageRequest.of(0, Math.max(1, Math.min(limite, MAX_LIMITE)));
+    }
+}
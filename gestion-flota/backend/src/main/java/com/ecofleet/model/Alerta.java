@@ -0,0 +1,38 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Alerta de una ruta en curso generada por el motor de reglas (sin GPS, exceso de
+ * velocidad, parada larga).
+ *
+ * El id es determinista (ruta|tipo|inicio del episodio): todas las réplicas evalúan las
+ * mismas reglas sobre los mismos cambios, y solo la que consigue insertarla la notifica.
+ */
+@Data
+@Document(collection = "alertas")
+@CompoundIndex(name = "usuario_creada", def = "{'usuarioId': 1, 'creada': -1}")
+@CompoundIndex(name = "usuario_ruta_creada", def = "{'usuarioId': 1, 'rutaId': 1, 'creada': -1}")
+public class Alerta {
+    @Id
+    private String id;
+
+    private String usuarioId; // Empresa propietaria de la ruta
+    private String rutaId;
+    private String vehiculoId;
+    private String conductorId;
+    private String tipo; // SIN_GPS, EXCESO_VELOCIDAD, PARADA_LARGA
+    private String mensaje;
+
+    private Double latitud;
+    private Double longitud;
+    private Double velocidadKmh;
+
+    private Instant creada;
+    private Instant reconocida; // null hasta que un administrador la marca como vista
+}
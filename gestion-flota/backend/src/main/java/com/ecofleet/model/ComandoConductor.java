@@ -0,0 +1,35 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Comando o notificación pendiente de entregar a un conductor por su canal push.
+ *
+ * Se reenvía en cada conexión hasta que el dispositivo confirma la entrega (ackEn) o
+ * caduca; Mongo borra los caducados con el índice TTL sobre {@code expira}.
+ */
+@Data
+@Document(collection = "comandos_conductor")
+@CompoundIndex(name = "conductor_pendientes", def = "{'conductorId': 1, 'ackEn': 1, 'creado': 1}")
+public class ComandoConductor {
+    @Id
+    private String id;
+
+    private String conductorId;
+    private String usuarioId; // Empresa que lo emite
+    private String tipo; // RUTA_ASIGNADA, RUTA_ESTADO, MENSAJE, ENVIAR_POSICION
+    private String rutaId;
+    private Map<String, Object> datos;
+
+    private Instant creado;
+    @Indexed(expireAfterSeconds = 0)
+    private Instant expira;
+    private Instant ackEn; // null mientras no se confirme
+}
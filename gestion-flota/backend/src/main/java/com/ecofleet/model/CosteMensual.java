@@ -0,0 +1,37 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Map;
+
+/**
+ * Celda del cubo mensual de costes de una empresa.
+ *
+ * Hay una celda por (empresa, mes, dimensión, clave): la dimensión TOTAL tiene una sola
+ * clave, VEHICULO usa el id del vehículo, CATEGORIA la categoría de gasto, TALLER el
+ * nombre del taller y REPUESTO el nombre de la pieza. Los contadores se actualizan con
+ * $inc al crear o borrar repostajes y mantenimientos.
+ */
+@Data
+@Document(collection = "costes_mensuales")
+@CompoundIndex(name = "usuario_mes_dimension", def = "{'usuarioId': 1, 'mes': 1, 'dimension': 1}")
+public class CosteMensual {
+    @Id
+    private String id; // usuarioId|mes|dimension|clave
+
+    private String usuarioId;
+    private String mes; // yyyy-MM
+    private String dimension;
+    private String clave;
+
+    private Double coste;
+    private Long registros;
+    private Double litros; // Solo combustible
+    private Double unidades; // Solo repuestos
+
+    // Desglose del coste por categoría (en celdas TOTAL y VEHICULO)
+    private Map<String, Double> porCategoria;
+}
@@ -0,0 +1,31 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Evento del registro append-only de una ruta.
+ *
+ * Solo lleva los campos que cambian (cambios: campo → valor nuevo, null si se borra). El
+ * id es un ObjectId generado al aceptar el cambio, así que ordenar por _id da el orden de
+ * los eventos de la ruta y la proyección actual es el pliegue de todos ellos.
+ */
+@Data
+@Document(collection = "eventos_ruta")
+// Por rutaId, que ya es de una sola empresa: el replay y los snapshots no conocen la empresa
+@CompoundIndex(name = "ruta_evento", def = "{'rutaId': 1, '_id': 1}")
+public class EventoRuta {
+    @Id
+    private String id;
+
+    private String rutaId;
+    private String usuarioId;
+    private String tipo; // CREADA, ESTADO, ASIGNACION, POSICION, DESVIO, ACTUALIZADA, ELIMINADA
+    private Map<String, Object> cambios;
+    private Instant instante;
+}
@@ -2,6 +2,7 @@ package com.ecofleet.model;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDate;
@@ -9,10 +10,12 @@ import java.util.List;
 
 @Data
 @Document(collection = "mantenimientos")
+@CompoundIndex(name = "usuario_vehiculo_fecha", def = "{'usuarioId': 1, 'vehiculoId': 1, 'fecha': -1}")
 public class Mantenimiento {
     @Id
     private String id;
 
+    private String usuarioId; // Empresa del vehículo
     private String vehiculoId; // Referencia al vehículo
     private String tipo; // "PREVENTIVO" o "CORRECTIVO"
     private String descripcion;
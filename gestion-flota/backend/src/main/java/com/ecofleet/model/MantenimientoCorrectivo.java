@@ -2,16 +2,19 @@ package com.ecofleet.model;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDate;
 import java.util.List;
 
 @Data
 @Document(collection = "mantenimientos_correctivos")
+@CompoundIndex(name = "usuario_vehiculo_fecha", def = "{'usuarioId': 1, 'vehiculoId': 1, 'fecha': -1}")
 public class MantenimientoCorrectivo {
     @Id
     private String id;
 
+    private String usuarioId; // Empresa del vehículo
     private String vehiculoId;
     private String tipo = "CORRECTIVO";
     private String descripcion;
@@ -0,0 +1,89 @@
+package com.ecofleet.model;
+
+import com.ecofleet.util.Json;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import lombok.Data;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Mantenimiento (antiguo, preventivo o correctivo) para los listados.
+ *
+ * Del taller solo lleva el nombre y de los repuestos solo cuántos son; las observaciones
+ * y el detalle completo se piden con vista=completa. Igual que {@link RutaResumen}, se
+ * serializa a mano y sin campos nulos.
+ */
+@Data
+@JsonSerialize(using = MantenimientoResumen.Serializador.class)
+public class MantenimientoResumen {
+    private String id;
+    private String vehiculoId;
+    private String tipo;
+    private String descripcion;
+    private LocalDate fecha;
+    private Double kilometrajeRealizado;
+    private Double costo;
+    private String taller;
+    private Integer repuestos;
+    private Double proximoMantenimiento;
+
+    public static MantenimientoResumen de(Object mantenimiento) {
+        MantenimientoResumen r = new MantenimientoResumen();
+        if (mantenimiento instanceof Mantenimiento m) {
+            r.rellenar(m.getId(), m.getVehiculoId(), m.getTipo(), m.getDescripcion(), m.getFecha(),
+                    m.getKilometrajeRealizado(), m.getCosto(), m.getTaller(), m.getRepuestos());
+            r.proximoMantenimiento = m.getProximoMantenimiento();
+        } else if (mantenimiento instanceof MantenimientoPreventivo m) {
+            r.rellenar(m.getId(), m.getVehiculoId(), m.getTipo(), m.getDescripcion(), m.getFecha(),
+                    m.getKilometrajeRealizado(), m.getCosto(), m.getTaller(), m.getRepuestos());
+            r.proximoMantenimiento = m.getProximoMantenimiento();
+        } else if (mantenimiento instanceof MantenimientoCorrectivo m) {
+            r.rellenar(m.getId(), m.getVehiculoId(), m.getTipo(), m.getDescripcion(), m.getFecha(),
+                    m.getKilometrajeRealizado(), m.getCosto(), m.getTaller(), m.getRepuestos());
+        }
+        return r;
+    }
+
+    private void rellenar(String id, String vehiculoId, String tipo, String descripcion, LocalDate fecha,
+                          Double kilometrajeRealizado, Double costo, Mantenimiento.Taller taller,
+                          List<Mantenimiento.Repuesto> repuestos) {
+        this.id = id;
+        this.vehiculoId = vehiculoId;
+        this.tipo = tipo;
+        this.descripcion = descripcion;
+        this.fecha = fecha;
+        this.kilometrajeRealizado = kilometrajeRealizado;
+        this.costo = costo;
+        this.taller = taller != null ? taller.getNombre() : null;
+        this.repuestos = repuestos != null ? repuestos.size() : null;
+    }
+
+    public static class Serializador extends StdSerializer<MantenimientoResumen> {
+        private static final long serialVersionUID = 1L;
+
+        public Serializador() {
+            super(MantenimientoResumen.class);
+        }
+
+        @Override
+        public void serialize(MantenimientoResumen m, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            Json.texto(gen, "id", m.id);
+            Json.texto(gen, "vehiculoId", m.vehiculoId);
+            Json.texto(gen, "tipo", m.tipo);
+            Json.texto(gen, "descripcion", m.descripcion);
+            Json.texto(gen, "fecha", m.fecha != null ? m.fecha.toString() : null);
+            Json.numero(gen, "kilometrajeRealizado", m.kilometrajeRealizado);
+            Json.numero(gen, "costo", m.costo);
+            Json.texto(gen, "taller", m.taller);
+            Json.entero(gen, "repuestos", m.repuestos);
+            Json.numero(gen, "proximoMantenimiento", m.proximoMantenimiento);
+            gen.writeEndObject();
+        }
+    }
+}
@@ -2,11 +2,14 @@ package com.ecofleet.model;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
 @Data
 @Document(collection = "mensajes")
+@CompoundIndex(name = "usuario_timestamp", def = "{'usuarioId': 1, 'timestamp': 1}")
+@CompoundIndex(name = "usuario_ruta_timestamp", def = "{'usuarioId': 1, 'rutaId': 1, 'timestamp': 1}")
 public class Mensaje {
     @Id
     private String id;
@@ -0,0 +1,41 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Acumulado de conducción de un conductor en una empresa, base del ranking.
+ *
+ * Cada viaje cerrado suma sus contadores con $inc; la puntuación es la media de las de
+ * sus viajes ponderada por distancia (sumaPuntuacion / sumaPeso), guardada ya calculada
+ * para que el ranking sea una consulta por el índice usuarioId + puntuacion.
+ */
+@Data
+@Document(collection = "puntuaciones_conductor")
+@CompoundIndex(name = "usuario_puntuacion", def = "{'usuarioId': 1, 'puntuacion': -1}")
+public class PuntuacionConductor {
+    @Id
+    private String id; // usuarioId|conductorId
+
+    private String usuarioId;
+    private String conductorId;
+
+    private Long viajes;
+    private Double distanciaKm;
+    private Long duracionMs;
+    private Long tiempoRalentiMs;
+    private Long tiempoExcesoMs;
+    private Long paradas;
+    private Long aceleracionesBruscas;
+    private Long frenadasBruscas;
+
+    private Double sumaPuntuacion;
+    private Double sumaPeso;
+    private Double puntuacion;
+
+    private Instant actualizada;
+}
@@ -2,11 +2,14 @@ package com.ecofleet.model;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
 @Data
 @Document(collection = "repostajes")
+@CompoundIndex(name = "usuario_vehiculo_fecha", def = "{'usuarioId': 1, 'vehiculoId': 1, 'fecha': 1}")
+@CompoundIndex(name = "usuario_fecha", def = "{'usuarioId': 1, 'fecha': 1}")
 public class Repostaje {
     @Id
     private String id;
@@ -19,4 +22,5 @@ public class Repostaje {
 
     // En Mongo almacenamos el ID del vehiculo como referencia
     private String vehiculoId;
+    private String usuarioId; // Empresa del vehículo, para filtrar sin pasar por sus vehículos
 }
@@ -0,0 +1,50 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Resumen de conducción de una ruta completada, calculado a partir de sus fixes GPS.
+ *
+ * El id es el de la ruta: todas las réplicas siguen los mismos fixes y solo la primera
+ * que lo inserta suma el viaje a la puntuación del conductor.
+ */
+@Data
+@Document(collection = "viajes")
+@CompoundIndex(name = "usuario_fin", def = "{'usuarioId': 1, 'fin': -1}")
+@CompoundIndex(name = "usuario_conductor_fin", def = "{'usuarioId': 1, 'conductorId': 1, 'fin': -1}")
+public class ResumenViaje {
+    @Id
+    private String id; // Id de la ruta
+
+    private String usuarioId;
+    private String vehiculoId;
+    private String conductorId;
+
+    private Instant inicio; // Primer fix seguido
+    private Instant fin; // Último fix
+    private Integer fixes;
+    // true si el seguimiento empezó con la ruta ya en marcha (p. ej. tras reiniciar el nodo)
+    private Boolean parcial;
+
+    private Double distanciaKm;
+    private Long duracionMs;
+    private Long tiempoMovimientoMs;
+    private Long tiempoParadoMs;
+    private Long tiempoRalentiMs; // Paradas cortas con el motor presumiblemente encendido
+    private Long tiempoExcesoMs; // En movimiento por encima del límite de velocidad
+    private Double velocidadMediaKmh;
+    private Double velocidadMaximaKmh;
+
+    private Integer paradas;
+    private Integer aceleracionesBruscas;
+    private Integer frenadasBruscas;
+
+    private Double puntuacion; // Eco-score 0-100
+
+    private Instant creado;
+}
@@ -2,10 +2,19 @@ package com.ecofleet.model;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
+import java.time.LocalDate;
+
 @Data
 @Document(collection = "rutas")
+@CompoundIndex(name = "usuario_fecha", def = "{'usuarioId': 1, 'fecha': 1}")
+@CompoundIndex(name = "usuario_vehiculo_fecha", def = "{'usuarioId': 1, 'vehiculoId': 1, 'fecha': 1}")
+// Sin usuarioId delante: lo usa el archivado, que recorre todas las empresas de cada base
+@CompoundIndex(name = "estado_completada", def = "{'estado': 1, 'fechaCompletada': 1}")
 public class Ruta {
     @Id
     private String id;
@@ -18,7 +27,8 @@ public class Ruta {
     private String estado; // "PLANIFICADA", "EN_PROCESO", "COMPLETADA"
     
     private String vehiculoId; // Vehiculo asignado
-    private String fecha;
+    private String conductorId; // Conductor asignado
+    private LocalDate fecha; // Día planificado; en Mongo, Date a medianoche del servidor
 
     // Coordenadas para el Tracking
     private Double latitudOrigen;
@@ -32,7 +42,14 @@ public class Ruta {
     private Boolean desviado = false;
     
     // Timestamp de la última actualización GPS recibida
-    private String ultimaActualizacionGPS;
+    private Instant ultimaActualizacionGPS;
+
+    // Momento en que pasó a COMPLETADA; marca cuándo puede archivarse
+    private Instant fechaCompletada;
+
+    // Solo true en rutas leídas del archivo (includeArchived); no se guarda en la colección activa
+    @Transient
+    private Boolean archivada;
     
     // Datos calculados en tiempo real
     private Double velocidadActualKmh; // Velocidad calculada en km/h
@@ -57,8 +74,11 @@ public class Ruta {
     public String getVehiculoId() { return vehiculoId; }
     public void setVehiculoId(String vehiculoId) { this.vehiculoId = vehiculoId; }
     
-    public String getFecha() { return fecha; }
-    public void setFecha(String fecha) { this.fecha = fecha; }
+    public String getConductorId() { return conductorId; }
+    public void setConductorId(String conductorId) { this.conductorId = conductorId; }
+    
+    public LocalDate getFecha() { return fecha; }
+    public void setFecha(LocalDate fecha) { this.fecha = fecha; }
     
     public Double getLatitudOrigen() { return latitudOrigen; }
     public void setLatitudOrigen(Double latitudOrigen) { this.latitudOrigen = latitudOrigen; }
@@ -81,12 +101,18 @@ public class Ruta {
     public Boolean getDesviado() { return desviado; }
     public void setDesviado(Boolean desviado) { this.desviado = desviado; }
     
-    public String getUltimaActualizacionGPS() { return ultimaActualizacionGPS; }
-    public void setUltimaActualizacionGPS(String ultimaActualizacionGPS) { this.ultimaActualizacionGPS = ultimaActualizacionGPS; }
+    public Instant getUltimaActualizacionGPS() { return ultimaActualizacionGPS; }
+    public void setUltimaActualizacionGPS(Instant ultimaActualizacionGPS) { this.ultimaActualizacionGPS = ultimaActualizacionGPS; }
     
     public Double getVelocidadActualKmh() { return velocidadActualKmh; }
     public void setVelocidadActualKmh(Double velocidadActualKmh) { this.velocidadActualKmh = velocidadActualKmh; }
     
     public Double getDistanciaRestanteKm() { return distanciaRestanteKm; }
     public void setDistanciaRestanteKm(Double distanciaRestanteKm) { this.distanciaRestanteKm = distanciaRestanteKm; }
+
+    public Instant getFechaCompletada() { return fechaCompletada; }
+    public void setFechaCompletada(Instant fechaCompletada) { this.fechaCompletada = fechaCompletada; }
+
+    public Boolean getArchivada() { return archivada; }
+    public void setArchivada(Boolean archivada) { this.archivada = archivada; }
 }
@@ -0,0 +1,35 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Ruta completada movida al almacenamiento frío junto con su chat.
+ *
+ * Solo los campos por los que se filtra quedan en claro; la ruta y sus mensajes van
+ * serializados en JSON y comprimidos con gzip en {@code datos}.
+ */
+@Data
+@Document(collection = "rutas_archivadas")
+@CompoundIndex(name = "usuario_archivo", def = "{'usuarioId': 1, 'archivadaEn': -1}")
+@CompoundIndex(name = "usuario_vehiculo_archivo", def = "{'usuarioId': 1, 'vehiculoId': 1, 'archivadaEn': -1}")
+public class RutaArchivada {
+    @Id
+    private String id; // Mismo id que tenía la ruta
+
+    private String usuarioId;
+    private String vehiculoId;
+    private String conductorId;
+    private LocalDate fecha;
+    private Instant fechaCompletada;
+    private Instant archivadaEn;
+
+    private Integer numMensajes;
+    private Integer bytesOriginales;
+    private byte[] datos; // gzip(JSON {ruta, mensajes})
+}
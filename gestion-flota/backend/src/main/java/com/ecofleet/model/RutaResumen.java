@@ -0,0 +1,94 @@
+package com.ecofleet.model;
+
+import com.ecofleet.util.Json;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import lombok.Data;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Ruta tal como la necesitan los listados (panel, mapa de seguimiento y app del conductor).
+ *
+ * Deja fuera el destino en coordenadas y los datos calculados en tiempo real, que solo
+ * usa el detalle de la ruta. Se serializa con un serializador escrito a mano, sin
+ * introspección de la clase, y los campos nulos no se escriben.
+ */
+@Data
+@JsonSerialize(using = RutaResumen.Serializador.class)
+public class RutaResumen {
+    // Campos que se leen de Mongo para construir el resumen
+    public static final String CAMPOS = "{'origen': 1, 'destino': 1, 'estado': 1, 'vehiculoId': 1, 'conductorId': 1, "
+            + "'fecha': 1, 'distanciaEstimadaKm': 1, 'latitudOrigen': 1, 'longitudOrigen': 1, "
+            + "'latitudActual': 1, 'longitudActual': 1, 'desviado': 1, 'ultimaActualizacionGPS': 1}";
+
+    private String id;
+    private String origen;
+    private String destino;
+    private String estado;
+    private String vehiculoId;
+    private String conductorId;
+    private LocalDate fecha;
+    private Double distanciaEstimadaKm;
+    private Double latitudOrigen;
+    private Double longitudOrigen;
+    private Double latitudActual;
+    private Double longitudActual;
+    // El panel reenvía la ruta del listado al cambiar el estado: sin él se perdería el desvío
+    private Boolean desviado;
+    private Instant ultimaActualizacionGPS;
+    private Boolean archivada;
+
+    public static RutaResumen de(Ruta ruta) {
+        RutaResumen r = new RutaResumen();
+        r.id = ruta.getId();
+        r.origen = ruta.getOrigen();
+        r.destino = ruta.getDestino();
+        r.estado = ruta.getEstado();
+        r.vehiculoId = ruta.getVehiculoId();
+        r.conductorId = ruta.getConductorId();
+        r.fecha = ruta.getFecha();
+        r.distanciaEstimadaKm = ruta.getDistanciaEstimadaKm();
+        r.latitudOrigen = ruta.getLatitudOrigen();
+        r.longitudOrigen = ruta.getLongitudOrigen();
+        r.latitudActual = ruta.getLatitudActual();
+        r.longitudActual = ruta.getLongitudActual();
+        r.desviado = ruta.getDesviado();
+        r.ultimaActualizacionGPS = ruta.getUltimaActualizacionGPS();
+        r.archivada = ruta.getArchivada();
+        return r;
+    }
+
+    public static class Serializador extends StdSerializer<RutaResumen> {
+        private static final long serialVersionUID = 1L;
+
+        public Serializador() {
+            super(RutaResumen.class);
+        }
+
+        @Override
+        public void serialize(RutaResumen r, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            Json.texto(gen, "id", r.id);
+            Json.texto(gen, "origen", r.origen);
+            Json.texto(gen, "destino", r.destino);
+            Json.texto(gen, "estado", r.estado);
+            Json.texto(gen, "vehiculoId", r.vehiculoId);
+            Json.texto(gen, "conductorId", r.conductorId);
+            Json.texto(gen, "fecha", r.fecha != null ? r.fecha.toString() : null);
+            Json.numero(gen, "distanciaEstimadaKm", r.distanciaEstimadaKm);
+            Json.numero(gen, "latitudOrigen", r.latitudOrigen);
+            Json.numero(gen, "longitudOrigen", r.longitudOrigen);
+            Json.numero(gen, "latitudActual", r.latitudActual);
+            Json.numero(gen, "longitudActual", r.longitudActual);
+            Json.booleano(gen, "desviado", r.desviado);
+            Json.texto(gen, "ultimaActualizacionGPS", r.ultimaActualizacionGPS != null ? r.ultimaActualizacionGPS.toString() : null);
+            Json.booleano(gen, "archivada", r.archivada);
+            gen.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Estado de una ruta tras aplicar sus eventos hasta ultimoEvento (incluido).
+ *
+ * Reconstruir parte del último snapshot anterior al punto pedido y solo aplica los eventos
+ * posteriores. ultimoEvento es null en el snapshot base de rutas anteriores al registro.
+ */
+@Data
+@Document(collection = "snapshots_ruta")
+@CompoundIndex(name = "ruta_ultimo_evento", def = "{'rutaId': 1, 'ultimoEvento': -1}")
+public class SnapshotRuta {
+    @Id
+    private String id; // rutaId|ultimoEvento
+
+    private String rutaId;
+    private String ultimoEvento;
+    private long eventos; // Eventos aplicados desde el snapshot base
+    private Map<String, Object> estado;
+    private Instant creado;
+}
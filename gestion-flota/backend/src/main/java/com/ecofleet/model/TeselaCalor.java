@@ -0,0 +1,46 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Agregado de actividad GPS de una empresa en un día, para una precisión de geohash y un
+ * prefijo de dos caracteres menos que la celda.
+ *
+ * Cada documento agrupa hasta 1024 celdas vecinas (las que comparten prefijo), indexadas
+ * por los dos últimos caracteres de su geohash. Los nombres de campo van abreviados
+ * porque se repiten en cada celda. El id es usuarioId|día|precisión|prefijo.
+ */
+@Data
+@Document(collection = "mapa_calor")
+@CompoundIndex(name = "usuario_precision_prefijo_dia", def = "{'usuarioId': 1, 'precision': 1, 'prefijo': 1, 'dia': 1}")
+public class TeselaCalor {
+    @Id
+    private String id;
+
+    private String usuarioId;
+    private LocalDate dia; // UTC
+    private Integer precision;
+    private String prefijo;
+
+    @Field("c")
+    private Map<String, Celda> celdas; // Sufijo del geohash → agregados
+
+    @Data
+    public static class Celda {
+        @Field("n")
+        private Long fixes;
+        @Field("t")
+        private Long permanenciaMs; // Tiempo entre un fix y el siguiente de la misma ruta
+        @Field("v")
+        private Double sumaVelocidadKmh;
+        @Field("m")
+        private Long muestrasVelocidad;
+    }
+}
@@ -0,0 +1,48 @@
+package com.ecofleet.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Borrado en cascada pendiente de los documentos que dependen de un vehículo o una ruta
+ * ya eliminados.
+ *
+ * Lo procesa una sola réplica a la vez: la que lo reclama pone bloqueadoHasta y lo renueva
+ * entre lotes; si se cae, otra lo retoma cuando vence. Mongo borra los terminados con el
+ * índice TTL sobre {@code expira}.
+ */
+@Data
+@Document(collection = "trabajos_limpieza")
+@CompoundIndex(name = "estado_bloqueo", def = "{'estado': 1, 'bloqueadoHasta': 1}")
+@CompoundIndex(name = "tipo_entidad", def = "{'tipo': 1, 'entidadId': 1}")
+public class TrabajoLimpieza {
+    @Id
+    private String id;
+
+    private String tipo; // VEHICULO, RUTA
+    private String entidadId;
+    private String usuarioId;
+    // Base donde están los dependientes (null = la compartida); la colección de trabajos es global
+    private String base;
+    private String origen; // API (borrado desde la API) o BARRIDO (huérfanos encontrados después)
+    private String estado; // PENDIENTE, EN_CURSO, COMPLETADO, FALLIDO
+
+    private Instant creado;
+    private Instant bloqueadoHasta;
+    private int intentos;
+    private String error;
+
+    // Documentos borrados por colección
+    private Map<String, Long> borrados = new LinkedHashMap<>();
+
+    private Instant terminado;
+    @Indexed(expireAfterSeconds = 0)
+    private Instant expira;
+}
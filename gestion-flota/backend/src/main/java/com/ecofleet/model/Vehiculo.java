@@ -2,10 +2,12 @@ package com.ecofleet.model;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Data
 @Document(collection = "vehiculos")
+@CompoundIndex(name = "usuario_matricula", def = "{'usuarioId': 1, 'matricula': 1}")
 public class Vehiculo {
     @Id
     private String id; // En Mongo los IDs suelen ser Strings (ObjectIds)
@@ -0,0 +1,13 @@
+package com.ecofleet.repository;
+
+import com.ecofleet.model.Alerta;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import java.util.List;
+
+public interface AlertaRepository extends MongoRepository<Alerta, String> {
+    List<Alerta> findByUsuarioIdOrderByCreadaDesc(String usuarioId, Pageable pageable);
+    List<Alerta> findByUsuarioIdAndReconocidaIsNullOrderByCreadaDesc(String usuarioId, Pageable pageable);
+    // Usa el índice usuario_ruta_creada
+    List<Alerta> findByUsuarioIdAndRutaIdOrderByCreadaDesc(String usuarioId, String rutaId);
+}
@@ -5,5 +5,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import java.util.List;
 
 public interface MantenimientoCorrectivoRepository extends MongoRepository<MantenimientoCorrectivo, String> {
-    List<MantenimientoCorrectivo> findByVehiculoIdOrderByFechaDesc(String vehiculoId);
+    // Usa el índice usuario_vehiculo_fecha
+    List<MantenimientoCorrectivo> findByUsuarioIdAndVehiculoIdOrderByFechaDesc(String usuarioId, String vehiculoId);
+    List<MantenimientoCorrectivo> findByUsuarioId(String usuarioId);
 }
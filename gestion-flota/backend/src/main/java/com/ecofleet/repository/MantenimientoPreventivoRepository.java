@@ -5,5 +5,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import java.util.List;
 
 public interface MantenimientoPreventivoRepository extends MongoRepository<MantenimientoPreventivo, String> {
-    List<MantenimientoPreventivo> findByVehiculoIdOrderByFechaDesc(String vehiculoId);
+    // Usa el índice usuario_vehiculo_fecha
+    List<MantenimientoPreventivo> findByUsuarioIdAndVehiculoIdOrderByFechaDesc(String usuarioId, String vehiculoId);
+    List<MantenimientoPreventivo> findByUsuarioId(String usuarioId);
 }
@@ -6,5 +6,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import java.util.List;
 
 public interface MantenimientoRepository extends MongoRepository<Mantenimiento, String> {
-    List<Mantenimiento> findByVehiculoIdOrderByFechaDesc(String vehiculoId);
+    // Usa el índice usuario_vehiculo_fecha
+    List<Mantenimiento> findByUsuarioIdAndVehiculoIdOrderByFechaDesc(String usuarioId, String vehiculoId);
+    List<Mantenimiento> findByUsuarioId(String usuarioId);
 }
@@ -1,10 +1,16 @@
 package com.ecofleet.repository;
 
 import com.ecofleet.model.Mensaje;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Range;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface MensajeRepository extends MongoRepository<Mensaje, String> {
     List<Mensaje> findByUsuarioId(String usuarioId);
-    List<Mensaje> findByRutaIdOrderByTimestampAsc(String rutaId);
+    // Usa el índice usuario_ruta_timestamp
+    List<Mensaje> findByUsuarioIdAndRutaIdOrderByTimestampAsc(String usuarioId, String rutaId);
+    // Usa el índice usuario_timestamp
+    List<Mensaje> findByUsuarioIdAndTimestampBetweenOrderByTimestampAsc(String usuarioId, Range<LocalDateTime> instantes, Pageable pagina);
 }
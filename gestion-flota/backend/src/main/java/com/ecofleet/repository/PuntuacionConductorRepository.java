@@ -0,0 +1,11 @@
+package com.ecofleet.repository;
+
+import com.ecofleet.model.PuntuacionConductor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import java.util.List;
+
+public interface PuntuacionConductorRepository extends MongoRepository<PuntuacionConductor, String> {
+    List<PuntuacionConductor> findByUsuarioIdAndViajesGreaterThanEqualOrderByPuntuacionDesc(String usuarioId, long minViajes, Pageable pageable);
+    void deleteByUsuarioId(String usuarioId);
+}
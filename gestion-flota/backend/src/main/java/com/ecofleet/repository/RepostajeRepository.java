@@ -1,11 +1,18 @@
 package com.ecofleet.repository;
 
 import com.ecofleet.model.Repostaje;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Range;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface RepostajeRepository extends MongoRepository<Repostaje, String> {
-    List<Repostaje> findByVehiculoId(String vehiculoId);
+    List<Repostaje> findByUsuarioIdAndVehiculoId(String usuarioId, String vehiculoId);
+    // Usa el índice usuario_vehiculo_fecha
+    List<Repostaje> findByUsuarioIdAndVehiculoIdOrderByFechaDesc(String usuarioId, String vehiculoId);
+    // Usa el índice usuario_fecha
+    List<Repostaje> findByUsuarioIdAndFechaBetweenOrderByFechaAsc(String usuarioId, Range<LocalDateTime> fechas, Pageable pagina);
 }
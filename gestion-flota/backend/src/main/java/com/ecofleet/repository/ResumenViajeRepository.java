@@ -0,0 +1,12 @@
+package com.ecofleet.repository;
+
+import com.ecofleet.model.ResumenViaje;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import java.util.List;
+
+public interface ResumenViajeRepository extends MongoRepository<ResumenViaje, String> {
+    List<ResumenViaje> findByUsuarioIdOrderByFinDesc(String usuarioId, Pageable pageable);
+    // Usa el índice usuario_conductor_fin
+    List<ResumenViaje> findByUsuarioIdAndConductorIdOrderByFinDesc(String usuarioId, String conductorId, Pageable pageable);
+}
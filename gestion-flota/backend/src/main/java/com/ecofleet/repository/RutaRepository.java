@@ -1,12 +1,24 @@
 package com.ecofleet.repository;
 
 import com.ecofleet.model.Ruta;
+import com.ecofleet.model.RutaResumen;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Range;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
+import java.time.LocalDate;
 import java.util.List;
 
 @Repository
 public interface RutaRepository extends MongoRepository<Ruta, String> {
     List<Ruta> findByUsuarioId(String usuarioId);
-    List<Ruta> findByVehiculoId(String vehiculoId);
+    // Solo los campos del listado: Mongo no lee ni envía el resto
+    @Query(value = "{'usuarioId': ?0}", fields = RutaResumen.CAMPOS)
+    List<Ruta> findResumenByUsuarioId(String usuarioId);
+    List<Ruta> findByUsuarioIdAndVehiculoId(String usuarioId, String vehiculoId);
+    // Usa el índice usuario_fecha
+    List<Ruta> findByUsuarioIdAndFechaBetweenOrderByFechaAsc(String usuarioId, Range<LocalDate> fechas, Pageable pagina);
+    // Últimas rutas de un vehículo para su vista de detalle (índice usuario_vehiculo_fecha)
+    List<Ruta> findByUsuarioIdAndVehiculoIdOrderByFechaDesc(String usuarioId, String vehiculoId, Pageable pagina);
 }
@@ -2,9 +2,14 @@ package com.ecofleet.repository;
 
 import com.ecofleet.model.Vehiculo;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface VehiculoRepository extends MongoRepository<Vehiculo, String> {
     java.util.List<Vehiculo> findByUsuarioId(String usuarioId);
+
+    // Solo los ids, para filtrar por tenant colecciones que referencian al vehículo
+    @Query(value = "{ 'usuarioId': ?0 }", fields = "{ '_id': 1 }")
+    java.util.List<Vehiculo> findIdsByUsuarioId(String usuarioId);
 }
@@ -0,0 +1,358 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Alerta;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.repository.AlertaRepository;
+import com.ecofleet.util.GeoUtils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Motor de alertas en memoria para las rutas EN_CURSO.
+ *
+ * Recibe cada cambio de ruta (del change stream o, en modo local, de los controladores)
+ * y mantiene por ruta dos plazos en una rueda de temporizadores: "sin GPS", que se
+ * rearma con cada fix, y "parada larga", que se arma cuando la velocidad cae por debajo
+ * del umbral y se cancela al volver a moverse. El exceso de velocidad se evalúa con la
+ * velocidad entre el fix anterior y el nuevo. Todo es trabajo constante por fix: no hay
+ * barridos de Mongo buscando rutas sin actualizar.
+ *
+ * Las alertas se guardan en la colección alertas con id determinista y se notifican a la
+ * empresa por el stream SSE. Todas las réplicas evalúan las mismas reglas; la inserción
+ * duplicada falla y solo la primera alerta de cada episodio llega a publicarse.
+ */
+@Service
+public class AlertasService {
+
+    private static final Logger log = LoggerFactory.getLogger(AlertasService.class);
+
+    public static final String SIN_GPS = "SIN_GPS";
+    public static final String EXCESO_VELOCIDAD = "EXCESO_VELOCIDAD";
+    public static final String PARADA_LARGA = "PARADA_LARGA";
+
+    // Entre dos fixes, velocidades mayores son saltos del GPS y no se evalúan
+    private static final double VELOCIDAD_MAXIMA_CREIBLE_KMH = 250;
+    private static final long INTERVALO_MINIMO_FIX_MS = 1000;
+
+    @Value("${ecofleet.alertas.sin-gps-ms:300000}")
+    private long sinGpsMs;
+    @Value("${ecofleet.alertas.limite-kmh:120}")
+    private double limiteKmh;
+    @Value("${ecofleet.alertas.exceso-minimo-ms:30000}")
+    private long excesoMinimoMs;
+    @Value("${ecofleet.alertas.parada-umbral-kmh:3}")
+    private double paradaUmbralKmh;
+    @Value("${ecofleet.alertas.parada-maxima-ms:900000}")
+    private long paradaMaximaMs;
+    @Value("${ecofleet.alertas.tick-ms:1000}")
+    private long tickMs;
+    @Value("${ecofleet.alertas.casillas:4096}")
+    private int numCasillas;
+
+    @Autowired
+    private AlertaRepository alertaRepository;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventos;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private RuedaTemporizadores<Vigilancia> rueda;
+    private final ConcurrentHashMap<String, Vigilancia> vigiladas = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reloj = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "alertas-rueda");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<String, AtomicLong> emitidas = new LinkedHashMap<>();
+    private final AtomicLong duplicadas = new AtomicLong();
+
+    @EventListener(ApplicationReadyEvent.class)
+    void arrancar() {
+        rueda = new RuedaTemporizadores<>(tickMs, numCasillas, System.currentTimeMillis());
+        for (String tipo : List.of(SIN_GPS, EXCESO_VELOCIDAD, PARADA_LARGA)) {
+            AtomicLong contador = new AtomicLong();
+            emitidas.put(tipo, contador);
+            registry.more().counter("ecofleet.alertas.emitidas", List.of(Tag.of("tipo", tipo)), contador);
+        }
+        Gauge.builder("ecofleet.alertas.rutas_vigiladas", vigiladas, Map::size).register(registry);
+        cargarRutasEnCurso();
+        reloj.scheduleWithFixedDelay(this::avanzar, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void detener() {
+        reloj.shutdownNow();
+    }
+
+    // Tras un reinicio se retoman las rutas en curso con el plazo calculado desde su último fix
+    private void cargarRutasEnCurso() {
+        try {
+            Query query = new Query(Criteria.where("estado").is("EN_CURSO"));
+            query.fields().include("usuarioId", "estado", "vehiculoId", "conductorId",
+                    "latitudActual", "longitudActual", "ultimaActualizacionGPS");
+            List<Ruta> enCurso = mongoTemplate.buscarEnTodasLasBases(query, Ruta.class);
+            long ahora = System.currentTimeMillis();
+            for (Ruta ruta : enCurso) {
+                Vigilancia v = vigiladas.computeIfAbsent(ruta.getId(), Vigilancia::new);
+                synchronized (v) {
+                    v.actualizarDatos(ruta.getUsuarioId(), ruta.getVehiculoId(), ruta.getConductorId());
+                    v.latitud = ruta.getLatitudActual();
+                    v.longitud = ruta.getLongitudActual();
+                    Instant fix = ruta.getUltimaActualizacionGPS();
+                    v.ultimoFix = fix != null ? fix.toString() : null;
+                    v.ultimoFixMs = fix != null ? fix.toEpochMilli() : ahora;
+                    rueda.programar(v.sinGps, v.ultimoFixMs + sinGpsMs);
+                }
+            }
+            log.info("Motor de alertas vigilando {} rutas en curso", enCurso.size());
+        } catch (DataAccessException e) {
+            log.warn("No se pudieron cargar las rutas en curso para el motor de alertas: {}", e.getMessage());
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Entrada: cambios de ruta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Cambio de una ruta con los campos que se envían a los visores (id, usuarioId, estado,
+     * vehiculoId, conductorId, latitudActual, longitudActual, ultimaActualizacionGPS).
+     */
+    public void rutaCambiada(Map<String, Object> datos) {
+        if (rueda == null) {
+            return;
+        }
+        String id = (String) datos.get("id");
+        if (id == null) {
+            return;
+        }
+        if (!"EN_CURSO".equals(datos.get("estado"))) {
+            dejarDeVigilar(id);
+            return;
+        }
+        long ahora = System.currentTimeMillis();
+        Vigilancia v = vigiladas.computeIfAbsent(id, Vigilancia::new);
+        synchronized (v) {
+            v.actualizarDatos((String) datos.get("usuarioId"), (String) datos.get("vehiculoId"), (String) datos.get("conductorId"));
+            String fix = (String) datos.get("ultimaActualizacionGPS");
+            if (fix == null || fix.equals(v.ultimoFix)) {
+                // Recién iniciada sin posición, o cambio que no es un fix (estado, desviado...)
+                if (fix == null && !v.sinGpsAvisada && !rueda.programado(v.sinGps)) {
+                    rueda.programar(v.sinGps, ahora + sinGpsMs);
+                }
+                return;
+            }
+            long fixMs = aMilis(fix, ahora);
+            Double latitud = numero(datos.get("latitudActual"));
+            Double longitud = numero(datos.get("longitudActual"));
+            if (v.latitud != null && v.longitud != null && latitud != null && longitud != null
+                    && v.ultimoFix != null && fixMs - v.ultimoFixMs >= INTERVALO_MINIMO_FIX_MS) {
+                double horas = (fixMs - v.ultimoFixMs) / 3_600_000.0;
+                double kmh = GeoUtils.distanciaKm(v.latitud, v.longitud, latitud, longitud) / horas;
+                if (kmh <= VELOCIDAD_MAXIMA_CREIBLE_KMH) {
+                    evaluarVelocidad(v, kmh, fix, fixMs, latitud, longitud);
+                    evaluarParada(v, kmh, fix, ahora);
+                }
+            }
+            v.latitud = latitud;
+            v.longitud = longitud;
+            v.ultimoFix = fix;
+            v.ultimoFixMs = fixMs;
+            v.sinGpsAvisada = false;
+            rueda.programar(v.sinGps, ahora + sinGpsMs);
+        }
+    }
+
+    public void rutaEliminada(String rutaId) {
+        dejarDeVigilar(rutaId);
+    }
+
+    private void dejarDeVigilar(String rutaId) {
+        Vigilancia v = vigiladas.remove(rutaId);
+        if (v != null && rueda != null) {
+            rueda.cancelar(v.sinGps);
+            rueda.cancelar(v.parada);
+        }
+    }
+
+    private void evaluarVelocidad(Vigilancia v, double kmh, String fix, long fixMs, Double latitud, Double longitud) {
+        if (kmh <= limiteKmh) {
+            v.inicioExceso = null;
+            v.excesoAvisado = false;
+            return;
+        }
+        if (v.inicioExceso == null) {
+            v.inicioExceso = fix;
+            v.inicioExcesoMs = fixMs;
+        } else if (!v.excesoAvisado && fixMs - v.inicioExcesoMs >= excesoMinimoMs) {
+            v.excesoAvisado = true;
+            emitir(v, EXCESO_VELOCIDAD, v.inicioExceso, latitud, longitud, kmh,
+                    String.format("Exceso de velocidad: %.0f km/h (límite %.0f km/h)", kmh, limiteKmh));
+        }
+    }
+
+    private void evaluarParada(Vigilancia v, double kmh, String fix, long ahora) {
+        if (kmh < paradaUmbralKmh) {
+            if (v.inicioParada == null) {
+                v.inicioParada = fix;
+                rueda.programar(v.parada, ahora + paradaMaximaMs);
+            }
+        } else {
+            v.inicioParada = null;
+            rueda.cancelar(v.parada);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Vencimiento de plazos
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private void avanzar() {
+        try {
+            for (RuedaTemporizadores.Temporizador<Vigilancia> t : rueda.avanzar(System.currentTimeMillis())) {
+                Vigilancia v = t.dato;
+                synchronized (v) {
+                    // Rearmado por un fix entre el vencimiento y este punto, o ruta ya no vigilada
+                    if (rueda.programado(t) || vigiladas.get(v.rutaId) != v) {
+                        continue;
+                    }
+                    if (t == v.sinGps) {
+                        v.sinGpsAvisada = true;
+                        emitir(v, SIN_GPS, v.ultimoFix != null ? v.ultimoFix : "inicio", v.latitud, v.longitud, null,
+                                String.format("Sin señal GPS desde hace más de %d min", sinGpsMs / 60_000));
+                    } else if (t == v.parada && v.inicioParada != null) {
+                        emitir(v, PARADA_LARGA, v.inicioParada, v.latitud, v.longitud, 0.0,
+                                String.format("Parado más de %d min", paradaMaximaMs / 60_000));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Error en el motor de alertas: {}", e.getMessage());
+        }
+    }
+
+    private void emitir(Vigilancia v, String tipo, String episodio, Double latitud, Double longitud,
+                        Double velocidadKmh, String mensaje) {
+        Alerta alerta = new Alerta();
+        alerta.setId(v.rutaId + "|" + tipo + "|" + episodio);
+        alerta.setUsuarioId(v.usuarioId);
+        alerta.setRutaId(v.rutaId);
+        alerta.setVehiculoId(v.vehiculoId);
+        alerta.setConductorId(v.conductorId);
+        alerta.setTipo(tipo);
+        alerta.setMensaje(mensaje);
+        alerta.setLatitud(latitud);
+        alerta.setLongitud(longitud);
+        alerta.setVelocidadKmh(velocidadKmh);
+        alerta.setCreada(Instant.now());
+        try {
+            alertaRepository.insert(alerta);
+        } catch (DuplicateKeyException e) {
+            // Otra réplica ya la generó
+            duplicadas.incrementAndGet();
+            return;
+        } catch (DataAccessException e) {
+            log.warn("No se pudo guardar la alerta {} de la ruta {}: {}", tipo, v.rutaId, e.getMessage());
+            return;
+        }
+        emitidas.get(tipo).incrementAndGet();
+        eventos.publishEvent(alerta);
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rutasVigiladas", vigiladas.size());
+        stats.put("plazosProgramados", rueda != null ? rueda.programados() : 0);
+        Map<String, Long> porTipo = new LinkedHashMap<>();
+        emitidas.forEach((tipo, n) -> porTipo.put(tipo, n.get()));
+        stats.put("emitidas", porTipo);
+        stats.put("duplicadasEnOtraReplica", duplicadas.get());
+        Map<String, Object> reglas = new LinkedHashMap<>();
+        reglas.put("sinGpsMs", sinGpsMs);
+        reglas.put("limiteKmh", limiteKmh);
+        reglas.put("excesoMinimoMs", excesoMinimoMs);
+        reglas.put("paradaUmbralKmh", paradaUmbralKmh);
+        reglas.put("paradaMaximaMs", paradaMaximaMs);
+        stats.put("reglas", reglas);
+        return stats;
+    }
+
+    private static long aMilis(String iso, long porDefecto) {
+        try {
+            return Instant.parse(iso).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return porDefecto;
+        }
+    }
+
+    private static Double numero(Object valor) {
+        return valor instanceof Number n ? n.doubleValue() : null;
+    }
+
+    // Estado de una ruta en curso; se modifica bajo su propio monitor
+    private static class Vigilancia {
+        final String rutaId;
+        final RuedaTemporizadores.Temporizador<Vigilancia> sinGps;
+        final RuedaTemporizadores.Temporizador<Vigilancia> parada;
+
+        String usuarioId;
+        String vehiculoId;
+        String conductorId;
+
+        Double latitud;
+        Double longitud;
+        String ultimoFix;
+        long ultimoFixMs;
+        boolean sinGpsAvisada;
+
+        String inicioExceso;
+        long inicioExcesoMs;
+        boolean excesoAvisado;
+
+        String inicioParada;
+
+        Vigilancia(String rutaId) {
+            this.rutaId = rutaId;
+            this.sinGps = new RuedaTemporizadores.Temporizador<>(this);
+            this.parada = new RuedaTemporizadores.Temporizador<>(this);
+        }
+
+        void actualizarDatos(String usuarioId, String vehiculoId, String conductorId) {
+            if (usuarioId != null) this.usuarioId = usuarioId;
+            this.vehiculoId = vehiculoId;
+            this.conductorId = conductorId;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.PuntuacionConductor;
+import com.ecofleet.model.ResumenViaje;
+import com.ecofleet.repository.PuntuacionConductorRepository;
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.GeoUtils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Analítica de conducción en streaming a partir de los fixes GPS.
+ *
+ * Recibe los mismos cambios de ruta que el motor de alertas y mantiene por ruta EN_CURSO
+ * un estado pequeño: el último fix, la velocidad del último tramo y unos contadores. Con
+ * cada fix nuevo calcula la velocidad del tramo y detecta paradas, ralentí (paradas cortas,
+ * con el motor presumiblemente encendido), exceso de velocidad y aceleraciones o frenadas
+ * bruscas comparando la velocidad de dos tramos seguidos. No guarda los fixes.
+ *
+ * Cuando la ruta pasa a COMPLETADA se cierra el viaje: se guarda su resumen con un
+ * eco-score y se suma al acumulado del conductor, del que sale el ranking de cada empresa.
+ * Todas las réplicas siguen los mismos cambios; el resumen tiene el id de la ruta y solo
+ * la réplica que consigue insertarlo actualiza el acumulado.
+ */
+@Service
+public class AnaliticaViajesService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnaliticaViajesService.class);
+
+    // Igual que en el motor de alertas: velocidades mayores entre dos fixes son saltos del GPS
+    private static final double VELOCIDAD_MAXIMA_CREIBLE_KMH = 250;
+    private static final long INTERVALO_MINIMO_FIX_MS = 1000;
+    // Más separación entre fixes y la diferencia de velocidad ya no dice nada de la aceleración
+    private static final long INTERVALO_MAXIMO_ACELERACION_MS = 10_000;
+
+    // Eco-score: 100 menos penalizaciones acotadas. Los eventos bruscos se cuentan por
+    // cada 100 km, con al menos DISTANCIA_MINIMA_KM para que un trayecto corto no se hunda
+    // por un solo frenazo; exceso y ralentí, como porcentaje del tiempo
+    private static final double DISTANCIA_MINIMA_KM = 5;
+    private static final double PUNTOS_POR_BRUSCO_100KM = 2.0;
+    private static final double MAX_PENALIZACION_BRUSCOS = 40;
+    private static final double PUNTOS_POR_PCT_EXCESO = 1.0;
+    private static final double MAX_PENALIZACION_EXCESO = 35;
+    private static final double PUNTOS_POR_PCT_RALENTI = 0.5;
+    private static final double MAX_PENALIZACION_RALENTI = 25;
+
+    @Value("${ecofleet.viajes.parada-umbral-kmh:3}")
+    private double paradaUmbralKmh;
+    @Value("${ecofleet.viajes.parada-minima-ms:60000}")
+    private long paradaMinimaMs;
+    @Value("${ecofleet.viajes.ralenti-maximo-ms:600000}")
+    private long ralentiMaximoMs;
+    @Value("${ecofleet.viajes.limite-kmh:120}")
+    private double limiteKmh;
+    @Value("${ecofleet.viajes.aceleracion-brusca:3.0}")
+    private double aceleracionBrusca; // m/s²
+    @Value("${ecofleet.viajes.frenada-brusca:3.5}")
+    private double frenadaBrusca; // m/s², en valor absoluto
+    @Value("${ecofleet.viajes.hueco-maximo-ms:120000}")
+    private long huecoMaximoMs;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PuntuacionConductorRepository puntuacionRepository;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final ConcurrentHashMap<String, Viaje> seguidos = new ConcurrentHashMap<>();
+
+    private final AtomicLong fixesProcesados = new AtomicLong();
+    private final AtomicLong fixesDescartados = new AtomicLong();
+    private final AtomicLong viajesCerrados = new AtomicLong();
+    private final AtomicLong cerradosEnOtraReplica = new AtomicLong();
+
+    @PostConstruct
+    void iniciar() {
+        Gauge.builder("ecofleet.viajes.rutas_seguidas", seguidos, Map::size).register(registry);
+        registry.more().counter("ecofleet.viajes.cerrados", List.of(), viajesCerrados);
+        registry.more().counter("ecofleet.viajes.fixes", List.of(), fixesProcesados);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Entrada: cambios de ruta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Cambio de una ruta con los campos que se envían a los visores (ver
+     * AlertasService.rutaCambiada).
+     */
+    public void rutaCambiada(Map<String, Object> datos) {
+        String id = (String) datos.get("id");
+        if (id == null) {
+            return;
+        }
+        Object estado = datos.get("estado");
+        if ("COMPLETADA".equals(estado)) {
+            Viaje v = seguidos.remove(id);
+            if (v != null) {
+                synchronized (v) {
+                    cerrar(v);
+                }
+            }
+            return;
+        }
+        if (!"EN_CURSO".equals(estado)) {
+            seguidos.remove(id);
+            return;
+        }
+        String fix = (String) datos.get("ultimaActualizacionGPS");
+        Viaje v = seguidos.computeIfAbsent(id, rutaId -> {
+            // Si ya trae un fix, la ruta estaba en marcha antes de empezar a seguirla
+            Viaje nuevo = new Viaje(rutaId);
+            nuevo.parcial = fix != null;
+            return nuevo;
+        });
+        synchronized (v) {
+            v.actualizarDatos((String) datos.get("usuarioId"), (String) datos.get("vehiculoId"), (String) datos.get("conductorId"));
+            Double latitud = numero(datos.get("latitudActual"));
+            Double longitud = numero(datos.get("longitudActual"));
+            if (fix == null || fix.equals(v.ultimoFix) || latitud == null || longitud == null) {
+                return;
+            }
+            long fixMs;
+            try {
+                fixMs = Instant.parse(fix).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return;
+            }
+            procesarFix(v, fix, fixMs, latitud, longitud);
+        }
+    }
+
+    public void rutaEliminada(String rutaId) {
+        seguidos.remove(rutaId);
+    }
+
+    private void procesarFix(Viaje v, String fix, long fixMs, double latitud, double longitud) {
+        if (v.ultimoFix == null) {
+            v.aceptarFix(fix, fixMs, latitud, longitud);
+            v.primerFixMs = fixMs;
+            fixesProcesados.incrementAndGet();
+            return;
+        }
+        long dtMs = fixMs - v.ultimoFixMs;
+        if (dtMs < INTERVALO_MINIMO_FIX_MS) {
+            // Demasiado cerca del anterior para medir velocidad: se espera al siguiente
+            return;
+        }
+        double km = GeoUtils.distanciaKm(v.latitud, v.longitud, latitud, longitud);
+        double kmh = km / (dtMs / 3_600_000.0);
+        if (kmh > VELOCIDAD_MAXIMA_CREIBLE_KMH) {
+            fixesDescartados.incrementAndGet();
+            return;
+        }
+        fixesProcesados.incrementAndGet();
+        v.distanciaKm += km;
+
+        if (dtMs > huecoMaximoMs) {
+            // Hueco sin señal: cuenta la distancia, pero no se sabe qué pasó entre medias
+            cerrarParada(v, v.ultimoFixMs);
+            v.ultimaKmh = null;
+            v.aceptarFix(fix, fixMs, latitud, longitud);
+            return;
+        }
+
+        if (kmh < paradaUmbralKmh) {
+            v.tiempoParadoMs += dtMs;
+            if (v.inicioParadaMs < 0) {
+                v.inicioParadaMs = v.ultimoFixMs;
+            }
+        } else {
+            cerrarParada(v, v.ultimoFixMs);
+            v.tiempoMovimientoMs += dtMs;
+            if (kmh > limiteKmh) {
+                v.tiempoExcesoMs += dtMs;
+            }
+        }
+        v.velocidadMaximaKmh = Math.max(v.velocidadMaximaKmh, kmh);
+
+        // Aceleración entre los centros de los dos últimos tramos
+        if (v.ultimaKmh != null && dtMs <= INTERVALO_MAXIMO_ACELERACION_MS) {
+            double segundos = (v.ultimoDtMs + dtMs) / 2000.0;
+            double aceleracion = (kmh - v.ultimaKmh) / 3.6 / segundos;
+            // Un mismo acelerón o frenazo puede ocupar varios tramos: se cuenta una vez
+            if (aceleracion >= aceleracionBrusca) {
+                if (v.eventoBrusco != 1) {
+                    v.aceleracionesBruscas++;
+                }
+                v.eventoBrusco = 1;
+            } else if (aceleracion <= -frenadaBrusca) {
+                if (v.eventoBrusco != -1) {
+                    v.frenadasBruscas++;
+                }
+                v.eventoBrusco = -1;
+            } else {
+                v.eventoBrusco = 0;
+            }
+        }
+        v.ultimaKmh = kmh;
+        v.ultimoDtMs = dtMs;
+        v.aceptarFix(fix, fixMs, latitud, longitud);
+    }
+
+    // Las paradas cortas cuentan como ralentí; las largas se toman como estacionamiento
+    private void cerrarParada(Viaje v, long finMs) {
+        if (v.inicioParadaMs < 0) {
+            return;
+        }
+        long duracion = finMs - v.inicioParadaMs;
+        if (duracion >= paradaMinimaMs) {
+            v.paradas++;
+        }
+        if (duracion <= ralentiMaximoMs) {
+            v.tiempoRalentiMs += duracion;
+        }
+        v.inicioParadaMs = -1;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Cierre del viaje
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private void cerrar(Viaje v) {
+        if (v.ultimoFix == null || v.ultimoFixMs == v.primerFixMs || v.usuarioId == null) {
+            // Sin al menos dos fixes no hay nada que puntuar
+            return;
+        }
+        cerrarParada(v, v.ultimoFixMs);
+        ResumenViaje resumen = resumir(v);
+        try {
+            mongoTemplate.insert(resumen);
+        } catch (DuplicateKeyException e) {
+            cerradosEnOtraReplica.incrementAndGet();
+            return;
+        } catch (DataAccessException e) {
+            log.warn("No se pudo guardar el resumen del viaje {}: {}", v.rutaId, e.getMessage());
+            return;
+        }
+        viajesCerrados.incrementAndGet();
+        if (resumen.getConductorId() != null) {
+            try {
+                acumular(resumen);
+            } catch (DataAccessException e) {
+                // El resumen queda guardado: POST /api/conductores/ranking/recalcular lo recupera
+                log.warn("No se pudo sumar el viaje {} al conductor {}: {}",
+                        v.rutaId, resumen.getConductorId(), e.getMessage());
+            }
+        }
+    }
+
+    private ResumenViaje resumir(Viaje v) {
+        ResumenViaje r = new ResumenViaje();
+        r.setId(v.rutaId);
+        r.setUsuarioId(v.usuarioId);
+        r.setVehiculoId(v.vehiculoId);
+        r.setConductorId(v.conductorId);
+        r.setInicio(Instant.ofEpochMilli(v.primerFixMs));
+        r.setFin(Instant.ofEpochMilli(v.ultimoFixMs));
+        r.setFixes(v.fixes);
+        r.setParcial(v.parcial);
+        long duracion = v.ultimoFixMs - v.primerFixMs;
+        r.setDistanciaKm(redondear(v.distanciaKm, 3));
+        r.setDuracionMs(duracion);
+        r.setTiempoMovimientoMs(v.tiempoMovimientoMs);
+        r.setTiempoParadoMs(v.tiempoParadoMs);
+        r.setTiempoRalentiMs(v.tiempoRalentiMs);
+        r.setTiempoExcesoMs(v.tiempoExcesoMs);
+        r.setVelocidadMediaKmh(redondear(v.distanciaKm / (duracion / 3_600_000.0), 1));
+        r.setVelocidadMaximaKmh(redondear(v.velocidadMaximaKmh, 1));
+        r.setParadas(v.paradas);
+        r.setAceleracionesBruscas(v.aceleracionesBruscas);
+        r.setFrenadasBruscas(v.frenadasBruscas);
+        r.setPuntuacion(puntuar(v.distanciaKm, duracion, v.tiempoMovimientoMs, v.tiempoExcesoMs,
+                v.tiempoRalentiMs, v.aceleracionesBruscas + v.frenadasBruscas));
+        r.setCreado(Instant.now());
+        return r;
+    }
+
+    static double puntuar(double distanciaKm, long duracionMs, long movimientoMs, long excesoMs,
+                          long ralentiMs, int bruscos) {
+        double bruscosPor100Km = bruscos * 100.0 / Math.max(distanciaKm, DISTANCIA_MINIMA_KM);
+        double pctExceso = movimientoMs > 0 ? 100.0 * excesoMs / movimientoMs : 0;
+        double pctRalenti = duracionMs > 0 ? 100.0 * ralentiMs / duracionMs : 0;
+        double puntuacion = 100
+                - Math.min(MAX_PENALIZACION_BRUSCOS, bruscosPor100Km * PUNTOS_POR_BRUSCO_100KM)
+                - Math.min(MAX_PENALIZACION_EXCESO, pctExceso * PUNTOS_POR_PCT_EXCESO)
+                - Math.min(MAX_PENALIZACION_RALENTI, pctRalenti * PUNTOS_POR_PCT_RALENTI);
+        return redondear(Math.max(0, puntuacion), 1);
+    }
+
+    // Peso del viaje en la media del conductor: su distancia, con el mismo mínimo que el score
+    private static double peso(ResumenViaje r) {
+        return Math.max(r.getDistanciaKm(), DISTANCIA_MINIMA_KM);
+    }
+
+    private void acumular(ResumenViaje r) {
+        String id = r.getUsuarioId() + "|" + r.getConductorId();
+        Query porId = new Query(Criteria.where("_id").is(id));
+        Update update = new Update()
+                .setOnInsert("usuarioId", r.getUsuarioId())
+                .setOnInsert("conductorId", r.getConductorId())
+                .inc("viajes", 1L)
+                .inc("distanciaKm", r.getDistanciaKm())
+                .inc("duracionMs", r.getDuracionMs())
+                .inc("tiempoRalentiMs", r.getTiempoRalentiMs())
+                .inc("tiempoExcesoMs", r.getTiempoExcesoMs())
+                .inc("paradas", (long) r.getParadas())
+                .inc("aceleracionesBruscas", (long) r.getAceleracionesBruscas())
+                .inc("frenadasBruscas", (long) r.getFrenadasBruscas())
+                .inc("sumaPuntuacion", r.getPuntuacion() * peso(r))
+                .inc("sumaPeso", peso(r))
+                .set("actualizada", Instant.now());
+        // Se cierra desde el change stream, sin empresa en el hilo: la fija para ir a su base
+        ContextoEmpresa.ejecutarComo(r.getUsuarioId(), () -> {
+            PuntuacionConductor acumulado = mongoTemplate.findAndModify(porId, update,
+                    FindAndModifyOptions.options().returnNew(true).upsert(true), PuntuacionConductor.class);
+            if (acumulado == null) {
+                return;
+            }
+            // Solo si nadie ha sumado otro viaje entre medias; si no, lo fija quien sumó el último
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id).and("viajes").is(acumulado.getViajes())),
+                    Update.update("puntuacion", media(acumulado)), PuntuacionConductor.class);
+        });
+    }
+
+    private static double media(PuntuacionConductor p) {
+        return p.getSumaPeso() != null && p.getSumaPeso() > 0 ? redondear(p.getSumaPuntuacion() / p.getSumaPeso(), 1) : 0;
+    }
+
+    /**
+     * Rehace los acumulados de una empresa a partir de los resúmenes guardados: recupera
+     * viajes que no llegaron a sumarse y permite cambiar la fórmula de peso sin perder datos.
+     */
+    public int recalcular(String usuarioId) {
+        Map<String, PuntuacionConductor> porConductor = new LinkedHashMap<>();
+        Query query = new Query(Criteria.where("usuarioId").is(usuarioId).and("conductorId").ne(null));
+        try (Stream<ResumenViaje> viajes = mongoTemplate.stream(query, ResumenViaje.class)) {
+            viajes.forEach(r -> {
+                PuntuacionConductor p = porConductor.computeIfAbsent(r.getConductorId(), c -> vacio(usuarioId, c));
+                p.setViajes(p.getViajes() + 1);
+                p.setDistanciaKm(p.getDistanciaKm() + r.getDistanciaKm());
+                p.setDuracionMs(p.getDuracionMs() + r.getDuracionMs());
+                p.setTiempoRalentiMs(p.getTiempoRalentiMs() + r.getTiempoRalentiMs());
+                p.setTiempoExcesoMs(p.getTiempoExcesoMs() + r.getTiempoExcesoMs());
+                p.setParadas(p.getParadas() + r.getParadas());
+                p.setAceleracionesBruscas(p.getAceleracionesBruscas() + r.getAceleracionesBruscas());
+                p.setFrenadasBruscas(p.getFrenadasBruscas() + r.getFrenadasBruscas());
+                p.setSumaPuntuacion(p.getSumaPuntuacion() + r.getPuntuacion() * peso(r));
+                p.setSumaPeso(p.getSumaPeso() + peso(r));
+            });
+        }
+        Instant ahora = Instant.now();
+        porConductor.values().forEach(p -> {
+            p.setPuntuacion(media(p));
+            p.setActualizada(ahora);
+        });
+        puntuacionRepository.deleteByUsuarioId(usuarioId);
+        puntuacionRepository.saveAll(porConductor.values());
+        return porConductor.size();
+    }
+
+    private static PuntuacionConductor vacio(String usuarioId, String conductorId) {
+        PuntuacionConductor p = new PuntuacionConductor();
+        p.setId(usuarioId + "|" + conductorId);
+        p.setUsuarioId(usuarioId);
+        p.setConductorId(conductorId);
+        p.setViajes(0L);
+        p.setDistanciaKm(0.0);
+        p.setDuracionMs(0L);
+        p.setTiempoRalentiMs(0L);
+        p.setTiempoExcesoMs(0L);
+        p.setParadas(0L);
+        p.setAceleracionesBruscas(0L);
+        p.setFrenadasBruscas(0L);
+        p.setSumaPuntuacion(0.0);
+        p.setSumaPeso(0.0);
+        return p;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rutasSeguidas", seguidos.size());
+        stats.put("fixesProcesados", fixesProcesados.get());
+        stats.put("fixesDescartados", fixesDescartados.get());
+        stats.put("viajesCerrados", viajesCerrados.get());
+        stats.put("cerradosEnOtraReplica", cerradosEnOtraReplica.get());
+        Map<String, Object> reglas = new LinkedHashMap<>();
+        reglas.put("paradaUmbralKmh", paradaUmbralKmh);
+        reglas.put("paradaMinimaMs", paradaMinimaMs);
+        reglas.put("ralentiMaximoMs", ralentiMaximoMs);
+        reglas.put("limiteKmh", limiteKmh);
+        reglas.put("aceleracionBrusca", aceleracionBrusca);
+        reglas.put("frenadaBrusca", frenadaBrusca);
+        reglas.put("huecoMaximoMs", huecoMaximoMs);
+        stats.put("reglas", reglas);
+        return stats;
+    }
+
+    private static double redondear(double valor, int decimales) {
+        double factor = Math.pow(10, decimales);
+        return Math.round(valor * factor) / factor;
+    }
+
+    private static Double numero(Object valor) {
+        return valor instanceof Number n ? n.doubleValue() : null;
+    }
+
+    // Estado de un viaje en curso; se modifica bajo su propio monitor
+    private static class Viaje {
+        final String rutaId;
+
+        String usuarioId;
+        String vehiculoId;
+        String conductorId;
+        boolean parcial;
+
+        Double latitud;
+        Double longitud;
+        String ultimoFix;
+        long ultimoFixMs;
+        long primerFixMs;
+        int fixes;
+
+        Double ultimaKmh; // Velocidad del último tramo
+        long ultimoDtMs;
+        int eventoBrusco; // 1 acelerando, -1 frenando, 0 normal
+        long inicioParadaMs = -1;
+
+        double distanciaKm;
+        long tiempoMovimientoMs;
+        long tiempoParadoMs;
+        long tiempoRalentiMs;
+        long tiempoExcesoMs;
+        double velocidadMaximaKmh;
+        int paradas;
+        int aceleracionesBruscas;
+        int frenadasBruscas;
+
+        Viaje(String rutaId) {
+            this.rutaId = rutaId;
+        }
+
+        void actualizarDatos(String usuarioId, String vehiculoId, String conductorId) {
+            if (usuarioId != null) this.usuarioId = usuarioId;
+            this.vehiculoId = vehiculoId;
+            this.conductorId = conductorId;
+        }
+
+        void aceptarFix(String fix, long fixMs, double latitud, double longitud) {
+            this.ultimoFix = fix;
+            this.ultimoFixMs = fixMs;
+            this.latitud = latitud;
+            this.longitud = longitud;
+            this.fixes++;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Mensaje;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.RutaArchivada;
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.Fechas;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Ciclo de vida caliente/frío de rutas y chat.
+ *
+ * Un job periódico mueve por lotes las rutas COMPLETADA con más de edad-dias desde que
+ * se completaron, junto con sus mensajes, a rutas_archivadas (un documento comprimido por
+ * ruta). El orden es insertar en el archivo → borrar mensajes → borrar rutas, así que si
+ * el proceso se corta a mitad el siguiente lote repite el trabajo sin perder datos (si la
+ * ruta ya estaba en el archivo se le suman los mensajes nuevos). Solo se borran, por _id,
+ * los mensajes copiados de las rutas cuyo archivado terminó bien. Las lecturas con
+ * includeArchived=true consultan también el archivo.
+ */
+@Service
+public class ArchivadoService {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchivadoService.class);
+    private static final int CLAVE_DUPLICADA = 11000;
+    private static final int LOTE_BORRADO = 1000;
+
+    @Value("${ecofleet.archivo.habilitado:true}")
+    private boolean habilitado;
+
+    @Value("${ecofleet.archivo.edad-dias:30}")
+    private int edadDias;
+
+    @Value("${ecofleet.archivo.tamano-lote:200}")
+    private int tamanoLote;
+
+    @Value("${ecofleet.archivo.max-por-ejecucion:20000}")
+    private int maxPorEjecucion;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    private final AtomicBoolean enEjecucion = new AtomicBoolean();
+    private final AtomicLong rutasArchivadas = new AtomicLong();
+    private final AtomicLong mensajesArchivados = new AtomicLong();
+    private final AtomicLong bytesOriginales = new AtomicLong();
+    private final AtomicLong bytesComprimidos = new AtomicLong();
+    private volatile String ultimaEjecucion;
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Job de archivado
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    @Scheduled(initialDelayString = "${ecofleet.archivo.retraso-inicial-ms:60000}",
+               fixedDelayString = "${ecofleet.archivo.intervalo-ms:3600000}")
+    public void ejecutarProgramado() {
+        if (!habilitado) {
+            return;
+        }
+        try {
+            ResultadoArchivado r = ejecutar();
+            if (r.getRutas() > 0) {
+                log.info("Archivadas {} rutas y {} mensajes en {} ms", r.getRutas(), r.getMensajes(), r.getDuracionMs());
+            }
+        } catch (DataAccessException e) {
+            log.warn("Archivado de rutas fallido: {}", e.getMessage());
+        }
+    }
+
+    public ResultadoArchivado ejecutar() {
+        ResultadoArchivado resultado = new ResultadoArchivado();
+        if (!enEjecucion.compareAndSet(false, true)) {
+            resultado.setEnCurso(true);
+            return resultado;
+        }
+        long inicio = System.nanoTime();
+        try {
+            Instant limite = Instant.now().minus(Duration.ofDays(edadDias));
+            // Cada base (la compartida y las de empresas dedicadas) se archiva por separado
+            for (String base : mongoTemplate.bases()) {
+                ContextoEmpresa.enBase(base, () -> {
+                    resultado.setMarcadas(resultado.getMarcadas() + marcarCompletadasSinFecha());
+                    while (resultado.getRutas() < maxPorEjecucion) {
+                        int archivadas = archivarLote(limite, resultado);
+                        if (archivadas < tamanoLote) {
+                            break;
+                        }
+                    }
+                });
+            }
+        } finally {
+            resultado.setDuracionMs((System.nanoTime() - inicio) / 1_000_000);
+            ultimaEjecucion = Instant.now().toString();
+            enEjecucion.set(false);
+        }
+        return resultado;
+    }
+
+    // Rutas completadas antes de existir fechaCompletada: el plazo empieza a contar ahora
+    private long marcarCompletadasSinFecha() {
+        Query sinFecha = new Query(Criteria.where("estado").is("COMPLETADA").and("fechaCompletada").exists(false));
+        return mongoTemplate.updateMulti(sinFecha, Update.update("fechaCompletada", Fechas.ahora()), Ruta.class)
+                .getModifiedCount();
+    }
+
+    private int archivarLote(Instant limite, ResultadoArchivado resultado) {
+        // Las rutas que aún tengan la fecha como texto se archivan cuando la migración las convierta
+        Query query = new Query(Criteria.where("estado").is("COMPLETADA").and("fechaCompletada").lt(limite))
+                .with(Sort.by("fechaCompletada"))
+                .limit(tamanoLote);
+        // El archivo se escribe con bulkOps, que no excluye a las empresas en traslado: sus rutas
+        // se archivan ya en su base
+        Set<String> congeladas = mongoTemplate.getCongeladas();
+        if (!congeladas.isEmpty() && mongoTemplate.getBaseCompartida().equals(ContextoEmpresa.base())) {
+            query.addCriteria(Criteria.where("usuarioId").nin(congeladas));
+        }
+        List<Ruta> rutas = mongoTemplate.find(query, Ruta.class);
+        if (rutas.isEmpty()) {
+            return 0;
+        }
+        List<String> ids = rutas.stream().map(Ruta::getId).collect(Collectors.toList());
+        Map<String, List<Mensaje>> chats = mongoTemplate.find(
+                        new Query(Criteria.where("rutaId").in(ids)).with(Sort.by("timestamp")), Mensaje.class)
+                .stream()
+                .collect(Collectors.groupingBy(Mensaje::getRutaId));
+
+        Instant ahora = Fechas.ahora();
+        List<RutaArchivada> archivo = new ArrayList<>(rutas.size());
+        for (Ruta ruta : rutas) {
+            archivo.add(comprimir(ruta, chats.getOrDefault(ruta.getId(), Collections.emptyList()), ahora));
+        }
+
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RutaArchivada.class);
+        ops.insert(archivo);
+        Set<Integer> fallidas = new HashSet<>();
+        try {
+            ops.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                RutaArchivada nueva = archivo.get(error.getIndex());
+                // Ya archivada en una ejecución interrumpida: se fusionan los mensajes de ambas lecturas
+                if (error.getCode() != CLAVE_DUPLICADA || !fusionar(nueva)) {
+                    log.warn("No se pudo archivar la ruta {}: {}", nueva.getId(), error.getMessage());
+                    fallidas.add(error.getIndex());
+                }
+            }
+        }
+
+        // Solo se borra lo que está copiado en el archivo: los mensajes leídos (no los llegados
+        // después de la lectura) y solo de las rutas cuyo archivado terminó bien
+        List<String> archivadas = new ArrayList<>(rutas.size());
+        List<String> mensajesCopiados = new ArrayList<>();
+        long mensajes = 0;
+        for (int i = 0; i < rutas.size(); i++) {
+            if (fallidas.contains(i)) {
+                continue;
+            }
+            String rutaId = rutas.get(i).getId();
+            List<Mensaje> chat = chats.getOrDefault(rutaId, Collections.emptyList());
+            archivadas.add(rutaId);
+            chat.forEach(m -> mensajesCopiados.add(m.getId()));
+            mensajes += chat.size();
+        }
+        for (int i = 0; i < mensajesCopiados.size(); i += LOTE_BORRADO) {
+            List<String> lote = mensajesCopiados.subList(i, Math.min(i + LOTE_BORRADO, mensajesCopiados.size()));
+            mongoTemplate.remove(new Query(Criteria.where("_id").in(lote)), Mensaje.class);
+        }
+        if (!archivadas.isEmpty()) {
+            mongoTemplate.remove(new Query(Criteria.where("_id").in(archivadas).and("estado").is("COMPLETADA")), Ruta.class);
+            archivadas.forEach(cacheEntidades::rutaEliminada);
+        }
+
+        rutasArchivadas.addAndGet(archivadas.size());
+        mensajesArchivados.addAndGet(mensajes);
+        resultado.setRutas(resultado.getRutas() + archivadas.size());
+        resultado.setMensajes(resultado.getMensajes() + mensajes);
+        // Se devuelve lo leído para que el bucle siga mientras haya lotes completos
+        return rutas.size();
+    }
+
+    // Une el archivo existente con la nueva lectura: si la ejecución anterior se cortó tras
+    // borrar parte de los mensajes, los borrados solo están en el archivo y los nuevos solo aquí
+    private boolean fusionar(RutaArchivada nueva) {
+        RutaArchivada existente = mongoTemplate.findById(nueva.getId(), RutaArchivada.class);
+        if (existente == null) {
+            return false;
+        }
+        ContenidoArchivado anterior = descomprimir(existente);
+        ContenidoArchivado actual = descomprimir(nueva);
+        Map<String, Mensaje> porId = new LinkedHashMap<>();
+        anterior.getMensajes().forEach(m -> porId.put(m.getId(), m));
+        actual.getMensajes().forEach(m -> porId.putIfAbsent(m.getId(), m));
+        if (porId.size() == anterior.getMensajes().size()) {
+            return true;
+        }
+        List<Mensaje> todos = new ArrayList<>(porId.values());
+        todos.sort(Comparator.comparing(Mensaje::getTimestamp, Comparator.nullsFirst(Comparator.naturalOrder())));
+        actual.getRuta().setArchivada(false);
+        mongoTemplate.save(comprimir(actual.getRuta(), todos, existente.getArchivadaEn()));
+        return true;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Lectura del archivo
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public Optional<Ruta> buscarRuta(String id) {
+        return Optional.ofNullable(mongoTemplate.findById(id, RutaArchivada.class))
+                .map(a -> descomprimir(a).getRuta());
+    }
+
+    public List<Mensaje> buscarMensajes(String rutaId) {
+        RutaArchivada archivada = mongoTemplate.findById(rutaId, RutaArchivada.class);
+        return archivada != null ? descomprimir(archivada).getMensajes() : Collections.emptyList();
+    }
+
+    public List<Ruta> rutasDeUsuario(String usuarioId) {
+        return rutasArchivadas(Criteria.where("usuarioId").is(usuarioId));
+    }
+
+    public List<Ruta> rutasDeVehiculo(String usuarioId, String vehiculoId) {
+        return rutasArchivadas(Criteria.where("usuarioId").is(usuarioId).and("vehiculoId").is(vehiculoId));
+    }
+
+    private List<Ruta> rutasArchivadas(Criteria criterio) {
+        Query query = new Query(criterio).with(Sort.by(Sort.Direction.DESC, "archivadaEn"));
+        return mongoTemplate.find(query, RutaArchivada.class).stream()
+                .map(a -> descomprimir(a).getRuta())
+                .collect(Collectors.toList());
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", habilitado);
+        stats.put("edadDias", edadDias);
+        stats.put("enEjecucion", enEjecucion.get());
+        stats.put("ultimaEjecucion", ultimaEjecucion);
+        stats.put("rutasArchivadas", rutasArchivadas.get());
+        stats.put("mensajesArchivados", mensajesArchivados.get());
+        long originales = bytesOriginales.get();
+        stats.put("ratioCompresion", originales > 0 ? (double) bytesComprimidos.get() / originales : null);
+        stats.put("rutasActivas", contarEnTodasLasBases(Ruta.class));
+        stats.put("mensajesActivos", contarEnTodasLasBases(Mensaje.class));
+        stats.put("rutasEnArchivo", contarEnTodasLasBases(RutaArchivada.class));
+        return stats;
+    }
+
+    // Se consulta desde peticiones sin empresa: cada base se declara con enBase
+    private long contarEnTodasLasBases(Class<?> clase) {
+        AtomicLong total = new AtomicLong();
+        for (String base : mongoTemplate.bases()) {
+            ContextoEmpresa.enBase(base, () -> total.addAndGet(mongoTemplate.estimatedCount(clase)));
+        }
+        return total.get();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Compresión
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private RutaArchivada comprimir(Ruta ruta, List<Mensaje> mensajes, Instant ahora) {
+        ContenidoArchivado contenido = new ContenidoArchivado();
+        contenido.setRuta(ruta);
+        contenido.setMensajes(mensajes);
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(contenido);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(json.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                gzip.write(json);
+            }
+            byte[] datos = buffer.toByteArray();
+            bytesOriginales.addAndGet(json.length);
+            bytesComprimidos.addAndGet(datos.length);
+
+            RutaArchivada a = new RutaArchivada();
+            a.setId(ruta.getId());
+            a.setUsuarioId(ruta.getUsuarioId());
+            a.setVehiculoId(ruta.getVehiculoId());
+            a.setConductorId(ruta.getConductorId());
+            a.setFecha(ruta.getFecha());
+            a.setFechaCompletada(ruta.getFechaCompletada());
+            a.setArchivadaEn(ahora);
+            a.setNumMensajes(mensajes.size());
+            a.setBytesOriginales(json.length);
+            a.setDatos(datos);
+            return a;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ContenidoArchivado descomprimir(RutaArchivada archivada) {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(archivada.getDatos()))) {
+            ContenidoArchivado contenido = objectMapper.readValue(gzip, ContenidoArchivado.class);
+            contenido.getRuta().setArchivada(true);
+            return contenido;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Data
+    public static class ContenidoArchivado {
+        private Ruta ruta;
+        private List<Mensaje> mensajes = new ArrayList<>();
+    }
+
+    @Data
+    public static class ResultadoArchivado {
+        private boolean enCurso;
+        private long marcadas;
+        private long rutas;
+        private long mensajes;
+        private long duracionMs;
+    }
+}
@@ -0,0 +1,288 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.util.ContextoEmpresa;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calentamiento de la instancia antes de declararse lista y medida del arranque.
+ *
+ * Se ejecuta al terminar el refresco del contexto, antes de los ApplicationReadyEvent, así
+ * que el estado de readiness (/actuator/health/readiness) no pasa a ACCEPTING_TRAFFIC hasta
+ * que acaba. Dentro de un plazo total:
+ * - Abre las conexiones a Mongo.
+ * - Construye el índice de búsqueda y carga en caché los vehículos de las rutas en curso,
+ *   que son los primeros que piden los paneles.
+ * - Lanza contra el propio Tomcat unas cuantas peticiones a los endpoints calientes para
+ *   que el JIT compile el camino completo (filtros, controladores, Mongo, Jackson) antes
+ *   de que llegue tráfico real. Van con la cabecera X-Calentamiento y una empresa que no
+ *   existe, así que no tocan datos.
+ *
+ * Registra los tiempos desde el arranque de la JVM hasta el contexto, hasta readiness y
+ * hasta la primera petición real atendida (la que no es de calentamiento ni de actuator).
+ */
+@Service
+public class ArranqueService {
+
+    private static final Logger log = LoggerFactory.getLogger(ArranqueService.class);
+
+    public static final String CABECERA_CALENTAMIENTO = "X-Calentamiento";
+
+    @Value("${ecofleet.arranque.calentamiento.habilitado:true}")
+    private boolean habilitado;
+
+    @Value("${ecofleet.arranque.calentamiento.plazo-ms:30000}")
+    private long plazoMs;
+
+    @Value("${ecofleet.arranque.calentamiento.iteraciones:200}")
+    private int iteraciones;
+
+    @Value("${ecofleet.arranque.calentamiento.hilos:4}")
+    private int hilos;
+
+    // Separadas por ';' (las consultas pueden llevar comas)
+    @Value("${ecofleet.arranque.calentamiento.rutas:/api/vehiculos;/api/rutas}")
+    private String rutas;
+
+    @Value("${ecofleet.arranque.calentamiento.usuario:calentamiento}")
+    private String usuarioCalentamiento;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private BusquedaService busqueda;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Map<String, Long> pasos = new LinkedHashMap<>();
+    private final AtomicLong peticionesCalentamiento = new AtomicLong();
+    private final AtomicLong erroresCalentamiento = new AtomicLong();
+    private final AtomicBoolean primeraPeticion = new AtomicBoolean();
+    private volatile long contextoMs = -1;
+    private volatile long calentamientoMs = -1;
+    private volatile long listoMs = -1;
+    private volatile long primeraPeticionMs = -1;
+    private volatile long primeraPeticionDuracionMs = -1;
+    private volatile String primeraPeticionRuta;
+
+    @EventListener(ApplicationStartedEvent.class)
+    void calentar() {
+        contextoMs = uptimeMs();
+        Gauge.builder("ecofleet.arranque.listo_ms", this, s -> s.listoMs).register(registry);
+        Gauge.builder("ecofleet.arranque.primera_peticion_ms", this, s -> s.primeraPeticionMs).register(registry);
+        if (!habilitado) {
+            return;
+        }
+        long inicio = System.nanoTime();
+        long limite = inicio + TimeUnit.MILLISECONDS.toNanos(plazoMs);
+        paso("mongo", this::abrirConexiones);
+        paso("busqueda", () -> esperarIndiceBusqueda(limite));
+        paso("vehiculosEnCurso", this::cargarVehiculosEnCurso);
+        paso("jit", () -> peticionesLocales(limite));
+        calentamientoMs = (System.nanoTime() - inicio) / 1_000_000;
+        log.info("Calentamiento terminado en {} ms: {}", calentamientoMs, pasos);
+    }
+
+    @EventListener
+    void readiness(AvailabilityChangeEvent<ReadinessState> evento) {
+        if (evento.getState() == ReadinessState.ACCEPTING_TRAFFIC && listoMs < 0) {
+            listoMs = uptimeMs();
+            log.info("Instancia lista {} ms después de arrancar la JVM (AOT: {}, CDS: {})", listoMs,
+                    AotDetector.useGeneratedArtifacts(), archivoCds());
+        }
+    }
+
+    /** Lo llama el filtro al terminar cada petición que no es de calentamiento ni de actuator. */
+    public void peticionAtendida(String ruta, long duracionNanos) {
+        if (primeraPeticion.get() || !primeraPeticion.compareAndSet(false, true)) {
+            return;
+        }
+        primeraPeticionMs = uptimeMs();
+        primeraPeticionDuracionMs = duracionNanos / 1_000_000;
+        primeraPeticionRuta = ruta;
+        log.info("Primera petición ({}) atendida {} ms después de arrancar la JVM, en {} ms",
+                ruta, primeraPeticionMs, primeraPeticionDuracionMs);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Pasos del calentamiento
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private void paso(String nombre, Runnable accion) {
+        long inicio = System.nanoTime();
+        try {
+            accion.run();
+        } catch (RuntimeException e) {
+            // Un paso fallido no impide arrancar: solo se pierde su calentamiento
+            log.warn("Paso de calentamiento {} fallido: {}", nombre, e.getMessage());
+        }
+        pasos.put(nombre, (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    private void abrirConexiones() {
+        mongoTemplate.executeCommand(new Document("ping", 1));
+        mongoTemplate.estimatedCount(Ruta.class);
+    }
+
+    private void esperarIndiceBusqueda(long limite) {
+        busqueda.reconstruir();
+        while (busqueda.reconstruyendo() && System.nanoTime() < limite) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void cargarVehiculosEnCurso() {
+        try {
+            Query query = new Query(Criteria.where("estado").is("EN_CURSO").and("vehiculoId").ne(null));
+            query.fields().include("vehiculoId");
+            // En la base de cada empresa: la caché lee el vehículo de la base del hilo
+            for (String base : mongoTemplate.bases()) {
+                ContextoEmpresa.enBase(base, () -> {
+                    Set<String> vehiculoIds = new LinkedHashSet<>();
+                    for (Ruta ruta : mongoTemplate.find(query, Ruta.class)) {
+                        vehiculoIds.add(ruta.getVehiculoId());
+                    }
+                    vehiculoIds.forEach(cacheEntidades::vehiculo);
+                });
+            }
+        } catch (DataAccessException e) {
+            log.warn("No se pudieron cargar los vehículos en curso: {}", e.getMessage());
+        }
+    }
+
+    private void peticionesLocales(long limite) {
+        int puerto = environment.getProperty("local.server.port", Integer.class, 8080);
+        List<URI> uris = new ArrayList<>();
+        for (String ruta : rutas.split(";")) {
+            if (!ruta.isBlank()) {
+                uris.add(URI.create("http://localhost:" + puerto + ruta.trim()));
+            }
+        }
+        if (uris.isEmpty()) {
+            return;
+        }
+        HttpClient cliente = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, hilos), r -> {
+            Thread t = new Thread(r, "calentamiento");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (int h = 0; h < Math.max(1, hilos); h++) {
+                int desplazamiento = h;
+                executor.execute(() -> {
+                    for (int i = 0; i < iteraciones && System.nanoTime() < limite; i++) {
+                        URI uri = uris.get((i + desplazamiento) % uris.size());
+                        HttpRequest peticion = HttpRequest.newBuilder(uri)
+                                .timeout(Duration.ofSeconds(5))
+                                .header("X-User-Id", usuarioCalentamiento)
+                                .header(CABECERA_CALENTAMIENTO, "1")
+                                .GET()
+                                .build();
+                        try {
+                            HttpResponse<Void> respuesta = cliente.send(peticion, HttpResponse.BodyHandlers.discarding());
+                            if (respuesta.statusCode() >= 500) {
+                                erroresCalentamiento.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            erroresCalentamiento.incrementAndGet();
+                        }
+                        peticionesCalentamiento.incrementAndGet();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Medidas
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private static long uptimeMs() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    // Archivo AppCDS con el que arrancó la JVM, o null si no se usa
+    private static String archivoCds() {
+        for (String argumento : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argumento.startsWith("-XX:SharedArchiveFile=")) {
+                return argumento.substring("-XX:SharedArchiveFile=".length());
+            }
+        }
+        return null;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("aot", AotDetector.useGeneratedArtifacts());
+        stats.put("archivoCds", archivoCds());
+        stats.put("perfiles", environment.getActiveProfiles());
+        stats.put("jvmHastaContextoMs", contextoMs);
+        stats.put("calentamientoMs", calentamientoMs);
+        stats.put("pasosCalentamientoMs", pasos);
+        stats.put("peticionesCalentamiento", peticionesCalentamiento.get());
+        stats.put("erroresCalentamiento", erroresCalentamiento.get());
+        stats.put("jvmHastaListoMs", listoMs);
+        stats.put("jvmHastaPrimeraPeticionMs", primeraPeticionMs);
+        stats.put("primeraPeticionDuracionMs", primeraPeticionDuracionMs);
+        stats.put("primeraPeticionRuta", primeraPeticionRuta);
+        return stats;
+    }
+}
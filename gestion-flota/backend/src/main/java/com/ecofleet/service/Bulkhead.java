@@ -0,0 +1,95 @@
+package com.ecofleet.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compartimento de concurrencia para una clase de endpoints.
+ *
+ * Limita las peticiones simultáneas de la clase (semáforo justo, FIFO) y, dentro de ella,
+ * las de cada empresa a una fracción del total, de modo que un tenant grande no pueda
+ * ocupar todos los permisos. Si no hay permiso en esperaMaximaMs, la petición se rechaza.
+ */
+public class Bulkhead {
+
+    private final String nombre;
+    private final int limite;
+    private final int limitePorTenant;
+    private final long esperaMaximaMs;
+    private final Semaphore permisos;
+    private final ConcurrentHashMap<String, Integer> enCursoPorTenant = new ConcurrentHashMap<>();
+
+    private final AtomicLong admitidas = new AtomicLong();
+    private final AtomicLong rechazadasLimite = new AtomicLong();
+    private final AtomicLong rechazadasTenant = new AtomicLong();
+
+    public Bulkhead(String nombre, int limite, double cuotaTenant, long esperaMaximaMs) {
+        this.nombre = nombre;
+        this.limite = limite;
+        this.limitePorTenant = Math.max(1, (int) Math.ceil(limite * cuotaTenant));
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.permisos = new Semaphore(limite, true);
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    // true si la petición puede continuar; en ese caso hay que llamar a salir() al terminar
+    public boolean entrar(String tenant) throws InterruptedException {
+        int propias = enCursoPorTenant.merge(tenant, 1, Integer::sum);
+        if (propias > limitePorTenant) {
+            liberarTenant(tenant);
+            rechazadasTenant.incrementAndGet();
+            return false;
+        }
+        boolean concedido = false;
+        try {
+            concedido = permisos.tryAcquire(esperaMaximaMs, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!concedido) {
+                liberarTenant(tenant);
+            }
+        }
+        if (!concedido) {
+            rechazadasLimite.incrementAndGet();
+            return false;
+        }
+        admitidas.incrementAndGet();
+        return true;
+    }
+
+    public void salir(String tenant) {
+        permisos.release();
+        liberarTenant(tenant);
+    }
+
+    private void liberarTenant(String tenant) {
+        enCursoPorTenant.computeIfPresent(tenant, (k, v) -> v <= 1 ? null : v - 1);
+    }
+
+    public int enCurso() {
+        return limite - permisos.availablePermits();
+    }
+
+    public long rechazadas() {
+        return rechazadasLimite.get() + rechazadasTenant.get();
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limite", limite);
+        stats.put("limitePorTenant", limitePorTenant);
+        stats.put("enCurso", enCurso());
+        stats.put("esperando", permisos.getQueueLength());
+        stats.put("tenantsActivos", enCursoPorTenant.size());
+        stats.put("admitidas", admitidas.get());
+        stats.put("rechazadasLimite", rechazadasLimite.get());
+        stats.put("rechazadasTenant", rechazadasTenant.get());
+        return stats;
+    }
+}
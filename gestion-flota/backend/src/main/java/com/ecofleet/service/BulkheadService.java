@@ -0,0 +1,253 @@
+package com.ecofleet.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compartimentos (bulkheads) por clase de endpoint: ingesta GPS, lecturas interactivas,
+ * analítica/exportación y autenticación. Cada uno tiene su propio límite de concurrencia,
+ * así que una exportación pesada o una avalancha de logins no agota la capacidad de los
+ * demás aunque todos compartan el pool de Tomcat (o los hilos virtuales en Java 21+).
+ */
+@Service
+public class BulkheadService {
+
+    public static final String GPS = "gps";
+    public static final String INTERACTIVO = "interactivo";
+    public static final String ANALITICA = "analitica";
+    public static final String AUTH = "auth";
+
+    // Endpoints caros de lectura masiva o cálculo: van al compartimento de analítica
+    private static final List<String> PREFIJOS_ANALITICA = List.of(
+            "/api/optimizacion", "/api/bulkheads/benchmark", "/api/exportar", "/api/importar",
+            "/api/informes/costes/reconstruir", "/api/archivo/ejecutar", "/api/ingesta/benchmark",
+            "/api/rutas/clusters/benchmark"
+    );
+
+    // Conexiones de larga duración (SSE, long-poll): ocuparían un permiso mientras siguen abiertas
+    private static final List<String> RUTAS_SIN_BULKHEAD = List.of("/api/rutas/stream");
+    private static final List<String> SUFIJOS_SIN_BULKHEAD = List.of("/canal/stream", "/canal/poll");
+
+    @Value("${ecofleet.bulkhead.gps.limite:200}")
+    private int limiteGps;
+    @Value("${ecofleet.bulkhead.gps.espera-ms:0}")
+    private long esperaGps;
+
+    @Value("${ecofleet.bulkhead.interactivo.limite:100}")
+    private int limiteInteractivo;
+    @Value("${ecofleet.bulkhead.interactivo.espera-ms:250}")
+    private long esperaInteractivo;
+
+    @Value("${ecofleet.bulkhead.analitica.limite:8}")
+    private int limiteAnalitica;
+    @Value("${ecofleet.bulkhead.analitica.espera-ms:1000}")
+    private long esperaAnalitica;
+
+    @Value("${ecofleet.bulkhead.auth.limite:32}")
+    private int limiteAuth;
+    @Value("${ecofleet.bulkhead.auth.espera-ms:100}")
+    private long esperaAuth;
+
+    // Fracción máxima de cada compartimento que puede ocupar una sola empresa
+    @Value("${ecofleet.bulkhead.cuota-tenant:0.5}")
+    private double cuotaTenant;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Map<String, Bulkhead> bulkheads = new LinkedHashMap<>();
+
+    @PostConstruct
+    void iniciar() {
+        for (String nombre : List.of(GPS, INTERACTIVO, ANALITICA, AUTH)) {
+            bulkheads.put(nombre, crear(nombre));
+        }
+
+        bulkheads.forEach((nombre, b) -> {
+            Gauge.builder("ecofleet.bulkhead.en_curso", b, Bulkhead::enCurso).tag("bulkhead", nombre).register(registry);
+            Gauge.builder("ecofleet.bulkhead.rechazadas", b, Bulkhead::rechazadas).tag("bulkhead", nombre).register(registry);
+        });
+    }
+
+    // Compartimento nuevo con la configuración de uno existente
+    private Bulkhead crear(String nombre) {
+        return switch (nombre) {
+            case GPS -> new Bulkhead(GPS, limiteGps, cuotaTenant, esperaGps);
+            case INTERACTIVO -> new Bulkhead(INTERACTIVO, limiteInteractivo, cuotaTenant, esperaInteractivo);
+            case ANALITICA -> new Bulkhead(ANALITICA, limiteAnalitica, cuotaTenant, esperaAnalitica);
+            case AUTH -> new Bulkhead(AUTH, limiteAuth, cuotaTenant, esperaAuth);
+            default -> throw new IllegalArgumentException("Compartimento desconocido: " + nombre);
+        };
+    }
+
+    public boolean exenta(String ruta) {
+        return RUTAS_SIN_BULKHEAD.contains(ruta)
+                || (ruta.startsWith("/api/conductores/") && SUFIJOS_SIN_BULKHEAD.stream().anyMatch(ruta::endsWith));
+    }
+
+    public Bulkhead clasificar(String metodo, String ruta) {
+        if (ruta.startsWith("/api/auth")) {
+            return bulkheads.get(AUTH);
+        }
+        if (ruta.startsWith("/api/rutas/") && esIngestaGps(metodo, ruta)) {
+            return bulkheads.get(GPS);
+        }
+        if (("GET".equals(metodo) && "/api/mantenimientos".equals(ruta))
+                || PREFIJOS_ANALITICA.stream().anyMatch(ruta::startsWith)) {
+            return bulkheads.get(ANALITICA);
+        }
+        return bulkheads.get(INTERACTIVO);
+    }
+
+    // PUT /api/rutas/{id} (Android) y POST /api/rutas/{id}/gps
+    private static boolean esIngestaGps(String metodo, String ruta) {
+        String[] partes = ruta.split("/");
+        return ("PUT".equals(metodo) && partes.length == 4)
+                || ("POST".equals(metodo) && partes.length == 5 && "gps".equals(partes[4]));
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        bulkheads.forEach((nombre, b) -> stats.put(nombre, b.estadisticas()));
+        stats.put("hilosVirtualesDisponibles", hilosVirtualesDisponibles());
+        return stats;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Benchmark: pool fijo sin compartimento vs pool fijo / hilos virtuales + bulkhead
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Lanza de golpe numPeticiones tareas que bloquean bloqueoMs (como una consulta a Mongo),
+     * repartidas entre numTenants empresas, en tres escenarios:
+     * - pool fijo del tamaño del de Tomcat sin compartimento: todo se encola;
+     * - el mismo pool pasando por un Bulkhead con la configuración real del compartimento
+     *   (límite, cuota por empresa, espera máxima), igual que en BulkheadFilter;
+     * - hilos virtuales con ese mismo Bulkhead, solo si el runtime es Java 21+.
+     * Se usa una instancia nueva del compartimento para no quitar permisos al tráfico real.
+     */
+    public Map<String, Object> benchmark(String compartimento, int numPeticiones, long bloqueoMs, int hilosPlataforma,
+                                         int numTenants) throws InterruptedException {
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("compartimento", compartimento);
+        resultado.put("peticiones", numPeticiones);
+        resultado.put("bloqueoMs", bloqueoMs);
+        resultado.put("tenants", numTenants);
+
+        ExecutorService plataforma = Executors.newFixedThreadPool(hilosPlataforma);
+        try {
+            resultado.put("plataformaSinBulkhead", medir(plataforma, null, numPeticiones, bloqueoMs, numTenants));
+            Bulkhead bulkhead = crear(compartimento);
+            resultado.put("plataformaConBulkhead", medir(plataforma, bulkhead, numPeticiones, bloqueoMs, numTenants));
+        } finally {
+            plataforma.shutdownNow();
+        }
+
+        ExecutorService virtual = crearExecutorVirtual();
+        if (virtual == null) {
+            resultado.put("virtualConBulkhead", "No disponible: requiere Java 21 o superior");
+        } else {
+            try {
+                Bulkhead bulkhead = crear(compartimento);
+                resultado.put("virtualConBulkhead", medir(virtual, bulkhead, numPeticiones, bloqueoMs, numTenants));
+            } finally {
+                virtual.shutdownNow();
+            }
+        }
+        return resultado;
+    }
+
+    private static Map<String, Object> medir(ExecutorService executor, Bulkhead bulkhead, int numPeticiones,
+                                             long bloqueoMs, int numTenants) throws InterruptedException {
+        long[] latencias = new long[numPeticiones];
+        boolean[] rechazada = new boolean[numPeticiones];
+        List<CompletableFuture<Void>> tareas = new ArrayList<>(numPeticiones);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < numPeticiones; i++) {
+            final int indice = i;
+            final String tenant = "benchmark-" + (i % numTenants);
+            final long enviada = System.nanoTime();
+            tareas.add(CompletableFuture.runAsync(() -> {
+                try {
+                    if (bulkhead != null && !bulkhead.entrar(tenant)) {
+                        rechazada[indice] = true;
+                    } else {
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(bloqueoMs);
+                        } finally {
+                            if (bulkhead != null) bulkhead.salir(tenant);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latencias[indice] = System.nanoTime() - enviada;
+            }, executor));
+        }
+        CompletableFuture.allOf(tareas.toArray(new CompletableFuture<?>[0])).join();
+        long total = System.nanoTime() - inicio;
+
+        long[] admitidas = new long[numPeticiones];
+        long[] rechazadas = new long[numPeticiones];
+        int numAdmitidas = 0, numRechazadas = 0;
+        for (int i = 0; i < numPeticiones; i++) {
+            if (rechazada[i]) rechazadas[numRechazadas++] = latencias[i];
+            else admitidas[numAdmitidas++] = latencias[i];
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("duracionMs", total / 1_000_000);
+        stats.put("admitidas", numAdmitidas);
+        stats.put("rechazadas", numRechazadas);
+        stats.put("admitidasPorSegundo", numAdmitidas * 1e9 / total);
+        stats.put("latenciaAdmitidas", percentiles(Arrays.copyOf(admitidas, numAdmitidas)));
+        // Lo que tarda un cliente en recibir el 503: debería estar acotado por espera-ms
+        stats.put("latenciaRechazadas", percentiles(Arrays.copyOf(rechazadas, numRechazadas)));
+        return stats;
+    }
+
+    private static Map<String, Object> percentiles(long[] latencias) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        if (latencias.length == 0) {
+            return stats;
+        }
+        Arrays.sort(latencias);
+        int n = latencias.length;
+        stats.put("p50Ms", latencias[n / 2] / 1e6);
+        stats.put("p99Ms", latencias[Math.min(n - 1, (int) (n * 0.99))] / 1e6);
+        stats.put("maxMs", latencias[n - 1] / 1e6);
+        return stats;
+    }
+
+    public static boolean hilosVirtualesDisponibles() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() solo existe desde Java 21; el proyecto compila para 17
+    private static ExecutorService crearExecutorVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.ecofleet.service;
+
+import java.util.Random;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Búsqueda local iterada (relocate + swap con listas de vecinos) sobre fork-join.
+ *
+ * Una tarea con numBusquedas > 1 se divide en dos mitades que se ejecutan en paralelo,
+ * cada hoja parte de la misma solución inicial con una semilla distinta y devuelve su
+ * mejor solución. Todas respetan el mismo instante límite (presupuesto de tiempo).
+ */
+class BusquedaLocalAsignacion extends RecursiveTask<SolucionAsignacion> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final double EPS = 1e-9;
+    // Cada cuántos trabajos evaluados se consulta el reloj
+    private static final int COMPROBAR_TIEMPO_CADA = 256;
+
+    private final SolucionAsignacion inicial;
+    private final long semilla;
+    private final int numBusquedas;
+    private final long limiteNanos;
+
+    BusquedaLocalAsignacion(SolucionAsignacion inicial, long semilla, int numBusquedas, long limiteNanos) {
+        this.inicial = inicial;
+        this.semilla = semilla;
+        this.numBusquedas = numBusquedas;
+        this.limiteNanos = limiteNanos;
+    }
+
+    @Override
+    protected SolucionAsignacion compute() {
+        if (numBusquedas > 1) {
+            int mitad = numBusquedas / 2;
+            BusquedaLocalAsignacion izquierda = new BusquedaLocalAsignacion(inicial, semilla, mitad, limiteNanos);
+            BusquedaLocalAsignacion derecha = new BusquedaLocalAsignacion(inicial, semilla + mitad, numBusquedas - mitad, limiteNanos);
+            izquierda.fork();
+            SolucionAsignacion b = derecha.compute();
+            SolucionAsignacion a = izquierda.join();
+            return a.coste <= b.coste ? a : b;
+        }
+        return buscar();
+    }
+
+    private SolucionAsignacion buscar() {
+        Random rnd = new Random(semilla);
+        SolucionAsignacion actual = inicial.copia();
+        SolucionAsignacion mejor = inicial.copia();
+        int n = actual.m.tamano();
+        if (n == 0 || actual.numVehiculos() == 0) {
+            return mejor;
+        }
+        int fuerza = Math.max(2, (int) Math.sqrt(n) / 2);
+
+        while (System.nanoTime() < limiteNanos) {
+            if (!descender(actual, rnd)) {
+                // Óptimo local: nos quedamos con el mejor y perturbamos desde él
+                if (actual.coste < mejor.coste - EPS) {
+                    mejor = actual.copia();
+                } else {
+                    actual = mejor.copia();
+                }
+                perturbar(actual, rnd, fuerza);
+            }
+        }
+        if (actual.coste < mejor.coste - EPS) {
+            mejor = actual;
+        }
+        mejor.recalcularCoste();
+        return mejor;
+    }
+
+    // Recorre los trabajos en orden aleatorio aplicando la primera mejora; false si no hubo ninguna o se agotó el tiempo
+    private boolean descender(SolucionAsignacion s, Random rnd) {
+        int n = s.m.tamano();
+        int desplazamiento = rnd.nextInt(n);
+        int paso = pasoCoprimo(n, rnd);
+        boolean mejoro = false;
+        for (int i = 0; i < n; i++) {
+            if (i % COMPROBAR_TIEMPO_CADA == 0 && System.nanoTime() >= limiteNanos) {
+                return false;
+            }
+            int j = (int) ((desplazamiento + (long) i * paso) % n);
+            if (s.vehiculo[j] == SolucionAsignacion.NINGUNO) {
+                continue;
+            }
+            if (recolocar(s, j) || intercambiar(s, j)) {
+                mejoro = true;
+            }
+        }
+        return mejoro;
+    }
+
+    private boolean recolocar(SolucionAsignacion s, int j) {
+        double dQuitar = s.deltaQuitar(j);
+        int vj = s.vehiculo[j];
+
+        // Insertar j justo después de un trabajo k cuyo destino queda cerca del origen de j
+        for (int k : s.m.vecinosEntrada(j)) {
+            int v = s.vehiculo[k];
+            if (v == SolucionAsignacion.NINGUNO || k == s.anterior[j]) continue;
+            if (v != vj && s.cantidad[v] >= s.capacidad) continue;
+            double delta = dQuitar + s.deltaInsertar(j, v, k, s.siguiente[k]);
+            if (delta < -EPS) {
+                s.quitar(j);
+                s.insertarEntre(j, v, k, s.siguiente[k]);
+                s.coste += delta;
+                return true;
+            }
+        }
+        // Insertar j justo antes de un trabajo k cuyo origen queda cerca del destino de j
+        for (int k : s.m.vecinosSalida(j)) {
+            int v = s.vehiculo[k];
+            if (v == SolucionAsignacion.NINGUNO || k == s.siguiente[j]) continue;
+            if (v != vj && s.cantidad[v] >= s.capacidad) continue;
+            double delta = dQuitar + s.deltaInsertar(j, v, s.anterior[k], k);
+            if (delta < -EPS) {
+                s.quitar(j);
+                s.insertarEntre(j, v, s.anterior[k], k);
+                s.coste += delta;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean intercambiar(SolucionAsignacion s, int j) {
+        for (int k : s.m.vecinosEntrada(j)) {
+            int vk = s.vehiculo[k];
+            if (vk == SolucionAsignacion.NINGUNO || vk == s.vehiculo[j]) continue;
+            double delta = s.deltaReemplazar(j, k) + s.deltaReemplazar(k, j);
+            if (delta < -EPS) {
+                s.intercambiar(j, k);
+                s.coste += delta;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Mueve trabajos aleatorios al final de vehículos aleatorios con hueco
+    private void perturbar(SolucionAsignacion s, Random rnd, int fuerza) {
+        int n = s.m.tamano();
+        int numVehiculos = s.numVehiculos();
+        for (int t = 0; t < fuerza; t++) {
+            int j = rnd.nextInt(n);
+            int v = rnd.nextInt(numVehiculos);
+            if (s.vehiculo[j] == SolucionAsignacion.NINGUNO || s.ultimo[v] == j) continue;
+            if (v != s.vehiculo[j] && s.cantidad[v] >= s.capacidad) continue;
+            double delta = s.deltaQuitar(j);
+            s.quitar(j);
+            delta += s.deltaInsertar(j, v, s.ultimo[v], SolucionAsignacion.NINGUNO);
+            s.insertarEntre(j, v, s.ultimo[v], SolucionAsignacion.NINGUNO);
+            s.coste += delta;
+        }
+    }
+
+    // Paso coprimo con n para recorrer todos los índices en un orden pseudoaleatorio sin barajar
+    private static int pasoCoprimo(int n, Random rnd) {
+        if (n <= 2) {
+            return 1;
+        }
+        int paso = 1 + rnd.nextInt(n - 1);
+        while (mcd(paso, n) != 1) {
+            paso = 1 + rnd.nextInt(n - 1);
+        }
+        return paso;
+    }
+
+    private static int mcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
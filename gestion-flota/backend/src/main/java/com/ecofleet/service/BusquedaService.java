@@ -0,0 +1,347 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Conductor;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.util.ContextoEmpresa;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Búsqueda typeahead de vehículos, rutas y conductores de una empresa (GET /api/search).
+ *
+ * Cada empresa tiene un IndiceBusqueda en memoria. Se alimenta de los mismos cambios que
+ * el resto de índices en memoria: DifusionCambiosService entrega las escrituras de
+ * vehículos, rutas y conductores, por change stream desde cualquier réplica o desde los
+ * controladores en modo local. Una ruta cambia de posición cada segundo, pero solo se
+ * reindexa si cambia su origen o destino.
+ *
+ * Al arrancar se reconstruye desde Mongo en paralelo: las tres colecciones se leen a la
+ * vez y luego cada empresa se indexa en su propio hilo. Los cambios que llegan mientras
+ * tanto se aplican al estado vivo y se guardan para repetirlos sobre el nuevo antes de
+ * sustituirlo.
+ */
+@Service
+public class BusquedaService {
+
+    private static final Logger log = LoggerFactory.getLogger(BusquedaService.class);
+
+    public static final String VEHICULO = "vehiculo";
+    public static final String RUTA = "ruta";
+    public static final String CONDUCTOR = "conductor";
+
+    @Value("${ecofleet.busqueda.hilos-reconstruccion:4}")
+    private int hilosReconstruccion;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // Índices por empresa y empresa de cada entidad (tipo:id), para borrar conociendo solo el id
+    private static final class Estado {
+        final ConcurrentHashMap<String, IndiceBusqueda> porEmpresa = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, String> empresaDe = new ConcurrentHashMap<>();
+    }
+
+    private volatile Estado estado = new Estado();
+    private final Object cerrojo = new Object();
+    // No null mientras se reconstruye: cambios a repetir sobre el estado nuevo
+    private List<Consumer<Estado>> durante;
+
+    private final AtomicBoolean reconstruyendo = new AtomicBoolean();
+    private volatile long ultimaReconstruccionMs = -1;
+    private volatile String ultimaReconstruccion;
+    private Timer consultas;
+
+    @PostConstruct
+    void iniciar() {
+        consultas = Timer.builder("ecofleet.busqueda.consulta").publishPercentileHistogram().register(registry);
+        Gauge.builder("ecofleet.busqueda.entidades", this, s -> s.estado.empresaDe.size()).register(registry);
+    }
+
+    // Si el calentamiento del arranque ya lo ha construido no se repite
+    @EventListener(ApplicationReadyEvent.class)
+    void arrancar() {
+        if (ultimaReconstruccion == null) {
+            reconstruir();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Entrada: escrituras de las entidades
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public void vehiculoCambiado(String id, String usuarioId, String matricula, String marca, String modelo) {
+        poner(usuarioId, VEHICULO, id, matricula, subtituloVehiculo(marca, modelo), noNulos(marca, modelo), noNulos(matricula));
+    }
+
+    public void rutaCambiada(String id, String usuarioId, String origen, String destino) {
+        poner(usuarioId, RUTA, id, tituloRuta(origen, destino), null, noNulos(origen, destino), List.of());
+    }
+
+    public void conductorCambiado(String id, String empresaId, String nombre, String email) {
+        poner(empresaId, CONDUCTOR, id, nombre, email, noNulos(nombre, email), List.of());
+    }
+
+    public void vehiculoGuardado(Vehiculo v) {
+        vehiculoCambiado(v.getId(), v.getUsuarioId(), v.getMatricula(), v.getMarca(), v.getModelo());
+    }
+
+    public void rutaGuardada(Ruta r) {
+        rutaCambiada(r.getId(), r.getUsuarioId(), r.getOrigen(), r.getDestino());
+    }
+
+    public void conductorGuardado(Conductor c) {
+        conductorCambiado(c.getId(), c.getEmpresaId(), c.getNombre(), c.getEmail());
+    }
+
+    // Las importaciones masivas no devuelven los ids: se releen los vehículos de la empresa
+    public void recargarVehiculos(String usuarioId) {
+        leer(Vehiculo.class, "usuarioId", usuarioId, List.of("usuarioId", "matricula", "marca", "modelo"), this::vehiculoGuardado);
+    }
+
+    public void eliminado(String tipo, String id) {
+        aplicar(e -> quitar(e, tipo, id));
+    }
+
+    private void poner(String usuarioId, String tipo, String id, String titulo, String subtitulo,
+                       List<String> textos, List<String> sufijos) {
+        if (id == null) {
+            return;
+        }
+        if (usuarioId == null) {
+            eliminado(tipo, id);
+            return;
+        }
+        aplicar(e -> poner(e, usuarioId, tipo, id, titulo, subtitulo, textos, sufijos));
+    }
+
+    private static void poner(Estado e, String usuarioId, String tipo, String id, String titulo, String subtitulo,
+                              List<String> textos, List<String> sufijos) {
+        String clave = tipo + ":" + id;
+        String anterior = e.empresaDe.put(clave, usuarioId);
+        if (anterior != null && !anterior.equals(usuarioId)) {
+            IndiceBusqueda viejo = e.porEmpresa.get(anterior);
+            if (viejo != null) {
+                viejo.quitar(tipo, id);
+            }
+        }
+        e.porEmpresa.computeIfAbsent(usuarioId, u -> new IndiceBusqueda()).poner(tipo, id, titulo, subtitulo, textos, sufijos);
+    }
+
+    private static void quitar(Estado e, String tipo, String id) {
+        String usuarioId = e.empresaDe.remove(tipo + ":" + id);
+        if (usuarioId != null) {
+            IndiceBusqueda indice = e.porEmpresa.get(usuarioId);
+            if (indice != null) {
+                indice.quitar(tipo, id);
+            }
+        }
+    }
+
+    private void aplicar(Consumer<Estado> cambio) {
+        Estado destino;
+        synchronized (cerrojo) {
+            destino = estado;
+            if (durante != null) {
+                durante.add(cambio);
+            }
+        }
+        cambio.accept(destino);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Consulta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public Map<String, Object> buscar(String usuarioId, String q, int limite) {
+        long inicio = System.nanoTime();
+        IndiceBusqueda indice = estado.porEmpresa.get(usuarioId);
+        List<IndiceBusqueda.Entrada> encontradas = indice != null ? indice.buscar(q, limite) : List.of();
+        List<Map<String, Object>> resultados = new ArrayList<>(encontradas.size());
+        for (IndiceBusqueda.Entrada entrada : encontradas) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("tipo", entrada.tipo);
+            r.put("id", entrada.id);
+            r.put("titulo", entrada.titulo);
+            r.put("subtitulo", entrada.subtitulo);
+            resultados.add(r);
+        }
+        long duracion = System.nanoTime() - inicio;
+        consultas.record(duracion, TimeUnit.NANOSECONDS);
+
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("q", q);
+        resultado.put("resultados", resultados);
+        resultado.put("microsegundos", duracion / 1000);
+        if (reconstruyendo.get()) {
+            // Mientras se reconstruye el índice puede faltar parte de lo anterior al arranque
+            resultado.put("indexando", true);
+        }
+        return resultado;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Reconstrucción desde Mongo
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Lanza la reconstrucción completa en segundo plano si no hay otra en marcha.
+     */
+    public boolean reconstruir() {
+        if (!reconstruyendo.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread hilo = new Thread(this::ejecutarReconstruccion, "busqueda-reconstruccion");
+        hilo.setDaemon(true);
+        hilo.start();
+        return true;
+    }
+
+    private void ejecutarReconstruccion() {
+        long inicio = System.nanoTime();
+        synchronized (cerrojo) {
+            durante = new ArrayList<>();
+        }
+        AtomicInteger hilos = new AtomicInteger();
+        ExecutorService ejecutor = Executors.newFixedThreadPool(Math.max(1, hilosReconstruccion), r -> {
+            Thread t = new Thread(r, "busqueda-indexado-" + hilos.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            // Lectura de las tres colecciones a la vez, agrupando por empresa
+            Map<String, List<Consumer<Estado>>> porEmpresa = new ConcurrentHashMap<>();
+            CompletableFuture.allOf(
+                    CompletableFuture.runAsync(() -> leer(Vehiculo.class, "usuarioId", null, List.of("usuarioId", "matricula", "marca", "modelo"),
+                            v -> agrupar(porEmpresa, v.getUsuarioId(), e -> poner(e, v.getUsuarioId(), VEHICULO, v.getId(), v.getMatricula(),
+                                    subtituloVehiculo(v.getMarca(), v.getModelo()), noNulos(v.getMarca(), v.getModelo()), noNulos(v.getMatricula())))), ejecutor),
+                    CompletableFuture.runAsync(() -> leer(Ruta.class, "usuarioId", null, List.of("usuarioId", "origen", "destino"),
+                            r -> agrupar(porEmpresa, r.getUsuarioId(), e -> poner(e, r.getUsuarioId(), RUTA, r.getId(),
+                                    tituloRuta(r.getOrigen(), r.getDestino()), null, noNulos(r.getOrigen(), r.getDestino()), List.of()))), ejecutor),
+                    CompletableFuture.runAsync(() -> leer(Conductor.class, "empresaId", null, List.of("empresaId", "nombre", "email"),
+                            c -> agrupar(porEmpresa, c.getEmpresaId(), e -> poner(e, c.getEmpresaId(), CONDUCTOR, c.getId(),
+                                    c.getNombre(), c.getEmail(), noNulos(c.getNombre(), c.getEmail()), List.of()))), ejecutor)
+            ).join();
+
+            // Cada empresa en un hilo: su índice solo lo toca ese hilo
+            Estado nuevo = new Estado();
+            CompletableFuture.allOf(porEmpresa.values().stream()
+                    .map(cambios -> CompletableFuture.runAsync(() -> cambios.forEach(c -> c.accept(nuevo)), ejecutor))
+                    .toArray(CompletableFuture[]::new)).join();
+
+            synchronized (cerrojo) {
+                durante.forEach(c -> c.accept(nuevo));
+                durante = null;
+                estado = nuevo;
+            }
+            ultimaReconstruccionMs = (System.nanoTime() - inicio) / 1_000_000;
+            log.info("Índice de búsqueda reconstruido en {} ms: {} entidades de {} empresas",
+                    ultimaReconstruccionMs, nuevo.empresaDe.size(), nuevo.porEmpresa.size());
+        } catch (RuntimeException e) {
+            // Sigue sirviendo el estado vivo, que ya tiene lo cambiado desde el arranque
+            log.warn("No se pudo reconstruir el índice de búsqueda: {}", e.getMessage());
+        } finally {
+            synchronized (cerrojo) {
+                durante = null;
+            }
+            ejecutor.shutdown();
+            ultimaReconstruccion = Instant.now().toString();
+            reconstruyendo.set(false);
+        }
+    }
+
+    private <T> void leer(Class<T> tipo, String campoEmpresa, String empresa, List<String> campos, Consumer<T> alLeer) {
+        Query query = new Query(empresa != null ? Criteria.where(campoEmpresa).is(empresa) : Criteria.where(campoEmpresa).ne(null));
+        query.fields().include(campos.toArray(new String[0]));
+        // Sin empresa se leen todas: las de empresa pueden estar repartidas en varias bases
+        boolean todasLasBases = empresa == null
+                && MongoTemplateEmpresas.COLECCIONES_EMPRESA.contains(mongoTemplate.getCollectionName(tipo));
+        for (String base : todasLasBases ? mongoTemplate.bases() : Collections.singletonList((String) null)) {
+            ContextoEmpresa.enBase(base, () -> {
+                try (Stream<T> documentos = mongoTemplate.stream(query, tipo)) {
+                    documentos.forEach(alLeer);
+                } catch (DataAccessException e) {
+                    throw new IllegalStateException("Lectura de " + tipo.getSimpleName() + ": " + e.getMessage(), e);
+                }
+            });
+        }
+    }
+
+    private static void agrupar(Map<String, List<Consumer<Estado>>> porEmpresa, String usuarioId, Consumer<Estado> cambio) {
+        porEmpresa.computeIfAbsent(usuarioId, u -> Collections.synchronizedList(new ArrayList<>())).add(cambio);
+    }
+
+    private static String subtituloVehiculo(String marca, String modelo) {
+        String subtitulo = String.join(" ", noNulos(marca, modelo));
+        return subtitulo.isEmpty() ? null : subtitulo;
+    }
+
+    private static String tituloRuta(String origen, String destino) {
+        return (origen != null ? origen : "?") + " → " + (destino != null ? destino : "?");
+    }
+
+    private static List<String> noNulos(String... textos) {
+        List<String> lista = new ArrayList<>(textos.length);
+        for (String texto : textos) {
+            if (texto != null && !texto.isBlank()) {
+                lista.add(texto);
+            }
+        }
+        return lista;
+    }
+
+    public boolean reconstruyendo() {
+        return reconstruyendo.get();
+    }
+
+    public Map<String, Object> estadisticas() {
+        Estado actual = estado;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("empresas", actual.porEmpresa.size());
+        stats.put("entidades", actual.empresaDe.size());
+        int prefijos = 0;
+        for (IndiceBusqueda indice : actual.porEmpresa.values()) {
+            prefijos += indice.prefijos();
+        }
+        stats.put("prefijos", prefijos);
+        stats.put("reconstruyendo", reconstruyendo.get());
+        stats.put("ultimaReconstruccion", ultimaReconstruccion);
+        stats.put("ultimaReconstruccionMs", ultimaReconstruccionMs);
+        stats.put("consultas", consultas.count());
+        stats.put("consultaMediaUs", consultas.mean(TimeUnit.MICROSECONDS));
+        stats.put("consultaMaximaUs", consultas.max(TimeUnit.MICROSECONDS));
+        return stats;
+    }
+}
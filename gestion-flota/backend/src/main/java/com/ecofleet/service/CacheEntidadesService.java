@@ -0,0 +1,137 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.repository.RutaRepository;
+import com.ecofleet.repository.VehiculoRepository;
+import com.ecofleet.util.ContextoEmpresa;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Cachés read-through de vehículos y rutas por id, delante de los repositorios.
+ *
+ * Las lecturas por id que hacen los visores (ruta, last-location, vehículo) pasan por
+ * aquí; las escrituras de los controladores actualizan o invalidan la entrada. El TTL de
+ * rutas es corto porque su posición cambia cada pocos segundos y acota lo desfasada que
+ * puede quedar una réplica que no ve las escrituras de otra instancia.
+ *
+ * Las entradas son de todas las empresas: lo que se devuelve se filtra por la empresa de
+ * la petición, igual que haría la consulta a Mongo.
+ */
+@Service
+public class CacheEntidadesService {
+
+    @Autowired
+    private VehiculoRepository vehiculoRepository;
+
+    @Autowired
+    private RutaRepository rutaRepository;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${ecofleet.cache.vehiculos.entradas:10000}")
+    private int entradasVehiculos;
+
+    @Value("${ecofleet.cache.vehiculos.ttl-ms:30000}")
+    private long ttlVehiculosMs;
+
+    @Value("${ecofleet.cache.rutas.entradas:20000}")
+    private int entradasRutas;
+
+    @Value("${ecofleet.cache.rutas.ttl-ms:2000}")
+    private long ttlRutasMs;
+
+    private CacheLectura<Vehiculo> vehiculos;
+    private CacheLectura<Ruta> rutas;
+
+    @PostConstruct
+    void iniciar() {
+        // Las cargas pasan por el filtro de empresa y la base de la petición: solo se agrupan
+        // las de una misma empresa y base
+        Supplier<String> ambito = () -> ContextoEmpresa.actual() + "@" + ContextoEmpresa.base();
+        vehiculos = new CacheLectura<>(entradasVehiculos, ttlVehiculosMs, vehiculoRepository::findById, ambito, false);
+        // Las ids de ruta llegan de la ingesta GPS sin validar: sus ausencias también se cachean
+        rutas = new CacheLectura<>(entradasRutas, ttlRutasMs, rutaRepository::findById, ambito, true);
+        registrarMetricas("vehiculos", vehiculos);
+        registrarMetricas("rutas", rutas);
+    }
+
+    public Optional<Vehiculo> vehiculo(String id) {
+        // Un acierto no pasa por MongoTemplateEmpresas: la petición sin empresa se rechaza aquí
+        MongoTemplateEmpresas.comprobarAmbito("vehiculos");
+        return vehiculos.obtener(id).filter(v -> deLaEmpresa(v.getUsuarioId()));
+    }
+
+    public Optional<Ruta> ruta(String id) {
+        MongoTemplateEmpresas.comprobarAmbito("rutas");
+        return rutas.obtener(id).filter(r -> deLaEmpresa(r.getUsuarioId()));
+    }
+
+    // Sin empresa en el contexto (procesos internos con su base declarada) vale cualquiera
+    private static boolean deLaEmpresa(String propietario) {
+        String empresa = ContextoEmpresa.actual();
+        return empresa == null || propietario == null || empresa.equals(propietario);
+    }
+
+    public void vehiculoGuardado(Vehiculo vehiculo) {
+        vehiculos.actualizar(vehiculo.getId(), vehiculo);
+    }
+
+    public void vehiculoEliminado(String id) {
+        vehiculos.invalidar(id);
+    }
+
+    public void rutaGuardada(Ruta ruta) {
+        rutas.actualizar(ruta.getId(), ruta);
+    }
+
+    public void rutasGuardadas(Collection<Ruta> guardadas) {
+        guardadas.forEach(this::rutaGuardada);
+    }
+
+    public void rutaEliminada(String id) {
+        rutas.invalidar(id);
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("vehiculos", estadisticas(vehiculos));
+        stats.put("rutas", estadisticas(rutas));
+        return stats;
+    }
+
+    private static Map<String, Long> estadisticas(CacheLectura<?> cache) {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("entradas", (long) cache.tamano());
+        stats.put("aciertos", cache.aciertos.get());
+        stats.put("fallos", cache.fallos.get());
+        stats.put("coalescidas", cache.coalescidas.get());
+        stats.put("invalidaciones", cache.invalidaciones.get());
+        return stats;
+    }
+
+    private void registrarMetricas(String nombre, CacheLectura<?> cache) {
+        registry.more().counter("ecofleet.cache.lecturas", List.of(Tag.of("cache", nombre), Tag.of("resultado", "acierto")), cache.aciertos);
+        registry.more().counter("ecofleet.cache.lecturas", List.of(Tag.of("cache", nombre), Tag.of("resultado", "fallo")), cache.fallos);
+        registry.more().counter("ecofleet.cache.lecturas", List.of(Tag.of("cache", nombre), Tag.of("resultado", "coalescida")), cache.coalescidas);
+        registry.more().counter("ecofleet.cache.invalidaciones", List.of(Tag.of("cache", nombre)), cache.invalidaciones);
+        Gauge.builder("ecofleet.cache.entradas", cache, CacheLectura::tamano)
+                .tag("cache", nombre)
+                .register(registry);
+    }
+}
@@ -0,0 +1,245 @@
+package com.ecofleet.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Caché de dos niveles para respuestas geográficas: LRU en memoria delante de un
+ * almacén en disco (un fichero por clave) que sobrevive a los reinicios.
+ * Los ficheros se escriben en temporal + rename para no dejar nunca uno a medias.
+ *
+ * Ambos niveles caducan con el mismo TTL y están acotados en bytes: una ruta OSRM con
+ * geometría completa ocupa decenas de KB, así que un límite solo por número de entradas
+ * no basta. Al pasarse del límite de disco se borran los ficheros más antiguos hasta
+ * quedar en el 90 %.
+ */
+public class CacheGeo {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheGeo.class);
+
+    private final Map<String, Entrada> memoria;
+    private final long maxBytesMemoria;
+    private long bytesMemoria;
+
+    private final Path directorio;
+    private final long ttlMillis;
+    private final long maxBytesDisco;
+    private final AtomicLong bytesDisco = new AtomicLong();
+    private final AtomicBoolean recortando = new AtomicBoolean();
+    private final AtomicLong borradosDisco = new AtomicLong();
+
+    public CacheGeo(int entradasEnMemoria, long maxBytesMemoria, Path directorio, long maxBytesDisco, Duration ttl) {
+        this.maxBytesMemoria = maxBytesMemoria;
+        this.memoria = new LinkedHashMap<>(Math.min(entradasEnMemoria, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> eldest) {
+                if (size() > entradasEnMemoria) {
+                    bytesMemoria -= eldest.getValue().bytes();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.directorio = directorio;
+        this.maxBytesDisco = maxBytesDisco;
+        this.ttlMillis = ttl.toMillis();
+        // Cuenta lo que dejó la ejecución anterior y de paso purga lo caducado
+        recortarDisco();
+    }
+
+    public String obtener(String clave) {
+        long ahora = System.currentTimeMillis();
+        synchronized (memoria) {
+            Entrada entrada = memoria.get(clave);
+            if (entrada != null) {
+                if (entrada.caduca() > ahora) {
+                    return entrada.valor();
+                }
+                memoria.remove(clave);
+                bytesMemoria -= entrada.bytes();
+            }
+        }
+        Path fichero = ficheroDe(clave);
+        String valor = leerDisco(fichero);
+        if (valor != null) {
+            try {
+                ponerEnMemoria(clave, valor, Files.getLastModifiedTime(fichero).toMillis() + ttlMillis);
+            } catch (IOException e) {
+                // Borrado entre la lectura y la consulta de la fecha: se sirve igualmente
+            }
+        }
+        return valor;
+    }
+
+    public void guardar(String clave, String valor) {
+        guardar(clave, valor, true);
+    }
+
+    // persistir = false para respuestas efímeras que no merece la pena llevar a disco
+    public void guardar(String clave, String valor, boolean persistir) {
+        ponerEnMemoria(clave, valor, System.currentTimeMillis() + ttlMillis);
+        if (persistir) {
+            escribirDisco(clave, valor);
+        }
+    }
+
+    public Map<String, Long> estadisticas() {
+        synchronized (memoria) {
+            return Map.of("entradasMemoria", (long) memoria.size(), "bytesMemoria", bytesMemoria,
+                    "bytesDisco", bytesDisco.get(), "borradosDisco", borradosDisco.get());
+        }
+    }
+
+    private void ponerEnMemoria(String clave, String valor, long caduca) {
+        // Aproximación: dos bytes por carácter
+        Entrada entrada = new Entrada(valor, caduca, 2L * valor.length());
+        if (entrada.bytes() > maxBytesMemoria) {
+            return;
+        }
+        synchronized (memoria) {
+            Entrada anterior = memoria.remove(clave);
+            if (anterior != null) {
+                bytesMemoria -= anterior.bytes();
+            }
+            bytesMemoria += entrada.bytes();
+            memoria.put(clave, entrada);
+            Iterator<Entrada> masAntiguas = memoria.values().iterator();
+            while (bytesMemoria > maxBytesMemoria && masAntiguas.hasNext()) {
+                bytesMemoria -= masAntiguas.next().bytes();
+                masAntiguas.remove();
+            }
+        }
+    }
+
+    private String leerDisco(Path fichero) {
+        try {
+            if (!Files.exists(fichero)) {
+                return null;
+            }
+            if (System.currentTimeMillis() - Files.getLastModifiedTime(fichero).toMillis() > ttlMillis) {
+                borrar(fichero);
+                return null;
+            }
+            return Files.readString(fichero, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("No se pudo leer la caché geográfica {}: {}", fichero, e.getMessage());
+            return null;
+        }
+    }
+
+    private void escribirDisco(String clave, String valor) {
+        Path fichero = ficheroDe(clave);
+        try {
+            Files.createDirectories(fichero.getParent());
+            Path temporal = Files.createTempFile(fichero.getParent(), "geo", ".tmp");
+            Files.writeString(temporal, valor, StandardCharsets.UTF_8);
+            long nuevo = Files.size(temporal);
+            long anterior = Files.exists(fichero) ? Files.size(fichero) : 0;
+            try {
+                Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (bytesDisco.addAndGet(nuevo - anterior) > maxBytesDisco) {
+                recortarDisco();
+            }
+        } catch (IOException e) {
+            // La caché en disco es una optimización: si falla seguimos con la de memoria
+            logger.warn("No se pudo escribir la caché geográfica {}: {}", fichero, e.getMessage());
+        }
+    }
+
+    // Recalcula el tamaño en disco, borra lo caducado y, si aún sobra, lo más antiguo.
+    // Solo un hilo a la vez; el resto sigue escribiendo y lo recoge la siguiente pasada.
+    private void recortarDisco() {
+        if (!Files.isDirectory(directorio) || !recortando.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long limiteCaducidad = System.currentTimeMillis() - ttlMillis;
+            List<Fichero> vigentes = new ArrayList<>();
+            long total = 0;
+            try (Stream<Path> ficheros = Files.walk(directorio, 2)) {
+                for (Path p : (Iterable<Path>) ficheros.filter(Files::isRegularFile)::iterator) {
+                    try {
+                        BasicFileAttributes atributos = Files.readAttributes(p, BasicFileAttributes.class);
+                        long modificado = atributos.lastModifiedTime().toMillis();
+                        // Los .tmp que sobreviven a una pasada son restos de una escritura interrumpida
+                        if (modificado < limiteCaducidad || (p.toString().endsWith(".tmp")
+                                && modificado < System.currentTimeMillis() - 60_000)) {
+                            Files.deleteIfExists(p);
+                            borradosDisco.incrementAndGet();
+                            continue;
+                        }
+                        vigentes.add(new Fichero(p, modificado, atributos.size()));
+                        total += atributos.size();
+                    } catch (IOException e) {
+                        // Borrado por otro hilo mientras se recorría
+                    }
+                }
+            }
+            if (total > maxBytesDisco) {
+                long objetivo = maxBytesDisco * 9 / 10;
+                vigentes.sort(Comparator.comparingLong(Fichero::modificado));
+                for (Fichero f : vigentes) {
+                    if (total <= objetivo) {
+                        break;
+                    }
+                    if (Files.deleteIfExists(f.ruta())) {
+                        total -= f.bytes();
+                        borradosDisco.incrementAndGet();
+                    }
+                }
+            }
+            bytesDisco.set(total);
+        } catch (IOException e) {
+            logger.warn("No se pudo recorrer la caché geográfica {}: {}", directorio, e.getMessage());
+        } finally {
+            recortando.set(false);
+        }
+    }
+
+    private void borrar(Path fichero) throws IOException {
+        long bytes = Files.size(fichero);
+        if (Files.deleteIfExists(fichero)) {
+            bytesDisco.addAndGet(-bytes);
+            borradosDisco.incrementAndGet();
+        }
+    }
+
+    // SHA-256 de la clave, repartido en subdirectorios por los dos primeros caracteres
+    private Path ficheroDe(String clave) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(clave.getBytes(StandardCharsets.UTF_8));
+            String hex = HexFormat.of().formatHex(hash);
+            return directorio.resolve(hex.substring(0, 2)).resolve(hex + ".json");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entrada(String valor, long caduca, long bytes) {}
+
+    private record Fichero(Path ruta, long modificado, long bytes) {}
+}
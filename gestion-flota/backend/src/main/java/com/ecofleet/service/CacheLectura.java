@@ -0,0 +1,188 @@
+package com.ecofleet.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Caché read-through en memoria con límite de entradas (LRU) y TTL.
+ *
+ * Los fallos concurrentes de una misma clave se agrupan en una sola carga (single-flight):
+ * N visores que piden la misma ruta a la vez hacen una única lectura a Mongo. Si hay una
+ * escritura mientras una carga está en vuelo, el valor cargado se devuelve pero no se
+ * guarda, para no volver a meter en la caché una versión anterior a la escritura.
+ *
+ * La carga se hace en el ámbito de quien la pide (empresa y base): con un ámbito, solo se
+ * agrupan cargas del mismo ámbito, para que nadie reciba el resultado filtrado para otra
+ * empresa. Opcionalmente se cachean también las ausencias, con el mismo TTL y bajo la
+ * clave y el ámbito (la misma id puede no existir para una empresa y sí para otra). Así
+ * una id inexistente repetida no vuelve a Mongo en cada petición.
+ *
+ * Los valores cacheados se comparten entre peticiones: quien los lea no debe modificarlos.
+ */
+public class CacheLectura<V> {
+
+    private final Map<String, Entrada<V>> entradas;
+    private final long ttlNanos;
+    private final Function<String, Optional<V>> cargador;
+    private final Supplier<String> ambito; // null: la carga no depende de quién la pide
+    private final boolean cachearAusencias;
+    private final ConcurrentHashMap<String, CompletableFuture<Optional<V>>> enCurso = new ConcurrentHashMap<>();
+
+    // Se incrementa con cada escritura; una carga solo se guarda si no cambió mientras tanto
+    private final AtomicLong generacion = new AtomicLong();
+
+    final AtomicLong aciertos = new AtomicLong();
+    final AtomicLong fallos = new AtomicLong();
+    final AtomicLong coalescidas = new AtomicLong();
+    final AtomicLong invalidaciones = new AtomicLong();
+
+    public CacheLectura(int maxEntradas, long ttlMs, Function<String, Optional<V>> cargador) {
+        this(maxEntradas, ttlMs, cargador, null, false);
+    }
+
+    public CacheLectura(int maxEntradas, long ttlMs, Function<String, Optional<V>> cargador,
+                        Supplier<String> ambito, boolean cachearAusencias) {
+        this.ambito = ambito;
+        this.cachearAusencias = ambito != null && cachearAusencias;
+        this.entradas = new LinkedHashMap<>(Math.min(maxEntradas, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada<V>> eldest) {
+                return size() > maxEntradas;
+            }
+        };
+        this.ttlNanos = ttlMs * 1_000_000L;
+        this.cargador = cargador;
+    }
+
+    public Optional<V> obtener(String clave) {
+        V valor = leer(clave);
+        if (valor != null) {
+            aciertos.incrementAndGet();
+            return Optional.of(valor);
+        }
+        String conAmbito = conAmbito(clave);
+        String ausente = cachearAusencias ? conAmbito : null;
+        if (ausente != null && contiene(ausente)) {
+            aciertos.incrementAndGet();
+            return Optional.empty();
+        }
+
+        CompletableFuture<Optional<V>> propio = new CompletableFuture<>();
+        CompletableFuture<Optional<V>> existente = enCurso.putIfAbsent(conAmbito, propio);
+        if (existente != null) {
+            coalescidas.incrementAndGet();
+            try {
+                return existente.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        try {
+            // Otra carga pudo terminar entre la consulta a la caché y el registro
+            valor = leer(clave);
+            Optional<V> resultado;
+            if (valor != null) {
+                aciertos.incrementAndGet();
+                resultado = Optional.of(valor);
+            } else {
+                fallos.incrementAndGet();
+                long generacionInicial = generacion.get();
+                resultado = cargador.apply(clave);
+                if (generacion.get() == generacionInicial) {
+                    if (resultado.isPresent()) {
+                        escribir(clave, resultado.get());
+                    } else if (ausente != null) {
+                        escribir(ausente, null);
+                    }
+                }
+            }
+            propio.complete(resultado);
+            return resultado;
+        } catch (RuntimeException e) {
+            propio.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(conAmbito, propio);
+        }
+    }
+
+    // Write-through: tras guardar en Mongo se deja en la caché el valor recién escrito
+    public void actualizar(String clave, V valor) {
+        generacion.incrementAndGet();
+        escribir(clave, valor);
+        // Quien la escribe suele ser quien la buscaba; en otros ámbitos la ausencia caduca con el TTL
+        if (cachearAusencias) {
+            String ausente = conAmbito(clave);
+            synchronized (entradas) {
+                entradas.remove(ausente);
+            }
+        }
+    }
+
+    public void invalidar(String clave) {
+        generacion.incrementAndGet();
+        invalidaciones.incrementAndGet();
+        synchronized (entradas) {
+            entradas.remove(clave);
+        }
+    }
+
+    public int tamano() {
+        synchronized (entradas) {
+            return entradas.size();
+        }
+    }
+
+    private V leer(String clave) {
+        Entrada<V> entrada = vigente(clave);
+        return entrada != null ? entrada.valor : null;
+    }
+
+    private boolean contiene(String clave) {
+        return vigente(clave) != null;
+    }
+
+    private Entrada<V> vigente(String clave) {
+        synchronized (entradas) {
+            Entrada<V> entrada = entradas.get(clave);
+            if (entrada == null) {
+                return null;
+            }
+            if (System.nanoTime() - entrada.creadaNanos > ttlNanos) {
+                entradas.remove(clave);
+                return null;
+            }
+            return entrada;
+        }
+    }
+
+    // Clave con el ámbito de la petición; las ausencias van así en el mismo LRU, con un
+    // prefijo que no puede tener una id de Mongo
+    private String conAmbito(String clave) {
+        return ambito != null ? "\0" + ambito.get() + "\0" + clave : clave;
+    }
+
+    private void escribir(String clave, V valor) {
+        synchronized (entradas) {
+            entradas.put(clave, new Entrada<>(valor, System.nanoTime()));
+        }
+    }
+
+    private static final class Entrada<V> {
+        final V valor;
+        final long creadaNanos;
+
+        Entrada(V valor, long creadaNanos) {
+            this.valor = valor;
+            this.creadaNanos = creadaNanos;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.ComandoConductor;
+import com.ecofleet.model.Ruta;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Canal push por conductor (Conductor.id) para la app web y el TrackingService de Android.
+ *
+ * Los comandos se guardan en comandos_conductor y se entregan por SSE o long-poll; se
+ * reenvían en cada conexión hasta que el dispositivo confirma su id (entrega al menos una
+ * vez, el cliente descarta duplicados). Cada nodo guarda en memoria solo los buzones de
+ * los conductores conectados a él; con change streams activos las altas y confirmaciones
+ * hechas en otro nodo llegan por DifusionCambiosService.
+ *
+ * Una conexión inactiva es un SseEmitter o un DeferredResult aparcado, sin hilo asociado,
+ * así que decenas de miles de conductores esperando cuestan solo memoria y un socket.
+ */
+@Service
+public class CanalConductoresService {
+
+    public static final String RUTA_ASIGNADA = "RUTA_ASIGNADA";
+    public static final String RUTA_ESTADO = "RUTA_ESTADO";
+    public static final String MENSAJE = "MENSAJE";
+    public static final String ENVIAR_POSICION = "ENVIAR_POSICION";
+
+    private static final Duration CADUCIDAD_POSICION = Duration.ofMinutes(2);
+    private static final Duration CADUCIDAD_AVISO = Duration.ofHours(24);
+    private static final int MAX_PENDIENTES_POR_CONDUCTOR = 200;
+
+    @Value("${ecofleet.canal.poll-maximo-ms:30000}")
+    private long pollMaximoMs;
+
+    @Value("${ecofleet.canal.inactividad-ms:600000}")
+    private long inactividadMs;
+
+    @Value("${ecofleet.sse.timeout-ms:1800000}")
+    private long timeoutSseMs;
+
+    @Value("${ecofleet.sse.latido-ms:25000}")
+    private long latidoMs;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final ConcurrentHashMap<String, Buzon> buzones = new ConcurrentHashMap<>();
+    private final AtomicLong enviados = new AtomicLong();
+    private final AtomicLong confirmados = new AtomicLong();
+    private ScheduledExecutorService mantenimiento;
+
+    @PostConstruct
+    void iniciar() {
+        mantenimiento = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "canal-conductores");
+            t.setDaemon(true);
+            return t;
+        });
+        mantenimiento.scheduleAtFixedRate(this::latidosYLimpieza, latidoMs, latidoMs, TimeUnit.MILLISECONDS);
+        Gauge.builder("ecofleet.conductores.conectados", this, s -> s.contarConexiones(true))
+                .tag("tipo", "sse").register(registry);
+        Gauge.builder("ecofleet.conductores.conectados", this, s -> s.contarConexiones(false))
+                .tag("tipo", "poll").register(registry);
+    }
+
+    @PreDestroy
+    void detener() {
+        mantenimiento.shutdownNow();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Emisión
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public ComandoConductor enviar(String conductorId, String usuarioId, String tipo, String rutaId, Map<String, Object> datos) {
+        Instant ahora = Instant.now();
+        ComandoConductor comando = new ComandoConductor();
+        comando.setConductorId(conductorId);
+        comando.setUsuarioId(usuarioId);
+        comando.setTipo(tipo);
+        comando.setRutaId(rutaId);
+        comando.setDatos(datos);
+        comando.setCreado(ahora);
+        comando.setExpira(ahora.plus(ENVIAR_POSICION.equals(tipo) ? CADUCIDAD_POSICION : CADUCIDAD_AVISO));
+        mongoTemplate.insert(comando);
+        enviados.incrementAndGet();
+        if (!difusion.activa()) {
+            aplicar(comando);
+        }
+        return comando;
+    }
+
+    // Avisos derivados de cambios en rutas; no deben hacer fallar la operación que los origina
+    public void avisarRuta(Ruta ruta, String tipo) {
+        if (ruta.getConductorId() == null) {
+            return;
+        }
+        Map<String, Object> datos = new LinkedHashMap<>();
+        datos.put("estado", ruta.getEstado());
+        datos.put("origen", ruta.getOrigen());
+        datos.put("destino", ruta.getDestino());
+        try {
+            enviar(ruta.getConductorId(), ruta.getUsuarioId(), tipo, ruta.getId(), datos);
+        } catch (DataAccessException e) {
+            // El conductor lo verá igualmente al recargar sus rutas
+        }
+    }
+
+    public int confirmar(String conductorId, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Query query = new Query(Criteria.where("_id").in(ids).and("conductorId").is(conductorId).and("ackEn").is(null));
+        long modificados = mongoTemplate.updateMulti(query, Update.update("ackEn", Instant.now()), ComandoConductor.class)
+                .getModifiedCount();
+        confirmados.addAndGet(modificados);
+        Buzon buzon = buzones.get(conductorId);
+        if (buzon != null) {
+            buzon.quitar(ids);
+        }
+        return (int) modificados;
+    }
+
+    public ComandoConductor consultar(String comandoId) {
+        return mongoTemplate.findById(comandoId, ComandoConductor.class);
+    }
+
+    // Altas y confirmaciones hechas en cualquier nodo, recibidas por el change stream
+    @EventListener
+    public void alCambiarComando(ComandoConductor comando) {
+        aplicar(comando);
+    }
+
+    private void aplicar(ComandoConductor comando) {
+        Buzon buzon = buzones.get(comando.getConductorId());
+        if (buzon == null) {
+            return; // Conductor no conectado a este nodo: lo leerá de Mongo al conectar
+        }
+        if (comando.getAckEn() != null || comando.getExpira().isBefore(Instant.now())) {
+            buzon.quitar(List.of(comando.getId()));
+        } else {
+            buzon.agregar(comando);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Conexiones
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public SseEmitter conectarSse(String conductorId) {
+        Buzon buzon = buzon(conductorId);
+        SseEmitter emitter = new SseEmitter(timeoutSseMs);
+        Runnable baja = () -> buzon.streams.remove(emitter);
+        emitter.onCompletion(baja);
+        emitter.onTimeout(baja);
+        emitter.onError(e -> baja.run());
+        buzon.streams.add(emitter);
+        for (ComandoConductor c : buzon.pendientes()) {
+            Buzon.enviarSse(emitter, c);
+        }
+        return emitter;
+    }
+
+    public DeferredResult<List<ComandoConductor>> esperar(String conductorId, long timeoutMs) {
+        long espera = Math.max(1000, Math.min(timeoutMs, pollMaximoMs));
+        DeferredResult<List<ComandoConductor>> resultado = new DeferredResult<>(espera, List.of());
+        Buzon buzon = buzon(conductorId);
+        List<ComandoConductor> pendientes = buzon.pendientes();
+        if (!pendientes.isEmpty()) {
+            resultado.setResult(pendientes);
+            return resultado;
+        }
+        buzon.esperas.add(resultado);
+        resultado.onCompletion(() -> buzon.esperas.remove(resultado));
+        // Pudo llegar un comando entre la consulta y el registro de la espera
+        List<ComandoConductor> tardios = buzon.pendientes();
+        if (!tardios.isEmpty()) {
+            resultado.setResult(tardios);
+        }
+        return resultado;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buzones", buzones.size());
+        stats.put("conexionesSse", contarConexiones(true));
+        stats.put("esperasPoll", contarConexiones(false));
+        stats.put("enviados", enviados.get());
+        stats.put("confirmados", confirmados.get());
+        return stats;
+    }
+
+    // Crea el buzón y carga de Mongo lo pendiente la primera vez que el conductor conecta a este nodo
+    private Buzon buzon(String conductorId) {
+        Buzon buzon = buzones.computeIfAbsent(conductorId, Buzon::new);
+        buzon.ultimoAcceso = System.currentTimeMillis();
+        if (!buzon.cargado) {
+            synchronized (buzon) {
+                if (!buzon.cargado) {
+                    Query query = new Query(Criteria.where("conductorId").is(conductorId)
+                            .and("ackEn").is(null).and("expira").gt(Instant.now()))
+                            .with(Sort.by("creado"))
+                            .limit(MAX_PENDIENTES_POR_CONDUCTOR);
+                    mongoTemplate.find(query, ComandoConductor.class).forEach(buzon::agregarSinAvisar);
+                    buzon.cargado = true;
+                }
+            }
+        }
+        return buzon;
+    }
+
+    private int contarConexiones(boolean sse) {
+        int total = 0;
+        for (Buzon b : buzones.values()) {
+            total += sse ? b.streams.size() : b.esperas.size();
+        }
+        return total;
+    }
+
+    private void latidosYLimpieza() {
+        long ahora = System.currentTimeMillis();
+        Instant instante = Instant.now();
+        buzones.values().removeIf(b -> {
+            b.caducar(instante);
+            for (SseEmitter emitter : b.streams) {
+                try {
+                    emitter.send(SseEmitter.event().comment("latido"));
+                } catch (IOException | IllegalStateException e) {
+                    emitter.completeWithError(e);
+                }
+            }
+            if (!b.streams.isEmpty() || !b.esperas.isEmpty()) {
+                b.ultimoAcceso = ahora;
+                return false;
+            }
+            return ahora - b.ultimoAcceso > inactividadMs;
+        });
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Buzón de un conductor en este nodo
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private static class Buzon {
+        final String conductorId;
+        final LinkedHashMap<String, ComandoConductor> porId = new LinkedHashMap<>();
+        final Set<SseEmitter> streams = ConcurrentHashMap.newKeySet();
+        final Set<DeferredResult<List<ComandoConductor>>> esperas = ConcurrentHashMap.newKeySet();
+        volatile boolean cargado;
+        volatile long ultimoAcceso = System.currentTimeMillis();
+
+        Buzon(String conductorId) {
+            this.conductorId = conductorId;
+        }
+
+        synchronized List<ComandoConductor> pendientes() {
+            return new ArrayList<>(porId.values());
+        }
+
+        synchronized void agregarSinAvisar(ComandoConductor c) {
+            porId.putIfAbsent(c.getId(), c);
+            while (porId.size() > MAX_PENDIENTES_POR_CONDUCTOR) {
+                porId.remove(porId.keySet().iterator().next());
+            }
+        }
+
+        void agregar(ComandoConductor c) {
+            List<ComandoConductor> todos;
+            synchronized (this) {
+                if (porId.containsKey(c.getId())) {
+                    return;
+                }
+                agregarSinAvisar(c);
+                todos = new ArrayList<>(porId.values());
+            }
+            for (SseEmitter emitter : streams) {
+                enviarSse(emitter, c);
+            }
+            // Cada long-poll aparcado responde con todo lo pendiente y el cliente vuelve a conectar
+            for (DeferredResult<List<ComandoConductor>> espera : new HashSet<>(esperas)) {
+                espera.setResult(todos);
+            }
+        }
+
+        synchronized void quitar(Collection<String> ids) {
+            ids.forEach(porId::remove);
+        }
+
+        synchronized void caducar(Instant ahora) {
+            porId.values().removeIf(c -> c.getExpira().isBefore(ahora));
+        }
+
+        static void enviarSse(SseEmitter emitter, ComandoConductor c) {
+            try {
+                emitter.send(SseEmitter.event().id(c.getId()).name("comando").data(c));
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }
+    }
+}
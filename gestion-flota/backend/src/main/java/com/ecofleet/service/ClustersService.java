@@ -0,0 +1,275 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Ruta;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clustering en servidor de las posiciones en vivo para el mapa global de la flota.
+ *
+ * Cada empresa tiene un IndiceClusters con las rutas EN_CURSO que tienen posición. Se
+ * alimenta de los mismos cambios de ruta que el motor de alertas (change stream o modo
+ * local) y se carga de Mongo al arrancar. Para un zoom de Leaflet se consulta el nivel de
+ * rejilla cuyas celdas miden unos celda-px píxeles en pantalla, así que el número de
+ * clusters devueltos depende del tamaño del mapa, no del de la flota.
+ */
+@Service
+public class ClustersService {
+
+    private static final Logger log = LoggerFactory.getLogger(ClustersService.class);
+
+    private static final int PIXELES_TESELA = 256;
+
+    @Value("${ecofleet.clusters.celda-px:64}")
+    private int celdaPx;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final ConcurrentHashMap<String, IndiceClusters> porEmpresa = new ConcurrentHashMap<>();
+    // rutaId → empresa, para quitar la ruta cuando el cambio ya no trae su posición
+    private final ConcurrentHashMap<String, String> empresaDeRuta = new ConcurrentHashMap<>();
+
+    private Timer consultas;
+
+    @EventListener(ApplicationReadyEvent.class)
+    void arrancar() {
+        consultas = Timer.builder("ecofleet.clusters.consulta").register(registry);
+        Gauge.builder("ecofleet.clusters.rutas", empresaDeRuta, Map::size).register(registry);
+        try {
+            Query query = new Query(Criteria.where("estado").is("EN_CURSO")
+                    .and("latitudActual").ne(null).and("longitudActual").ne(null));
+            query.fields().include("usuarioId", "latitudActual", "longitudActual");
+            List<Ruta> enCurso = mongoTemplate.buscarEnTodasLasBases(query, Ruta.class);
+            for (Ruta ruta : enCurso) {
+                mover(ruta.getId(), ruta.getUsuarioId(), ruta.getLatitudActual(), ruta.getLongitudActual());
+            }
+            log.info("Índice de clusters cargado con {} rutas en curso", enCurso.size());
+        } catch (DataAccessException e) {
+            log.warn("No se pudieron cargar las posiciones para el índice de clusters: {}", e.getMessage());
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Entrada: cambios de ruta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public void rutaCambiada(Map<String, Object> datos) {
+        String id = (String) datos.get("id");
+        if (id == null) {
+            return;
+        }
+        String usuarioId = (String) datos.get("usuarioId");
+        Double latitud = numero(datos.get("latitudActual"));
+        Double longitud = numero(datos.get("longitudActual"));
+        if (!"EN_CURSO".equals(datos.get("estado")) || usuarioId == null || latitud == null || longitud == null) {
+            rutaEliminada(id);
+            return;
+        }
+        mover(id, usuarioId, latitud, longitud);
+    }
+
+    public void rutaEliminada(String rutaId) {
+        String usuarioId = empresaDeRuta.remove(rutaId);
+        if (usuarioId != null) {
+            IndiceClusters indice = porEmpresa.get(usuarioId);
+            if (indice != null) {
+                indice.quitar(rutaId);
+            }
+        }
+    }
+
+    private void mover(String rutaId, String usuarioId, double latitud, double longitud) {
+        String anterior = empresaDeRuta.put(rutaId, usuarioId);
+        if (anterior != null && !anterior.equals(usuarioId)) {
+            IndiceClusters viejo = porEmpresa.get(anterior);
+            if (viejo != null) {
+                viejo.quitar(rutaId);
+            }
+        }
+        porEmpresa.computeIfAbsent(usuarioId, u -> new IndiceClusters()).mover(rutaId, latitud, longitud);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Consulta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    // Nivel de rejilla con celdas de ~celdaPx píxeles en el zoom dado
+    public int nivelPara(int zoom) {
+        int extra = Math.max(0, 31 - Integer.numberOfLeadingZeros(Math.max(1, PIXELES_TESELA / Math.max(1, celdaPx))));
+        return Math.max(0, Math.min(IndiceClusters.NIVEL_MAXIMO, zoom + extra));
+    }
+
+    public Map<String, Object> clusters(String usuarioId, int zoom, double oeste, double sur, double este, double norte) {
+        long inicio = System.nanoTime();
+        int nivel = nivelPara(zoom);
+        IndiceClusters indice = porEmpresa.get(usuarioId);
+        List<IndiceClusters.Cluster> encontrados = indice != null
+                ? indice.consultar(nivel, oeste, sur, este, norte) : List.of();
+
+        List<Map<String, Object>> clusters = new ArrayList<>(encontrados.size());
+        int total = 0;
+        for (IndiceClusters.Cluster c : encontrados) {
+            Map<String, Object> cluster = new LinkedHashMap<>();
+            cluster.put("latitud", c.latitud);
+            cluster.put("longitud", c.longitud);
+            cluster.put("cantidad", c.cantidad);
+            if (c.id != null) {
+                cluster.put("rutaId", c.id);
+            }
+            clusters.add(cluster);
+            total += c.cantidad;
+        }
+        long duracion = System.nanoTime() - inicio;
+        if (consultas != null) {
+            consultas.record(duracion, TimeUnit.NANOSECONDS);
+        }
+
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("zoom", zoom);
+        resultado.put("nivel", nivel);
+        resultado.put("rutas", total);
+        resultado.put("clusters", clusters);
+        resultado.put("microsegundos", duracion / 1000);
+        return resultado;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("empresas", porEmpresa.size());
+        stats.put("rutas", empresaDeRuta.size());
+        int celdas = 0;
+        for (IndiceClusters indice : porEmpresa.values()) {
+            celdas += indice.celdas();
+        }
+        stats.put("celdas", celdas);
+        stats.put("celdaPx", celdaPx);
+        if (consultas != null) {
+            stats.put("consultas", consultas.count());
+            stats.put("consultaMediaMs", consultas.mean(TimeUnit.MILLISECONDS));
+            stats.put("consultaMaximaMs", consultas.max(TimeUnit.MILLISECONDS));
+        }
+        return stats;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Benchmark
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Mide sobre un índice sintético (no el de las empresas) con "rutas" vehículos repartidos
+     * por la península: coste de actualizar una posición con un desplazamiento típico entre
+     * fixes, y latencia de consulta por zoom frente a agrupar en cada petición todas las
+     * posiciones, que es lo que haría el endpoint sin índice.
+     */
+    public Map<String, Object> benchmark(int rutas, int consultasPorZoom) {
+        Random rnd = new Random(42);
+        double oeste = -9.5, sur = 36.0, este = 3.3, norte = 43.8;
+        IndiceClusters indice = new IndiceClusters();
+        String[] ids = new String[rutas];
+        double[][] posiciones = new double[rutas][2];
+        long inicio = System.nanoTime();
+        for (int i = 0; i < rutas; i++) {
+            ids[i] = "ruta-" + i;
+            posiciones[i][0] = sur + rnd.nextDouble() * (norte - sur);
+            posiciones[i][1] = oeste + rnd.nextDouble() * (este - oeste);
+            indice.mover(ids[i], posiciones[i][0], posiciones[i][1]);
+        }
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("rutas", rutas);
+        resultado.put("cargaMs", (System.nanoTime() - inicio) / 1_000_000);
+        resultado.put("celdas", indice.celdas());
+
+        // Un fix cada 1-2 s a 90 km/h son unos 40 m: ~0.0004 grados
+        int movimientos = Math.max(rutas, 100_000);
+        inicio = System.nanoTime();
+        for (int i = 0; i < movimientos; i++) {
+            double[] p = posiciones[i % rutas];
+            p[0] += (rnd.nextDouble() - 0.5) * 0.0008;
+            p[1] += (rnd.nextDouble() - 0.5) * 0.0008;
+            indice.mover(ids[i % rutas], p[0], p[1]);
+        }
+        resultado.put("nsPorFix", (double) (System.nanoTime() - inicio) / movimientos);
+
+        List<Map<String, Object>> porZoom = new ArrayList<>();
+        for (int zoom : new int[]{5, 8, 11, 14}) {
+            int nivel = nivelPara(zoom);
+            // Ventana de ~1280x800 px centrada en Madrid
+            double anchoGrados = 1280.0 / PIXELES_TESELA * 360 / (1 << zoom);
+            double altoGrados = anchoGrados * 800 / 1280 / Math.cos(Math.toRadians(40.4));
+            double o = -3.7 - anchoGrados / 2, e = -3.7 + anchoGrados / 2;
+            double s = 40.4 - altoGrados / 2, n = 40.4 + altoGrados / 2;
+
+            int clusters = 0;
+            long t0 = System.nanoTime();
+            for (int q = 0; q < consultasPorZoom; q++) {
+                clusters = indice.consultar(nivel, o, s, e, n).size();
+            }
+            double conIndiceUs = (System.nanoTime() - t0) / 1000.0 / consultasPorZoom;
+
+            int agrupados = 0;
+            t0 = System.nanoTime();
+            for (int q = 0; q < consultasPorZoom; q++) {
+                agrupados = agruparSinIndice(posiciones, nivel, o, s, e, n);
+            }
+            double sinIndiceUs = (System.nanoTime() - t0) / 1000.0 / consultasPorZoom;
+
+            Map<String, Object> fila = new LinkedHashMap<>();
+            fila.put("zoom", zoom);
+            fila.put("nivel", nivel);
+            fila.put("clusters", clusters);
+            fila.put("clustersSinIndice", agrupados);
+            fila.put("conIndiceUs", conIndiceUs);
+            fila.put("sinIndiceUs", sinIndiceUs);
+            porZoom.add(fila);
+        }
+        resultado.put("consultas", porZoom);
+        return resultado;
+    }
+
+    // Referencia: recorrer todas las posiciones y agruparlas por celda en cada consulta
+    private static int agruparSinIndice(double[][] posiciones, int nivel, double oeste, double sur, double este, double norte) {
+        int desplazamiento = IndiceClusters.NIVEL_MAXIMO - nivel;
+        Map<Long, double[]> celdas = new HashMap<>();
+        for (double[] p : posiciones) {
+            if (p[0] < sur || p[0] > norte || p[1] < oeste || p[1] > este) {
+                continue;
+            }
+            long clave = ((long) (IndiceClusters.teselaX(p[1]) >> desplazamiento) << 32)
+                    | (IndiceClusters.teselaY(p[0]) >> desplazamiento);
+            double[] acumulado = celdas.computeIfAbsent(clave, k -> new double[3]);
+            acumulado[0]++;
+            acumulado[1] += p[0];
+            acumulado[2] += p[1];
+        }
+        return celdas.size();
+    }
+
+    private static Double numero(Object valor) {
+        return valor instanceof Number n ? n.doubleValue() : null;
+    }
+}
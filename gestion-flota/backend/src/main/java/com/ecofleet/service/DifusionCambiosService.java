@@ -0,0 +1,434 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Alerta;
+import com.ecofleet.model.ComandoConductor;
+import com.ecofleet.model.Conductor;
+import com.ecofleet.model.Mensaje;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.Vehiculo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reparto de cambios de rutas, chat y comandos a conductores entre réplicas del backend.
+ *
+ * Cada nodo sigue un change stream de Mongo sobre rutas, mensajes, alertas,
+ * comandos_conductor, vehiculos y conductores (con $project a los campos que interesan) y
+ * entrega cada cambio a sus suscriptores SSE locales, al motor de alertas, a la analítica
+ * de viajes y al índice de clusters si es una ruta, al canal de conductores si es un
+ * comando, y al índice de búsqueda si es una ruta, un vehículo o un conductor. Así una
+ * posición GPS que entra por el nodo A llega a un visor conectado al nodo B. El resume
+ * token se guarda en resume_tokens (uno por nodo) como mucho una vez por segundo, y al
+ * arrancar se reanuda desde él. Si hay empresas en bases dedicadas el change stream es
+ * del clúster, filtrado a la base compartida y las dedicadas.
+ *
+ * Los change streams requieren replica set (basta uno de un solo nodo, ver
+ * docker-compose.yml). Si Mongo es standalone se pasa a modo local: los controladores
+ * publican directamente a los suscriptores de este nodo.
+ */
+@Service
+public class DifusionCambiosService {
+
+    private static final Logger log = LoggerFactory.getLogger(DifusionCambiosService.class);
+
+    private static final String COLECCION_TOKENS = "resume_tokens";
+    private static final int NO_ES_REPLICA_SET = 40573;
+    private static final Set<Integer> TOKEN_INVALIDO = Set.of(260, 280, 286);
+    private static final long GUARDAR_TOKEN_CADA_MS = 1000;
+    private static final long ESPERA_MAXIMA_MS = 30_000;
+
+    // Campos de la ruta que se envían a los visores
+    private static final List<String> CAMPOS_RUTA = List.of(
+            "usuarioId", "estado", "vehiculoId", "conductorId", "latitudActual", "longitudActual",
+            "velocidadActualKmh", "distanciaRestanteKm", "desviado", "ultimaActualizacionGPS");
+    private static final List<String> CAMPOS_MENSAJE = List.of("usuarioId", "rutaId", "remitente", "contenido", "timestamp");
+    private static final List<String> CAMPOS_COMANDO = List.of(
+            "usuarioId", "conductorId", "tipo", "rutaId", "datos", "creado", "expira", "ackEn");
+    private static final List<String> CAMPOS_ALERTA = List.of(
+            "usuarioId", "rutaId", "vehiculoId", "conductorId", "tipo", "mensaje", "latitud", "longitud", "velocidadKmh", "creada");
+    // Campos de texto que indexa la búsqueda (rutas, vehiculos y conductores)
+    private static final List<String> CAMPOS_BUSQUEDA = List.of(
+            "origen", "destino", "matricula", "marca", "modelo", "empresaId", "nombre", "email");
+    private static final List<String> COLECCIONES = List.of(
+            "rutas", "mensajes", "comandos_conductor", "alertas", "vehiculos", "conductores");
+
+    @Value("${ecofleet.cluster.change-streams:true}")
+    private boolean habilitado;
+
+    @Value("${ecofleet.cluster.nodo:${HOSTNAME:local}}")
+    private String nodo;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private MongoClient mongoClient;
+
+    @Autowired
+    private SuscripcionesService suscripciones;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationEventPublisher eventos;
+
+    @Autowired
+    private AlertasService alertas;
+
+    @Autowired
+    private AnaliticaViajesService analiticaViajes;
+
+    @Autowired
+    private ClustersService clusters;
+
+    @Autowired
+    private BusquedaService busqueda;
+
+    private volatile boolean activo;
+    private volatile boolean detenido;
+    private volatile String modo = "local";
+    private Thread lector;
+
+    private final AtomicLong cambiosRecibidos = new AtomicLong();
+    private final AtomicLong reconexiones = new AtomicLong();
+    private volatile String ultimoEvento;
+
+    @EventListener(ApplicationReadyEvent.class)
+    void arrancar() {
+        if (!habilitado) {
+            return;
+        }
+        lector = new Thread(this::seguir, "difusion-cambios");
+        lector.setDaemon(true);
+        lector.start();
+    }
+
+    @PreDestroy
+    void detener() {
+        detenido = true;
+        if (lector != null) {
+            lector.interrupt();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Publicación desde los controladores (solo cuando no hay change stream)
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public void rutaGuardada(Ruta ruta) {
+        if (!activo) {
+            Map<String, Object> datos = filtrar(ruta.getId(), objectMapper.convertValue(ruta, Map.class), CAMPOS_RUTA);
+            suscripciones.publicar(ruta.getUsuarioId(), ruta.getId(), "ruta", datos);
+            alertas.rutaCambiada(datos);
+            analiticaViajes.rutaCambiada(datos);
+            clusters.rutaCambiada(datos);
+            busqueda.rutaGuardada(ruta);
+        }
+    }
+
+    public void rutaEliminada(String rutaId) {
+        if (!activo) {
+            suscripciones.publicar(null, rutaId, "ruta-eliminada", Map.of("id", rutaId));
+            alertas.rutaEliminada(rutaId);
+            analiticaViajes.rutaEliminada(rutaId);
+            clusters.rutaEliminada(rutaId);
+            busqueda.eliminado(BusquedaService.RUTA, rutaId);
+        }
+    }
+
+    public void vehiculoGuardado(Vehiculo vehiculo) {
+        if (!activo) {
+            busqueda.vehiculoGuardado(vehiculo);
+        }
+    }
+
+    public void vehiculoEliminado(String vehiculoId) {
+        if (!activo) {
+            busqueda.eliminado(BusquedaService.VEHICULO, vehiculoId);
+        }
+    }
+
+    public void vehiculosImportados(String usuarioId) {
+        if (!activo) {
+            busqueda.recargarVehiculos(usuarioId);
+        }
+    }
+
+    public void conductorGuardado(Conductor conductor) {
+        if (!activo) {
+            busqueda.conductorGuardado(conductor);
+        }
+    }
+
+    // Las alertas las inserta el motor; con change stream llegan por él a todas las réplicas
+    @EventListener
+    public void alertaGuardada(Alerta alerta) {
+        if (!activo) {
+            suscripciones.publicar(alerta.getUsuarioId(), alerta.getRutaId(), "alerta", filtrar(alerta.getId(),
+                    objectMapper.convertValue(alerta, Map.class), CAMPOS_ALERTA));
+        }
+    }
+
+    public void mensajeGuardado(Mensaje mensaje) {
+        if (!activo) {
+            suscripciones.publicar(mensaje.getUsuarioId(), mensaje.getRutaId(), "mensaje", filtrar(mensaje.getId(),
+                    objectMapper.convertValue(mensaje, Map.class), CAMPOS_MENSAJE));
+        }
+    }
+
+    // true mientras el change stream está abierto: los cambios llegan por él y no hay que publicarlos a mano
+    public boolean activa() {
+        return activo;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("nodo", nodo);
+        stats.put("modo", modo);
+        stats.put("eventos", cambiosRecibidos.get());
+        stats.put("reconexiones", reconexiones.get());
+        stats.put("ultimoEvento", ultimoEvento);
+        stats.put("suscriptores", suscripciones.estadisticas());
+        return stats;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Lectura del change stream
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private void seguir() {
+        long espera = 500;
+        while (!detenido) {
+            BsonDocument token = leerToken();
+            try {
+                consumir(token);
+                espera = 500;
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == NO_ES_REPLICA_SET) {
+                    log.warn("Mongo no es un replica set: difusión entre nodos desactivada, solo suscriptores locales");
+                    return;
+                }
+                if (TOKEN_INVALIDO.contains(e.getErrorCode())) {
+                    log.warn("Resume token no válido ({}), se reanuda desde ahora", e.getErrorMessage());
+                    borrarToken();
+                    continue;
+                }
+                log.warn("Change stream interrumpido: {}", e.getMessage());
+            } catch (MongoException | IllegalStateException e) {
+                if (detenido) {
+                    return;
+                }
+                log.warn("Change stream interrumpido: {}", e.getMessage());
+            } finally {
+                activo = false;
+                modo = "local";
+            }
+            reconexiones.incrementAndGet();
+            try {
+                Thread.sleep(espera);
+            } catch (InterruptedException e) {
+                return;
+            }
+            espera = Math.min(ESPERA_MAXIMA_MS, espera * 2);
+        }
+    }
+
+    private void consumir(BsonDocument token) {
+        List<String> bases = mongoTemplate.bases();
+        Document filtro = new Document("ns.coll", new Document("$in", COLECCIONES))
+                .append("operationType", new Document("$in", List.of("insert", "update", "replace", "delete")));
+        if (bases.size() > 1) {
+            filtro.append("ns.db", new Document("$in", bases));
+        }
+        List<Document> pipeline = List.of(new Document("$match", filtro), new Document("$project", proyeccion()));
+        // Con empresas en bases dedicadas se sigue todo el clúster, limitado a las bases de la aplicación
+        var stream = (bases.size() > 1 ? mongoClient.watch(pipeline) : mongoTemplate.getDb().watch(pipeline))
+                .fullDocument(FullDocument.UPDATE_LOOKUP);
+        if (token != null) {
+            stream = stream.resumeAfter(token);
+        }
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+            activo = true;
+            modo = "change-stream";
+            log.info("Siguiendo cambios de rutas y mensajes (nodo {}, {})", nodo, token != null ? "reanudado" : "desde ahora");
+            long ultimoGuardado = System.currentTimeMillis();
+            BsonDocument pendiente = null;
+            while (!detenido) {
+                ChangeStreamDocument<Document> cambio = cursor.tryNext();
+                if (cambio != null) {
+                    entregar(cambio);
+                }
+                BsonDocument actual = cursor.getResumeToken();
+                if (actual != null && !actual.equals(token)) {
+                    pendiente = actual;
+                }
+                long ahora = System.currentTimeMillis();
+                if (pendiente != null && ahora - ultimoGuardado >= GUARDAR_TOKEN_CADA_MS) {
+                    guardarToken(pendiente);
+                    token = pendiente;
+                    pendiente = null;
+                    ultimoGuardado = ahora;
+                }
+            }
+            if (pendiente != null) {
+                guardarToken(pendiente);
+            }
+        }
+    }
+
+    private static Document proyeccion() {
+        Document p = new Document("operationType", 1).append("ns", 1).append("documentKey", 1);
+        for (String campo : CAMPOS_RUTA) {
+            p.append("fullDocument." + campo, 1);
+        }
+        for (String campo : CAMPOS_MENSAJE) {
+            p.append("fullDocument." + campo, 1);
+        }
+        for (String campo : CAMPOS_COMANDO) {
+            p.append("fullDocument." + campo, 1);
+        }
+        for (String campo : CAMPOS_ALERTA) {
+            p.append("fullDocument." + campo, 1);
+        }
+        for (String campo : CAMPOS_BUSQUEDA) {
+            p.append("fullDocument." + campo, 1);
+        }
+        return p;
+    }
+
+    private void entregar(ChangeStreamDocument<Document> cambio) {
+        cambiosRecibidos.incrementAndGet();
+        ultimoEvento = Instant.now().toString();
+        String coleccion = cambio.getNamespace() != null ? cambio.getNamespace().getCollectionName() : null;
+        String id = idDe(cambio.getDocumentKey());
+        Document doc = cambio.getFullDocument();
+
+        if ("delete".equals(cambio.getOperationTypeString())) {
+            if ("rutas".equals(coleccion)) {
+                suscripciones.publicar(null, id, "ruta-eliminada", Map.of("id", id));
+                alertas.rutaEliminada(id);
+                analiticaViajes.rutaEliminada(id);
+                clusters.rutaEliminada(id);
+                busqueda.eliminado(BusquedaService.RUTA, id);
+            } else if ("vehiculos".equals(coleccion)) {
+                busqueda.eliminado(BusquedaService.VEHICULO, id);
+            } else if ("conductores".equals(coleccion)) {
+                busqueda.eliminado(BusquedaService.CONDUCTOR, id);
+            }
+            return;
+        }
+        if (doc == null) {
+            return;
+        }
+        if ("rutas".equals(coleccion)) {
+            Map<String, Object> datos = filtrar(id, doc, CAMPOS_RUTA);
+            suscripciones.publicar(doc.getString("usuarioId"), id, "ruta", datos);
+            alertas.rutaCambiada(datos);
+            analiticaViajes.rutaCambiada(datos);
+            clusters.rutaCambiada(datos);
+            busqueda.rutaCambiada(id, doc.getString("usuarioId"), doc.getString("origen"), doc.getString("destino"));
+        } else if ("vehiculos".equals(coleccion)) {
+            busqueda.vehiculoCambiado(id, doc.getString("usuarioId"), doc.getString("matricula"),
+                    doc.getString("marca"), doc.getString("modelo"));
+        } else if ("conductores".equals(coleccion)) {
+            busqueda.conductorCambiado(id, doc.getString("empresaId"), doc.getString("nombre"), doc.getString("email"));
+        } else if ("alertas".equals(coleccion)) {
+            // Solo la inserción es una alerta nueva; las actualizaciones son reconocimientos
+            if ("insert".equals(cambio.getOperationTypeString())) {
+                suscripciones.publicar(doc.getString("usuarioId"), doc.getString("rutaId"), "alerta", filtrar(id, doc, CAMPOS_ALERTA));
+            }
+        } else if ("mensajes".equals(coleccion)) {
+            suscripciones.publicar(doc.getString("usuarioId"), doc.getString("rutaId"), "mensaje", filtrar(id, doc, CAMPOS_MENSAJE));
+        } else if ("comandos_conductor".equals(coleccion)) {
+            ComandoConductor comando = mongoTemplate.getConverter().read(ComandoConductor.class, doc);
+            comando.setId(id);
+            eventos.publishEvent(comando);
+        }
+    }
+
+    private static Map<String, Object> filtrar(String id, Map<?, ?> origen, List<String> campos) {
+        Map<String, Object> datos = new LinkedHashMap<>();
+        datos.put("id", id);
+        for (String campo : campos) {
+            Object valor = origen.get(campo);
+            datos.put(campo, valor instanceof Date fecha ? fecha.toInstant().toString() : valor);
+        }
+        return datos;
+    }
+
+    private static String idDe(BsonDocument clave) {
+        if (clave == null || !clave.containsKey("_id")) {
+            return null;
+        }
+        var id = clave.get("_id");
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.isString() ? id.asString().getValue() : id.toString();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Resume token
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private MongoCollection<Document> tokens() {
+        return mongoTemplate.getCollection(COLECCION_TOKENS);
+    }
+
+    private BsonDocument leerToken() {
+        try {
+            Document guardado = tokens().find(Filters.eq("_id", nodo)).first();
+            if (guardado == null || guardado.get("token") == null) {
+                return null;
+            }
+            return ((Document) guardado.get("token")).toBsonDocument();
+        } catch (MongoException e) {
+            return null;
+        }
+    }
+
+    private void guardarToken(BsonDocument token) {
+        try {
+            Document doc = new Document("_id", nodo)
+                    .append("token", Document.parse(token.toJson()))
+                    .append("actualizado", new Date());
+            tokens().replaceOne(Filters.eq("_id", nodo), doc, new ReplaceOptions().upsert(true));
+        } catch (MongoException e) {
+            log.debug("No se pudo guardar el resume token: {}", e.getMessage());
+        }
+    }
+
+    private void borrarToken() {
+        try {
+            tokens().deleteOne(Filters.eq("_id", nodo));
+        } catch (MongoException e) {
+            log.debug("No se pudo borrar el resume token: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.ecofleet.service;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dónde viven los datos de cada empresa.
+ *
+ * Por defecto todas comparten la base de datos de spring.data.mongodb.uri. Una empresa
+ * grande puede tener una base propia en el mismo clúster, con las mismas colecciones e
+ * índices, para que su volumen no degrade las consultas de las demás. Se elige con
+ * ecofleet.empresas.enrutador: "propiedades" (tabla fija en la configuración) o cualquier
+ * otra implementación registrada como bean con ese valor.
+ */
+public interface EnrutadorEmpresas {
+
+    // Base de datos propia de la empresa, o null si usa la compartida
+    String baseDe(String empresa);
+
+    // Bases propias en uso, para los procesos que recorren los datos de todas las empresas
+    Set<String> basesDedicadas();
+
+    // Empresa → base de las que no usan la compartida
+    Map<String, String> empresasDedicadas();
+}
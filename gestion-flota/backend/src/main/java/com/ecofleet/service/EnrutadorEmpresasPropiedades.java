@@ -0,0 +1,56 @@
+package com.ecofleet.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Enrutado fijo desde ecofleet.empresas.dedicadas ("empresa:base,empresa:base"). Mover una
+ * empresa es copiar sus datos (/api/empresas/{id}/copiar), añadirla aquí y reiniciar; el
+ * procedimiento completo está en ParticionEmpresasService.
+ */
+@Component
+@ConditionalOnProperty(name = "ecofleet.empresas.enrutador", havingValue = "propiedades", matchIfMissing = true)
+public class EnrutadorEmpresasPropiedades implements EnrutadorEmpresas {
+
+    // Nombres válidos de base en Mongo: sin separadores ni caracteres reservados
+    private static final Pattern NOMBRE_BASE = Pattern.compile("[A-Za-z0-9_-]{1,63}");
+
+    private final Map<String, String> dedicadas;
+
+    public EnrutadorEmpresasPropiedades(@Value("${ecofleet.empresas.dedicadas:}") String configuracion) {
+        Map<String, String> tabla = new LinkedHashMap<>();
+        for (String entrada : configuracion.split(",")) {
+            if (entrada.isBlank()) {
+                continue;
+            }
+            String[] partes = entrada.trim().split(":");
+            if (partes.length != 2 || partes[0].isBlank() || !NOMBRE_BASE.matcher(partes[1].trim()).matches()) {
+                throw new IllegalArgumentException("ecofleet.empresas.dedicadas: entrada no válida '" + entrada.trim() + "'");
+            }
+            tabla.put(partes[0].trim(), partes[1].trim());
+        }
+        this.dedicadas = Map.copyOf(tabla);
+    }
+
+    @Override
+    public String baseDe(String empresa) {
+        return empresa != null ? dedicadas.get(empresa) : null;
+    }
+
+    @Override
+    public Set<String> basesDedicadas() {
+        return new LinkedHashSet<>(dedicadas.values());
+    }
+
+    @Override
+    public Map<String, String> empresasDedicadas() {
+        return dedicadas;
+    }
+}
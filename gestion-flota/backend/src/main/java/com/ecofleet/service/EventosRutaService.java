@@ -0,0 +1,409 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.EventoRuta;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.SnapshotRuta;
+import com.ecofleet.util.ContextoEmpresa;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registro append-only de eventos de ruta y proyección en la colección rutas.
+ *
+ * Cada cambio (estado, asignación, posición GPS, desvío...) se guarda como un evento con
+ * solo los campos que cambian, y el documento de rutas pasa a ser la proyección: se
+ * actualiza con $set de esos mismos campos en lugar de reescribirse entero. El evento se
+ * inserta antes que el $set y en el mismo hilo: si la inserción falla la proyección no se
+ * toca y el error llega al llamante, así que la proyección nunca va por delante del
+ * registro y reconstruirProyeccion no puede devolver una ruta a un estado anterior.
+ *
+ * Cada snapshot-cada eventos de una ruta se guarda un snapshot de su estado, de modo que
+ * reconstruirla o verla en un instante pasado solo aplica los eventos desde el último
+ * snapshot. Las rutas anteriores al registro reciben un snapshot base la primera vez que
+ * cambian.
+ */
+@Service
+public class EventosRutaService {
+
+    private static final Logger log = LoggerFactory.getLogger(EventosRutaService.class);
+
+    public static final String CREADA = "CREADA";
+    public static final String ESTADO = "ESTADO";
+    public static final String ASIGNACION = "ASIGNACION";
+    public static final String POSICION = "POSICION";
+    public static final String DESVIO = "DESVIO";
+    public static final String ACTUALIZADA = "ACTUALIZADA";
+    public static final String ELIMINADA = "ELIMINADA";
+
+    private static final String BASE = "base";
+
+    @Value("${ecofleet.eventos.snapshot-cada:100}")
+    private int snapshotCada;
+    @Value("${ecofleet.eventos.cola-snapshots:1000}")
+    private int colaSnapshots;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // Los snapshots solo aceleran el replay: se toman fuera del hilo de la petición y, si
+    // la cola se llena, se omiten (la ruta se reconstruye desde el snapshot anterior)
+    private ThreadPoolExecutor snapshotsPendientes;
+
+    // Eventos de cada ruta desde su último snapshot; la presencia de la clave indica que ya
+    // se comprobó en este proceso si la ruta tiene snapshot base o eventos previos
+    private final ConcurrentHashMap<String, AtomicLong> desdeSnapshot = new ConcurrentHashMap<>();
+
+    private final AtomicLong registrados = new AtomicLong();
+    private final AtomicLong insertados = new AtomicLong();
+    private final AtomicLong lotes = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong snapshotsOmitidos = new AtomicLong();
+    private final AtomicLong reconstrucciones = new AtomicLong();
+
+    @PostConstruct
+    void iniciar() {
+        snapshotsPendientes = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(colaSnapshots),
+                r -> {
+                    Thread t = new Thread(r, "snapshots-ruta");
+                    t.setDaemon(true);
+                    return t;
+                },
+                (tarea, ejecutor) -> snapshotsOmitidos.incrementAndGet());
+        Gauge.builder("ecofleet.eventos_ruta.snapshots_en_cola", snapshotsPendientes, e -> e.getQueue().size()).register(registry);
+        registry.more().counter("ecofleet.eventos_ruta.insertados", List.of(), insertados);
+    }
+
+    @PreDestroy
+    void detener() {
+        snapshotsPendientes.shutdownNow();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Escritura: evento + proyección
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Campos de la ruta que forman su estado (todos los persistidos salvo el id). Se toma
+     * antes de modificar la ruta y se pasa a guardar() para calcular qué ha cambiado.
+     */
+    public Map<String, Object> campos(Ruta r) {
+        Map<String, Object> c = new LinkedHashMap<>();
+        c.put("usuarioId", r.getUsuarioId());
+        c.put("origen", r.getOrigen());
+        c.put("destino", r.getDestino());
+        c.put("distanciaEstimadaKm", r.getDistanciaEstimadaKm());
+        c.put("estado", r.getEstado());
+        c.put("vehiculoId", r.getVehiculoId());
+        c.put("conductorId", r.getConductorId());
+        c.put("fecha", r.getFecha());
+        c.put("latitudOrigen", r.getLatitudOrigen());
+        c.put("longitudOrigen", r.getLongitudOrigen());
+        c.put("latitudDestino", r.getLatitudDestino());
+        c.put("longitudDestino", r.getLongitudDestino());
+        c.put("latitudActual", r.getLatitudActual());
+        c.put("longitudActual", r.getLongitudActual());
+        c.put("desviado", r.getDesviado());
+        c.put("ultimaActualizacionGPS", r.getUltimaActualizacionGPS());
+        c.put("fechaCompletada", r.getFechaCompletada());
+        c.put("velocidadActualKmh", r.getVelocidadActualKmh());
+        c.put("distanciaRestanteKm", r.getDistanciaRestanteKm());
+        return c;
+    }
+
+    // Evento CREADA de una ruta recién insertada, con todo su estado
+    public void creada(Ruta ruta) {
+        desdeSnapshot.putIfAbsent(ruta.getId(), new AtomicLong());
+        registrar(List.of(nuevoEvento(ruta.getId(), ruta.getUsuarioId(), CREADA, campos(ruta))));
+    }
+
+    /**
+     * Aplica a la proyección (rutas) solo los campos que difieren de "antes" y registra el
+     * evento correspondiente. Si no cambia nada no escribe. Devuelve la misma ruta.
+     */
+    public Ruta guardar(Ruta ruta, Map<String, Object> antes) {
+        Map<String, Object> cambios = diferencias(antes, campos(ruta));
+        if (cambios.isEmpty()) {
+            return ruta;
+        }
+        asegurarBase(ruta.getId(), antes);
+        registrar(List.of(nuevoEvento(ruta.getId(), ruta.getUsuarioId(), tipoDe(cambios), cambios)));
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(ruta.getId())), actualizacion(cambios), Ruta.class);
+        return ruta;
+    }
+
+    // Igual que guardar() para varias rutas: una inserción de eventos y después un único bulk de $set
+    public List<Ruta> guardarTodas(List<Ruta> rutas, Map<String, Map<String, Object>> antesPorId) {
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Ruta.class);
+        List<EventoRuta> nuevos = new ArrayList<>();
+        for (Ruta ruta : rutas) {
+            Map<String, Object> antes = antesPorId.get(ruta.getId());
+            Map<String, Object> cambios = diferencias(antes, campos(ruta));
+            if (cambios.isEmpty()) {
+                continue;
+            }
+            asegurarBase(ruta.getId(), antes);
+            ops.updateOne(new Query(Criteria.where("_id").is(ruta.getId())), actualizacion(cambios));
+            nuevos.add(nuevoEvento(ruta.getId(), ruta.getUsuarioId(), tipoDe(cambios), cambios));
+        }
+        if (!nuevos.isEmpty()) {
+            registrar(nuevos);
+            ops.execute();
+        }
+        return rutas;
+    }
+
+    public void eliminada(String rutaId, String usuarioId) {
+        registrar(List.of(nuevoEvento(rutaId, usuarioId, ELIMINADA, Map.of())));
+        desdeSnapshot.remove(rutaId);
+    }
+
+    private static Map<String, Object> diferencias(Map<String, Object> antes, Map<String, Object> despues) {
+        Map<String, Object> cambios = new LinkedHashMap<>();
+        despues.forEach((campo, valor) -> {
+            if (!Objects.equals(valor, antes.get(campo))) {
+                cambios.put(campo, valor);
+            }
+        });
+        return cambios;
+    }
+
+    private static Update actualizacion(Map<String, Object> cambios) {
+        Update update = new Update();
+        cambios.forEach((campo, valor) -> {
+            if (valor == null) {
+                update.unset(campo);
+            } else {
+                update.set(campo, valor);
+            }
+        });
+        return update;
+    }
+
+    private static String tipoDe(Map<String, Object> cambios) {
+        if (cambios.containsKey("estado")) return ESTADO;
+        if (cambios.containsKey("vehiculoId") || cambios.containsKey("conductorId")) return ASIGNACION;
+        if (cambios.containsKey("latitudActual") || cambios.containsKey("longitudActual")) return POSICION;
+        if (cambios.containsKey("desviado")) return DESVIO;
+        return ACTUALIZADA;
+    }
+
+    private EventoRuta nuevoEvento(String rutaId, String usuarioId, String tipo, Map<String, Object> cambios) {
+        EventoRuta evento = new EventoRuta();
+        evento.setId(new ObjectId().toHexString());
+        evento.setRutaId(rutaId);
+        evento.setUsuarioId(usuarioId);
+        evento.setTipo(tipo);
+        evento.setCambios(cambios);
+        evento.setInstante(Instant.now());
+        return evento;
+    }
+
+    // Primera vez que cambia en este proceso una ruta sin historial: su estado previo es el snapshot base
+    private void asegurarBase(String rutaId, Map<String, Object> antes) {
+        if (desdeSnapshot.containsKey(rutaId)) {
+            return;
+        }
+        try {
+            boolean conHistorial = mongoTemplate.exists(new Query(Criteria.where("rutaId").is(rutaId)), SnapshotRuta.class)
+                    || mongoTemplate.exists(new Query(Criteria.where("rutaId").is(rutaId)), EventoRuta.class);
+            if (!conHistorial) {
+                guardarSnapshot(rutaId, null, 0, antes);
+            }
+            desdeSnapshot.putIfAbsent(rutaId, new AtomicLong());
+        } catch (DataAccessException e) {
+            log.warn("No se pudo comprobar el historial de la ruta {}: {}", rutaId, e.getMessage());
+        }
+    }
+
+    // Inserta los eventos en el hilo del llamante; un fallo se propaga para que no se
+    // aplique la proyección de un cambio que no quedó registrado
+    private void registrar(List<EventoRuta> eventos) {
+        registrados.addAndGet(eventos.size());
+        mongoTemplate.insertAll(eventos);
+        insertados.addAndGet(eventos.size());
+        lotes.incrementAndGet();
+        for (EventoRuta evento : eventos) {
+            if (ELIMINADA.equals(evento.getTipo())) {
+                continue;
+            }
+            AtomicLong contador = desdeSnapshot.computeIfAbsent(evento.getRutaId(), k -> new AtomicLong());
+            if (contador.incrementAndGet() >= snapshotCada) {
+                contador.set(0);
+                String rutaId = evento.getRutaId();
+                snapshotsPendientes.execute(ContextoEmpresa.propagar(() ->
+                        ContextoEmpresa.ejecutarComo(evento.getUsuarioId(), () -> tomarSnapshot(rutaId))));
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Lectura: eventos, replay y snapshots
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public List<EventoRuta> eventos(String rutaId, String desdeEvento, int limite) {
+        Criteria criterio = Criteria.where("rutaId").is(rutaId);
+        if (desdeEvento != null) {
+            criterio = criterio.and("_id").gt(new ObjectId(desdeEvento));
+        }
+        return mongoTemplate.find(new Query(criterio).with(Sort.by("_id")).limit(limite), EventoRuta.class);
+    }
+
+    // Filtrado por la empresa del contexto: false si la ruta no tiene eventos suyos
+    public boolean tieneEventos(String rutaId) {
+        return mongoTemplate.exists(new Query(Criteria.where("rutaId").is(rutaId)), EventoRuta.class);
+    }
+
+    /**
+     * Estado de la ruta tras su último evento con id ≤ hastaEvento (todos si es null):
+     * último snapshot anterior a ese punto más los eventos que le siguen.
+     */
+    public Reconstruccion reconstruir(String rutaId, String hastaEvento) {
+        Criteria enSnapshot = Criteria.where("rutaId").is(rutaId);
+        if (hastaEvento != null) {
+            enSnapshot = enSnapshot.orOperator(Criteria.where("ultimoEvento").lte(hastaEvento), Criteria.where("ultimoEvento").is(null));
+        }
+        SnapshotRuta snapshot = mongoTemplate.findOne(new Query(enSnapshot)
+                .with(Sort.by(Sort.Direction.DESC, "ultimoEvento")).limit(1), SnapshotRuta.class);
+
+        Reconstruccion r = new Reconstruccion();
+        r.rutaId = rutaId;
+        r.estado = snapshot != null ? new HashMap<>(snapshot.getEstado()) : new HashMap<>();
+        r.snapshot = snapshot != null ? snapshot.getId() : null;
+        r.eventosEnSnapshot = snapshot != null ? snapshot.getEventos() : 0;
+        r.ultimoEvento = snapshot != null ? snapshot.getUltimoEvento() : null;
+
+        Criteria enEventos = Criteria.where("rutaId").is(rutaId);
+        if (r.ultimoEvento != null && hastaEvento != null) {
+            enEventos = enEventos.and("_id").gt(new ObjectId(r.ultimoEvento)).lte(new ObjectId(hastaEvento));
+        } else if (r.ultimoEvento != null) {
+            enEventos = enEventos.and("_id").gt(new ObjectId(r.ultimoEvento));
+        } else if (hastaEvento != null) {
+            enEventos = enEventos.and("_id").lte(new ObjectId(hastaEvento));
+        }
+        Query query = new Query(enEventos).with(Sort.by("_id"));
+        query.fields().include("tipo", "cambios");
+        try (var eventos = mongoTemplate.stream(query, EventoRuta.class)) {
+            eventos.forEach(evento -> {
+                if (ELIMINADA.equals(evento.getTipo())) {
+                    r.eliminada = true;
+                } else if (evento.getCambios() != null) {
+                    evento.getCambios().forEach((campo, valor) -> {
+                        if (valor == null) r.estado.remove(campo); else r.estado.put(campo, valor);
+                    });
+                }
+                r.eventosAplicados++;
+                r.ultimoEvento = evento.getId();
+            });
+        }
+        reconstrucciones.incrementAndGet();
+        return r;
+    }
+
+    // Convierte el estado plegado en una Ruta con el conversor de Mongo (mismos tipos que al leer rutas)
+    public Ruta aRuta(Reconstruccion r) {
+        if (r.estado.isEmpty()) {
+            return null;
+        }
+        Document doc = new Document(r.estado);
+        doc.put("_id", r.rutaId);
+        Ruta ruta = mongoTemplate.getConverter().read(Ruta.class, doc);
+        ruta.setId(r.rutaId);
+        return ruta;
+    }
+
+    // Reescribe la proyección de la ruta a partir del registro
+    public Ruta reconstruirProyeccion(String rutaId) {
+        Reconstruccion r = reconstruir(rutaId, null);
+        Ruta ruta = aRuta(r);
+        if (ruta == null || r.eliminada) {
+            return null;
+        }
+        return mongoTemplate.save(ruta);
+    }
+
+    private void tomarSnapshot(String rutaId) {
+        try {
+            Reconstruccion r = reconstruir(rutaId, null);
+            if (r.ultimoEvento != null && r.eventosAplicados > 0 && !r.eliminada) {
+                guardarSnapshot(rutaId, r.ultimoEvento, r.eventosEnSnapshot + r.eventosAplicados, r.estado);
+            }
+        } catch (DataAccessException e) {
+            log.warn("No se pudo guardar el snapshot de la ruta {}: {}", rutaId, e.getMessage());
+        }
+    }
+
+    private void guardarSnapshot(String rutaId, String ultimoEvento, long eventos, Map<String, Object> estado) {
+        SnapshotRuta snapshot = new SnapshotRuta();
+        snapshot.setId(rutaId + "|" + (ultimoEvento != null ? ultimoEvento : BASE));
+        snapshot.setRutaId(rutaId);
+        snapshot.setUltimoEvento(ultimoEvento);
+        snapshot.setEventos(eventos);
+        snapshot.setEstado(new LinkedHashMap<>(estado));
+        snapshot.setCreado(Instant.now());
+        mongoTemplate.save(snapshot);
+        snapshots.incrementAndGet();
+    }
+
+    // Límite superior de ids de evento para un instante: cualquier ObjectId de ese segundo o anterior
+    public static String idHasta(Instant instante) {
+        return String.format("%08x", instante.getEpochSecond()) + "ffffffffffffffff";
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("registrados", registrados.get());
+        stats.put("insertados", insertados.get());
+        stats.put("lotes", lotes.get());
+        stats.put("eventosPorLote", lotes.get() > 0 ? (double) insertados.get() / lotes.get() : 0);
+        stats.put("snapshots", snapshots.get());
+        stats.put("snapshotsEnCola", snapshotsPendientes.getQueue().size());
+        stats.put("snapshotsOmitidos", snapshotsOmitidos.get());
+        stats.put("reconstrucciones", reconstrucciones.get());
+        stats.put("snapshotCada", snapshotCada);
+        return stats;
+    }
+
+    @Data
+    public static class Reconstruccion {
+        private String rutaId;
+        private Map<String, Object> estado;
+        private String snapshot;
+        private long eventosEnSnapshot;
+        private long eventosAplicados;
+        private String ultimoEvento;
+        private boolean eliminada;
+    }
+}
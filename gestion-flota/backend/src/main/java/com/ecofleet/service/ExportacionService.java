@@ -0,0 +1,231 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.Mantenimiento;
+import com.ecofleet.model.MantenimientoCorrectivo;
+import com.ecofleet.model.MantenimientoPreventivo;
+import com.ecofleet.model.Repostaje;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.util.Csv;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Exportación masiva por empresa en NDJSON o CSV.
+ *
+ * Los documentos se leen con un cursor de Mongo (mongoTemplate.stream) y se escriben
+ * directamente en la respuesta HTTP uno a uno, así que la memoria usada no depende del
+ * número de documentos. Repostajes y mantenimientos no guardan la empresa: se filtran
+ * por los vehículos de la empresa.
+ */
+@Service
+public class ExportacionService {
+
+    public static final String NDJSON = "ndjson";
+    public static final String CSV = "csv";
+    public static final Set<String> COLECCIONES = Set.of("vehiculos", "rutas", "repostajes", "mantenimientos");
+
+    private static final int TAMANO_LOTE_CURSOR = 500;
+
+    private static final List<String> CABECERA_VEHICULOS = List.of(
+            "id", "matricula", "marca", "modelo", "kilometraje", "combustibleActual", "tipoCombustible", "activo");
+    private static final List<String> CABECERA_RUTAS = List.of(
+            "id", "origen", "destino", "estado", "vehiculoId", "conductorId", "fecha", "distanciaEstimadaKm",
+            "latitudOrigen", "longitudOrigen", "latitudDestino", "longitudDestino");
+    private static final List<String> CABECERA_REPOSTAJES = List.of(
+            "id", "vehiculoId", "fecha", "litros", "precioPorLitro", "costeTotal", "kilometrajeActual");
+    private static final List<String> CABECERA_MANTENIMIENTOS = List.of(
+            "id", "tipo", "vehiculoId", "fecha", "descripcion", "kilometrajeRealizado", "costo", "taller",
+            "numRepuestos", "costeRepuestos");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    public void exportar(String coleccion, String usuarioId, String formato, OutputStream out) throws IOException {
+        Escritor escritor = CSV.equals(formato) ? new EscritorCsv(out) : new EscritorNdjson(objectMapper, out);
+        try {
+            switch (coleccion) {
+                case "vehiculos" -> {
+                    escritor.cabecera(CABECERA_VEHICULOS);
+                    volcar(porUsuario(usuarioId), Vehiculo.class, escritor, v -> Arrays.asList(
+                            v.getId(), v.getMatricula(), v.getMarca(), v.getModelo(), v.getKilometraje(),
+                            v.getCombustibleActual(), v.getTipoCombustible(), v.getActivo()));
+                }
+                case "rutas" -> {
+                    escritor.cabecera(CABECERA_RUTAS);
+                    volcar(porUsuario(usuarioId), Ruta.class, escritor, r -> Arrays.asList(
+                            r.getId(), r.getOrigen(), r.getDestino(), r.getEstado(), r.getVehiculoId(), r.getConductorId(),
+                            r.getFecha(), r.getDistanciaEstimadaKm(), r.getLatitudOrigen(), r.getLongitudOrigen(),
+                            r.getLatitudDestino(), r.getLongitudDestino()));
+                }
+                case "repostajes" -> {
+                    escritor.cabecera(CABECERA_REPOSTAJES);
+                    volcar(porVehiculos(usuarioId), Repostaje.class, escritor, r -> Arrays.asList(
+                            r.getId(), r.getVehiculoId(), r.getFecha(), r.getLitros(), r.getPrecioPorLitro(),
+                            r.getCosteTotal(), r.getKilometrajeActual()));
+                }
+                case "mantenimientos" -> {
+                    escritor.cabecera(CABECERA_MANTENIMIENTOS);
+                    Query query = porVehiculos(usuarioId);
+                    volcar(query, Mantenimiento.class, escritor, m -> filaMantenimiento(m.getId(), m.getTipo(),
+                            m.getVehiculoId(), m.getFecha(), m.getDescripcion(), m.getKilometrajeRealizado(),
+                            m.getCosto(), m.getTaller(), m.getRepuestos()));
+                    volcar(query, MantenimientoPreventivo.class, escritor, m -> filaMantenimiento(m.getId(), m.getTipo(),
+                            m.getVehiculoId(), m.getFecha(), m.getDescripcion(), m.getKilometrajeRealizado(),
+                            m.getCosto(), m.getTaller(), m.getRepuestos()));
+                    volcar(query, MantenimientoCorrectivo.class, escritor, m -> filaMantenimiento(m.getId(), m.getTipo(),
+                            m.getVehiculoId(), m.getFecha(), m.getDescripcion(), m.getKilometrajeRealizado(),
+                            m.getCosto(), m.getTaller(), m.getRepuestos()));
+                }
+                default -> throw new IllegalArgumentException("Colección no exportable: " + coleccion);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        escritor.cerrar();
+    }
+
+    private <T> void volcar(Query query, Class<T> tipo, Escritor escritor, Function<T, List<Object>> fila) {
+        Query conCursor = Query.of(query).cursorBatchSize(TAMANO_LOTE_CURSOR);
+        try (Stream<T> documentos = mongoTemplate.stream(conCursor, tipo)) {
+            documentos.forEach(doc -> {
+                try {
+                    escritor.escribir(doc, fila);
+                } catch (IOException e) {
+                    // Normalmente el cliente cerró la conexión: se corta el cursor
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private static Query porUsuario(String usuarioId) {
+        return new Query(Criteria.where("usuarioId").is(usuarioId));
+    }
+
+    private Query porVehiculos(String usuarioId) {
+        Query soloIds = porUsuario(usuarioId);
+        soloIds.fields().include("_id");
+        List<String> ids = mongoTemplate.find(soloIds, Vehiculo.class).stream()
+                .map(Vehiculo::getId)
+                .collect(Collectors.toList());
+        return new Query(Criteria.where("vehiculoId").in(ids));
+    }
+
+    private static List<Object> filaMantenimiento(String id, String tipo, String vehiculoId, Object fecha, String descripcion,
+                                                  Double km, Double costo, Mantenimiento.Taller taller,
+                                                  List<Mantenimiento.Repuesto> repuestos) {
+        double costeRepuestos = 0;
+        if (repuestos != null) {
+            for (Mantenimiento.Repuesto r : repuestos) {
+                if (r.getCantidad() != null && r.getCostoUnitario() != null) {
+                    costeRepuestos += r.getCantidad() * r.getCostoUnitario();
+                }
+            }
+        }
+        return Arrays.asList(id, tipo, vehiculoId, fecha, descripcion, km, costo,
+                taller != null ? taller.getNombre() : null,
+                repuestos != null ? repuestos.size() : 0, costeRepuestos);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Escritores
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private interface Escritor {
+        void cabecera(List<String> columnas) throws IOException;
+
+        <T> void escribir(T documento, Function<T, List<Object>> fila) throws IOException;
+
+        void cerrar() throws IOException;
+    }
+
+    // Un documento JSON por línea, con la misma serialización que la API REST. writeValue
+    // vacía la salida tras cada documento por defecto; aquí se vacía una vez por lote
+    private static class EscritorNdjson implements Escritor {
+        private final ObjectWriter json;
+        private final JsonGenerator generador;
+        private int enLote;
+
+        EscritorNdjson(ObjectMapper mapper, OutputStream out) throws IOException {
+            this.json = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            this.generador = mapper.getFactory().createGenerator(out);
+            this.generador.setRootValueSeparator(new SerializedString("\n"));
+        }
+
+        @Override
+        public void cabecera(List<String> columnas) {
+        }
+
+        @Override
+        public <T> void escribir(T documento, Function<T, List<Object>> fila) throws IOException {
+            json.writeValue(generador, documento);
+            if (++enLote == TAMANO_LOTE_CURSOR) {
+                enLote = 0;
+                generador.flush();
+            }
+        }
+
+        @Override
+        public void cerrar() throws IOException {
+            generador.writeRaw('\n');
+            generador.close();
+        }
+    }
+
+    private static class EscritorCsv implements Escritor {
+        private final Writer writer;
+
+        EscritorCsv(OutputStream out) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        @Override
+        public void cabecera(List<String> columnas) throws IOException {
+            linea(List.copyOf(columnas));
+        }
+
+        @Override
+        public <T> void escribir(T documento, Function<T, List<Object>> fila) throws IOException {
+            linea(fila.apply(documento));
+        }
+
+        private void linea(List<?> valores) throws IOException {
+            for (int i = 0; i < valores.size(); i++) {
+                if (i > 0) writer.write(',');
+                writer.write(Csv.escapar(valores.get(i)));
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public void cerrar() throws IOException {
+            writer.flush();
+        }
+    }
+}
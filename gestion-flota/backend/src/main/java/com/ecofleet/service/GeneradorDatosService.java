@@ -0,0 +1,669 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.Conductor;
+import com.ecofleet.model.EventoRuta;
+import com.ecofleet.model.Mantenimiento;
+import com.ecofleet.model.MantenimientoCorrectivo;
+import com.ecofleet.model.MantenimientoPreventivo;
+import com.ecofleet.model.Mensaje;
+import com.ecofleet.model.Repostaje;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.Usuario;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.GeoUtils;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import lombok.Data;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generador de flotas sintéticas multi-empresa para probar consultas e índices a escala.
+ *
+ * Todo sale de la semilla y la fecha de referencia: cada vehículo usa su propio generador
+ * aleatorio (semilla, empresa, vehículo) y los _id son ObjectId construidos con el
+ * instante del documento, el tipo, la empresa y un secuencial. Así dos ejecuciones con los
+ * mismos parámetros producen los mismos documentos, da igual el número de hilos, y repetir
+ * una ejecución cortada solo inserta lo que falta (los duplicados se ignoran).
+ *
+ * El trabajo se reparte en bloques de vehículos de una empresa que se procesan en paralelo;
+ * cada bloque acumula documentos por colección y los escribe con insertMany sin orden en
+ * lotes de tamano-lote. Los documentos se convierten con el conversor de Spring, así que
+ * tienen exactamente el formato que escribe la aplicación. El tamaño de las empresas sigue
+ * una ley de potencias (pocas empresas grandes y muchas pequeñas), como en producción.
+ *
+ * Por cada vehículo se generan repostajes, mantenimientos preventivos y correctivos y
+ * rutas; las rutas pasadas o en curso llevan su evento CREADA, un evento POSICION por fix
+ * GPS, el cambio a COMPLETADA y el chat. Los agregados (informes de costes, viajes, mapa
+ * de calor) no se generan: se reconstruyen con sus endpoints o al procesar los eventos.
+ *
+ * Solo se ejecuta con ecofleet.generador.habilitado=true; pensado para un Mongo local. Los
+ * _id no dependen de la semilla, así que para comparar semillas distintas hay que partir
+ * de una base vacía.
+ */
+@Service
+public class GeneradorDatosService {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneradorDatosService.class);
+
+    static final String PASSWORD = "sintetico";
+    private static final int VEHICULOS_POR_BLOQUE = 50;
+    private static final double EXPONENTE_TAMANO = 0.8;
+
+    // Tipo de documento dentro del _id (byte 5)
+    private static final int ID_USUARIO = 1;
+    private static final int ID_CONDUCTOR = 2;
+    private static final int ID_VEHICULO = 3;
+    private static final int ID_RUTA = 4;
+    private static final int ID_EVENTO = 5;
+    private static final int ID_MENSAJE = 6;
+    private static final int ID_REPOSTAJE = 7;
+    private static final int ID_MANTENIMIENTO = 8;
+
+    private static final String[][] CIUDADES = {
+            {"Madrid", "40.4168", "-3.7038"}, {"Barcelona", "41.3874", "2.1686"},
+            {"Valencia", "39.4699", "-0.3763"}, {"Sevilla", "37.3891", "-5.9845"},
+            {"Zaragoza", "41.6488", "-0.8891"}, {"Málaga", "36.7213", "-4.4214"},
+            {"Bilbao", "43.2630", "-2.9350"}, {"Valladolid", "41.6523", "-4.7245"},
+            {"Murcia", "37.9922", "-1.1307"}, {"A Coruña", "43.3623", "-8.4115"},
+            {"Alicante", "38.3452", "-0.4810"}, {"Córdoba", "37.8882", "-4.7794"},
+            {"Granada", "37.1773", "-3.5986"}, {"Vigo", "42.2406", "-8.7207"},
+            {"Gijón", "43.5322", "-5.6611"}, {"Pamplona", "42.8125", "-1.6458"},
+    };
+    private static final String[][] MODELOS = {
+            {"Toyota", "Corolla Hybrid", "HIBRIDO"}, {"Ford", "Transit", "DIESEL"},
+            {"Renault", "Kangoo", "DIESEL"}, {"Mercedes", "Sprinter", "DIESEL"},
+            {"Citroën", "Berlingo", "DIESEL"}, {"Volkswagen", "Crafter", "DIESEL"},
+            {"Iveco", "Daily", "DIESEL"}, {"Seat", "León", "GASOLINA"},
+            {"Peugeot", "Partner", "DIESEL"}, {"Nissan", "e-NV200", "ELECTRICO"},
+    };
+    private static final String[] NOMBRES = {"Luis", "María", "José", "Carmen", "Antonio", "Lucía", "Javier",
+            "Ana", "Manuel", "Laura", "Pablo", "Elena", "Sergio", "Marta", "Raúl", "Sara"};
+    private static final String[] APELLIDOS = {"García", "Fernández", "López", "Martínez", "Sánchez", "Pérez",
+            "Gómez", "Ruiz", "Díaz", "Moreno", "Álvarez", "Romero", "Navarro", "Torres"};
+    private static final String[] TALLERES = {"Talleres Norte", "AutoServicio Sur", "Mecánica Rápida",
+            "Taller Oficial", "Neumáticos Centro"};
+    private static final String[] PREVENTIVOS = {"Cambio de aceite y filtros", "Revisión general",
+            "Cambio de neumáticos", "Revisión de frenos", "Cambio de correa de distribución"};
+    private static final String[] CORRECTIVOS = {"Sustitución de batería", "Reparación de embrague",
+            "Cambio de pastillas de freno", "Reparación de luna", "Sustitución de alternador"};
+    private static final String[] REPUESTOS = {"Filtro de aceite", "Aceite 5W30", "Pastillas de freno",
+            "Neumático", "Batería", "Escobillas", "Filtro de aire"};
+    private static final String[] MENSAJES_ADMIN = {"¿Cómo va la ruta?", "Recuerda pasar por el almacén",
+            "El cliente pide llegar antes de las 12", "Confirma la entrega, por favor", "Hay obras en la A-2"};
+    private static final String[] MENSAJES_CONDUCTOR = {"Todo bien, en camino", "Hay retención, llego tarde",
+            "Entrega hecha", "Parada para repostar", "El cliente no está, espero"};
+
+    @Value("${ecofleet.generador.habilitado:false}")
+    private boolean habilitado;
+
+    @Value("${ecofleet.generador.hilos:8}")
+    private int hilos;
+
+    @Value("${ecofleet.generador.tamano-lote:2000}")
+    private int tamanoLote;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private EventosRutaService eventosRuta;
+
+    @Autowired
+    private BusquedaService busqueda;
+
+    private final AtomicBoolean enCurso = new AtomicBoolean();
+    private final AtomicBoolean cancelado = new AtomicBoolean();
+    private final Map<String, AtomicLong> insertados = new ConcurrentHashMap<>();
+    private final AtomicLong duplicados = new AtomicLong();
+    private final AtomicLong bloquesTerminados = new AtomicLong();
+    private volatile long bloquesTotales;
+    private volatile long inicioNanos;
+    private volatile long duracionMs;
+    private volatile Escala escalaActual;
+    private volatile String error;
+
+    /** Tamaño de la flota a generar. Los totales son aproximados por el reparto entre empresas. */
+    @Data
+    public static class Escala {
+        private long semilla = 42;
+        private String referencia; // Día "hoy" de los datos (yyyy-MM-dd); por defecto hoy en UTC
+        private int empresas = 10;
+        private int vehiculosPorEmpresa = 100; // Media; las empresas grandes tienen muchos más
+        private double conductoresPorVehiculo = 1.2;
+        private int rutasPorVehiculo = 10;
+        private int fixesPorRuta = 50;
+        private int mensajesPorRuta = 10;
+        private int repostajesPorVehiculo = 50;
+        private int mantenimientosPorVehiculo = 20;
+        private int dias = 365; // Historia hacia atrás desde referencia
+    }
+
+    public boolean habilitado() {
+        return habilitado;
+    }
+
+    /** Lanza la generación en segundo plano. Devuelve false si ya hay una en curso. */
+    public boolean lanzar(Escala escala) {
+        validar(escala);
+        if (!enCurso.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelado.set(false);
+        insertados.clear();
+        duplicados.set(0);
+        bloquesTerminados.set(0);
+        error = null;
+        duracionMs = 0;
+        escalaActual = escala;
+        inicioNanos = System.nanoTime();
+        Thread hilo = new Thread(() -> ejecutar(escala), "generador-datos");
+        hilo.setDaemon(true);
+        hilo.start();
+        return true;
+    }
+
+    public void cancelar() {
+        cancelado.set(true);
+    }
+
+    private static void validar(Escala e) {
+        if (e.getEmpresas() < 1 || e.getEmpresas() > 0xFFFFFF) {
+            throw new IllegalArgumentException("empresas debe estar entre 1 y " + 0xFFFFFF);
+        }
+        if (e.getVehiculosPorEmpresa() < 1 || e.getRutasPorVehiculo() < 0 || e.getFixesPorRuta() < 0
+                || e.getMensajesPorRuta() < 0 || e.getRepostajesPorVehiculo() < 0
+                || e.getMantenimientosPorVehiculo() < 0 || e.getConductoresPorVehiculo() <= 0 || e.getDias() < 1) {
+            throw new IllegalArgumentException("Los tamaños no pueden ser negativos");
+        }
+        // El secuencial del _id tiene 32 bits por empresa y tipo; los eventos son los que más crecen
+        long vehiculosMax = (long) e.getEmpresas() * e.getVehiculosPorEmpresa();
+        long porRuta = Math.max(e.getFixesPorRuta() + 2L, e.getMensajesPorRuta());
+        if (vehiculosMax * e.getRutasPorVehiculo() * porRuta > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Demasiados eventos por empresa para el esquema de _id");
+        }
+        if (e.getReferencia() != null) {
+            LocalDate.parse(e.getReferencia());
+        }
+    }
+
+    private void ejecutar(Escala escala) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, hilos), r -> {
+            Thread t = new Thread(r, "generador-bloque");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            LocalDate referencia = escala.getReferencia() != null
+                    ? LocalDate.parse(escala.getReferencia()) : LocalDate.now(ZoneOffset.UTC);
+            int[] vehiculos = repartirVehiculos(escala);
+            String hash = new BCryptPasswordEncoder().encode(PASSWORD);
+
+            List<Future<?>> bloques = new ArrayList<>();
+            for (int empresa = 0; empresa < escala.getEmpresas(); empresa++) {
+                for (int desde = 0; desde < vehiculos[empresa]; desde += VEHICULOS_POR_BLOQUE) {
+                    Bloque bloque = new Bloque(escala, referencia, empresa, vehiculos[empresa], desde,
+                            Math.min(desde + VEHICULOS_POR_BLOQUE, vehiculos[empresa]), hash);
+                    bloques.add(executor.submit(bloque::generar));
+                }
+            }
+            bloquesTotales = bloques.size();
+            for (Future<?> f : bloques) {
+                f.get();
+            }
+            log.info("Datos sintéticos generados: {} en {} ms", totales(), (System.nanoTime() - inicioNanos) / 1_000_000);
+            if (!cancelado.get()) {
+                busqueda.reconstruir();
+            }
+        } catch (Exception e) {
+            error = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            log.warn("Generación de datos sintéticos fallida: {}", error);
+        } finally {
+            executor.shutdownNow();
+            duracionMs = (System.nanoTime() - inicioNanos) / 1_000_000;
+            enCurso.set(false);
+        }
+    }
+
+    // Vehículos por empresa con una ley de potencias sobre el orden de una permutación de la semilla
+    static int[] repartirVehiculos(Escala escala) {
+        int n = escala.getEmpresas();
+        long total = (long) n * escala.getVehiculosPorEmpresa();
+        SplittableRandom rnd = new SplittableRandom(escala.getSemilla());
+        int[] orden = new int[n];
+        for (int i = 0; i < n; i++) {
+            orden[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = orden[i];
+            orden[i] = orden[j];
+            orden[j] = t;
+        }
+        double suma = 0;
+        for (int i = 1; i <= n; i++) {
+            suma += Math.pow(i, -EXPONENTE_TAMANO);
+        }
+        int[] vehiculos = new int[n];
+        for (int rango = 1; rango <= n; rango++) {
+            vehiculos[orden[rango - 1]] = (int) Math.max(1, Math.round(total * Math.pow(rango, -EXPONENTE_TAMANO) / suma));
+        }
+        return vehiculos;
+    }
+
+    // ObjectId determinista: instante (4) | tipo (1) | empresa (3) | secuencial (4)
+    static String id(Instant instante, int tipo, int empresa, long secuencial) {
+        ByteBuffer b = ByteBuffer.allocate(12);
+        b.putInt((int) instante.getEpochSecond());
+        b.putInt((tipo << 24) | (empresa & 0xFFFFFF));
+        b.putInt((int) secuencial);
+        return new ObjectId(b.array()).toHexString();
+    }
+
+    private static long semilla(long base, int empresa, int vehiculo) {
+        long h = base * 0x9E3779B97F4A7C15L + empresa;
+        h = h * 0xBF58476D1CE4E5B9L + vehiculo;
+        return h ^ (h >>> 31);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Generación de un bloque de vehículos
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private class Bloque {
+        final Escala escala;
+        final LocalDate referencia;
+        final Instant inicioHistoria;
+        final int empresa;
+        final int vehiculosEmpresa;
+        final int desde;
+        final int hasta;
+        final String hash;
+        final int conductores;
+        final String usuarioId;
+        final int ciudad;
+        final List<String[]> cercanas;
+        final Map<Class<?>, List<Document>> pendientes = new HashMap<>();
+
+        Bloque(Escala escala, LocalDate referencia, int empresa, int vehiculosEmpresa, int desde, int hasta, String hash) {
+            this.escala = escala;
+            this.referencia = referencia;
+            this.inicioHistoria = referencia.minusDays(escala.getDias()).atStartOfDay(ZoneOffset.UTC).toInstant();
+            this.empresa = empresa;
+            this.vehiculosEmpresa = vehiculosEmpresa;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.hash = hash;
+            this.conductores = (int) Math.max(1, Math.round(vehiculosEmpresa * escala.getConductoresPorVehiculo()));
+            this.usuarioId = id(inicioHistoria, ID_USUARIO, empresa, 0);
+            this.ciudad = new SplittableRandom(semilla(escala.getSemilla(), empresa, -1)).nextInt(CIUDADES.length);
+            String[] base = CIUDADES[ciudad];
+            double lat = Double.parseDouble(base[1]);
+            double lon = Double.parseDouble(base[2]);
+            this.cercanas = new ArrayList<>(List.of(CIUDADES));
+            cercanas.remove(base);
+            cercanas.sort(Comparator.comparingDouble(c -> GeoUtils.distanciaKm(lat, lon,
+                    Double.parseDouble(c[1]), Double.parseDouble(c[2]))));
+        }
+
+        void generar() {
+            if (cancelado.get()) {
+                return;
+            }
+            if (desde == 0) {
+                generarEmpresa();
+            }
+            for (int v = desde; v < hasta && !cancelado.get(); v++) {
+                generarVehiculo(v, new SplittableRandom(semilla(escala.getSemilla(), empresa, v)));
+            }
+            // insertMany va directo a la colección: la empresa en el contexto elige su base
+            ContextoEmpresa.ejecutarComo(usuarioId, () -> pendientes.keySet().forEach(this::volcar));
+            bloquesTerminados.incrementAndGet();
+        }
+
+        private void generarEmpresa() {
+            String dominio = String.format("empresa-%06d.sintetico.test", empresa);
+            Usuario admin = new Usuario();
+            admin.setId(usuarioId);
+            admin.setEmail("admin@" + dominio);
+            admin.setPassword(hash);
+            admin.setNombre("Admin " + empresa);
+            admin.setNombreEmpresa(String.format("Transportes Sintéticos %06d", empresa));
+            admin.setFechaRegistro(LocalDate.ofInstant(inicioHistoria, ZoneOffset.UTC).toString());
+            admin.setRole("ADMIN");
+            anadir(admin);
+
+            SplittableRandom rnd = new SplittableRandom(semilla(escala.getSemilla(), empresa, -2));
+            for (int c = 0; c < conductores; c++) {
+                Conductor conductor = new Conductor();
+                conductor.setId(id(inicioHistoria, ID_CONDUCTOR, empresa, c));
+                conductor.setEmail(String.format("conductor-%05d@%s", c, dominio));
+                conductor.setPassword(hash);
+                conductor.setNombre(NOMBRES[rnd.nextInt(NOMBRES.length)] + " " + APELLIDOS[rnd.nextInt(APELLIDOS.length)]
+                        + " " + APELLIDOS[rnd.nextInt(APELLIDOS.length)]);
+                conductor.setEmpresaId(usuarioId);
+                conductor.setNombreEmpresa(admin.getNombreEmpresa());
+                conductor.setFechaRegistro(admin.getFechaRegistro());
+                conductor.setActivo(rnd.nextDouble() < 0.95);
+                anadir(conductor);
+            }
+        }
+
+        private void generarVehiculo(int v, SplittableRandom rnd) {
+            String[] modelo = MODELOS[rnd.nextInt(MODELOS.length)];
+            String vehiculoId = id(inicioHistoria, ID_VEHICULO, empresa, v);
+            double km = 5_000 + rnd.nextDouble() * 145_000;
+            double kmInicial = km;
+
+            // Repostajes repartidos por la historia con el kilometraje creciente
+            long segundosHistoria = (long) escala.getDias() * 86_400;
+            int repostajes = modelo[2].equals("ELECTRICO") ? 0 : escala.getRepostajesPorVehiculo();
+            for (int i = 0; i < repostajes; i++) {
+                Instant instante = inicioHistoria.plusSeconds(segundosHistoria * i / Math.max(1, repostajes)
+                        + rnd.nextLong(Math.max(1, segundosHistoria / Math.max(1, repostajes))));
+                km += 300 + rnd.nextDouble() * 500;
+                Repostaje r = new Repostaje();
+                r.setId(id(instante, ID_REPOSTAJE, empresa, (long) v * repostajes + i));
+                r.setVehiculoId(vehiculoId);
+                r.setUsuarioId(usuarioId);
+                r.setFecha(LocalDateTime.ofInstant(instante, ZoneOffset.UTC));
+                r.setLitros(redondear(30 + rnd.nextDouble() * 40));
+                r.setPrecioPorLitro(redondear(1.45 + rnd.nextDouble() * 0.40));
+                r.setCosteTotal(redondear(r.getLitros() * r.getPrecioPorLitro()));
+                r.setKilometrajeActual(redondear(km));
+                anadir(r);
+            }
+
+            // Mantenimientos: preventivos cada cierto kilometraje y algún correctivo
+            int mantenimientos = escala.getMantenimientosPorVehiculo();
+            for (int i = 0; i < mantenimientos; i++) {
+                Instant instante = inicioHistoria.plusSeconds(rnd.nextLong(Math.max(1, segundosHistoria)));
+                LocalDate fecha = LocalDate.ofInstant(instante, ZoneOffset.UTC);
+                double kmMantenimiento = redondear(kmInicial + (km - kmInicial) * (instante.getEpochSecond()
+                        - inicioHistoria.getEpochSecond()) / (double) Math.max(1, segundosHistoria));
+                String taller = TALLERES[rnd.nextInt(TALLERES.length)];
+                List<Mantenimiento.Repuesto> repuestos = repuestos(rnd);
+                double costo = redondear(60 + rnd.nextDouble() * 600);
+                String mid = id(instante, ID_MANTENIMIENTO, empresa, (long) v * mantenimientos + i);
+                if (rnd.nextDouble() < 0.7) {
+                    MantenimientoPreventivo m = new MantenimientoPreventivo();
+                    m.setId(mid);
+                    m.setVehiculoId(vehiculoId);
+                    m.setUsuarioId(usuarioId);
+                    m.setDescripcion(PREVENTIVOS[rnd.nextInt(PREVENTIVOS.length)]);
+                    m.setFecha(fecha);
+                    m.setKilometrajeRealizado(kmMantenimiento);
+                    m.setCosto(costo);
+                    m.setTaller(taller(taller, rnd));
+                    m.setRepuestos(repuestos);
+                    m.setProximoMantenimiento(kmMantenimiento + 15_000);
+                    anadir(m);
+                } else {
+                    MantenimientoCorrectivo m = new MantenimientoCorrectivo();
+                    m.setId(mid);
+                    m.setVehiculoId(vehiculoId);
+                    m.setUsuarioId(usuarioId);
+                    m.setDescripcion(CORRECTIVOS[rnd.nextInt(CORRECTIVOS.length)]);
+                    m.setFecha(fecha);
+                    m.setKilometrajeRealizado(kmMantenimiento);
+                    m.setCosto(costo);
+                    m.setTaller(taller(taller, rnd));
+                    m.setRepuestos(repuestos);
+                    anadir(m);
+                }
+            }
+
+            for (int i = 0; i < escala.getRutasPorVehiculo(); i++) {
+                generarRuta(vehiculoId, (long) v * escala.getRutasPorVehiculo() + i, rnd);
+            }
+
+            Vehiculo vehiculo = new Vehiculo();
+            vehiculo.setId(vehiculoId);
+            vehiculo.setUsuarioId(usuarioId);
+            vehiculo.setMatricula(String.format("%04d-%s", rnd.nextInt(10_000), letras(rnd)));
+            vehiculo.setMarca(modelo[0]);
+            vehiculo.setModelo(modelo[1]);
+            vehiculo.setTipoCombustible(modelo[2]);
+            vehiculo.setKilometraje(redondear(km));
+            vehiculo.setCombustibleActual(redondear(10 + rnd.nextDouble() * 50));
+            vehiculo.setActivo(rnd.nextDouble() < 0.9);
+            anadir(vehiculo);
+        }
+
+        private void generarRuta(String vehiculoId, long secuencial, SplittableRandom rnd) {
+            // Días de la historia y la próxima semana; las pasadas están completadas
+            LocalDate fecha = referencia.minusDays(escala.getDias()).plusDays(rnd.nextInt(escala.getDias() + 8));
+            String estado = fecha.isBefore(referencia) ? "COMPLETADA"
+                    : fecha.isEqual(referencia) && rnd.nextDouble() < 0.6 ? "EN_CURSO" : "PLANIFICADA";
+            Instant salida = fecha.atStartOfDay(ZoneOffset.UTC).toInstant().plusSeconds(6 * 3600 + rnd.nextInt(9 * 3600));
+
+            String[] origen = CIUDADES[ciudad];
+            String[] destino = destino(rnd);
+            double latO = Double.parseDouble(origen[1]) + (rnd.nextDouble() - 0.5) * 0.1;
+            double lonO = Double.parseDouble(origen[2]) + (rnd.nextDouble() - 0.5) * 0.1;
+            double latD = Double.parseDouble(destino[1]) + (rnd.nextDouble() - 0.5) * 0.1;
+            double lonD = Double.parseDouble(destino[2]) + (rnd.nextDouble() - 0.5) * 0.1;
+            double distancia = redondear(GeoUtils.distanciaKm(latO, lonO, latD, lonD) * 1.25);
+
+            Ruta ruta = new Ruta();
+            String rutaId = id(salida.minusSeconds(3600), ID_RUTA, empresa, secuencial);
+            ruta.setId(rutaId);
+            ruta.setUsuarioId(usuarioId);
+            ruta.setOrigen(origen[0]);
+            ruta.setDestino(destino[0]);
+            ruta.setDistanciaEstimadaKm(distancia);
+            ruta.setVehiculoId(vehiculoId);
+            ruta.setConductorId(id(inicioHistoria, ID_CONDUCTOR, empresa, rnd.nextInt(conductores)));
+            ruta.setFecha(fecha);
+            ruta.setLatitudOrigen(latO);
+            ruta.setLongitudOrigen(lonO);
+            ruta.setLatitudDestino(latD);
+            ruta.setLongitudDestino(lonD);
+            ruta.setEstado("PLANIFICADA");
+            ruta.setDesviado(false);
+
+            long secEvento = secuencial * (escala.getFixesPorRuta() + 2L);
+            if (estado.equals("PLANIFICADA")) {
+                anadir(ruta);
+                return;
+            }
+            anadir(evento(rutaId, EventosRutaService.CREADA, eventosRuta.campos(ruta), salida.minusSeconds(3600), secEvento++));
+
+            // Fixes a lo largo de la recta con algo de ruido; las rutas en curso se quedan a medias
+            double velocidadMedia = 50 + rnd.nextDouble() * 40;
+            long duracion = (long) (distancia / velocidadMedia * 3600);
+            double avance = estado.equals("COMPLETADA") ? 1.0 : 0.2 + rnd.nextDouble() * 0.7;
+            int fixes = escala.getFixesPorRuta();
+            Instant ultimo = salida;
+            double lat = latO;
+            double lon = lonO;
+            double velocidad = 0;
+            for (int f = 1; f <= fixes; f++) {
+                double t = avance * f / fixes;
+                lat = latO + (latD - latO) * t + (rnd.nextDouble() - 0.5) * 0.002;
+                lon = lonO + (lonD - lonO) * t + (rnd.nextDouble() - 0.5) * 0.002;
+                velocidad = redondear(Math.max(0, velocidadMedia + (rnd.nextDouble() - 0.5) * 40));
+                ultimo = salida.plusSeconds((long) (duracion * t));
+                Map<String, Object> cambios = new LinkedHashMap<>();
+                cambios.put("latitudActual", lat);
+                cambios.put("longitudActual", lon);
+                cambios.put("ultimaActualizacionGPS", ultimo);
+                cambios.put("velocidadActualKmh", velocidad);
+                cambios.put("distanciaRestanteKm", redondear(distancia * (1 - t)));
+                if (f == 1) {
+                    cambios.put("estado", "EN_CURSO");
+                }
+                anadir(evento(rutaId, EventosRutaService.POSICION, cambios, ultimo, secEvento++));
+            }
+            ruta.setEstado(estado);
+            ruta.setLatitudActual(fixes > 0 ? lat : null);
+            ruta.setLongitudActual(fixes > 0 ? lon : null);
+            ruta.setUltimaActualizacionGPS(fixes > 0 ? ultimo : null);
+            ruta.setVelocidadActualKmh(fixes > 0 ? velocidad : null);
+            ruta.setDistanciaRestanteKm(redondear(distancia * (1 - avance)));
+            if (estado.equals("COMPLETADA")) {
+                Instant llegada = salida.plusSeconds(duracion + 60);
+                ruta.setFechaCompletada(llegada);
+                anadir(evento(rutaId, EventosRutaService.ESTADO, Map.of("estado", estado, "fechaCompletada", llegada), llegada, secEvento));
+            }
+            anadir(ruta);
+
+            // Chat durante la ruta
+            int mensajes = escala.getMensajesPorRuta();
+            for (int m = 0; m < mensajes; m++) {
+                boolean delAdmin = rnd.nextBoolean();
+                Mensaje mensaje = new Mensaje();
+                Instant instante = salida.plusSeconds((long) (duracion * avance * m / Math.max(1, mensajes)));
+                mensaje.setId(id(instante, ID_MENSAJE, empresa, secuencial * mensajes + m));
+                mensaje.setUsuarioId(usuarioId);
+                mensaje.setRutaId(rutaId);
+                mensaje.setRemitente(delAdmin ? "ADMIN" : "CONDUCTOR");
+                String[] textos = delAdmin ? MENSAJES_ADMIN : MENSAJES_CONDUCTOR;
+                mensaje.setContenido(textos[rnd.nextInt(textos.length)]);
+                mensaje.setTimestamp(LocalDateTime.ofInstant(instante, ZoneOffset.UTC));
+                anadir(mensaje);
+            }
+        }
+
+        private EventoRuta evento(String rutaId, String tipo, Map<String, Object> cambios, Instant instante, long secuencial) {
+            EventoRuta evento = new EventoRuta();
+            evento.setId(id(instante, ID_EVENTO, empresa, secuencial));
+            evento.setRutaId(rutaId);
+            evento.setUsuarioId(usuarioId);
+            evento.setTipo(tipo);
+            evento.setCambios(cambios);
+            evento.setInstante(instante);
+            return evento;
+        }
+
+        // Una de las tres ciudades más cercanas a la base de la empresa, o reparto local
+        private String[] destino(SplittableRandom rnd) {
+            String[] base = CIUDADES[ciudad];
+            if (rnd.nextDouble() < 0.5) {
+                return new String[]{"Polígono " + (1 + rnd.nextInt(20)) + ", " + base[0], base[1], base[2]};
+            }
+            return cercanas.get(rnd.nextInt(3));
+        }
+
+        private void anadir(Object entidad) {
+            Document documento = new Document();
+            mongoTemplate.getConverter().write(entidad, documento);
+            List<Document> lista = pendientes.computeIfAbsent(entidad.getClass(), k -> new ArrayList<>(tamanoLote));
+            lista.add(documento);
+            if (lista.size() >= tamanoLote) {
+                ContextoEmpresa.ejecutarComo(usuarioId, () -> volcar(entidad.getClass()));
+            }
+        }
+
+        private void volcar(Class<?> clase) {
+            List<Document> lista = pendientes.get(clase);
+            if (lista == null || lista.isEmpty()) {
+                return;
+            }
+            String coleccion = mongoTemplate.getCollectionName(clase);
+            long nuevos = lista.size();
+            try {
+                mongoTemplate.getCollection(coleccion).insertMany(lista, new InsertManyOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                // Repetir una generación con la misma semilla solo añade lo que falta
+                for (BulkWriteError err : e.getWriteErrors()) {
+                    if (err.getCode() != 11000) {
+                        throw e;
+                    }
+                }
+                nuevos -= e.getWriteErrors().size();
+                duplicados.addAndGet(e.getWriteErrors().size());
+            }
+            insertados.computeIfAbsent(coleccion, k -> new AtomicLong()).addAndGet(nuevos);
+            lista.clear();
+        }
+    }
+
+    private static List<Mantenimiento.Repuesto> repuestos(SplittableRandom rnd) {
+        List<Mantenimiento.Repuesto> repuestos = new ArrayList<>();
+        int n = rnd.nextInt(4);
+        for (int i = 0; i < n; i++) {
+            Mantenimiento.Repuesto r = new Mantenimiento.Repuesto();
+            r.setNombre(REPUESTOS[rnd.nextInt(REPUESTOS.length)]);
+            r.setCantidad(1 + rnd.nextInt(4));
+            r.setCostoUnitario(redondear(5 + rnd.nextDouble() * 150));
+            repuestos.add(r);
+        }
+        return repuestos;
+    }
+
+    private static Mantenimiento.Taller taller(String nombre, SplittableRandom rnd) {
+        Mantenimiento.Taller t = new Mantenimiento.Taller();
+        t.setNombre(nombre);
+        t.setDireccion("Calle " + APELLIDOS[rnd.nextInt(APELLIDOS.length)] + " " + (1 + rnd.nextInt(200)));
+        t.setTelefono(String.format("9%08d", rnd.nextInt(100_000_000)));
+        return t;
+    }
+
+    private static String letras(SplittableRandom rnd) {
+        String consonantes = "BCDFGHJKLMNPRSTVWXYZ";
+        StringBuilder sb = new StringBuilder(3);
+        for (int i = 0; i < 3; i++) {
+            sb.append(consonantes.charAt(rnd.nextInt(consonantes.length())));
+        }
+        return sb.toString();
+    }
+
+    private static double redondear(double valor) {
+        return Math.round(valor * 100) / 100.0;
+    }
+
+    private Map<String, Long> totales() {
+        Map<String, Long> totales = new LinkedHashMap<>();
+        insertados.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> totales.put(e.getKey(), e.getValue().get()));
+        return totales;
+    }
+
+    public Map<String, Object> estado() {
+        Map<String, Object> estado = new LinkedHashMap<>();
+        estado.put("habilitado", habilitado);
+        estado.put("enCurso", enCurso.get());
+        estado.put("cancelado", cancelado.get());
+        estado.put("escala", escalaActual);
+        estado.put("bloques", bloquesTerminados.get() + "/" + bloquesTotales);
+        Map<String, Long> totales = totales();
+        estado.put("insertados", totales);
+        estado.put("duplicados", duplicados.get());
+        long ms = enCurso.get() ? (System.nanoTime() - inicioNanos) / 1_000_000 : duracionMs;
+        long documentos = totales.values().stream().mapToLong(Long::longValue).sum();
+        estado.put("duracionMs", ms);
+        estado.put("documentosPorSegundo", ms > 0 ? documentos * 1000 / ms : 0);
+        estado.put("error", error);
+        return estado;
+    }
+}
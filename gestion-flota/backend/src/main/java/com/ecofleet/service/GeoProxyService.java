@@ -0,0 +1,159 @@
+package com.ecofleet.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Proxy de geocodificación y enrutado con caché persistente.
+ *
+ * Las claves se normalizan (consulta en minúsculas, sin tildes ni espacios repetidos;
+ * coordenadas redondeadas) para que búsquedas equivalentes compartan entrada. Si llegan
+ * varias peticiones idénticas a la vez, solo la primera consulta al proveedor y el
+ * resto espera su resultado.
+ *
+ * Las rutas desde la posición en vivo de un vehículo cambian de origen a cada paso: se
+ * redondean más gruesas (ecofleet.geo.decimales-en-vivo) y se quedan solo en memoria,
+ * para no llenar el disco de entradas que no se volverán a pedir.
+ */
+@Service
+public class GeoProxyService {
+
+    @Autowired
+    private ProveedorGeo proveedor;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${ecofleet.geo.cache-memoria:10000}")
+    private int entradasEnMemoria;
+
+    @Value("${ecofleet.geo.cache-dir:geo-cache}")
+    private String directorioCache;
+
+    @Value("${ecofleet.geo.ttl-horas:720}")
+    private long ttlHoras;
+
+    // Decimales al redondear coordenadas de rutas (4 ≈ 11 m)
+    @Value("${ecofleet.geo.decimales-ruta:4}")
+    private int decimalesRuta;
+
+    // 3 ≈ 110 m: el vehículo en marcha reutiliza la misma ruta mientras no salga de la celda
+    @Value("${ecofleet.geo.decimales-en-vivo:3}")
+    private int decimalesEnVivo;
+
+    @Value("${ecofleet.geo.cache-memoria-mb:64}")
+    private long megasMemoria;
+
+    @Value("${ecofleet.geo.cache-disco-mb:512}")
+    private long megasDisco;
+
+    private CacheGeo cache;
+
+    private final ConcurrentHashMap<String, CompletableFuture<String>> enCurso = new ConcurrentHashMap<>();
+
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong coalescidas = new AtomicLong();
+
+    @PostConstruct
+    void iniciar() {
+        cache = new CacheGeo(entradasEnMemoria, megasMemoria * 1024 * 1024, Paths.get(directorioCache),
+                megasDisco * 1024 * 1024, Duration.ofHours(ttlHoras));
+        registry.more().counter("ecofleet.geo.cache", List.of(Tag.of("resultado", "acierto")), aciertos);
+        registry.more().counter("ecofleet.geo.cache", List.of(Tag.of("resultado", "fallo")), fallos);
+        registry.more().counter("ecofleet.geo.cache", List.of(Tag.of("resultado", "coalescida")), coalescidas);
+    }
+
+    public String geocodificar(String consulta, int limite, String paises) {
+        String normalizada = normalizarConsulta(consulta);
+        String codigos = paises != null ? paises.trim().toLowerCase(Locale.ROOT) : null;
+        String clave = "geocode|" + normalizada + "|" + limite + "|" + codigos;
+        return obtener(clave, () -> proveedor.geocodificar(normalizada, limite, codigos));
+    }
+
+    public String calcularRuta(double latOrigen, double lonOrigen, double latDestino, double lonDestino, boolean enVivo) {
+        int decimalesOrigen = enVivo ? decimalesEnVivo : decimalesRuta;
+        double la1 = redondear(latOrigen, decimalesOrigen), lo1 = redondear(lonOrigen, decimalesOrigen);
+        double la2 = redondear(latDestino, decimalesRuta), lo2 = redondear(lonDestino, decimalesRuta);
+        String clave = (enVivo ? "route-vivo|" : "route|") + la1 + "," + lo1 + "|" + la2 + "," + lo2;
+        return obtener(clave, () -> proveedor.calcularRuta(la1, lo1, la2, lo2), !enVivo);
+    }
+
+    public Map<String, Long> estadisticas() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("aciertos", aciertos.get());
+        stats.put("fallos", fallos.get());
+        stats.put("coalescidas", coalescidas.get());
+        stats.putAll(cache.estadisticas());
+        return stats;
+    }
+
+    private String obtener(String clave, Supplier<String> cargador) {
+        return obtener(clave, cargador, true);
+    }
+
+    private String obtener(String clave, Supplier<String> cargador, boolean persistir) {
+        String valor = cache.obtener(clave);
+        if (valor != null) {
+            aciertos.incrementAndGet();
+            return valor;
+        }
+
+        CompletableFuture<String> propio = new CompletableFuture<>();
+        CompletableFuture<String> existente = enCurso.putIfAbsent(clave, propio);
+        if (existente != null) {
+            coalescidas.incrementAndGet();
+            try {
+                return existente.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        try {
+            // Otra petición pudo terminar entre la consulta a la caché y el registro
+            valor = cache.obtener(clave);
+            if (valor == null) {
+                fallos.incrementAndGet();
+                valor = cargador.get();
+                cache.guardar(clave, valor, persistir);
+            } else {
+                aciertos.incrementAndGet();
+            }
+            propio.complete(valor);
+            return valor;
+        } catch (RuntimeException e) {
+            propio.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(clave, propio);
+        }
+    }
+
+    static String normalizarConsulta(String consulta) {
+        String sinTildes = Normalizer.normalize(consulta, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return sinTildes.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+
+    private static double redondear(double valor, int decimales) {
+        double factor = Math.pow(10, decimales);
+        return Math.round(valor * factor) / factor;
+    }
+}
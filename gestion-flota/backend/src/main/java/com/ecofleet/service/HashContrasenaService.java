@@ -0,0 +1,219 @@
+package com.ecofleet.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Ejecutor aislado y acotado para BCrypt.
+ *
+ * Hashear o verificar una contraseña cuesta decenas de ms de CPU; si se hace en los hilos
+ * de Tomcat, una avalancha de logins en el cambio de turno deja sin hilos al GPS y al
+ * dashboard. Aquí se ejecuta en un pool propio con cola limitada: si la cola está llena,
+ * la petición lleva demasiado esperando o el mismo email tiene otra operación en curso o
+ * demasiados intentos recientes, se rechaza enseguida con RechazoHashException.
+ */
+@Service
+public class HashContrasenaService {
+
+    private static final long VENTANA_INTENTOS_MS = 60_000;
+    private static final int LIMPIAR_INTENTOS_CADA = 10_000;
+
+    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${ecofleet.auth.hilos:0}")
+    private int hilos;
+
+    @Value("${ecofleet.auth.cola:64}")
+    private int capacidadCola;
+
+    // Tiempo máximo en cola: pasado este tiempo el cliente ya habrá desistido
+    @Value("${ecofleet.auth.espera-maxima-ms:3000}")
+    private long esperaMaximaMs;
+
+    @Value("${ecofleet.auth.intentos-por-minuto:10}")
+    private int intentosPorMinuto;
+
+    private ThreadPoolExecutor executor;
+    private Timer timerEspera;
+    private Timer timerHash;
+
+    // Operaciones en curso por email (como mucho una a la vez)
+    private final ConcurrentHashMap<String, Boolean> emailsEnCurso = new ConcurrentHashMap<>();
+    // Intentos por email en la ventana actual: [inicio de ventana, contador]
+    private final ConcurrentHashMap<String, long[]> intentos = new ConcurrentHashMap<>();
+
+    private final AtomicLong operaciones = new AtomicLong();
+    private final AtomicLong rechazadasCola = new AtomicLong();
+    private final AtomicLong rechazadasEspera = new AtomicLong();
+    private final AtomicLong rechazadasEmail = new AtomicLong();
+    private final AtomicLong nanosEnCola = new AtomicLong();
+    private final AtomicLong nanosHash = new AtomicLong();
+    private final AtomicLong maxNanosEnCola = new AtomicLong();
+    private final AtomicLong maxNanosHash = new AtomicLong();
+
+    @PostConstruct
+    void iniciar() {
+        int numHilos = hilos > 0 ? hilos : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger contador = new AtomicInteger();
+        ThreadFactory fabrica = r -> {
+            Thread t = new Thread(r, "bcrypt-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        executor = new ThreadPoolExecutor(numHilos, numHilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacidadCola), fabrica, new ThreadPoolExecutor.AbortPolicy());
+
+        timerEspera = Timer.builder("ecofleet.auth.hash.espera")
+                .description("Tiempo en cola del ejecutor de BCrypt")
+                .publishPercentileHistogram()
+                .register(registry);
+        timerHash = Timer.builder("ecofleet.auth.hash.duracion")
+                .description("Tiempo de CPU de BCrypt (hash o verificación)")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("ecofleet.auth.hash.cola", executor, e -> e.getQueue().size()).register(registry);
+        registry.more().counter("ecofleet.auth.hash.rechazos", List.of(Tag.of("motivo", "cola")), rechazadasCola);
+        registry.more().counter("ecofleet.auth.hash.rechazos", List.of(Tag.of("motivo", "espera")), rechazadasEspera);
+        registry.more().counter("ecofleet.auth.hash.rechazos", List.of(Tag.of("motivo", "email")), rechazadasEmail);
+    }
+
+    @PreDestroy
+    void detener() {
+        executor.shutdownNow();
+    }
+
+    public CompletableFuture<String> codificar(String email, String password) {
+        return ejecutar(email, () -> passwordEncoder.encode(password));
+    }
+
+    public CompletableFuture<Boolean> verificar(String email, String password, String hash) {
+        return ejecutar(email, () -> passwordEncoder.matches(password, hash));
+    }
+
+    private <T> CompletableFuture<T> ejecutar(String email, Supplier<T> operacion) {
+        String clave = email.trim().toLowerCase(Locale.ROOT);
+        registrarIntento(clave);
+        if (emailsEnCurso.putIfAbsent(clave, Boolean.TRUE) != null) {
+            rechazadasEmail.incrementAndGet();
+            throw new RechazoHashException(true, "Ya hay una operación en curso para este email");
+        }
+
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        long encolado = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long inicio = System.nanoTime();
+                long espera = inicio - encolado;
+                try {
+                    if (espera > TimeUnit.MILLISECONDS.toNanos(esperaMaximaMs)) {
+                        rechazadasEspera.incrementAndGet();
+                        resultado.completeExceptionally(new RechazoHashException(false, "Servicio de autenticación saturado"));
+                        return;
+                    }
+                    T valor = operacion.get();
+                    long duracion = System.nanoTime() - inicio;
+                    operaciones.incrementAndGet();
+                    acumular(nanosEnCola, maxNanosEnCola, espera);
+                    acumular(nanosHash, maxNanosHash, duracion);
+                    timerEspera.record(espera, TimeUnit.NANOSECONDS);
+                    timerHash.record(duracion, TimeUnit.NANOSECONDS);
+                    resultado.complete(valor);
+                } catch (RuntimeException e) {
+                    resultado.completeExceptionally(e);
+                } finally {
+                    emailsEnCurso.remove(clave);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            emailsEnCurso.remove(clave);
+            rechazadasCola.incrementAndGet();
+            throw new RechazoHashException(false, "Servicio de autenticación saturado");
+        }
+        return resultado;
+    }
+
+    // Ventana fija por email; se rechaza antes de gastar CPU en BCrypt
+    private void registrarIntento(String clave) {
+        long ahora = System.currentTimeMillis();
+        if (intentos.size() > LIMPIAR_INTENTOS_CADA) {
+            intentos.values().removeIf(v -> ahora - v[0] > VENTANA_INTENTOS_MS);
+        }
+        long[] ventana = intentos.compute(clave, (k, v) -> {
+            if (v == null || ahora - v[0] > VENTANA_INTENTOS_MS) {
+                return new long[]{ahora, 1};
+            }
+            v[1]++;
+            return v;
+        });
+        if (ventana[1] > intentosPorMinuto) {
+            rechazadasEmail.incrementAndGet();
+            throw new RechazoHashException(true, "Demasiados intentos. Espera un minuto.");
+        }
+    }
+
+    private static void acumular(AtomicLong total, AtomicLong maximo, long valor) {
+        total.addAndGet(valor);
+        maximo.accumulateAndGet(valor, Math::max);
+    }
+
+    public Map<String, Object> estadisticas() {
+        long n = Math.max(1, operaciones.get());
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("operaciones", operaciones.get());
+        stats.put("enCola", executor.getQueue().size());
+        stats.put("activas", executor.getActiveCount());
+        stats.put("rechazadasColaLlena", rechazadasCola.get());
+        stats.put("rechazadasEsperaExcedida", rechazadasEspera.get());
+        stats.put("rechazadasPorEmail", rechazadasEmail.get());
+        stats.put("esperaMediaMs", nanosEnCola.get() / n / 1_000_000.0);
+        stats.put("esperaMaximaMs", maxNanosEnCola.get() / 1_000_000.0);
+        stats.put("hashMedioMs", nanosHash.get() / n / 1_000_000.0);
+        stats.put("hashMaximoMs", maxNanosHash.get() / 1_000_000.0);
+        return stats;
+    }
+
+    /**
+     * Rechazo temprano de una operación de contraseña. porEmail distingue la limitación
+     * de un email concreto (429) de la saturación general del servicio (503).
+     */
+    public static class RechazoHashException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean porEmail;
+
+        public RechazoHashException(boolean porEmail, String mensaje) {
+            super(mensaje);
+            this.porEmail = porEmail;
+        }
+
+        public boolean isPorEmail() {
+            return porEmail;
+        }
+    }
+}
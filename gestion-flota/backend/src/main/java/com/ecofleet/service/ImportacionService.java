@@ -0,0 +1,256 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.Repostaje;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.util.Csv;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Importación masiva de vehículos y repostajes desde CSV o NDJSON.
+ *
+ * El cuerpo se lee línea a línea y las filas válidas se insertan en lotes con una
+ * bulk write desordenada: un documento que falla no detiene al resto del lote. Los
+ * errores (de parseo, de validación o de Mongo) se devuelven por número de línea.
+ */
+@Service
+public class ImportacionService {
+
+    public static final Set<String> COLECCIONES = Set.of("vehiculos", "repostajes");
+
+    private static final int MAX_ERRORES_DEVUELTOS = 1000;
+
+    @Value("${ecofleet.importacion.tamano-lote:1000}")
+    private int tamanoLote;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private InformeCostesService informeCostesService;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    public ResultadoImportacion importar(String coleccion, String usuarioId, String formato, InputStream entrada) throws IOException {
+        ResultadoImportacion resultado = new ResultadoImportacion();
+        long inicio = System.nanoTime();
+        Set<String> vehiculosEmpresa = "repostajes".equals(coleccion) ? vehiculosDe(usuarioId) : Set.of();
+        Class<?> tipo = "vehiculos".equals(coleccion) ? Vehiculo.class : Repostaje.class;
+
+        BufferedReader lector = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8), 64 * 1024);
+        List<String> cabecera = null;
+        List<Object> lote = new ArrayList<>(tamanoLote);
+        List<Integer> lineasLote = new ArrayList<>(tamanoLote);
+        String linea;
+        int numLinea = 0;
+
+        while ((linea = lector.readLine()) != null) {
+            numLinea++;
+            if (linea.isBlank()) {
+                continue;
+            }
+            if (ExportacionService.CSV.equals(formato) && cabecera == null) {
+                cabecera = Csv.parsearLinea(linea.strip());
+                continue;
+            }
+            resultado.procesadas++;
+            try {
+                Object documento = ExportacionService.CSV.equals(formato)
+                        ? desdeCsv(coleccion, cabecera, linea)
+                        : objectMapper.readValue(linea, tipo);
+                if (documento instanceof Vehiculo v) {
+                    prepararVehiculo(v, usuarioId);
+                } else {
+                    prepararRepostaje((Repostaje) documento, usuarioId, vehiculosEmpresa);
+                }
+                lote.add(documento);
+                lineasLote.add(numLinea);
+            } catch (JsonProcessingException e) {
+                resultado.error(numLinea, "JSON inválido: " + e.getOriginalMessage());
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                resultado.error(numLinea, e.getMessage());
+            }
+            if (lote.size() >= tamanoLote) {
+                insertarLote(tipo, usuarioId, lote, lineasLote, resultado);
+            }
+        }
+        if (!lote.isEmpty()) {
+            insertarLote(tipo, usuarioId, lote, lineasLote, resultado);
+        }
+        if (tipo == Vehiculo.class && resultado.insertadas > 0) {
+            difusion.vehiculosImportados(usuarioId);
+        }
+        resultado.duracionMs = (System.nanoTime() - inicio) / 1_000_000;
+        return resultado;
+    }
+
+    private void insertarLote(Class<?> tipo, String usuarioId, List<Object> lote, List<Integer> lineasLote,
+                              ResultadoImportacion resultado) {
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, tipo);
+        ops.insert(lote);
+        Set<Integer> fallidos = new HashSet<>();
+        try {
+            resultado.insertadas += ops.execute().getInsertedCount();
+        } catch (BulkOperationException e) {
+            resultado.insertadas += e.getResult().getInsertedCount();
+            for (BulkWriteError error : e.getErrors()) {
+                fallidos.add(error.getIndex());
+                resultado.error(lineasLote.get(error.getIndex()), error.getMessage());
+            }
+        }
+        if (tipo == Repostaje.class) {
+            List<Repostaje> insertados = new ArrayList<>(lote.size());
+            for (int i = 0; i < lote.size(); i++) {
+                if (!fallidos.contains(i)) insertados.add((Repostaje) lote.get(i));
+            }
+            informeCostesService.registrarRepostajes(usuarioId, insertados);
+        }
+        resultado.lotes++;
+        lote.clear();
+        lineasLote.clear();
+    }
+
+    private void prepararVehiculo(Vehiculo v, String usuarioId) {
+        if (v.getMatricula() == null || v.getMatricula().isBlank()) {
+            throw new IllegalArgumentException("Falta la matrícula");
+        }
+        // Los ids los genera Mongo: un id importado podría pisar documentos de otra empresa
+        v.setId(null);
+        v.setUsuarioId(usuarioId);
+        if (v.getActivo() == null) {
+            v.setActivo(true);
+        }
+    }
+
+    private void prepararRepostaje(Repostaje r, String usuarioId, Set<String> vehiculosEmpresa) {
+        if (r.getVehiculoId() == null || !vehiculosEmpresa.contains(r.getVehiculoId())) {
+            throw new IllegalArgumentException("El vehículo " + r.getVehiculoId() + " no existe o no es de la empresa");
+        }
+        if (r.getLitros() == null || r.getLitros() <= 0) {
+            throw new IllegalArgumentException("Litros inválidos");
+        }
+        r.setId(null);
+        r.setUsuarioId(usuarioId);
+        if (r.getFecha() == null) {
+            r.setFecha(LocalDateTime.now());
+        }
+        if (r.getCosteTotal() == null && r.getPrecioPorLitro() != null) {
+            r.setCosteTotal(r.getLitros() * r.getPrecioPorLitro());
+        }
+    }
+
+    // Mismas columnas que la exportación CSV; las que falten se dejan a null
+    private Object desdeCsv(String coleccion, List<String> cabecera, String linea) {
+        List<String> campos = Csv.parsearLinea(linea);
+        if (campos.size() != cabecera.size()) {
+            throw new IllegalArgumentException("Se esperaban " + cabecera.size() + " columnas y hay " + campos.size());
+        }
+        Map<String, String> fila = new HashMap<>();
+        for (int i = 0; i < cabecera.size(); i++) {
+            String valor = campos.get(i).strip();
+            fila.put(cabecera.get(i), valor.isEmpty() ? null : valor);
+        }
+        if ("vehiculos".equals(coleccion)) {
+            Vehiculo v = new Vehiculo();
+            v.setMatricula(fila.get("matricula"));
+            v.setMarca(fila.get("marca"));
+            v.setModelo(fila.get("modelo"));
+            v.setKilometraje(numero(fila, "kilometraje"));
+            v.setCombustibleActual(numero(fila, "combustibleActual"));
+            v.setTipoCombustible(fila.get("tipoCombustible"));
+            v.setActivo(fila.get("activo") != null ? Boolean.valueOf(fila.get("activo")) : null);
+            return v;
+        }
+        Repostaje r = new Repostaje();
+        r.setVehiculoId(fila.get("vehiculoId"));
+        r.setFecha(fecha(fila.get("fecha")));
+        r.setLitros(numero(fila, "litros"));
+        r.setPrecioPorLitro(numero(fila, "precioPorLitro"));
+        r.setCosteTotal(numero(fila, "costeTotal"));
+        r.setKilometrajeActual(numero(fila, "kilometrajeActual"));
+        return r;
+    }
+
+    private static Double numero(Map<String, String> fila, String columna) {
+        String valor = fila.get(columna);
+        if (valor == null) {
+            return null;
+        }
+        try {
+            return Double.valueOf(valor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor numérico inválido en " + columna + ": " + valor);
+        }
+    }
+
+    // Acepta fecha-hora ISO o solo la fecha
+    private static LocalDateTime fecha(String valor) {
+        if (valor == null) {
+            return null;
+        }
+        return valor.length() <= 10 ? LocalDate.parse(valor).atStartOfDay() : LocalDateTime.parse(valor);
+    }
+
+    private Set<String> vehiculosDe(String usuarioId) {
+        Query soloIds = new Query(Criteria.where("usuarioId").is(usuarioId));
+        soloIds.fields().include("_id");
+        return mongoTemplate.find(soloIds, Vehiculo.class).stream()
+                .map(Vehiculo::getId)
+                .collect(Collectors.toSet());
+    }
+
+    @Data
+    public static class ResultadoImportacion {
+        private long procesadas;
+        private long insertadas;
+        private long erroresTotales;
+        private long lotes;
+        private long duracionMs;
+        private List<ErrorFila> errores = new ArrayList<>();
+
+        void error(int linea, String mensaje) {
+            erroresTotales++;
+            if (errores.size() < MAX_ERRORES_DEVUELTOS) {
+                errores.add(new ErrorFila(linea, mensaje));
+            }
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class ErrorFila {
+        private int linea;
+        private String mensaje;
+    }
+}
@@ -0,0 +1,215 @@
+package com.ecofleet.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Índice de búsqueda por prefijo de las entidades de una empresa.
+ *
+ * Cada texto se normaliza (minúsculas, sin tildes) y se parte en palabras. De cada palabra
+ * se indexan sus prefijos hasta MAX_PREFIJO caracteres (edge n-grams), así que buscar una
+ * palabra empezada es una sola consulta a un HashMap. De la matrícula se indexan además
+ * todos sus sufijos sin separadores, para encontrarla por cualquier trozo ("34AB" en
+ * "1234-ABC"). Una consulta con varias palabras exige que todas casen con alguna palabra
+ * de la entidad: se recorre la lista de candidatos más corta y se comprueba el resto.
+ *
+ * Las listas están ordenadas por longitud del título, así que el recorrido se corta al
+ * llegar al límite aunque el prefijo sea de una letra y case con toda la flota. Primero
+ * se recorren las entidades con la palabra entera y después las que solo la empiezan.
+ *
+ * Las operaciones van bajo el monitor del índice (uno por empresa).
+ */
+class IndiceBusqueda {
+
+    static final int MAX_PREFIJO = 12;
+    private static final Pattern SEPARADORES = Pattern.compile("[^a-z0-9]+");
+    private static final Pattern DIACRITICOS = Pattern.compile("\\p{M}+");
+
+    // Entidad indexada; los textos originales se guardan para ver si un cambio la afecta
+    static final class Entrada {
+        final String clave;
+        final String tipo;
+        final String id;
+        final String titulo;
+        final String subtitulo;
+        final List<String> textos;
+        final Set<String> palabras;
+
+        Entrada(String clave, String tipo, String id, String titulo, String subtitulo, List<String> textos, Set<String> palabras) {
+            this.clave = clave;
+            this.tipo = tipo;
+            this.id = id;
+            this.titulo = titulo;
+            this.subtitulo = subtitulo;
+            this.textos = textos;
+            this.palabras = palabras;
+        }
+    }
+
+    // Títulos cortos primero: "Luis" antes que "Luisa Fernández" al escribir "lu"
+    private static final Comparator<Entrada> ORDEN = Comparator
+            .<Entrada>comparingInt(e -> e.titulo != null ? e.titulo.length() : 0)
+            .thenComparing(e -> e.clave);
+
+    private final Map<String, Entrada> entradas = new HashMap<>(); // tipo:id → entrada
+    private final Map<String, NavigableSet<Entrada>> porPrefijo = new HashMap<>();
+    private final Map<String, NavigableSet<Entrada>> porPalabra = new HashMap<>();
+
+    /**
+     * Indexa o reindexa una entidad. textos son los campos buscables y sufijos los que se
+     * indexan también por sufijo (matrículas). Devuelve false si no cambia nada.
+     */
+    synchronized boolean poner(String tipo, String id, String titulo, String subtitulo, List<String> textos, List<String> sufijos) {
+        String clave = tipo + ":" + id;
+        Entrada anterior = entradas.get(clave);
+        List<String> todos = new ArrayList<>(textos);
+        todos.addAll(sufijos);
+        if (anterior != null && anterior.textos.equals(todos)) {
+            return false;
+        }
+        if (anterior != null) {
+            desindexar(anterior);
+        }
+        Set<String> palabras = new LinkedHashSet<>();
+        for (String texto : textos) {
+            palabras.addAll(palabras(texto));
+        }
+        for (String texto : sufijos) {
+            String compacto = String.join("", palabras(texto));
+            for (int i = 0; i < compacto.length(); i++) {
+                palabras.add(compacto.substring(i));
+            }
+        }
+        Entrada entrada = new Entrada(clave, tipo, id, titulo, subtitulo, todos, palabras);
+        entradas.put(clave, entrada);
+        for (String palabra : palabras) {
+            porPalabra.computeIfAbsent(palabra, k -> new TreeSet<>(ORDEN)).add(entrada);
+            int hasta = Math.min(palabra.length(), MAX_PREFIJO);
+            for (int i = 1; i <= hasta; i++) {
+                porPrefijo.computeIfAbsent(palabra.substring(0, i), k -> new TreeSet<>(ORDEN)).add(entrada);
+            }
+        }
+        return true;
+    }
+
+    synchronized boolean quitar(String tipo, String id) {
+        Entrada anterior = entradas.remove(tipo + ":" + id);
+        if (anterior == null) {
+            return false;
+        }
+        desindexar(anterior);
+        return true;
+    }
+
+    private void desindexar(Entrada entrada) {
+        for (String palabra : entrada.palabras) {
+            retirar(porPalabra, palabra, entrada);
+            int hasta = Math.min(palabra.length(), MAX_PREFIJO);
+            for (int i = 1; i <= hasta; i++) {
+                retirar(porPrefijo, palabra.substring(0, i), entrada);
+            }
+        }
+    }
+
+    private static void retirar(Map<String, NavigableSet<Entrada>> mapa, String clave, Entrada entrada) {
+        Set<Entrada> conjunto = mapa.get(clave);
+        if (conjunto != null && conjunto.remove(entrada) && conjunto.isEmpty()) {
+            mapa.remove(clave);
+        }
+    }
+
+    synchronized int tamano() {
+        return entradas.size();
+    }
+
+    synchronized int prefijos() {
+        return porPrefijo.size();
+    }
+
+    /**
+     * Hasta "limite" entidades que casan con todas las palabras de la consulta: primero las
+     * que tienen entera la palabra de la consulta con menos candidatos, luego el resto, y
+     * dentro de cada grupo las de título más corto.
+     */
+    synchronized List<Entrada> buscar(String consulta, int limite) {
+        List<String> terminos = palabras(consulta);
+        if (terminos.isEmpty()) {
+            return List.of();
+        }
+        List<Set<Entrada>> listas = new ArrayList<>(terminos.size());
+        int menor = 0;
+        for (int i = 0; i < terminos.size(); i++) {
+            String termino = terminos.get(i);
+            Set<Entrada> lista = porPrefijo.get(termino.length() > MAX_PREFIJO ? termino.substring(0, MAX_PREFIJO) : termino);
+            if (lista == null) {
+                return List.of();
+            }
+            listas.add(lista);
+            if (lista.size() < listas.get(menor).size()) {
+                menor = i;
+            }
+        }
+        Set<Entrada> resultado = new LinkedHashSet<>();
+        Set<Entrada> exactas = porPalabra.get(terminos.get(menor));
+        if (exactas != null) {
+            recorrer(exactas, terminos, listas, limite, resultado);
+        }
+        recorrer(listas.get(menor), terminos, listas, limite, resultado);
+        return new ArrayList<>(resultado);
+    }
+
+    private static void recorrer(Set<Entrada> candidatas, List<String> terminos, List<Set<Entrada>> listas,
+                                 int limite, Set<Entrada> resultado) {
+        for (Entrada entrada : candidatas) {
+            if (resultado.size() >= limite) {
+                return;
+            }
+            if (!resultado.contains(entrada) && casaTodos(entrada, terminos, listas)) {
+                resultado.add(entrada);
+            }
+        }
+    }
+
+    private static boolean casaTodos(Entrada entrada, List<String> terminos, List<Set<Entrada>> listas) {
+        for (int i = 0; i < terminos.size(); i++) {
+            String termino = terminos.get(i);
+            boolean casa = termino.length() > MAX_PREFIJO ? empiezaAlguna(entrada, termino) : listas.get(i).contains(entrada);
+            if (!casa) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean empiezaAlguna(Entrada entrada, String termino) {
+        for (String palabra : entrada.palabras) {
+            if (palabra.startsWith(termino)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<String> palabras(String texto) {
+        if (texto == null || texto.isBlank()) {
+            return List.of();
+        }
+        String normalizado = DIACRITICOS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("").toLowerCase();
+        List<String> palabras = new ArrayList<>();
+        for (String palabra : SEPARADORES.split(normalizado)) {
+            if (!palabra.isEmpty()) {
+                palabras.add(palabra);
+            }
+        }
+        return palabras;
+    }
+}
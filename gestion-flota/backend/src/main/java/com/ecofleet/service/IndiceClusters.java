@@ -0,0 +1,222 @@
+package com.ecofleet.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Índice jerárquico de posiciones en la rejilla de teselas Web Mercator.
+ *
+ * Por cada nivel 0..NIVEL_MAXIMO guarda las celdas no vacías con el número de puntos y la
+ * suma de sus coordenadas, de modo que el centroide de un cluster sale de dividir. Un
+ * punto ocupa una celda por nivel: moverlo es restar en las celdas viejas y sumar en las
+ * nuevas, y en los niveles gruesos, donde la celda casi nunca cambia, no se toca nada.
+ * Consultar un nivel solo recorre sus celdas dentro del bbox (o todas las del nivel, si
+ * son menos), sin mirar los puntos.
+ *
+ * Cada celda lleva además el XOR de los ordinales de sus puntos: cuando solo tiene uno,
+ * ese XOR es el ordinal, y así se sabe qué ruta es sin guardar listas por celda.
+ *
+ * Las operaciones van bajo el monitor del índice (uno por empresa).
+ */
+class IndiceClusters {
+
+    static final int NIVEL_MAXIMO = 18;
+    private static final double LATITUD_MAXIMA = 85.05112878;
+    private static final double TAMANO_MAXIMO = 1 << NIVEL_MAXIMO;
+
+    // Resultado de una consulta: centroide y número de puntos; id solo si hay uno
+    static final class Cluster {
+        final double latitud;
+        final double longitud;
+        final int cantidad;
+        final String id;
+
+        Cluster(double latitud, double longitud, int cantidad, String id) {
+            this.latitud = latitud;
+            this.longitud = longitud;
+            this.cantidad = cantidad;
+            this.id = id;
+        }
+    }
+
+    private static final class Celda {
+        int cantidad;
+        double sumaLatitud;
+        double sumaLongitud;
+        int xorOrdinales;
+    }
+
+    private static final class Punto {
+        final int ordinal;
+        double latitud;
+        double longitud;
+        int x; // Tesela en NIVEL_MAXIMO
+        int y;
+
+        Punto(int ordinal) {
+            this.ordinal = ordinal;
+        }
+    }
+
+    private final List<Map<Long, Celda>> niveles = new ArrayList<>(NIVEL_MAXIMO + 1);
+    private final Map<String, Punto> puntos = new HashMap<>();
+    private final Map<Integer, String> idsPorOrdinal = new HashMap<>();
+    private int siguienteOrdinal;
+
+    IndiceClusters() {
+        for (int i = 0; i <= NIVEL_MAXIMO; i++) {
+            niveles.add(new HashMap<>());
+        }
+    }
+
+    synchronized void mover(String id, double latitud, double longitud) {
+        int x = teselaX(longitud);
+        int y = teselaY(latitud);
+        Punto p = puntos.get(id);
+        if (p == null) {
+            p = new Punto(siguienteOrdinal++);
+            puntos.put(id, p);
+            idsPorOrdinal.put(p.ordinal, id);
+        } else {
+            if (p.latitud == latitud && p.longitud == longitud) {
+                return;
+            }
+            for (int nivel = NIVEL_MAXIMO; nivel >= 0; nivel--) {
+                int desplazamiento = NIVEL_MAXIMO - nivel;
+                boolean mismaCelda = (p.x >> desplazamiento) == (x >> desplazamiento)
+                        && (p.y >> desplazamiento) == (y >> desplazamiento);
+                Celda celda = niveles.get(nivel).get(clave(p.x >> desplazamiento, p.y >> desplazamiento));
+                if (mismaCelda) {
+                    // Solo cambia el centroide; la pertenencia es la misma
+                    celda.sumaLatitud += latitud - p.latitud;
+                    celda.sumaLongitud += longitud - p.longitud;
+                } else {
+                    restar(nivel, celda, p);
+                    sumar(nivel, x >> desplazamiento, y >> desplazamiento, p.ordinal, latitud, longitud);
+                }
+            }
+            p.latitud = latitud;
+            p.longitud = longitud;
+            p.x = x;
+            p.y = y;
+            return;
+        }
+        p.latitud = latitud;
+        p.longitud = longitud;
+        p.x = x;
+        p.y = y;
+        for (int nivel = NIVEL_MAXIMO; nivel >= 0; nivel--) {
+            int desplazamiento = NIVEL_MAXIMO - nivel;
+            sumar(nivel, x >> desplazamiento, y >> desplazamiento, p.ordinal, latitud, longitud);
+        }
+    }
+
+    synchronized void quitar(String id) {
+        Punto p = puntos.remove(id);
+        if (p == null) {
+            return;
+        }
+        idsPorOrdinal.remove(p.ordinal);
+        for (int nivel = NIVEL_MAXIMO; nivel >= 0; nivel--) {
+            int desplazamiento = NIVEL_MAXIMO - nivel;
+            restar(nivel, niveles.get(nivel).get(clave(p.x >> desplazamiento, p.y >> desplazamiento)), p);
+        }
+    }
+
+    synchronized int tamano() {
+        return puntos.size();
+    }
+
+    synchronized int celdas() {
+        int total = 0;
+        for (Map<Long, Celda> nivel : niveles) {
+            total += nivel.size();
+        }
+        return total;
+    }
+
+    /**
+     * Clusters del nivel dentro del bbox (oeste, sur, este, norte en grados). Si oeste > este
+     * el bbox cruza el antimeridiano y se consulta en dos tramos.
+     */
+    synchronized List<Cluster> consultar(int nivel, double oeste, double sur, double este, double norte) {
+        List<Cluster> resultado = new ArrayList<>();
+        if (oeste > este) {
+            consultarTramo(nivel, oeste, sur, 180, norte, resultado);
+            consultarTramo(nivel, -180, sur, este, norte, resultado);
+        } else {
+            consultarTramo(nivel, oeste, sur, este, norte, resultado);
+        }
+        return resultado;
+    }
+
+    private void consultarTramo(int nivel, double oeste, double sur, double este, double norte, List<Cluster> resultado) {
+        int desplazamiento = NIVEL_MAXIMO - nivel;
+        int x0 = teselaX(oeste) >> desplazamiento;
+        int x1 = teselaX(este) >> desplazamiento;
+        int y0 = teselaY(norte) >> desplazamiento; // En Mercator la y crece hacia el sur
+        int y1 = teselaY(sur) >> desplazamiento;
+        Map<Long, Celda> celdas = niveles.get(nivel);
+        long enRango = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+        if (enRango <= celdas.size()) {
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    Celda celda = celdas.get(clave(x, y));
+                    if (celda != null) {
+                        resultado.add(cluster(celda));
+                    }
+                }
+            }
+        } else {
+            for (Map.Entry<Long, Celda> entrada : celdas.entrySet()) {
+                long k = entrada.getKey();
+                int x = (int) (k >>> 32);
+                int y = (int) k;
+                if (x >= x0 && x <= x1 && y >= y0 && y <= y1) {
+                    resultado.add(cluster(entrada.getValue()));
+                }
+            }
+        }
+    }
+
+    private Cluster cluster(Celda celda) {
+        return new Cluster(celda.sumaLatitud / celda.cantidad, celda.sumaLongitud / celda.cantidad, celda.cantidad,
+                celda.cantidad == 1 ? idsPorOrdinal.get(celda.xorOrdinales) : null);
+    }
+
+    private void sumar(int nivel, int x, int y, int ordinal, double latitud, double longitud) {
+        Celda celda = niveles.get(nivel).computeIfAbsent(clave(x, y), k -> new Celda());
+        celda.cantidad++;
+        celda.sumaLatitud += latitud;
+        celda.sumaLongitud += longitud;
+        celda.xorOrdinales ^= ordinal;
+    }
+
+    private void restar(int nivel, Celda celda, Punto p) {
+        celda.cantidad--;
+        if (celda.cantidad == 0) {
+            niveles.get(nivel).remove(clave(p.x >> (NIVEL_MAXIMO - nivel), p.y >> (NIVEL_MAXIMO - nivel)));
+            return;
+        }
+        celda.sumaLatitud -= p.latitud;
+        celda.sumaLongitud -= p.longitud;
+        celda.xorOrdinales ^= p.ordinal;
+    }
+
+    private static long clave(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    static int teselaX(double longitud) {
+        double x = (longitud + 180) / 360 * TAMANO_MAXIMO;
+        return (int) Math.max(0, Math.min(TAMANO_MAXIMO - 1, Math.floor(x)));
+    }
+
+    static int teselaY(double latitud) {
+        double lat = Math.toRadians(Math.max(-LATITUD_MAXIMA, Math.min(LATITUD_MAXIMA, latitud)));
+        double y = (1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2 * TAMANO_MAXIMO;
+        return (int) Math.max(0, Math.min(TAMANO_MAXIMO - 1, Math.floor(y)));
+    }
+}
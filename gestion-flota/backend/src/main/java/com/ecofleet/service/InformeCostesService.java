@@ -0,0 +1,347 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.CosteMensual;
+import com.ecofleet.model.Mantenimiento;
+import com.ecofleet.model.MantenimientoCorrectivo;
+import com.ecofleet.model.MantenimientoPreventivo;
+import com.ecofleet.model.Repostaje;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.LogMuestreado;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Informes de coste de flota (combustible + mantenimiento) precalculados por mes.
+ *
+ * Cada alta o baja de un repostaje o mantenimiento se traduce en unos pocos $inc
+ * sobre las celdas de costes_mensuales, enviados en una sola bulk write. Los informes
+ * solo leen esas celdas: su coste depende del número de meses y claves, no del número
+ * de registros. reconstruir() recalcula los cubos de una empresa desde las colecciones
+ * originales (datos previos o tras un fallo al actualizar).
+ */
+@Service
+public class InformeCostesService {
+
+    private static final Logger log = LoggerFactory.getLogger(InformeCostesService.class);
+    private static final LogMuestreado logFallos = new LogMuestreado(log, 10_000);
+
+    public static final int ALTA = 1;
+    public static final int BAJA = -1;
+
+    public static final String TOTAL = "TOTAL";
+    public static final String VEHICULO = "VEHICULO";
+    public static final String CATEGORIA = "CATEGORIA";
+    public static final String TALLER = "TALLER";
+    public static final String REPUESTO = "REPUESTO";
+    public static final List<String> DIMENSIONES = List.of(TOTAL, VEHICULO, CATEGORIA, TALLER, REPUESTO);
+
+    public static final String COMBUSTIBLE = "COMBUSTIBLE";
+    private static final String SIN_TALLER = "(sin taller)";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Actualización incremental
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public void registrar(Repostaje r, int signo) {
+        usuarioDe(r.getVehiculoId()).ifPresent(usuarioId -> {
+            Acumulador acc = new Acumulador(usuarioId);
+            acc.repostaje(r, signo);
+            aplicar(acc);
+        });
+    }
+
+    // Para importaciones: todos los repostajes son de vehículos de la misma empresa
+    public void registrarRepostajes(String usuarioId, List<Repostaje> repostajes) {
+        Acumulador acc = new Acumulador(usuarioId);
+        repostajes.forEach(r -> acc.repostaje(r, ALTA));
+        aplicar(acc);
+    }
+
+    public void registrar(MantenimientoPreventivo m, int signo) {
+        registrarMantenimiento(m.getVehiculoId(), m.getTipo(), m.getFecha(), m.getCosto(), m.getTaller(), m.getRepuestos(), signo);
+    }
+
+    public void registrar(MantenimientoCorrectivo m, int signo) {
+        registrarMantenimiento(m.getVehiculoId(), m.getTipo(), m.getFecha(), m.getCosto(), m.getTaller(), m.getRepuestos(), signo);
+    }
+
+    public void registrar(Mantenimiento m, int signo) {
+        registrarMantenimiento(m.getVehiculoId(), m.getTipo(), m.getFecha(), m.getCosto(), m.getTaller(), m.getRepuestos(), signo);
+    }
+
+    private void registrarMantenimiento(String vehiculoId, String tipo, LocalDate fecha, Double costo,
+                                        Mantenimiento.Taller taller, List<Mantenimiento.Repuesto> repuestos, int signo) {
+        usuarioDe(vehiculoId).ifPresent(usuarioId -> {
+            Acumulador acc = new Acumulador(usuarioId);
+            acc.mantenimiento(vehiculoId, tipo, fecha, costo, taller, repuestos, signo);
+            aplicar(acc);
+        });
+    }
+
+    private Optional<String> usuarioDe(String vehiculoId) {
+        if (vehiculoId == null) {
+            return Optional.empty();
+        }
+        return cacheEntidades.vehiculo(vehiculoId).map(Vehiculo::getUsuarioId);
+    }
+
+    // Un fallo aquí no debe tumbar el alta del registro: el cubo se corrige con reconstruir()
+    private void aplicar(Acumulador acc) {
+        if (acc.celdas.isEmpty()) {
+            return;
+        }
+        // bulkOps no filtra ni enruta por documento: la empresa del cubo elige la base
+        ContextoEmpresa.ejecutarComo(acc.usuarioId, () -> escribir(acc));
+    }
+
+    private void escribir(Acumulador acc) {
+        try {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CosteMensual.class);
+            for (Incremento inc : acc.celdas.values()) {
+                Update update = new Update()
+                        .setOnInsert("usuarioId", acc.usuarioId)
+                        .setOnInsert("mes", inc.mes)
+                        .setOnInsert("dimension", inc.dimension)
+                        .setOnInsert("clave", inc.clave)
+                        .inc("coste", inc.coste)
+                        .inc("registros", inc.registros);
+                if (inc.litros != 0) update.inc("litros", inc.litros);
+                if (inc.unidades != 0) update.inc("unidades", inc.unidades);
+                inc.porCategoria.forEach((categoria, coste) -> update.inc("porCategoria." + categoria, coste));
+                ops.upsert(new Query(Criteria.where("_id").is(inc.id)), update);
+            }
+            ops.execute();
+        } catch (DataAccessException e) {
+            logFallos.warn("No se pudo actualizar el cubo de costes de {}: {}", acc.usuarioId, e.getMessage());
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Consulta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public InformeCostes informe(String usuarioId, YearMonth desde, YearMonth hasta, String dimension, String clave) {
+        Criteria criterio = Criteria.where("usuarioId").is(usuarioId)
+                .and("mes").gte(desde.toString()).lte(hasta.toString())
+                .and("dimension").in(TOTAL, dimension);
+        List<CosteMensual> celdas = mongoTemplate.find(
+                new Query(criterio).with(Sort.by("mes", "clave")), CosteMensual.class);
+
+        InformeCostes informe = new InformeCostes();
+        informe.setDesde(desde.toString());
+        informe.setHasta(hasta.toString());
+        informe.setDimension(dimension);
+        Map<String, Double> porClave = new HashMap<>();
+        for (CosteMensual c : celdas) {
+            if (TOTAL.equals(c.getDimension())) {
+                informe.getMeses().add(c);
+                informe.setTotal(informe.getTotal() + valor(c.getCoste()));
+            }
+            if (dimension.equals(c.getDimension()) && (clave == null || clave.equals(c.getClave()))) {
+                if (!TOTAL.equals(dimension)) {
+                    informe.getCeldas().add(c);
+                }
+                porClave.merge(c.getClave(), valor(c.getCoste()), Double::sum);
+            }
+        }
+        // Ranking de claves por coste acumulado en el periodo
+        porClave.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .forEachOrdered(e -> informe.getAcumuladoPorClave().put(e.getKey(), e.getValue()));
+        return informe;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Reconstrucción
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    // Recalcula todos los cubos de la empresa. Las altas concurrentes durante la
+    // reconstrucción pueden contarse dos veces; pensado para migraciones y correcciones.
+    public Map<String, Object> reconstruir(String usuarioId) {
+        return ContextoEmpresa.ejecutarComo(usuarioId, () -> reconstruirEmpresa(usuarioId));
+    }
+
+    private Map<String, Object> reconstruirEmpresa(String usuarioId) {
+        long inicio = System.nanoTime();
+        Query soloIds = new Query(Criteria.where("usuarioId").is(usuarioId));
+        soloIds.fields().include("_id");
+        List<String> vehiculos = mongoTemplate.find(soloIds, Vehiculo.class).stream().map(Vehiculo::getId).toList();
+        Query porVehiculo = new Query(Criteria.where("usuarioId").is(usuarioId).and("vehiculoId").in(vehiculos)).cursorBatchSize(500);
+
+        Acumulador acc = new Acumulador(usuarioId);
+        try (Stream<Repostaje> s = mongoTemplate.stream(porVehiculo, Repostaje.class)) {
+            s.forEach(r -> acc.repostaje(r, ALTA));
+        }
+        try (Stream<Mantenimiento> s = mongoTemplate.stream(porVehiculo, Mantenimiento.class)) {
+            s.forEach(m -> acc.mantenimiento(m.getVehiculoId(), m.getTipo(), m.getFecha(), m.getCosto(),
+                    m.getTaller(), m.getRepuestos(), ALTA));
+        }
+        try (Stream<MantenimientoPreventivo> s = mongoTemplate.stream(porVehiculo, MantenimientoPreventivo.class)) {
+            s.forEach(m -> acc.mantenimiento(m.getVehiculoId(), m.getTipo(), m.getFecha(), m.getCosto(),
+                    m.getTaller(), m.getRepuestos(), ALTA));
+        }
+        try (Stream<MantenimientoCorrectivo> s = mongoTemplate.stream(porVehiculo, MantenimientoCorrectivo.class)) {
+            s.forEach(m -> acc.mantenimiento(m.getVehiculoId(), m.getTipo(), m.getFecha(), m.getCosto(),
+                    m.getTaller(), m.getRepuestos(), ALTA));
+        }
+
+        mongoTemplate.remove(new Query(Criteria.where("usuarioId").is(usuarioId)), CosteMensual.class);
+        List<CosteMensual> celdas = new ArrayList<>(acc.celdas.size());
+        for (Incremento inc : acc.celdas.values()) {
+            CosteMensual c = new CosteMensual();
+            c.setId(inc.id);
+            c.setUsuarioId(usuarioId);
+            c.setMes(inc.mes);
+            c.setDimension(inc.dimension);
+            c.setClave(inc.clave);
+            c.setCoste(inc.coste);
+            c.setRegistros(inc.registros);
+            c.setLitros(inc.litros != 0 ? inc.litros : null);
+            c.setUnidades(inc.unidades != 0 ? inc.unidades : null);
+            c.setPorCategoria(inc.porCategoria.isEmpty() ? null : inc.porCategoria);
+            celdas.add(c);
+        }
+        if (!celdas.isEmpty()) {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CosteMensual.class).insert(celdas).execute();
+        }
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("registros", acc.registros);
+        resultado.put("celdas", celdas.size());
+        resultado.put("duracionMs", (System.nanoTime() - inicio) / 1_000_000);
+        return resultado;
+    }
+
+    private static double valor(Double d) {
+        return d != null ? d : 0.0;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Acumulación en memoria de los incrementos de una operación
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private static class Incremento {
+        final String id, mes, dimension, clave;
+        double coste, litros, unidades;
+        long registros;
+        final Map<String, Double> porCategoria = new TreeMap<>();
+
+        Incremento(String id, String mes, String dimension, String clave) {
+            this.id = id;
+            this.mes = mes;
+            this.dimension = dimension;
+            this.clave = clave;
+        }
+    }
+
+    private static class Acumulador {
+        final String usuarioId;
+        final Map<String, Incremento> celdas = new LinkedHashMap<>();
+        long registros;
+
+        Acumulador(String usuarioId) {
+            this.usuarioId = usuarioId;
+        }
+
+        void repostaje(Repostaje r, int signo) {
+            if (r.getFecha() == null) return;
+            registros++;
+            String mes = YearMonth.from(r.getFecha()).toString();
+            double coste = signo * valor(r.getCosteTotal() != null ? r.getCosteTotal()
+                    : (r.getLitros() != null && r.getPrecioPorLitro() != null ? r.getLitros() * r.getPrecioPorLitro() : null));
+            double litros = signo * valor(r.getLitros());
+            for (Incremento inc : List.of(celda(mes, TOTAL, TOTAL), celda(mes, VEHICULO, r.getVehiculoId()),
+                    celda(mes, CATEGORIA, COMBUSTIBLE))) {
+                inc.coste += coste;
+                inc.litros += litros;
+                inc.registros += signo;
+            }
+            celda(mes, TOTAL, TOTAL).porCategoria.merge(COMBUSTIBLE, coste, Double::sum);
+            celda(mes, VEHICULO, r.getVehiculoId()).porCategoria.merge(COMBUSTIBLE, coste, Double::sum);
+        }
+
+        void mantenimiento(String vehiculoId, String tipo, LocalDate fecha, Double costo,
+                           Mantenimiento.Taller taller, List<Mantenimiento.Repuesto> repuestos, int signo) {
+            if (fecha == null) return;
+            registros++;
+            String mes = YearMonth.from(fecha).toString();
+            String categoria = categoria(tipo);
+            double costeRepuestos = 0;
+            if (repuestos != null) {
+                for (Mantenimiento.Repuesto rep : repuestos) {
+                    if (rep.getNombre() == null || rep.getCostoUnitario() == null) continue;
+                    int cantidad = rep.getCantidad() != null ? rep.getCantidad() : 1;
+                    double importe = cantidad * rep.getCostoUnitario();
+                    costeRepuestos += importe;
+                    Incremento inc = celda(mes, REPUESTO, rep.getNombre());
+                    inc.coste += signo * importe;
+                    inc.unidades += signo * cantidad;
+                    inc.registros += signo;
+                }
+            }
+            // Si el registro no trae coste total se toma la suma de sus repuestos
+            double coste = signo * (costo != null ? costo : costeRepuestos);
+            String nombreTaller = taller != null && taller.getNombre() != null && !taller.getNombre().isBlank()
+                    ? taller.getNombre().trim() : SIN_TALLER;
+            for (Incremento inc : List.of(celda(mes, TOTAL, TOTAL), celda(mes, VEHICULO, vehiculoId),
+                    celda(mes, CATEGORIA, categoria), celda(mes, TALLER, nombreTaller))) {
+                inc.coste += coste;
+                inc.registros += signo;
+            }
+            celda(mes, TOTAL, TOTAL).porCategoria.merge(categoria, coste, Double::sum);
+            celda(mes, VEHICULO, vehiculoId).porCategoria.merge(categoria, coste, Double::sum);
+        }
+
+        // El tipo acaba como ruta de campo (porCategoria.<tipo>): sin '.' ni '$' inicial
+        static String categoria(String tipo) {
+            if (tipo == null || tipo.isBlank()) {
+                return "MANTENIMIENTO";
+            }
+            String categoria = tipo.trim().toUpperCase().replace('.', '_');
+            return categoria.startsWith("$") ? "_" + categoria.substring(1) : categoria;
+        }
+
+        Incremento celda(String mes, String dimension, String clave) {
+            String id = usuarioId + "|" + mes + "|" + dimension + "|" + clave;
+            return celdas.computeIfAbsent(id, k -> new Incremento(k, mes, dimension, clave));
+        }
+    }
+
+    @Data
+    public static class InformeCostes {
+        private String desde;
+        private String hasta;
+        private String dimension;
+        private double total;
+        private List<CosteMensual> meses = new ArrayList<>();
+        private List<CosteMensual> celdas = new ArrayList<>();
+        private Map<String, Double> acumuladoPorClave = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,340 @@
+package com.ecofleet.service;
+
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.LogMuestreado;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Limitación de la ingesta GPS (PUT /api/rutas/{id} con posición y POST /api/rutas/{id}/gps).
+ *
+ * Cada fix consume un token de la cubeta de su ruta y otro de la de su empresa. Si no hay
+ * token no se encola: se guarda como la posición pendiente de la ruta, sustituyendo a la
+ * que hubiera, y un vaciado periódico la aplica en cuanto la cubeta se rellena. Así un
+ * cliente que envía de más solo pierde posiciones intermedias, la última siempre llega,
+ * y la memoria queda acotada a una posición por ruta (maxPendientes en total). Lo que no
+ * cabe o caduca sin aplicarse se descarta y se cuenta.
+ *
+ * Lo pendiente solo lleva la posición: cualquier otro cambio de la ruta (estado, desvío,
+ * borrado) anula lo que estuviera esperando, porque aplicado después lo desharía.
+ *
+ * Antes de buscar la ruta se limita al cliente (dirección de origen): las cubetas de ruta
+ * solo se crean para rutas que existen, así que ids inventadas no llenan maxClaves ni
+ * mandan a las rutas nuevas a la cubeta compartida de desbordamiento.
+ */
+@Service
+public class LimitadorIngestaService {
+
+    private static final Logger log = LoggerFactory.getLogger(LimitadorIngestaService.class);
+    private static final LogMuestreado logDescartes = new LogMuestreado(log, 5000);
+
+    public static final String ADMITIDA = "admitida";
+    public static final String COALESCIDA = "coalescida";
+    public static final String DESCARTADA = "descartada";
+
+    @Value("${ecofleet.ingesta.ruta.por-segundo:1}")
+    private double porSegundoRuta;
+    @Value("${ecofleet.ingesta.ruta.rafaga:5}")
+    private int rafagaRuta;
+    @Value("${ecofleet.ingesta.tenant.por-segundo:200}")
+    private double porSegundoTenant;
+    @Value("${ecofleet.ingesta.tenant.rafaga:400}")
+    private int rafagaTenant;
+    @Value("${ecofleet.ingesta.cliente.por-segundo:200}")
+    private double porSegundoCliente;
+    @Value("${ecofleet.ingesta.cliente.rafaga:400}")
+    private int rafagaCliente;
+    @Value("${ecofleet.ingesta.max-claves:100000}")
+    private int maxClaves;
+    @Value("${ecofleet.ingesta.max-pendientes:10000}")
+    private int maxPendientes;
+    @Value("${ecofleet.ingesta.pendiente-maximo-ms:10000}")
+    private long pendienteMaximoMs;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private LimitadorTokens rutas;
+    private LimitadorTokens tenants;
+    private LimitadorTokens clientes;
+    private final ConcurrentHashMap<String, Pendiente> pendientes = new ConcurrentHashMap<>();
+
+    private final LongAdder admitidas = new LongAdder();
+    private final LongAdder coalescidas = new LongAdder();
+    private final LongAdder reemplazadas = new LongAdder();
+    private final LongAdder aplicadasDiferidas = new LongAdder();
+    private final LongAdder descartadas = new LongAdder();
+    private final LongAdder caducadas = new LongAdder();
+    private final LongAdder anuladas = new LongAdder();
+    private final LongAdder rechazadasCliente = new LongAdder();
+
+    @PostConstruct
+    void iniciar() {
+        rutas = new LimitadorTokens("ruta", porSegundoRuta, rafagaRuta, maxClaves);
+        tenants = new LimitadorTokens("tenant", porSegundoTenant, rafagaTenant, maxClaves);
+        clientes = new LimitadorTokens("cliente", porSegundoCliente, rafagaCliente, maxClaves);
+
+        contador("admitida", admitidas);
+        contador("coalescida", coalescidas);
+        contador("reemplazada", reemplazadas);
+        contador("aplicada_diferida", aplicadasDiferidas);
+        contador("descartada", descartadas);
+        contador("caducada", caducadas);
+        contador("anulada", anuladas);
+        contador("rechazada_cliente", rechazadasCliente);
+        Gauge.builder("ecofleet.ingesta.pendientes", pendientes, Map::size).register(registry);
+        Gauge.builder("ecofleet.ingesta.cubetas", rutas, LimitadorTokens::claves).tag("limitador", "ruta").register(registry);
+        Gauge.builder("ecofleet.ingesta.cubetas", tenants, LimitadorTokens::claves).tag("limitador", "tenant").register(registry);
+        Gauge.builder("ecofleet.ingesta.cubetas", clientes, LimitadorTokens::claves).tag("limitador", "cliente").register(registry);
+    }
+
+    private void contador(String resultado, LongAdder adder) {
+        registry.more().counter("ecofleet.ingesta.fixes", List.of(Tag.of("resultado", resultado)), adder, LongAdder::sum);
+    }
+
+    // Primer filtro, antes de tocar la caché o Mongo: un fix por token del cliente que lo envía
+    public boolean admitirCliente(String cliente) {
+        if (clientes.intentar(cliente)) {
+            return true;
+        }
+        rechazadasCliente.increment();
+        return false;
+    }
+
+    /**
+     * Decide qué hacer con un fix de la ruta. Con ADMITIDA el llamante lo aplica en el acto;
+     * con COALESCIDA queda "aplicar" como pendiente de la ruta y lo ejecuta el vaciado.
+     * tenant puede ser null si no se conoce la empresa de la ruta.
+     */
+    public String admitir(String rutaId, String tenant, Runnable aplicar) {
+        if (rutas.intentar(rutaId) && (tenant == null || tenants.intentar(tenant))) {
+            // Un fix nuevo deja obsoleto el que estuviera esperando
+            if (pendientes.remove(rutaId) != null) {
+                reemplazadas.increment();
+            }
+            admitidas.increment();
+            return ADMITIDA;
+        }
+        if (pendientes.size() >= maxPendientes && !pendientes.containsKey(rutaId)) {
+            descartadas.increment();
+            logDescartes.warn("Fix GPS descartado para la ruta {}: {} rutas con posición pendiente", rutaId, pendientes.size());
+            return DESCARTADA;
+        }
+        // El vaciado corre en el hilo programado: la tarea lleva la empresa de la petición
+        if (pendientes.put(rutaId, new Pendiente(tenant, ContextoEmpresa.propagar(aplicar))) != null) {
+            reemplazadas.increment();
+        }
+        coalescidas.increment();
+        return COALESCIDA;
+    }
+
+    // Un cambio que no es de posición deja obsoleta la posición pendiente de la ruta
+    public void anularPendiente(String rutaId) {
+        if (pendientes.remove(rutaId) != null) {
+            anuladas.increment();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ecofleet.ingesta.vaciado-ms:250}")
+    public void vaciarPendientes() {
+        long caducidad = System.nanoTime() - pendienteMaximoMs * 1_000_000L;
+        for (Map.Entry<String, Pendiente> entrada : pendientes.entrySet()) {
+            String rutaId = entrada.getKey();
+            Pendiente pendiente = entrada.getValue();
+            if (pendiente.recibido < caducidad) {
+                if (pendientes.remove(rutaId, pendiente)) {
+                    caducadas.increment();
+                    logDescartes.warn("Fix GPS pendiente caducado para la ruta {}", rutaId);
+                }
+                continue;
+            }
+            if (!rutas.intentar(rutaId) || (pendiente.tenant != null && !tenants.intentar(pendiente.tenant))) {
+                continue;
+            }
+            // Si entre tanto llegó otro fix, ese queda pendiente para la siguiente vuelta
+            if (pendientes.remove(rutaId, pendiente)) {
+                try {
+                    pendiente.aplicar.run();
+                    aplicadasDiferidas.increment();
+                } catch (RuntimeException e) {
+                    log.warn("No se pudo aplicar el fix GPS pendiente de la ruta {}: {}", rutaId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ecofleet.ingesta.limpieza-ms:60000}")
+    public void limpiarCubetas() {
+        rutas.limpiar();
+        tenants.limpiar();
+        clientes.limpiar();
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ruta", rutas.estadisticas());
+        stats.put("tenant", tenants.estadisticas());
+        stats.put("cliente", clientes.estadisticas());
+        Map<String, Object> fixes = new LinkedHashMap<>();
+        fixes.put("admitidas", admitidas.sum());
+        fixes.put("coalescidas", coalescidas.sum());
+        fixes.put("reemplazadas", reemplazadas.sum());
+        fixes.put("aplicadasDiferidas", aplicadasDiferidas.sum());
+        fixes.put("descartadas", descartadas.sum());
+        fixes.put("caducadas", caducadas.sum());
+        fixes.put("anuladas", anuladas.sum());
+        fixes.put("rechazadasCliente", rechazadasCliente.sum());
+        stats.put("fixes", fixes);
+        stats.put("pendientes", pendientes.size());
+        stats.put("maxPendientes", maxPendientes);
+        return stats;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Benchmark: coste del limitador sin bloqueos frente a uno con un cerrojo global
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Lanza "hilos" hilos que hacen en total "operaciones" consultas sobre "claves" rutas
+     * elegidas al azar, con los límites configurados para las rutas. Se mide un bucle vacío
+     * (solo elegir la clave) para restarlo, el limitador sin bloqueos y una cubeta clásica
+     * (tokens + última recarga) en un HashMap protegido por synchronized.
+     */
+    public Map<String, Object> benchmark(int hilos, int operaciones, int claves) throws InterruptedException {
+        String[] ids = new String[claves];
+        for (int i = 0; i < claves; i++) {
+            ids[i] = "ruta-" + i;
+        }
+        LimitadorTokens sinBloqueos = new LimitadorTokens("benchmark", porSegundoRuta, rafagaRuta, claves);
+        LimitadorSincronizado sincronizado = new LimitadorSincronizado(porSegundoRuta, rafagaRuta);
+
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("hilos", hilos);
+        resultado.put("operaciones", operaciones);
+        resultado.put("claves", claves);
+        // Calentamiento para que el JIT compile los tres caminos antes de medir
+        for (int i = 0; i < 3; i++) {
+            medir(hilos, operaciones, ids, clave -> true);
+            medir(hilos, operaciones, ids, sinBloqueos::intentar);
+            medir(hilos, operaciones, ids, sincronizado::intentar);
+        }
+        Map<String, Object> vacio = medir(hilos, operaciones, ids, clave -> true);
+        Map<String, Object> lockFree = medir(hilos, operaciones, ids, sinBloqueos::intentar);
+        Map<String, Object> conCerrojo = medir(hilos, operaciones, ids, sincronizado::intentar);
+        double base = (double) vacio.get("nsPorOperacion");
+        lockFree.put("sobrecosteNs", (double) lockFree.get("nsPorOperacion") - base);
+        conCerrojo.put("sobrecosteNs", (double) conCerrojo.get("nsPorOperacion") - base);
+        resultado.put("bucleVacio", vacio);
+        resultado.put("sinBloqueos", lockFree);
+        resultado.put("cerrojoGlobal", conCerrojo);
+        return resultado;
+    }
+
+    private static Map<String, Object> medir(int hilos, int operaciones, String[] ids, Predicate<String> limitador)
+            throws InterruptedException {
+        int porHilo = Math.max(1, operaciones / hilos);
+        LongAdder admitidas = new LongAdder();
+        CountDownLatch salida = new CountDownLatch(1);
+        CountDownLatch fin = new CountDownLatch(hilos);
+        List<Thread> trabajadores = new ArrayList<>(hilos);
+        for (int h = 0; h < hilos; h++) {
+            Thread t = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                long propias = 0;
+                try {
+                    salida.await();
+                    for (int i = 0; i < porHilo; i++) {
+                        if (limitador.test(ids[rnd.nextInt(ids.length)])) {
+                            propias++;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    admitidas.add(propias);
+                    fin.countDown();
+                }
+            }, "benchmark-limitador-" + h);
+            t.setDaemon(true);
+            trabajadores.add(t);
+            t.start();
+        }
+        long inicio = System.nanoTime();
+        salida.countDown();
+        fin.await();
+        long total = System.nanoTime() - inicio;
+
+        long hechas = (long) porHilo * hilos;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("duracionMs", total / 1_000_000);
+        stats.put("operacionesPorSegundo", hechas * 1e9 / total);
+        // Tiempo de pared por operación visto desde cada hilo
+        stats.put("nsPorOperacion", (double) total * hilos / hechas);
+        stats.put("admitidas", admitidas.sum());
+        return stats;
+    }
+
+    private static class Pendiente {
+        final String tenant;
+        final Runnable aplicar;
+        final long recibido = System.nanoTime();
+
+        Pendiente(String tenant, Runnable aplicar) {
+            this.tenant = tenant;
+            this.aplicar = aplicar;
+        }
+    }
+
+    // Implementación de referencia para el benchmark: la cubeta de libro con un cerrojo global
+    private static class LimitadorSincronizado {
+        private final double porNano;
+        private final int rafaga;
+        private final Map<String, Cubeta> cubetas = new HashMap<>();
+
+        LimitadorSincronizado(double porSegundo, int rafaga) {
+            this.porNano = porSegundo / 1e9;
+            this.rafaga = rafaga;
+        }
+
+        synchronized boolean intentar(String clave) {
+            long ahora = System.nanoTime();
+            Cubeta cubeta = cubetas.computeIfAbsent(clave, k -> new Cubeta(rafaga, ahora));
+            cubeta.tokens = Math.min(rafaga, cubeta.tokens + (ahora - cubeta.ultimaRecarga) * porNano);
+            cubeta.ultimaRecarga = ahora;
+            if (cubeta.tokens < 1) {
+                return false;
+            }
+            cubeta.tokens -= 1;
+            return true;
+        }
+    }
+
+    private static class Cubeta {
+        double tokens;
+        long ultimaRecarga;
+
+        Cubeta(double tokens, long ultimaRecarga) {
+            this.tokens = tokens;
+            this.ultimaRecarga = ultimaRecarga;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.ecofleet.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cubetas de tokens por clave (ruta, empresa) sin bloqueos.
+ *
+ * Cada cubeta es un único AtomicLong con el instante teórico de la próxima llegada (GCRA):
+ * la petición cabe si ese instante no va por delante del reloj más de lo que permite la
+ * ráfaga, y se admite con una CAS que lo avanza un intervalo. Equivale a una cubeta de
+ * capacidad "rafaga" que se rellena a "porSegundo" tokens/s, sin hilo de recarga.
+ *
+ * Las claves se reparten entre los bins del ConcurrentHashMap, así que dos rutas nunca
+ * comparten estado; los contadores son LongAdder (también repartidos por celdas). Si se
+ * llega a maxClaves, las claves nuevas comparten una cubeta de desbordamiento: una
+ * avalancha de ids inventados no hace crecer la memoria.
+ */
+public class LimitadorTokens {
+
+    private final String nombre;
+    private final double porSegundo;
+    private final int rafaga;
+    private final long intervaloNanos;
+    private final long toleranciaNanos;
+    private final int maxClaves;
+    // Reloj relativo a la creación: una cubeta nueva (0) está llena
+    private final long origen = System.nanoTime();
+
+    private final ConcurrentHashMap<String, AtomicLong> cubetas = new ConcurrentHashMap<>();
+    private final AtomicLong desbordamiento = new AtomicLong();
+
+    private final LongAdder admitidas = new LongAdder();
+    private final LongAdder rechazadas = new LongAdder();
+    private final LongAdder desbordadas = new LongAdder();
+
+    public LimitadorTokens(String nombre, double porSegundo, int rafaga, int maxClaves) {
+        this.nombre = nombre;
+        this.porSegundo = porSegundo;
+        this.rafaga = Math.max(1, rafaga);
+        this.intervaloNanos = Math.max(1, (long) (1_000_000_000L / porSegundo));
+        this.toleranciaNanos = intervaloNanos * (this.rafaga - 1);
+        this.maxClaves = maxClaves;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    // Consume un token de la clave; false si su cubeta está vacía
+    public boolean intentar(String clave) {
+        AtomicLong cubeta = cubeta(clave);
+        long ahora = System.nanoTime() - origen;
+        while (true) {
+            long llegada = cubeta.get();
+            long base = Math.max(llegada, ahora);
+            if (base - ahora > toleranciaNanos) {
+                rechazadas.increment();
+                return false;
+            }
+            if (cubeta.compareAndSet(llegada, base + intervaloNanos)) {
+                admitidas.increment();
+                return true;
+            }
+        }
+    }
+
+    private AtomicLong cubeta(String clave) {
+        AtomicLong cubeta = cubetas.get(clave);
+        if (cubeta != null) {
+            return cubeta;
+        }
+        if (cubetas.size() >= maxClaves) {
+            desbordadas.increment();
+            return desbordamiento;
+        }
+        return cubetas.computeIfAbsent(clave, k -> new AtomicLong());
+    }
+
+    /**
+     * Quita las cubetas que ya se han rellenado del todo: equivalen a una nueva, así que
+     * olvidarlas no cambia ninguna decisión (salvo una carrera con una petición en vuelo,
+     * que como mucho deja pasar un token de más).
+     */
+    public int limpiar() {
+        long ahora = System.nanoTime() - origen;
+        int antes = cubetas.size();
+        cubetas.values().removeIf(cubeta -> cubeta.get() <= ahora);
+        return antes - cubetas.size();
+    }
+
+    public int claves() {
+        return cubetas.size();
+    }
+
+    public long rechazadas() {
+        return rechazadas.sum();
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("porSegundo", porSegundo);
+        stats.put("rafaga", rafaga);
+        stats.put("claves", cubetas.size());
+        stats.put("maxClaves", maxClaves);
+        stats.put("admitidas", admitidas.sum());
+        stats.put("rechazadas", rechazadas.sum());
+        stats.put("desbordadas", desbordadas.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,508 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.TrabajoLimpieza;
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.Fechas;
+import com.mongodb.client.MongoCursor;
+import lombok.Data;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Borrado en cascada, en segundo plano, de lo que cuelga de un vehículo o una ruta eliminados.
+ *
+ * El controlador borra el documento principal, encola un TrabajoLimpieza en Mongo y
+ * responde enseguida. Un hilo propio reclama los trabajos (uno por réplica a la vez) y
+ * borra los dependientes por lotes de tamano-lote con una pausa entre lotes, para no
+ * competir con el tráfico normal:
+ * - Ruta: mensajes, alertas, comandos_conductor y snapshots_ruta.
+ * - Vehículo: repostajes, los tres tipos de mantenimiento y sus rutas (activas y
+ *   archivadas) con todo lo de cada ruta.
+ * Se conservan eventos_ruta (es el registro de auditoría y termina en ELIMINADA) y los
+ * agregados históricos (costes, viajes, puntuaciones, mapa de calor).
+ *
+ * Cada lote es idempotente, así que un trabajo interrumpido se repite sin problema. Si el
+ * proceso cae entre el borrado principal y el encolado, el barrido periódico de huérfanos
+ * busca referencias a vehículos y rutas que ya no existen y encola su limpieza.
+ *
+ * Cada trabajo se procesa en la base de su empresa y, si se conoce la empresa, los lotes
+ * se buscan con usuarioId delante para usar los índices usuario_*. El barrido recorre
+ * todas las bases y anota en cada trabajo la base donde encontró el huérfano.
+ */
+@Service
+public class LimpiezaCascadaService {
+
+    private static final Logger log = LoggerFactory.getLogger(LimpiezaCascadaService.class);
+
+    public static final String VEHICULO = "VEHICULO";
+    public static final String RUTA = "RUTA";
+
+    static final String PENDIENTE = "PENDIENTE";
+    static final String EN_CURSO = "EN_CURSO";
+    static final String COMPLETADO = "COMPLETADO";
+    static final String FALLIDO = "FALLIDO";
+
+    private static final List<String> DEPENDIENTES_RUTA = List.of("mensajes", "alertas", "comandos_conductor", "snapshots_ruta");
+    private static final List<String> DEPENDIENTES_VEHICULO = List.of("repostajes", "mantenimientos",
+            "mantenimientos_preventivos", "mantenimientos_correctivos");
+    private static final List<String> RUTAS = List.of("rutas_archivadas", "rutas");
+    private static final int LOTE_EXISTENCIA = 1000;
+
+    @Value("${ecofleet.limpieza.habilitado:true}")
+    private boolean habilitado;
+
+    @Value("${ecofleet.limpieza.tamano-lote:500}")
+    private int tamanoLote;
+
+    // Pausa entre lotes para repartir la carga de borrado
+    @Value("${ecofleet.limpieza.pausa-ms:50}")
+    private long pausaMs;
+
+    // Si la réplica que procesa un trabajo no lo renueva en este tiempo, otra lo retoma
+    @Value("${ecofleet.limpieza.bloqueo-ms:120000}")
+    private long bloqueoMs;
+
+    @Value("${ecofleet.limpieza.max-intentos:5}")
+    private int maxIntentos;
+
+    @Value("${ecofleet.limpieza.retencion-dias:7}")
+    private int retencionDias;
+
+    @Value("${ecofleet.limpieza.max-huerfanos-por-barrido:1000}")
+    private int maxHuerfanosPorBarrido;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    @Autowired
+    private EventosRutaService eventosRuta;
+
+    private ExecutorService executor;
+    private final AtomicBoolean procesando = new AtomicBoolean();
+    private final AtomicBoolean barriendo = new AtomicBoolean();
+    private final AtomicLong trabajosCompletados = new AtomicLong();
+    private final AtomicLong trabajosFallidos = new AtomicLong();
+    private final AtomicLong documentosBorrados = new AtomicLong();
+    private final AtomicLong lotes = new AtomicLong();
+    private volatile String ultimoBarrido;
+    private volatile ResultadoBarrido resultadoUltimoBarrido;
+
+    @PostConstruct
+    void iniciar() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "limpieza-cascada");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void detener() {
+        executor.shutdownNow();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Encolado
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Encola la limpieza de un vehículo o ruta ya borrados y despierta al procesador. */
+    public void encolar(String tipo, String entidadId, String usuarioId) {
+        try {
+            encolar(tipo, entidadId, usuarioId, "API");
+        } catch (DataAccessException e) {
+            // El borrado principal ya está hecho: los dependientes los encontrará el barrido
+            log.warn("No se pudo encolar la limpieza de {} {}: {}", tipo, entidadId, e.getMessage());
+            return;
+        }
+        avisar();
+    }
+
+    private boolean encolar(String tipo, String entidadId, String usuarioId, String origen) {
+        Query abierto = new Query(Criteria.where("tipo").is(tipo).and("entidadId").is(entidadId)
+                .and("estado").in(PENDIENTE, EN_CURSO));
+        if (mongoTemplate.exists(abierto, TrabajoLimpieza.class)) {
+            return false;
+        }
+        Instant ahora = Fechas.ahora();
+        TrabajoLimpieza trabajo = new TrabajoLimpieza();
+        trabajo.setTipo(tipo);
+        trabajo.setEntidadId(entidadId);
+        trabajo.setUsuarioId(usuarioId);
+        trabajo.setBase(ContextoEmpresa.base() != null ? ContextoEmpresa.base() : mongoTemplate.baseDe(usuarioId));
+        trabajo.setOrigen(origen);
+        trabajo.setEstado(PENDIENTE);
+        trabajo.setCreado(ahora);
+        trabajo.setBloqueadoHasta(ahora);
+        mongoTemplate.insert(trabajo);
+        return true;
+    }
+
+    // Con el hilo ocupado el aviso queda en cola y vuelve a buscar trabajos al terminar el actual
+    private void avisar() {
+        if (!habilitado) {
+            return;
+        }
+        try {
+            executor.execute(this::procesarPendientes);
+        } catch (RejectedExecutionException e) {
+            // Apagando: el trabajo queda en Mongo para el próximo arranque
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Procesado
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    // Recoge los trabajos de otras réplicas caídas y los que no se pudieron avisar
+    @Scheduled(initialDelayString = "${ecofleet.limpieza.retraso-inicial-ms:30000}",
+               fixedDelayString = "${ecofleet.limpieza.intervalo-ms:30000}")
+    public void procesarProgramado() {
+        avisar();
+    }
+
+    private void procesarPendientes() {
+        if (!procesando.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            TrabajoLimpieza trabajo;
+            while (!Thread.currentThread().isInterrupted() && (trabajo = reclamar()) != null) {
+                TrabajoLimpieza actual = trabajo;
+                ContextoEmpresa.enBase(trabajo.getBase(), () -> procesar(actual));
+            }
+        } catch (DataAccessException e) {
+            log.warn("Limpieza en cascada interrumpida: {}", e.getMessage());
+        } finally {
+            procesando.set(false);
+        }
+    }
+
+    private TrabajoLimpieza reclamar() {
+        Instant ahora = Fechas.ahora();
+        Query libre = new Query(Criteria.where("estado").in(PENDIENTE, EN_CURSO).and("bloqueadoHasta").lte(ahora))
+                .with(Sort.by("bloqueadoHasta"));
+        Update reclamo = new Update()
+                .set("estado", EN_CURSO)
+                .set("bloqueadoHasta", ahora.plusMillis(bloqueoMs))
+                .inc("intentos", 1);
+        return mongoTemplate.findAndModify(libre, reclamo, FindAndModifyOptions.options().returnNew(true), TrabajoLimpieza.class);
+    }
+
+    private void procesar(TrabajoLimpieza trabajo) {
+        try {
+            if (VEHICULO.equals(trabajo.getTipo())) {
+                limpiarVehiculo(trabajo);
+            } else {
+                limpiarRutas(List.of(trabajo.getEntidadId()), trabajo);
+            }
+            terminar(trabajo, COMPLETADO, null);
+            trabajosCompletados.incrementAndGet();
+        } catch (InterruptedException e) {
+            // Apagado: se libera el bloqueo para que otra réplica lo retome enseguida
+            Thread.currentThread().interrupt();
+            mongoTemplate.updateFirst(porId(trabajo), new Update().set("estado", PENDIENTE)
+                    .set("bloqueadoHasta", Fechas.ahora()).set("borrados", trabajo.getBorrados()), TrabajoLimpieza.class);
+        } catch (RuntimeException e) {
+            log.warn("Limpieza de {} {} fallida (intento {}): {}", trabajo.getTipo(), trabajo.getEntidadId(),
+                    trabajo.getIntentos(), e.getMessage());
+            if (trabajo.getIntentos() >= maxIntentos) {
+                terminar(trabajo, FALLIDO, e.getMessage());
+                trabajosFallidos.incrementAndGet();
+            } else {
+                // Reintento con espera creciente
+                Instant reintento = Fechas.ahora().plusMillis(pausaMs * 100L * trabajo.getIntentos());
+                mongoTemplate.updateFirst(porId(trabajo), new Update().set("estado", PENDIENTE)
+                        .set("bloqueadoHasta", reintento).set("error", e.getMessage())
+                        .set("borrados", trabajo.getBorrados()), TrabajoLimpieza.class);
+            }
+        }
+    }
+
+    private void limpiarVehiculo(TrabajoLimpieza trabajo) throws InterruptedException {
+        Criteria delVehiculo = Criteria.where("vehiculoId").is(trabajo.getEntidadId());
+        for (String coleccion : DEPENDIENTES_VEHICULO) {
+            borrarPorLotes(coleccion, delVehiculo, trabajo);
+        }
+        // Rutas del vehículo (archivadas y activas): primero lo que cuelga de cada lote, después las rutas
+        for (String coleccion : RUTAS) {
+            while (true) {
+                Query lote = new Query(deLaEmpresa(coleccion, delVehiculo, trabajo)).limit(tamanoLote);
+                lote.fields().include("_id").include("usuarioId");
+                List<Document> rutas = mongoTemplate.find(lote, Document.class, coleccion);
+                if (rutas.isEmpty()) {
+                    break;
+                }
+                List<Object> ids = rutas.stream().map(d -> d.get("_id")).collect(Collectors.toList());
+                limpiarRutas(ids.stream().map(Object::toString).collect(Collectors.toList()), trabajo);
+                long borradas = mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), coleccion).getDeletedCount();
+                if (coleccion.equals("rutas")) {
+                    for (Document ruta : rutas) {
+                        String rutaId = ruta.get("_id").toString();
+                        eventosRuta.eliminada(rutaId, ruta.getString("usuarioId"));
+                        cacheEntidades.rutaEliminada(rutaId);
+                        difusion.rutaEliminada(rutaId);
+                    }
+                }
+                contar(trabajo, coleccion, borradas);
+                pausar(trabajo);
+            }
+        }
+    }
+
+    private void limpiarRutas(List<String> rutaIds, TrabajoLimpieza trabajo) throws InterruptedException {
+        Criteria deLasRutas = Criteria.where("rutaId").in(rutaIds);
+        for (String coleccion : DEPENDIENTES_RUTA) {
+            borrarPorLotes(coleccion, deLasRutas, trabajo);
+        }
+    }
+
+    private void borrarPorLotes(String coleccion, Criteria criterio, TrabajoLimpieza trabajo) throws InterruptedException {
+        while (true) {
+            List<Object> ids = idsLote(coleccion, deLaEmpresa(coleccion, criterio, trabajo), tamanoLote);
+            if (ids.isEmpty()) {
+                return;
+            }
+            long borrados = mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), coleccion).getDeletedCount();
+            contar(trabajo, coleccion, borrados);
+            pausar(trabajo);
+            if (ids.size() < tamanoLote) {
+                return;
+            }
+        }
+    }
+
+    // Con la empresa delante el lote usa los índices usuario_*; snapshots_ruta no lleva usuarioId
+    private static Criteria deLaEmpresa(String coleccion, Criteria criterio, TrabajoLimpieza trabajo) {
+        if (trabajo.getUsuarioId() == null || !MongoTemplateEmpresas.COLECCIONES_CON_EMPRESA.contains(coleccion)) {
+            return criterio;
+        }
+        return new Criteria().andOperator(Criteria.where("usuarioId").is(trabajo.getUsuarioId()), criterio);
+    }
+
+    // _id tal como está en Mongo (ObjectId o texto): las consultas por nombre de colección no lo convierten
+    private List<Object> idsLote(String coleccion, Criteria criterio, int limite) {
+        Query query = new Query(criterio).limit(limite);
+        query.fields().include("_id");
+        List<Object> ids = new ArrayList<>();
+        for (Document d : mongoTemplate.find(query, Document.class, coleccion)) {
+            ids.add(d.get("_id"));
+        }
+        return ids;
+    }
+
+    private void contar(TrabajoLimpieza trabajo, String coleccion, long borrados) {
+        trabajo.getBorrados().merge(coleccion, borrados, Long::sum);
+        documentosBorrados.addAndGet(borrados);
+        lotes.incrementAndGet();
+    }
+
+    // Pausa entre lotes y renueva el bloqueo con el progreso
+    private void pausar(TrabajoLimpieza trabajo) throws InterruptedException {
+        mongoTemplate.updateFirst(porId(trabajo), new Update()
+                .set("bloqueadoHasta", Fechas.ahora().plusMillis(bloqueoMs))
+                .set("borrados", trabajo.getBorrados()), TrabajoLimpieza.class);
+        if (pausaMs > 0) {
+            Thread.sleep(pausaMs);
+        }
+    }
+
+    private void terminar(TrabajoLimpieza trabajo, String estado, String error) {
+        Instant ahora = Fechas.ahora();
+        mongoTemplate.updateFirst(porId(trabajo), new Update()
+                .set("estado", estado)
+                .set("error", error)
+                .set("borrados", trabajo.getBorrados())
+                .set("terminado", ahora)
+                .set("expira", ahora.plus(Duration.ofDays(retencionDias))), TrabajoLimpieza.class);
+    }
+
+    private static Query porId(TrabajoLimpieza trabajo) {
+        return new Query(Criteria.where("_id").is(trabajo.getId()));
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Barrido de huérfanos
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    @Scheduled(initialDelayString = "${ecofleet.limpieza.barrido-retraso-inicial-ms:600000}",
+               fixedDelayString = "${ecofleet.limpieza.barrido-intervalo-ms:21600000}")
+    public void barrerProgramado() {
+        if (!habilitado) {
+            return;
+        }
+        try {
+            ResultadoBarrido r = barrer(false);
+            if (r.getEncolados() > 0) {
+                log.info("Barrido de huérfanos: {} vehículos y {} rutas encolados", r.getVehiculos().size(), r.getRutas().size());
+            }
+        } catch (DataAccessException e) {
+            log.warn("Barrido de huérfanos fallido: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Busca referencias a vehículos y rutas que ya no existen y encola su limpieza. Con
+     * simular solo las lista. Una ruta archivada cuenta como existente.
+     */
+    public ResultadoBarrido barrer(boolean simular) {
+        ResultadoBarrido resultado = new ResultadoBarrido();
+        resultado.setSimulado(simular);
+        if (!barriendo.compareAndSet(false, true)) {
+            resultado.setEnCurso(true);
+            return resultado;
+        }
+        long inicio = System.nanoTime();
+        try {
+            List<String> colVehiculo = new ArrayList<>(DEPENDIENTES_VEHICULO);
+            colVehiculo.addAll(RUTAS);
+            // Cada base por separado: un huérfano siempre está en la misma base que su padre
+            for (String base : mongoTemplate.bases()) {
+                ContextoEmpresa.enBase(base, () -> {
+                    List<String> vehiculos = huerfanos(colVehiculo, "vehiculoId", List.of("vehiculos"));
+                    List<String> rutas = huerfanos(DEPENDIENTES_RUTA, "rutaId", List.of("rutas", "rutas_archivadas"));
+                    resultado.getVehiculos().addAll(vehiculos);
+                    resultado.getRutas().addAll(rutas);
+                    if (!simular) {
+                        int encolados = 0;
+                        for (String id : vehiculos) {
+                            encolados += encolar(VEHICULO, id, null, "BARRIDO") ? 1 : 0;
+                        }
+                        for (String id : rutas) {
+                            encolados += encolar(RUTA, id, null, "BARRIDO") ? 1 : 0;
+                        }
+                        resultado.setEncolados(resultado.getEncolados() + encolados);
+                    }
+                });
+            }
+            if (!simular) {
+                avisar();
+            }
+        } finally {
+            resultado.setDuracionMs((System.nanoTime() - inicio) / 1_000_000);
+            ultimoBarrido = Instant.now().toString();
+            resultadoUltimoBarrido = resultado;
+            barriendo.set(false);
+        }
+        return resultado;
+    }
+
+    // Valores de campo en las colecciones dependientes que no son _id en ninguna de las padre.
+    // Un $group leído con cursor en vez de distinct: el distinct devuelve un único documento
+    // de 16 MB como máximo, que con millones de rutas no alcanza
+    private List<String> huerfanos(List<String> dependientes, String campo, List<String> padres) {
+        Set<String> huerfanos = new LinkedHashSet<>();
+        for (String coleccion : dependientes) {
+            List<Document> pipeline = List.of(
+                    new Document("$match", new Document(campo, new Document("$ne", null))),
+                    new Document("$group", new Document("_id", "$" + campo)));
+            try (MongoCursor<Document> cursor = mongoTemplate.getCollection(coleccion).aggregate(pipeline)
+                    .allowDiskUse(true).batchSize(LOTE_EXISTENCIA).iterator()) {
+                List<String> lote = new ArrayList<>(LOTE_EXISTENCIA);
+                while (cursor.hasNext() && huerfanos.size() < maxHuerfanosPorBarrido) {
+                    Object valor = cursor.next().get("_id");
+                    if (valor instanceof String texto) {
+                        lote.add(texto);
+                    }
+                    if (lote.size() == LOTE_EXISTENCIA || !cursor.hasNext()) {
+                        comprobarLote(lote, padres, huerfanos);
+                        lote.clear();
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(huerfanos);
+    }
+
+    private void comprobarLote(List<String> lote, List<String> padres, Set<String> huerfanos) {
+        if (lote.isEmpty()) {
+            return;
+        }
+        // Las referencias se guardan como texto; el _id del padre suele ser un ObjectId
+        List<Object> formas = new ArrayList<>(lote);
+        lote.stream().filter(ObjectId::isValid).map(ObjectId::new).forEach(formas::add);
+        Set<String> existentes = new HashSet<>();
+        for (String padre : padres) {
+            idsLote(padre, Criteria.where("_id").in(formas), formas.size()).forEach(id -> existentes.add(id.toString()));
+        }
+        for (String id : lote) {
+            if (!existentes.contains(id) && huerfanos.size() < maxHuerfanosPorBarrido) {
+                huerfanos.add(id);
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Consulta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public List<TrabajoLimpieza> trabajos(String estado, int limite) {
+        Query query = new Query(estado != null ? Criteria.where("estado").is(estado) : new Criteria())
+                .with(Sort.by(Sort.Direction.DESC, "creado"))
+                .limit(limite);
+        return mongoTemplate.find(query, TrabajoLimpieza.class);
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitado", habilitado);
+        stats.put("procesando", procesando.get());
+        stats.put("pendientes", mongoTemplate.count(new Query(Criteria.where("estado").in(PENDIENTE, EN_CURSO)), TrabajoLimpieza.class));
+        stats.put("fallidos", mongoTemplate.count(new Query(Criteria.where("estado").is(FALLIDO)), TrabajoLimpieza.class));
+        stats.put("trabajosCompletados", trabajosCompletados.get());
+        stats.put("trabajosFallidos", trabajosFallidos.get());
+        stats.put("documentosBorrados", documentosBorrados.get());
+        stats.put("lotes", lotes.get());
+        stats.put("tamanoLote", tamanoLote);
+        stats.put("pausaMs", pausaMs);
+        stats.put("ultimoBarrido", ultimoBarrido);
+        stats.put("resultadoUltimoBarrido", resultadoUltimoBarrido);
+        return stats;
+    }
+
+    @Data
+    public static class ResultadoBarrido {
+        private boolean enCurso;
+        private boolean simulado;
+        private List<String> vehiculos = new ArrayList<>();
+        private List<String> rutas = new ArrayList<>();
+        private int encolados;
+        private long duracionMs;
+    }
+}
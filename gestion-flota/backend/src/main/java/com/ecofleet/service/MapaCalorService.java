@@ -0,0 +1,415 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.TeselaCalor;
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.GeoUtils;
+import com.ecofleet.util.Geohash;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mapas de calor de actividad histórica precalculados en teselas geohash.
+ *
+ * Cada fix GPS aceptado se suma, en cada una de las precisiones configuradas, a la celda
+ * geohash donde cae: número de fixes y velocidad del tramo desde el fix anterior. El
+ * tiempo hasta el fix siguiente de la ruta (permanencia) se suma a la celda del fix
+ * anterior, que es donde estuvo el vehículo mientras tanto; los huecos más largos que
+ * permanencia-maxima-ms son pérdida de señal y no cuentan.
+ *
+ * Los incrementos se acumulan en memoria y se vuelcan cada vaciado-ms con un bulk de
+ * $inc con upsert, un documento TeselaCalor por empresa, día, precisión y prefijo. Cada
+ * fix lo acepta una sola réplica, así que no hay doble conteo entre réplicas. El endpoint
+ * de consulta lee solo esos agregados, nunca las posiciones.
+ */
+@Service
+public class MapaCalorService {
+
+    private static final Logger log = LoggerFactory.getLogger(MapaCalorService.class);
+
+    private static final String COLECCION = "mapa_calor";
+    private static final int PIXELES_TESELA = 256;
+    // El prefijo del documento tiene dos caracteres menos que la celda: 32 x 32 celdas
+    private static final int CARACTERES_POR_DOCUMENTO = 2;
+    // Con más prefijos que estos se leen todos los documentos de la precisión y se filtra
+    private static final int MAX_PREFIJOS = 256;
+
+    @Value("${ecofleet.heatmap.precisiones:4,5,6,7}")
+    private int[] precisiones;
+    @Value("${ecofleet.heatmap.celda-px-minima:8}")
+    private int celdaPxMinima;
+    @Value("${ecofleet.heatmap.permanencia-maxima-ms:300000}")
+    private long permanenciaMaximaMs;
+    @Value("${ecofleet.heatmap.max-documentos-pendientes:20000}")
+    private int maxDocumentosPendientes;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // Id del documento → sufijo → incrementos; se sustituye entero en cada vaciado
+    private Map<String, Pendiente> pendientes = new HashMap<>();
+
+    private final AtomicLong fixes = new AtomicLong();
+    private final AtomicLong vaciados = new AtomicLong();
+    private final AtomicLong documentosEscritos = new AtomicLong();
+    private final AtomicLong fixesDescartados = new AtomicLong();
+    private final AtomicLong celdasPerdidas = new AtomicLong();
+    private Timer consultas;
+
+    private static final class Pendiente {
+        final String usuarioId;
+        final LocalDate dia;
+        final int precision;
+        final String prefijo;
+        final Map<String, double[]> celdas = new HashMap<>(); // {fixes, permanenciaMs, sumaVelocidad, muestras}
+
+        Pendiente(String usuarioId, LocalDate dia, int precision, String prefijo) {
+            this.usuarioId = usuarioId;
+            this.dia = dia;
+            this.precision = precision;
+            this.prefijo = prefijo;
+        }
+    }
+
+    @PostConstruct
+    void iniciar() {
+        // Cada documento necesita al menos un carácter de celda por debajo del prefijo
+        precisiones = Arrays.stream(precisiones)
+                .filter(p -> p > CARACTERES_POR_DOCUMENTO && p <= 12)
+                .sorted().distinct().toArray();
+        if (precisiones.length == 0) {
+            throw new IllegalStateException("ecofleet.heatmap.precisiones debe incluir alguna precisión entre 3 y 12");
+        }
+        consultas = Timer.builder("ecofleet.heatmap.consulta").register(registry);
+        Gauge.builder("ecofleet.heatmap.documentos.pendientes", this, MapaCalorService::documentosPendientes).register(registry);
+    }
+
+    @PreDestroy
+    void detener() {
+        vaciar();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Entrada: fixes aceptados
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Suma un fix ya guardado. latitudAnterior, longitudAnterior e instanteAnterior son la
+     * posición que tenía la ruta antes de este fix (null si es el primero).
+     */
+    public void registrarFix(Ruta ruta, Double latitudAnterior, Double longitudAnterior, Instant instanteAnterior) {
+        Double latitud = ruta.getLatitudActual();
+        Double longitud = ruta.getLongitudActual();
+        Instant instante = ruta.getUltimaActualizacionGPS();
+        if (ruta.getUsuarioId() == null || latitud == null || longitud == null || instante == null) {
+            return;
+        }
+        boolean hayAnterior = latitudAnterior != null && longitudAnterior != null && instanteAnterior != null;
+        long intervaloMs = hayAnterior ? instante.toEpochMilli() - instanteAnterior.toEpochMilli() : -1;
+        boolean tramoValido = intervaloMs > 0 && intervaloMs <= permanenciaMaximaMs;
+        double velocidadKmh = tramoValido
+                ? GeoUtils.distanciaKm(latitudAnterior, longitudAnterior, latitud, longitud)
+                        / (intervaloMs / 3_600_000.0)
+                : 0;
+
+        LocalDate dia = LocalDate.ofInstant(instante, ZoneOffset.UTC);
+        synchronized (this) {
+            if (pendientes.size() >= maxDocumentosPendientes) {
+                fixesDescartados.incrementAndGet();
+                return;
+            }
+            for (int precision : precisiones) {
+                double[] celda = celda(ruta.getUsuarioId(), dia, Geohash.codificar(latitud, longitud, precision));
+                celda[0]++;
+                if (tramoValido) {
+                    celda[2] += velocidadKmh;
+                    celda[3]++;
+                }
+            }
+            if (tramoValido) {
+                LocalDate diaAnterior = LocalDate.ofInstant(instanteAnterior, ZoneOffset.UTC);
+                for (int precision : precisiones) {
+                    celda(ruta.getUsuarioId(), diaAnterior, Geohash.codificar(latitudAnterior, longitudAnterior, precision))[1] += intervaloMs;
+                }
+            }
+        }
+        fixes.incrementAndGet();
+    }
+
+    private double[] celda(String usuarioId, LocalDate dia, String geohash) {
+        int corte = geohash.length() - CARACTERES_POR_DOCUMENTO;
+        String prefijo = geohash.substring(0, corte);
+        String id = usuarioId + "|" + dia + "|" + geohash.length() + "|" + prefijo;
+        Pendiente pendiente = pendientes.computeIfAbsent(id, k -> new Pendiente(usuarioId, dia, geohash.length(), prefijo));
+        return pendiente.celdas.computeIfAbsent(geohash.substring(corte), k -> new double[4]);
+    }
+
+    private synchronized void devolver(String id, Pendiente retenido) {
+        pendientes.merge(id, retenido, (nuevo, viejo) -> {
+            viejo.celdas.forEach((geohash, v) -> nuevo.celdas.merge(geohash, v, (a, b) -> {
+                for (int i = 0; i < a.length; i++) {
+                    a[i] += b[i];
+                }
+                return a;
+            }));
+            return nuevo;
+        });
+    }
+
+    private synchronized int documentosPendientes() {
+        return pendientes.size();
+    }
+
+    @Scheduled(fixedDelayString = "${ecofleet.heatmap.vaciado-ms:10000}")
+    public void vaciar() {
+        Map<String, Pendiente> lote;
+        synchronized (this) {
+            if (pendientes.isEmpty()) {
+                return;
+            }
+            lote = pendientes;
+            pendientes = new HashMap<>();
+        }
+        // Las empresas en traslado a su base no escriben en la compartida: esperan al siguiente vaciado
+        lote.entrySet().removeIf(entrada -> {
+            if (!mongoTemplate.escrituraCongelada(entrada.getValue().usuarioId)) {
+                return false;
+            }
+            devolver(entrada.getKey(), entrada.getValue());
+            return true;
+        });
+        // Un bulk por base: cada empresa puede estar en la suya
+        Map<String, List<WriteModel<Document>>> porBase = new LinkedHashMap<>();
+        Map<String, Long> celdasPorBase = new HashMap<>();
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        for (Map.Entry<String, Pendiente> entrada : lote.entrySet()) {
+            Pendiente p = entrada.getValue();
+            Object dia = mongoTemplate.getConverter().convertToMongoType(p.dia);
+            List<Bson> cambios = new ArrayList<>();
+            cambios.add(Updates.setOnInsert("usuarioId", p.usuarioId));
+            cambios.add(Updates.setOnInsert("dia", dia));
+            cambios.add(Updates.setOnInsert("precision", p.precision));
+            cambios.add(Updates.setOnInsert("prefijo", p.prefijo));
+            for (Map.Entry<String, double[]> celda : p.celdas.entrySet()) {
+                String ruta = "c." + celda.getKey() + ".";
+                double[] v = celda.getValue();
+                cambios.add(Updates.inc(ruta + "n", (long) v[0]));
+                cambios.add(Updates.inc(ruta + "t", (long) v[1]));
+                cambios.add(Updates.inc(ruta + "v", v[2]));
+                cambios.add(Updates.inc(ruta + "m", (long) v[3]));
+            }
+            String base = mongoTemplate.baseDe(p.usuarioId);
+            porBase.computeIfAbsent(base, k -> new ArrayList<>())
+                    .add(new UpdateOneModel<>(Filters.eq("_id", entrada.getKey()), Updates.combine(cambios), upsert));
+            celdasPorBase.merge(base, (long) p.celdas.size(), Long::sum);
+        }
+        porBase.forEach((base, escrituras) -> ContextoEmpresa.enBase(base, () -> {
+            try {
+                mongoTemplate.getCollection(COLECCION).bulkWrite(escrituras, new BulkWriteOptions().ordered(false));
+                documentosEscritos.addAndGet(escrituras.size());
+            } catch (MongoException e) {
+                // No se reintenta: con un bulk desordenado parte pudo aplicarse y se contaría dos veces
+                celdasPerdidas.addAndGet(celdasPorBase.get(base));
+                log.warn("No se pudo volcar el mapa de calor ({} documentos en {}): {}", escrituras.size(), base, e.getMessage());
+            }
+        }));
+        vaciados.incrementAndGet();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Consulta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    // Precisión más fina cuyas celdas miden al menos celdaPxMinima píxeles en el zoom dado
+    public int precisionPara(int zoom) {
+        double pixelesPorGrado = PIXELES_TESELA * Math.pow(2, zoom) / 360;
+        int elegida = precisiones[0];
+        for (int precision : precisiones) {
+            if (Geohash.anchoGrados(precision) * pixelesPorGrado >= celdaPxMinima) {
+                elegida = precision;
+            }
+        }
+        return elegida;
+    }
+
+    /**
+     * Celdas con actividad de la empresa dentro del bbox entre dos días (ambos incluidos).
+     * Si oeste > este el bbox cruza el antimeridiano.
+     */
+    public Map<String, Object> heatmap(String usuarioId, int zoom, double oeste, double sur, double este, double norte,
+                                       LocalDate desde, LocalDate hasta) {
+        long inicio = System.nanoTime();
+        int precision = precisionPara(zoom);
+        Criteria criterio = Criteria.where("usuarioId").is(usuarioId).and("precision").is(precision);
+        Set<String> prefijos = prefijos(precision - CARACTERES_POR_DOCUMENTO, oeste, sur, este, norte);
+        if (prefijos != null) {
+            criterio = criterio.and("prefijo").in(prefijos);
+        }
+        criterio = criterio.and("dia").gte(desde).lte(hasta);
+        List<TeselaCalor> teselas = mongoTemplate.find(new Query(criterio), TeselaCalor.class);
+
+        // Suma de los días por celda
+        Map<String, double[]> porCelda = new HashMap<>();
+        for (TeselaCalor tesela : teselas) {
+            if (tesela.getCeldas() == null) {
+                continue;
+            }
+            for (Map.Entry<String, TeselaCalor.Celda> entrada : tesela.getCeldas().entrySet()) {
+                TeselaCalor.Celda c = entrada.getValue();
+                double[] suma = porCelda.computeIfAbsent(tesela.getPrefijo() + entrada.getKey(), k -> new double[4]);
+                suma[0] += valor(c.getFixes());
+                suma[1] += valor(c.getPermanenciaMs());
+                suma[2] += c.getSumaVelocidadKmh() != null ? c.getSumaVelocidadKmh() : 0;
+                suma[3] += valor(c.getMuestrasVelocidad());
+            }
+        }
+
+        List<Map<String, Object>> celdas = new ArrayList<>();
+        long maximoFixes = 0;
+        for (Map.Entry<String, double[]> entrada : porCelda.entrySet()) {
+            double[] limites = Geohash.limites(entrada.getKey());
+            double latitud = (limites[0] + limites[2]) / 2;
+            double longitud = (limites[1] + limites[3]) / 2;
+            if (!dentro(latitud, longitud, oeste, sur, este, norte)) {
+                continue;
+            }
+            double[] s = entrada.getValue();
+            Map<String, Object> celda = new LinkedHashMap<>();
+            celda.put("geohash", entrada.getKey());
+            celda.put("latitud", latitud);
+            celda.put("longitud", longitud);
+            celda.put("fixes", (long) s[0]);
+            celda.put("permanenciaS", (long) s[1] / 1000);
+            celda.put("velocidadMediaKmh", s[3] > 0 ? Math.round(s[2] / s[3] * 10) / 10.0 : null);
+            celdas.add(celda);
+            maximoFixes = Math.max(maximoFixes, (long) s[0]);
+        }
+        long duracion = System.nanoTime() - inicio;
+        consultas.record(duracion, TimeUnit.NANOSECONDS);
+
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("zoom", zoom);
+        resultado.put("precision", precision);
+        resultado.put("desde", desde.toString());
+        resultado.put("hasta", hasta.toString());
+        resultado.put("anchoGrados", Geohash.anchoGrados(precision));
+        resultado.put("altoGrados", Geohash.altoGrados(precision));
+        resultado.put("maximoFixes", maximoFixes);
+        resultado.put("documentos", teselas.size());
+        resultado.put("celdas", celdas);
+        resultado.put("milisegundos", duracion / 1_000_000);
+        return resultado;
+    }
+
+    // Prefijos de la longitud dada que tocan el bbox, o null si son demasiados
+    private static Set<String> prefijos(int longitud, double oeste, double sur, double este, double norte) {
+        if (longitud <= 0) {
+            return null;
+        }
+        if (oeste > este) {
+            Set<String> oesteAntimeridiano = prefijos(longitud, oeste, sur, 180, norte);
+            Set<String> esteAntimeridiano = prefijos(longitud, -180, sur, este, norte);
+            if (oesteAntimeridiano == null || esteAntimeridiano == null
+                    || oesteAntimeridiano.size() + esteAntimeridiano.size() > MAX_PREFIJOS) {
+                return null;
+            }
+            oesteAntimeridiano.addAll(esteAntimeridiano);
+            return oesteAntimeridiano;
+        }
+        double ancho = Geohash.anchoGrados(longitud);
+        double alto = Geohash.altoGrados(longitud);
+        long columnas = (long) Math.floor((este + 180) / ancho) - (long) Math.floor((oeste + 180) / ancho) + 1;
+        long filas = (long) Math.floor((norte + 90) / alto) - (long) Math.floor((sur + 90) / alto) + 1;
+        if (columnas * filas > MAX_PREFIJOS) {
+            return null;
+        }
+        Set<String> resultado = new LinkedHashSet<>();
+        // Se recorre por centros de celda para no caer en el borde de la vecina
+        double lonInicio = (Math.floor((oeste + 180) / ancho) + 0.5) * ancho - 180;
+        double latInicio = (Math.floor((sur + 90) / alto) + 0.5) * alto - 90;
+        for (long i = 0; i < columnas; i++) {
+            for (long j = 0; j < filas; j++) {
+                double lat = Math.min(90, latInicio + j * alto);
+                double lon = Math.min(180, lonInicio + i * ancho);
+                resultado.add(Geohash.codificar(lat, lon, longitud));
+            }
+        }
+        return resultado;
+    }
+
+    private static boolean dentro(double latitud, double longitud, double oeste, double sur, double este, double norte) {
+        if (latitud < sur || latitud > norte) {
+            return false;
+        }
+        return oeste <= este
+                ? longitud >= oeste && longitud <= este
+                : longitud >= oeste || longitud <= este;
+    }
+
+    private static long valor(Long numero) {
+        return numero != null ? numero : 0;
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("precisiones", precisiones);
+        stats.put("fixes", fixes.get());
+        stats.put("documentosPendientes", documentosPendientes());
+        stats.put("vaciados", vaciados.get());
+        stats.put("documentosEscritos", documentosEscritos.get());
+        stats.put("fixesDescartados", fixesDescartados.get());
+        stats.put("celdasPerdidas", celdasPerdidas.get());
+        stats.put("consultas", consultas.count());
+        stats.put("consultaMediaMs", consultas.mean(TimeUnit.MILLISECONDS));
+        stats.put("consultaMaximaMs", consultas.max(TimeUnit.MILLISECONDS));
+        try {
+            AtomicLong documentos = new AtomicLong();
+            for (String base : mongoTemplate.bases()) {
+                ContextoEmpresa.enBase(base, () -> documentos.addAndGet(mongoTemplate.getCollection(COLECCION).estimatedDocumentCount()));
+            }
+            stats.put("documentos", documentos.get());
+        } catch (DataAccessException | MongoException e) {
+            stats.put("documentos", null);
+        }
+        return stats;
+    }
+}
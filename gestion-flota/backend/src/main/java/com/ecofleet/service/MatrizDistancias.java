@@ -0,0 +1,273 @@
+package com.ecofleet.service;
+
+import com.ecofleet.util.GeoUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Distancias entre trabajos (rutas) para el optimizador de asignación.
+ *
+ * Cada trabajo va de su origen a su destino. El coste "en vacío" entre dos trabajos
+ * i → j es la distancia del destino de i al origen de j. Para instancias pequeñas la
+ * matriz se guarda completa (float); para las grandes se calcula bajo demanda y solo
+ * se precalculan, con una rejilla espacial, las listas de vecinos más cercanos que
+ * usa la búsqueda local.
+ * Es inmutable, así que puede compartirse entre hilos y cachearse entre peticiones.
+ */
+public class MatrizDistancias {
+
+    // Por encima de este número de trabajos no se guarda la matriz completa (2048² floats = 16 MB)
+    static final int LIMITE_MATRIZ_DENSA = 2048;
+
+    private final int n;
+    private final int numVecinos;
+    private final long bytes;
+    private final double[] latOrigen, lonOrigen, latDestino, lonDestino;
+    private final double[] longitudTrabajo;
+    private final float[] densa;
+    private final int[][] vecinosEntrada; // trabajos k con menor enVacio(k, j)
+    private final int[][] vecinosSalida;  // trabajos k con menor enVacio(j, k)
+
+    public MatrizDistancias(double[] latOrigen, double[] lonOrigen, double[] latDestino, double[] lonDestino,
+                            double[] longitudTrabajo, int numVecinos, ForkJoinPool pool) {
+        this.n = latOrigen.length;
+        this.numVecinos = numVecinos;
+        this.latOrigen = latOrigen;
+        this.lonOrigen = lonOrigen;
+        this.latDestino = latDestino;
+        this.lonDestino = lonDestino;
+        this.longitudTrabajo = longitudTrabajo;
+
+        if (n <= LIMITE_MATRIZ_DENSA) {
+            densa = new float[n * n];
+            ejecutar(pool, n, i -> {
+                for (int j = 0; j < n; j++) {
+                    densa[i * n + j] = (float) calcular(i, j);
+                }
+            });
+        } else {
+            densa = null;
+        }
+
+        int k = Math.min(numVecinos, Math.max(0, n - 1));
+        vecinosEntrada = new int[n][];
+        vecinosSalida = new int[n][];
+        Rejilla origenes = new Rejilla(latOrigen, lonOrigen);
+        Rejilla destinos = new Rejilla(latDestino, lonDestino);
+        ejecutar(pool, n, j -> {
+            vecinosSalida[j] = origenes.masCercanos(latDestino[j], lonDestino[j], j, k, otro -> enVacio(j, otro));
+            vecinosEntrada[j] = destinos.masCercanos(latOrigen[j], lonOrigen[j], j, k, otro -> enVacio(otro, j));
+        });
+
+        long memoria = 5L * 8 * n + (densa != null ? 4L * densa.length : 0);
+        for (int j = 0; j < n; j++) {
+            // Cabecera de cada array de vecinos (~16 bytes) más sus enteros
+            memoria += 32 + 4L * (vecinosEntrada[j].length + vecinosSalida[j].length);
+        }
+        this.bytes = memoria;
+    }
+
+    public int tamano() {
+        return n;
+    }
+
+    // Memoria aproximada que ocupa, para acotar la caché del optimizador
+    public long bytes() {
+        return bytes;
+    }
+
+    // true si se calculó exactamente con estos datos: solo entonces se puede reutilizar
+    public boolean calculadaPara(double[] latOrigen, double[] lonOrigen, double[] latDestino, double[] lonDestino,
+                                 double[] longitudTrabajo, int numVecinos) {
+        return this.numVecinos == numVecinos
+                && Arrays.equals(this.latOrigen, latOrigen) && Arrays.equals(this.lonOrigen, lonOrigen)
+                && Arrays.equals(this.latDestino, latDestino) && Arrays.equals(this.lonDestino, lonDestino)
+                && Arrays.equals(this.longitudTrabajo, longitudTrabajo);
+    }
+
+    // Distancia en vacío del destino de i al origen de j; -1 representa el inicio o el final del recorrido
+    public double enVacio(int i, int j) {
+        if (i < 0 || j < 0) {
+            return 0.0;
+        }
+        return densa != null ? densa[i * n + j] : calcular(i, j);
+    }
+
+    // Kilómetros con carga del propio trabajo (origen → destino)
+    public double longitud(int j) {
+        return longitudTrabajo[j];
+    }
+
+    public int[] vecinosEntrada(int j) {
+        return vecinosEntrada[j];
+    }
+
+    public int[] vecinosSalida(int j) {
+        return vecinosSalida[j];
+    }
+
+    public double latOrigen(int j) {
+        return latOrigen[j];
+    }
+
+    public double lonOrigen(int j) {
+        return lonOrigen[j];
+    }
+
+    private double calcular(int i, int j) {
+        return GeoUtils.distanciaKm(latDestino[i], lonDestino[i], latOrigen[j], lonOrigen[j]);
+    }
+
+    private static void ejecutar(ForkJoinPool pool, int n, IntConsumer tarea) {
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(tarea)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Cálculo de distancias interrumpido", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error calculando distancias", e.getCause());
+        }
+    }
+
+    /**
+     * Rejilla uniforme sobre una proyección equirectangular de los puntos, para buscar
+     * los k más cercanos mirando solo las celdas alrededor en lugar de los n puntos.
+     */
+    private static class Rejilla {
+        private static final double KM_POR_GRADO = 111.2;
+        private static final int MAX_CELDAS_POR_PUNTO = 32;
+
+        private final double[] lat, lon;
+        private final double latMin, lonMin, cosLat, celdaKm;
+        private final int columnas, filas;
+        private final int[] inicioCelda; // índice en "puntos" donde empieza cada celda (CSR)
+        private final int[] puntos;
+
+        Rejilla(double[] lat, double[] lon) {
+            this.lat = lat;
+            this.lon = lon;
+            int n = lat.length;
+            double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                minLat = Math.min(minLat, lat[i]);
+                maxLat = Math.max(maxLat, lat[i]);
+                minLon = Math.min(minLon, lon[i]);
+                maxLon = Math.max(maxLon, lon[i]);
+            }
+            latMin = minLat;
+            lonMin = minLon;
+            cosLat = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+            double anchoKm = Math.max(1e-3, (maxLon - minLon) * KM_POR_GRADO * cosLat);
+            double altoKm = Math.max(1e-3, (maxLat - minLat) * KM_POR_GRADO);
+            // Unos 2 puntos por celda ocupada: los puntos se agrupan en ciudades, así que se
+            // parte del área total y se refina mientras las celdas ocupadas estén muy llenas
+            double celda = Math.max(0.05, Math.sqrt(anchoKm * altoKm / Math.max(1, n / 2.0)));
+            for (int intento = 0; intento < 4; intento++) {
+                double porCelda = (double) n / celdasOcupadas(lat, lon, minLat, minLon, cosLat, celda);
+                double refinada = celda / Math.sqrt(porCelda / 2.0);
+                if (porCelda <= 4 || refinada < 0.05 || totalCeldas(anchoKm, altoKm, refinada) > MAX_CELDAS_POR_PUNTO * (long) n) {
+                    break;
+                }
+                celda = refinada;
+            }
+            celdaKm = celda;
+            columnas = (int) (anchoKm / celdaKm) + 1;
+            filas = (int) (altoKm / celdaKm) + 1;
+
+            int[] celdaDe = new int[n];
+            inicioCelda = new int[columnas * filas + 1];
+            for (int i = 0; i < n; i++) {
+                celdaDe[i] = fila(lat[i]) * columnas + columna(lon[i]);
+                inicioCelda[celdaDe[i] + 1]++;
+            }
+            for (int c = 0; c < columnas * filas; c++) {
+                inicioCelda[c + 1] += inicioCelda[c];
+            }
+            puntos = new int[n];
+            int[] llenado = Arrays.copyOf(inicioCelda, inicioCelda.length - 1);
+            for (int i = 0; i < n; i++) {
+                puntos[llenado[celdaDe[i]]++] = i;
+            }
+        }
+
+        private static long totalCeldas(double anchoKm, double altoKm, double celda) {
+            return ((long) (anchoKm / celda) + 1) * ((long) (altoKm / celda) + 1);
+        }
+
+        private static int celdasOcupadas(double[] lat, double[] lon, double minLat, double minLon, double cosLat, double celda) {
+            Set<Long> ocupadas = new HashSet<>();
+            for (int i = 0; i < lat.length; i++) {
+                long fy = (long) ((lat[i] - minLat) * KM_POR_GRADO / celda);
+                long cx = (long) ((lon[i] - minLon) * KM_POR_GRADO * cosLat / celda);
+                ocupadas.add(fy * 1_000_003L + cx);
+            }
+            return Math.max(1, ocupadas.size());
+        }
+
+        private int columna(double lonPunto) {
+            return Math.min(columnas - 1, Math.max(0, (int) ((lonPunto - lonMin) * KM_POR_GRADO * cosLat / celdaKm)));
+        }
+
+        private int fila(double latPunto) {
+            return Math.min(filas - 1, Math.max(0, (int) ((latPunto - latMin) * KM_POR_GRADO / celdaKm)));
+        }
+
+        // Recorre anillos de celdas crecientes hasta que ninguna celda sin visitar pueda mejorar el k-ésimo
+        int[] masCercanos(double latQ, double lonQ, int excluido, int k, IntToDoubleFunction distancia) {
+            int[] mejores = new int[k];
+            double[] dist = new double[k];
+            Arrays.fill(dist, Double.MAX_VALUE);
+            Arrays.fill(mejores, -1);
+            if (k == 0) {
+                return mejores;
+            }
+            int cx = columna(lonQ), cy = fila(latQ);
+            int maxAnillo = Math.max(columnas, filas);
+            for (int r = 0; r <= maxAnillo; r++) {
+                for (int y = cy - r; y <= cy + r; y++) {
+                    if (y < 0 || y >= filas) continue;
+                    boolean borde = y == cy - r || y == cy + r;
+                    for (int x = cx - r; x <= cx + r; x += borde ? 1 : 2 * r) {
+                        if (x >= 0 && x < columnas) {
+                            int c = y * columnas + x;
+                            for (int p = inicioCelda[c]; p < inicioCelda[c + 1]; p++) {
+                                int otro = puntos[p];
+                                if (otro != excluido) {
+                                    insertarOrdenado(mejores, dist, otro, distancia.applyAsDouble(otro));
+                                }
+                            }
+                        }
+                        if (r == 0) break;
+                    }
+                }
+                // Margen del 10% por la diferencia entre la proyección plana y Haversine
+                if (mejores[k - 1] != -1 && r * celdaKm > dist[k - 1] * 1.1) {
+                    break;
+                }
+            }
+            return mejores;
+        }
+
+        private static void insertarOrdenado(int[] mejores, double[] dist, int candidato, double d) {
+            int k = dist.length;
+            if (d >= dist[k - 1]) {
+                return;
+            }
+            int pos = k - 1;
+            while (pos > 0 && dist[pos - 1] > d) {
+                dist[pos] = dist[pos - 1];
+                mejores[pos] = mejores[pos - 1];
+                pos--;
+            }
+            dist[pos] = d;
+            mejores[pos] = candidato;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.Mantenimiento;
+import com.ecofleet.model.MantenimientoCorrectivo;
+import com.ecofleet.model.MantenimientoPreventivo;
+import com.ecofleet.model.MantenimientoResumen;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.RutaResumen;
+import com.ecofleet.repository.RutaRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bytes y CPU de serialización de los listados con las entidades completas frente a los
+ * modelos de listado (RutaResumen, MantenimientoResumen), con los datos reales de una
+ * empresa.
+ *
+ * Por endpoint da el JSON sin comprimir, en gzip y lo que realmente viaja: Tomcat solo
+ * comprime si la respuesta llega al umbral de server.compression.min-response-size. La CPU
+ * es tiempo de CPU del hilo por serialización con el ObjectMapper de la aplicación, tras
+ * un calentamiento.
+ */
+@Service
+public class MedicionRespuestasService {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private RutaRepository rutaRepository;
+
+    @Value("${server.compression.enabled:false}")
+    private boolean compresion;
+
+    @Value("${server.compression.min-response-size:2KB}")
+    private DataSize umbralCompresion;
+
+    public Map<String, Object> benchmark(String usuarioId, int iteraciones) {
+        List<Ruta> rutas = rutaRepository.findByUsuarioId(usuarioId);
+        List<Object> mantenimientos = new ArrayList<>();
+        Query deLaEmpresa = new Query(Criteria.where("usuarioId").is(usuarioId));
+        mantenimientos.addAll(mongoTemplate.find(deLaEmpresa, Mantenimiento.class));
+        mantenimientos.addAll(mongoTemplate.find(deLaEmpresa, MantenimientoPreventivo.class));
+        mantenimientos.addAll(mongoTemplate.find(deLaEmpresa, MantenimientoCorrectivo.class));
+
+        // Para los listados por vehículo, el vehículo de la empresa con más registros
+        List<Ruta> rutasVehiculo = masNumeroso(rutas, Ruta::getVehiculoId);
+        List<Object> mantenimientosVehiculo = masNumeroso(mantenimientos, m -> MantenimientoResumen.de(m).getVehiculoId());
+
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("compresion", compresion);
+        resultado.put("umbralCompresionBytes", umbralCompresion.toBytes());
+        resultado.put("iteraciones", iteraciones);
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        endpoints.put("GET /api/rutas", medir(rutas, resumirRutas(rutas), iteraciones));
+        endpoints.put("GET /api/rutas/vehiculo/{id}", medir(rutasVehiculo, resumirRutas(rutasVehiculo), iteraciones));
+        endpoints.put("GET /api/mantenimientos", medir(mantenimientos, resumirMantenimientos(mantenimientos), iteraciones));
+        endpoints.put("GET /api/mantenimientos/vehiculo/{id}",
+                medir(mantenimientosVehiculo, resumirMantenimientos(mantenimientosVehiculo), iteraciones));
+        resultado.put("endpoints", endpoints);
+        return resultado;
+    }
+
+    private Map<String, Object> medir(List<?> completa, List<?> resumen, int iteraciones) {
+        Map<String, Object> antes = medirVista(completa, iteraciones);
+        Map<String, Object> despues = medirVista(resumen, iteraciones);
+        Map<String, Object> fila = new LinkedHashMap<>();
+        fila.put("elementos", completa.size());
+        fila.put("completa", antes);
+        fila.put("resumen", despues);
+        // Antes no se comprimía nada: se compara con la entidad completa sin comprimir
+        fila.put("ahorroBytesEnviadosPct", ahorro((long) antes.get("bytesSinComprimir"), (long) despues.get("bytesEnviados")));
+        fila.put("ahorroCpuPct", ahorro((double) antes.get("cpuUs"), (double) despues.get("cpuUs")));
+        return fila;
+    }
+
+    private Map<String, Object> medirVista(List<?> lista, int iteraciones) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(lista);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        long gzip = gzip(json);
+        boolean comprimida = compresion && json.length >= umbralCompresion.toBytes();
+
+        ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+        boolean cpuHilo = hilos.isCurrentThreadCpuTimeSupported();
+        for (int i = 0; i < Math.max(1, iteraciones / 10); i++) {
+            serializar(lista);
+        }
+        long inicio = cpuHilo ? hilos.getCurrentThreadCpuTime() : System.nanoTime();
+        for (int i = 0; i < iteraciones; i++) {
+            serializar(lista);
+        }
+        long fin = cpuHilo ? hilos.getCurrentThreadCpuTime() : System.nanoTime();
+
+        Map<String, Object> medida = new LinkedHashMap<>();
+        medida.put("bytesSinComprimir", (long) json.length);
+        medida.put("bytesGzip", gzip);
+        medida.put("bytesEnviados", comprimida ? gzip : json.length);
+        medida.put("cpuUs", redondear((fin - inicio) / 1000.0 / iteraciones));
+        return medida;
+    }
+
+    private void serializar(List<?> lista) {
+        try {
+            objectMapper.writeValue(OutputStream.nullOutputStream(), lista);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Mismo nivel de compresión que usa Tomcat (el de Deflater por defecto)
+    private static long gzip(byte[] json) {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(salida)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return salida.size();
+    }
+
+    private static <T> List<T> masNumeroso(List<T> elementos, Function<T, String> vehiculo) {
+        Map<String, List<T>> porVehiculo = elementos.stream()
+                .filter(e -> vehiculo.apply(e) != null)
+                .collect(Collectors.groupingBy(vehiculo));
+        return porVehiculo.values().stream()
+                .max(Comparator.comparingInt(List::size))
+                .orElse(List.of());
+    }
+
+    private static List<RutaResumen> resumirRutas(List<Ruta> rutas) {
+        return rutas.stream().map(RutaResumen::de).toList();
+    }
+
+    private static List<MantenimientoResumen> resumirMantenimientos(List<Object> mantenimientos) {
+        return mantenimientos.stream().map(MantenimientoResumen::de).toList();
+    }
+
+    private static double ahorro(double antes, double despues) {
+        return antes > 0 ? redondear(100 * (antes - despues) / antes) : 0;
+    }
+
+    private static double redondear(double valor) {
+        return Math.round(valor * 100) / 100.0;
+    }
+}
@@ -0,0 +1,106 @@
+package com.ecofleet.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Métricas de negocio del tracking que no cubre la instrumentación automática de Spring
+ * (latencia HTTP por endpoint y tiempos de repositorio Mongo ya salen de Actuator).
+ *
+ * - ecofleet.gps.fixes{tenant}: posiciones GPS aceptadas por empresa
+ * - ecofleet.gps.lag.visible: desde que llega una posición hasta que la lee un visor
+ * - ecofleet.suscriptores{tipo=poll|sse}: visores activos de rutas
+ */
+@Service
+public class MetricasService {
+
+    // Un visor que no ha consultado en este tiempo deja de contar como suscriptor
+    private static final long VENTANA_POLL_MS = 30_000;
+    private static final int LIMPIAR_POLLS_CADA = 5_000;
+    // Posiciones más antiguas no se miden ni se recuerdan: así el mapa solo guarda rutas con GPS reciente
+    private static final long VENTANA_POSICION_MS = 10 * 60_000;
+    private static final int LIMPIAR_POSICIONES_CADA = 5_000;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private Timer lagVisible;
+
+    // rutaId → última posición cuyo lag ya se midió (solo se mide la primera lectura de cada posición)
+    private final ConcurrentHashMap<String, Instant> ultimaPosicionMedida = new ConcurrentHashMap<>();
+    // cliente|rutaId → instante de su última consulta
+    private final ConcurrentHashMap<String, Long> pollsRecientes = new ConcurrentHashMap<>();
+    private final AtomicInteger suscriptoresSse = new AtomicInteger();
+    // Cache de contadores para no pasar por el builder de Micrometer en cada posición
+    private final ConcurrentHashMap<String, Counter> fixesPorTenant = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void iniciar() {
+        lagVisible = Timer.builder("ecofleet.gps.lag.visible")
+                .description("Tiempo desde que llega una posición GPS hasta que la lee un visor")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("ecofleet.suscriptores", this, MetricasService::contarPollsActivos)
+                .tag("tipo", "poll")
+                .register(registry);
+        Gauge.builder("ecofleet.suscriptores", suscriptoresSse, AtomicInteger::get)
+                .tag("tipo", "sse")
+                .register(registry);
+    }
+
+    public void registrarFixGps(String tenant) {
+        fixesPorTenant.computeIfAbsent(tenant != null ? tenant : "desconocido",
+                t -> Counter.builder("ecofleet.gps.fixes").tag("tenant", t).register(registry)).increment();
+    }
+
+    // Llamar cuando un visor lee la posición de una ruta (GET de la ruta o last-location)
+    public void registrarLectura(String cliente, String rutaId, Instant ultimaActualizacionGPS) {
+        long ahora = System.currentTimeMillis();
+        if (pollsRecientes.size() > LIMPIAR_POLLS_CADA) {
+            pollsRecientes.values().removeIf(t -> ahora - t > VENTANA_POLL_MS);
+        }
+        pollsRecientes.put(cliente + "|" + rutaId, ahora);
+
+        if (ultimaActualizacionGPS == null) {
+            return;
+        }
+        if (ultimaPosicionMedida.size() > LIMPIAR_POSICIONES_CADA) {
+            // Rutas completadas, borradas o paradas: su última posición ya no cambiará
+            ultimaPosicionMedida.values().removeIf(p -> ahora - p.toEpochMilli() > VENTANA_POSICION_MS);
+        }
+        if (ahora - ultimaActualizacionGPS.toEpochMilli() > VENTANA_POSICION_MS) {
+            // Ya medida antes de barrerla, o tan antigua que no es lag de visualización
+            return;
+        }
+        Instant previa = ultimaPosicionMedida.put(rutaId, ultimaActualizacionGPS);
+        if (!ultimaActualizacionGPS.equals(previa)) {
+            Duration lag = Duration.between(ultimaActualizacionGPS, Instant.ofEpochMilli(ahora));
+            if (!lag.isNegative()) {
+                lagVisible.record(lag);
+            }
+        }
+    }
+
+    public void suscriptorSseConectado() {
+        suscriptoresSse.incrementAndGet();
+    }
+
+    public void suscriptorSseDesconectado() {
+        suscriptoresSse.decrementAndGet();
+    }
+
+    private double contarPollsActivos() {
+        long limite = System.currentTimeMillis() - VENTANA_POLL_MS;
+        return pollsRecientes.values().stream().filter(t -> t >= limite).count();
+    }
+}
@@ -0,0 +1,304 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.util.ContextoEmpresa;
+import com.ecofleet.util.Fechas;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Migración en línea de las fechas guardadas como texto ISO a Date nativo.
+ *
+ * Recorre cada colección por _id en lotes, solo los documentos que aún tienen alguno de
+ * los campos como texto, y los convierte con un bulk de updateOne. Cada update exige que
+ * el campo siga teniendo el mismo texto leído, así que si la aplicación lo reescribe entre
+ * medias gana la aplicación y la migración no pisa nada. Entre lotes hace una pausa para
+ * no competir con el tráfico, y guarda el último _id en la colección migraciones para
+ * continuar donde lo dejó tras un reinicio. Varias réplicas pueden ejecutarla a la vez:
+ * los updates condicionados la hacen idempotente.
+ *
+ * Se recorren todas las bases (la compartida y las dedicadas), con el progreso de cada
+ * base y colección por separado en migraciones. Una colección ya terminada se vuelve a recorrer si
+ * aparece algún documento con texto: el reparto de empresas puede copiar a una base
+ * dedicada documentos de la compartida que aún no se habían convertido.
+ *
+ * Mientras dura, MongoConfig registra convertidores que leen el texto antiguo.
+ */
+@Service
+public class MigracionFechasService {
+
+    private static final Logger log = LoggerFactory.getLogger(MigracionFechasService.class);
+
+    private static final String COLECCION_PROGRESO = "migraciones";
+    private static final String PREFIJO_PROGRESO = "fechas|";
+
+    // Colección → campos a convertir; "fecha" es un día (LocalDate), el resto instantes
+    private static final Map<String, List<String>> CAMPOS = new LinkedHashMap<>();
+
+    static {
+        CAMPOS.put("rutas", List.of("fecha", "ultimaActualizacionGPS", "fechaCompletada"));
+        CAMPOS.put("rutas_archivadas", List.of("fecha", "fechaCompletada", "archivadaEn"));
+    }
+
+    private static final String CAMPO_DIA = "fecha";
+
+    @Value("${ecofleet.migracion.habilitada:true}")
+    private boolean habilitada;
+    @Value("${ecofleet.migracion.tamano-lote:500}")
+    private int tamanoLote;
+    @Value("${ecofleet.migracion.pausa-ms:100}")
+    private long pausaMs;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    private final AtomicBoolean enEjecucion = new AtomicBoolean();
+    private volatile boolean detenido;
+    private volatile Thread hilo;
+    private volatile String coleccionActual; // base/colección
+    private volatile String ultimaEjecucion;
+
+    private final AtomicLong lotes = new AtomicLong();
+    private final AtomicLong convertidos = new AtomicLong();
+    private final AtomicLong ganadosPorLaAplicacion = new AtomicLong();
+    private final AtomicLong noConvertibles = new AtomicLong();
+
+    @EventListener(ApplicationReadyEvent.class)
+    void arrancar() {
+        if (habilitada) {
+            lanzar(false);
+        }
+    }
+
+    @PreDestroy
+    void detener() {
+        detenido = true;
+        Thread h = hilo;
+        if (h != null) {
+            h.interrupt();
+        }
+    }
+
+    /**
+     * Lanza la migración en segundo plano si no está ya en marcha. Con desdeCero olvida el
+     * progreso guardado y vuelve a recorrer todas las colecciones.
+     */
+    public boolean lanzar(boolean desdeCero) {
+        if (!enEjecucion.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread h = new Thread(() -> ejecutar(desdeCero), "migracion-fechas");
+        h.setDaemon(true);
+        hilo = h;
+        h.start();
+        return true;
+    }
+
+    private void ejecutar(boolean desdeCero) {
+        long inicio = System.nanoTime();
+        try {
+            for (String base : mongoTemplate.bases()) {
+                // Dentro de enBase getCollection (datos y progreso) va a la base que toca
+                ContextoEmpresa.enBase(base, () -> {
+                    try {
+                        migrarBase(base, desdeCero);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                if (detenido || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+            log.info("Migración de fechas completada en {} ms: {} campos convertidos, {} no convertibles",
+                    (System.nanoTime() - inicio) / 1_000_000, convertidos.get(), noConvertibles.get());
+        } catch (MongoException e) {
+            // Se reanuda en el siguiente arranque desde el último lote guardado
+            log.warn("Migración de fechas interrumpida en {}: {}", coleccionActual, e.getMessage());
+        } finally {
+            coleccionActual = null;
+            ultimaEjecucion = Instant.now().toString();
+            hilo = null;
+            enEjecucion.set(false);
+        }
+    }
+
+    private void migrarBase(String base, boolean desdeCero) throws InterruptedException {
+        for (Map.Entry<String, List<String>> entrada : CAMPOS.entrySet()) {
+            if (detenido) {
+                return;
+            }
+            coleccionActual = base + "/" + entrada.getKey();
+            if (desdeCero) {
+                progreso().deleteOne(Filters.eq("_id", idProgreso(entrada.getKey())));
+            }
+            migrarColeccion(entrada.getKey(), entrada.getValue());
+        }
+    }
+
+    private void migrarColeccion(String coleccion, List<String> campos) throws InterruptedException {
+        MongoCollection<Document> documentos = mongoTemplate.getCollection(coleccion);
+        Bson conTexto = conTexto(campos);
+        Document guardado = progreso().find(Filters.eq("_id", idProgreso(coleccion))).first();
+        Object ultimoId = guardado != null ? guardado.get("ultimoId") : null;
+        if (guardado != null && Boolean.TRUE.equals(guardado.getBoolean("terminada"))) {
+            if (documentos.find(conTexto).projection(Projections.include("_id")).first() == null) {
+                return;
+            }
+            // Terminada, pero llegaron documentos con texto después (copias del reparto)
+            ultimoId = null;
+        }
+
+        while (!detenido) {
+            Bson filtro = ultimoId == null ? conTexto : Filters.and(Filters.gt("_id", ultimoId), conTexto);
+            List<Document> lote = documentos.find(filtro)
+                    .projection(Projections.include(campos))
+                    .sort(Sorts.ascending("_id"))
+                    .limit(tamanoLote)
+                    .into(new ArrayList<>());
+            if (lote.isEmpty()) {
+                break;
+            }
+            List<WriteModel<Document>> escrituras = new ArrayList<>();
+            for (Document doc : lote) {
+                for (String campo : campos) {
+                    if (!(doc.get(campo) instanceof String texto)) {
+                        continue;
+                    }
+                    Object valor = convertir(campo, texto);
+                    if (valor == null) {
+                        noConvertibles.incrementAndGet();
+                        continue;
+                    }
+                    escrituras.add(new UpdateOneModel<>(
+                            Filters.and(Filters.eq("_id", doc.get("_id")), Filters.eq(campo, texto)),
+                            Updates.set(campo, valor)));
+                }
+            }
+            if (!escrituras.isEmpty()) {
+                BulkWriteResult resultado = documentos.bulkWrite(escrituras, new BulkWriteOptions().ordered(false));
+                convertidos.addAndGet(resultado.getModifiedCount());
+                ganadosPorLaAplicacion.addAndGet(escrituras.size() - resultado.getMatchedCount());
+            }
+            lotes.incrementAndGet();
+            ultimoId = lote.get(lote.size() - 1).get("_id");
+            guardarProgreso(coleccion, ultimoId, false);
+            if (lote.size() < tamanoLote) {
+                break;
+            }
+            Thread.sleep(pausaMs);
+        }
+        if (!detenido) {
+            guardarProgreso(coleccion, ultimoId, true);
+        }
+    }
+
+    private static Bson conTexto(List<String> campos) {
+        return Filters.or(campos.stream()
+                .map(campo -> Filters.type(campo, BsonType.STRING))
+                .collect(Collectors.toList()));
+    }
+
+    // Mismo tipo Mongo que escribe el conversor de Spring para LocalDate / Instant
+    private Object convertir(String campo, String texto) {
+        if (texto.isBlank()) {
+            return null;
+        }
+        try {
+            return CAMPO_DIA.equals(campo)
+                    ? mongoTemplate.getConverter().convertToMongoType(Fechas.dia(texto))
+                    : Date.from(Fechas.instante(texto));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // La compartida conserva el id de antes de haber bases dedicadas, para no repetir su progreso
+    private String idProgreso(String coleccion) {
+        String base = ContextoEmpresa.base();
+        return base == null || base.equals(mongoTemplate.getBaseCompartida())
+                ? PREFIJO_PROGRESO + coleccion : PREFIJO_PROGRESO + base + "|" + coleccion;
+    }
+
+    private MongoCollection<Document> progreso() {
+        return mongoTemplate.getCollection(COLECCION_PROGRESO);
+    }
+
+    private void guardarProgreso(String coleccion, Object ultimoId, boolean terminada) {
+        Document doc = new Document("_id", idProgreso(coleccion))
+                .append("ultimoId", ultimoId)
+                .append("terminada", terminada)
+                .append("actualizado", new Date());
+        progreso().replaceOne(Filters.eq("_id", doc.get("_id")), doc, new ReplaceOptions().upsert(true));
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("habilitada", habilitada);
+        stats.put("enEjecucion", enEjecucion.get());
+        stats.put("coleccionActual", coleccionActual);
+        stats.put("ultimaEjecucion", ultimaEjecucion);
+        stats.put("lotes", lotes.get());
+        stats.put("convertidos", convertidos.get());
+        stats.put("ganadosPorLaAplicacion", ganadosPorLaAplicacion.get());
+        stats.put("noConvertibles", noConvertibles.get());
+        Map<String, Object> pendientes = new LinkedHashMap<>();
+        Map<String, Object> progresoPorColeccion = new LinkedHashMap<>();
+        try {
+            for (String base : mongoTemplate.bases()) {
+                Map<String, Object> pendientesBase = new LinkedHashMap<>();
+                Map<String, Object> progresoBase = new LinkedHashMap<>();
+                ContextoEmpresa.enBase(base, () -> {
+                    for (Map.Entry<String, List<String>> entrada : CAMPOS.entrySet()) {
+                        pendientesBase.put(entrada.getKey(),
+                                mongoTemplate.getCollection(entrada.getKey()).countDocuments(conTexto(entrada.getValue())));
+                        Document guardado = progreso().find(Filters.eq("_id", idProgreso(entrada.getKey()))).first();
+                        if (guardado != null) {
+                            progresoBase.put(entrada.getKey(), Map.of(
+                                    "ultimoId", String.valueOf(guardado.get("ultimoId")),
+                                    "terminada", guardado.getBoolean("terminada", false)));
+                        }
+                    }
+                });
+                pendientes.put(base, pendientesBase);
+                progresoPorColeccion.put(base, progresoBase);
+            }
+        } catch (MongoException e) {
+            pendientes.put("error", e.getMessage());
+        }
+        stats.put("documentosConTexto", pendientes);
+        stats.put("progreso", progresoPorColeccion);
+        return stats;
+    }
+}
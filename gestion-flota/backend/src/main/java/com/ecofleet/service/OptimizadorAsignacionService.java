@@ -0,0 +1,402 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.Conductor;
+import com.ecofleet.model.Ruta;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.repository.ConductorRepository;
+import com.ecofleet.repository.RutaRepository;
+import com.ecofleet.repository.VehiculoRepository;
+import com.ecofleet.util.GeoUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Optimizador de asignación vehículo → rutas planificadas.
+ *
+ * Toma las rutas PLANIFICADAS de una empresa, sus vehículos libres y sus conductores
+ * activos, y reparte las rutas entre vehículos ordenando la secuencia de cada uno para
+ * minimizar km totales (con carga + en vacío) ponderados por las emisiones del vehículo.
+ * La solución inicial es voraz y después se mejora con búsqueda local en paralelo
+ * (fork-join) hasta agotar el presupuesto de tiempo.
+ */
+@Service
+public class OptimizadorAsignacionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OptimizadorAsignacionService.class);
+
+    // Límite duro para que nadie bloquee el pool con un presupuesto desmesurado
+    private static final long PRESUPUESTO_MAXIMO_MS = 30_000;
+
+    @Autowired
+    private RutaRepository rutaRepository;
+
+    @Autowired
+    private VehiculoRepository vehiculoRepository;
+
+    @Autowired
+    private ConductorRepository conductorRepository;
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @Autowired
+    private DifusionCambiosService difusion;
+
+    @Autowired
+    private CanalConductoresService canalConductores;
+
+    @Autowired
+    private EventosRutaService eventosRuta;
+
+    @Value("${ecofleet.optimizacion.presupuesto-ms:2000}")
+    private long presupuestoPorDefectoMs;
+
+    @Value("${ecofleet.optimizacion.hilos:0}")
+    private int hilos;
+
+    @Value("${ecofleet.optimizacion.vecinos:16}")
+    private int numVecinos;
+
+    // Km equivalentes que "cuesta" cada kg de CO2 en la función objetivo
+    @Value("${ecofleet.optimizacion.peso-emisiones:5.0}")
+    private double pesoEmisiones;
+
+    // Una matriz densa de 2048 trabajos ya son 16 MB: la caché se acota por memoria, no por entradas
+    @Value("${ecofleet.optimizacion.cache-matrices-mb:64}")
+    private long megasCacheMatrices;
+
+    private ForkJoinPool pool;
+
+    // Última matriz de distancias de cada empresa (LRU acotada en bytes) para no recalcularla
+    // al repetir la optimización; se protege con su propio monitor
+    private final LinkedHashMap<String, MatrizDistancias> cacheMatrices = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesCacheMatrices;
+
+    @PostConstruct
+    void iniciar() {
+        int paralelismo = hilos > 0 ? hilos : Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool(paralelismo);
+    }
+
+    @PreDestroy
+    void detener() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Optimiza las rutas planificadas de la empresa. Si aplicar es true, guarda el
+     * vehículo y el conductor elegidos en cada ruta.
+     */
+    public ResultadoOptimizacion optimizar(String usuarioId, Long presupuestoMs, Integer maxRutasPorVehiculo, boolean aplicar) {
+        List<Ruta> rutasEmpresa = rutaRepository.findByUsuarioId(usuarioId);
+
+        // Vehículos ocupados en una ruta en curso no se pueden reasignar
+        Set<String> ocupados = rutasEmpresa.stream()
+                .filter(r -> "EN_CURSO".equals(r.getEstado()) && r.getVehiculoId() != null)
+                .map(Ruta::getVehiculoId)
+                .collect(Collectors.toSet());
+
+        List<Ruta> pendientes = new ArrayList<>();
+        List<String> sinAsignar = new ArrayList<>();
+        for (Ruta r : rutasEmpresa) {
+            if (!"PLANIFICADA".equals(r.getEstado())) continue;
+            if (r.getLatitudOrigen() == null || r.getLongitudOrigen() == null
+                    || r.getLatitudDestino() == null || r.getLongitudDestino() == null) {
+                sinAsignar.add(r.getId());
+            } else {
+                pendientes.add(r);
+            }
+        }
+
+        // Con menos conductores que vehículos se usan los vehículos menos contaminantes
+        List<Conductor> conductores = conductorRepository.findByEmpresaIdAndActivoTrue(usuarioId);
+        List<Vehiculo> vehiculos = vehiculoRepository.findByUsuarioId(usuarioId).stream()
+                .filter(v -> !Boolean.FALSE.equals(v.getActivo()) && !ocupados.contains(v.getId()))
+                .sorted(Comparator.comparingDouble(v -> factorEmisiones(v.getTipoCombustible())))
+                .limit(conductores.size())
+                .collect(Collectors.toList());
+
+        Instancia instancia = Instancia.desdeRutas(pendientes, vehiculos);
+        ResultadoOptimizacion resultado = resolver(instancia, usuarioId, presupuestoMs, maxRutasPorVehiculo);
+        resultado.getSinAsignar().addAll(sinAsignar);
+
+        for (int v = 0; v < resultado.getAsignaciones().size(); v++) {
+            Asignacion a = resultado.getAsignaciones().get(v);
+            Conductor c = conductores.get(v);
+            a.setConductorId(c.getId());
+            a.setConductorNombre(c.getNombre());
+        }
+
+        if (aplicar) {
+            Map<String, Ruta> porId = pendientes.stream().collect(Collectors.toMap(Ruta::getId, r -> r));
+            List<Ruta> modificadas = new ArrayList<>();
+            List<Ruta> conductorNuevo = new ArrayList<>();
+            Map<String, Map<String, Object>> antes = new HashMap<>();
+            for (Asignacion a : resultado.getAsignaciones()) {
+                for (String rutaId : a.getRutas()) {
+                    Ruta r = porId.get(rutaId);
+                    antes.put(rutaId, eventosRuta.campos(r));
+                    if (!a.getConductorId().equals(r.getConductorId())) {
+                        conductorNuevo.add(r);
+                    }
+                    r.setVehiculoId(a.getVehiculoId());
+                    r.setConductorId(a.getConductorId());
+                    modificadas.add(r);
+                }
+            }
+            List<Ruta> guardadas = eventosRuta.guardarTodas(modificadas, antes);
+            cacheEntidades.rutasGuardadas(guardadas);
+            guardadas.forEach(difusion::rutaGuardada);
+            conductorNuevo.forEach(r -> canalConductores.avisarRuta(r, CanalConductoresService.RUTA_ASIGNADA));
+        }
+        return resultado;
+    }
+
+    /**
+     * Ejecuta el optimizador sobre una instancia generada y compara la solución voraz
+     * con la optimizada, para medir calidad y tiempos a distintas escalas.
+     */
+    public ResultadoOptimizacion benchmark(int numRutas, int numVehiculos, long semilla, Long presupuestoMs) {
+        Instancia instancia = Instancia.generar(numRutas, numVehiculos, semilla);
+        return resolver(instancia, null, presupuestoMs, null);
+    }
+
+    private ResultadoOptimizacion resolver(Instancia instancia, String claveCache, Long presupuestoMs, Integer maxRutasPorVehiculo) {
+        long presupuesto = Math.min(PRESUPUESTO_MAXIMO_MS, presupuestoMs != null ? presupuestoMs : presupuestoPorDefectoMs);
+        long inicio = System.nanoTime();
+        long limite = inicio + presupuesto * 1_000_000L;
+
+        ResultadoOptimizacion resultado = new ResultadoOptimizacion();
+        int n = instancia.rutaIds.length;
+        int numVehiculos = instancia.vehiculoIds.length;
+        if (n == 0 || numVehiculos == 0) {
+            resultado.getSinAsignar().addAll(Arrays.asList(instancia.rutaIds));
+            return resultado;
+        }
+
+        MatrizDistancias matriz = claveCache != null ? matrizEnCache(claveCache, instancia) : null;
+        if (matriz == null) {
+            matriz = new MatrizDistancias(instancia.latOrigen, instancia.lonOrigen, instancia.latDestino,
+                    instancia.lonDestino, instancia.longitud, numVecinos, pool);
+            if (claveCache != null) {
+                guardarMatriz(claveCache, matriz);
+            }
+        }
+        long finMatriz = System.nanoTime();
+
+        double[] pesos = new double[numVehiculos];
+        for (int v = 0; v < numVehiculos; v++) {
+            pesos[v] = 1.0 + pesoEmisiones * instancia.factorEmisiones[v];
+        }
+        int capacidadMinima = (n + numVehiculos - 1) / numVehiculos;
+        int capacidad = maxRutasPorVehiculo != null ? Math.max(capacidadMinima, maxRutasPorVehiculo) : capacidadMinima;
+
+        // Solución inicial: barrido por longitud del origen e inserción voraz
+        final MatrizDistancias m = matriz;
+        int[] orden = IntStream.range(0, n).boxed()
+                .sorted(Comparator.comparingDouble(m::lonOrigen))
+                .mapToInt(Integer::intValue).toArray();
+        SolucionAsignacion inicial = new SolucionAsignacion(matriz, pesos, capacidad);
+        inicial.construirVoraz(orden);
+        inicial.recalcularCoste();
+
+        SolucionAsignacion mejor = pool.invoke(
+                new BusquedaLocalAsignacion(inicial, 42L, pool.getParallelism(), limite));
+        long fin = System.nanoTime();
+
+        double kmTotales = 0;
+        double co2Total = 0;
+        for (int v = 0; v < numVehiculos; v++) {
+            if (mejor.cantidad[v] == 0) continue;
+            double km = mejor.kmVehiculo(v);
+            Asignacion a = new Asignacion();
+            a.setVehiculoId(instancia.vehiculoIds[v]);
+            a.setMatricula(instancia.matriculas[v]);
+            a.setDistanciaKm(km);
+            a.setEmisionesKgCO2(km * instancia.factorEmisiones[v]);
+            a.setRutas(mejor.recorrido(v).stream().map(j -> instancia.rutaIds[j]).collect(Collectors.toList()));
+            resultado.getAsignaciones().add(a);
+            kmTotales += km;
+            co2Total += a.getEmisionesKgCO2();
+        }
+        for (int j = 0; j < n; j++) {
+            if (mejor.vehiculo[j] == SolucionAsignacion.NINGUNO) {
+                resultado.getSinAsignar().add(instancia.rutaIds[j]);
+            }
+        }
+
+        resultado.setDistanciaTotalKm(kmTotales);
+        resultado.setEmisionesTotalesKgCO2(co2Total);
+        resultado.setCosteInicial(inicial.coste);
+        resultado.setCosteFinal(mejor.coste);
+        resultado.setTiempoMatrizMs((finMatriz - inicio) / 1_000_000);
+        resultado.setTiempoTotalMs((fin - inicio) / 1_000_000);
+        resultado.setHilos(pool.getParallelism());
+        logger.debug("Optimización: {} rutas, {} vehículos, coste {} → {} en {} ms",
+                n, numVehiculos, inicial.coste, mejor.coste, resultado.getTiempoTotalMs());
+        return resultado;
+    }
+
+    // La entrada de la empresa solo vale si se calculó con exactamente las mismas coordenadas
+    // y longitudes: se comparan los datos completos, no un hash, así que nunca se reutiliza
+    // una matriz obsoleta
+    private MatrizDistancias matrizEnCache(String clave, Instancia instancia) {
+        synchronized (cacheMatrices) {
+            MatrizDistancias matriz = cacheMatrices.get(clave);
+            return matriz != null && matriz.calculadaPara(instancia.latOrigen, instancia.lonOrigen,
+                    instancia.latDestino, instancia.lonDestino, instancia.longitud, numVecinos) ? matriz : null;
+        }
+    }
+
+    private void guardarMatriz(String clave, MatrizDistancias matriz) {
+        long maximo = megasCacheMatrices * 1024 * 1024;
+        if (matriz.bytes() > maximo) {
+            return;
+        }
+        synchronized (cacheMatrices) {
+            MatrizDistancias anterior = cacheMatrices.put(clave, matriz);
+            bytesCacheMatrices += matriz.bytes() - (anterior != null ? anterior.bytes() : 0);
+            Iterator<MatrizDistancias> masAntiguas = cacheMatrices.values().iterator();
+            while (bytesCacheMatrices > maximo && masAntiguas.hasNext()) {
+                bytesCacheMatrices -= masAntiguas.next().bytes();
+                masAntiguas.remove();
+            }
+        }
+    }
+
+    // kg de CO2 por km según el tipo de combustible del vehículo
+    static double factorEmisiones(String tipoCombustible) {
+        if (tipoCombustible == null) {
+            return 0.180;
+        }
+        switch (tipoCombustible.toLowerCase()) {
+            case "electrico": return 0.050;
+            case "hibrido": return 0.110;
+            case "diesel": return 0.171;
+            case "gasolina": return 0.192;
+            default: return 0.180;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Instancias (reales o generadas)
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    private static class Instancia {
+        String[] rutaIds;
+        double[] latOrigen, lonOrigen, latDestino, lonDestino, longitud;
+        String[] vehiculoIds, matriculas;
+        double[] factorEmisiones;
+
+        static Instancia desdeRutas(List<Ruta> rutas, List<Vehiculo> vehiculos) {
+            Instancia ins = new Instancia();
+            int n = rutas.size();
+            ins.reservar(n, vehiculos.size());
+            for (int j = 0; j < n; j++) {
+                Ruta r = rutas.get(j);
+                ins.rutaIds[j] = r.getId();
+                ins.latOrigen[j] = r.getLatitudOrigen();
+                ins.lonOrigen[j] = r.getLongitudOrigen();
+                ins.latDestino[j] = r.getLatitudDestino();
+                ins.lonDestino[j] = r.getLongitudDestino();
+                ins.longitud[j] = r.getDistanciaEstimadaKm() != null ? r.getDistanciaEstimadaKm()
+                        : GeoUtils.distanciaKm(r.getLatitudOrigen(), r.getLongitudOrigen(), r.getLatitudDestino(), r.getLongitudDestino());
+            }
+            for (int v = 0; v < vehiculos.size(); v++) {
+                Vehiculo veh = vehiculos.get(v);
+                ins.vehiculoIds[v] = veh.getId();
+                ins.matriculas[v] = veh.getMatricula();
+                ins.factorEmisiones[v] = OptimizadorAsignacionService.factorEmisiones(veh.getTipoCombustible());
+            }
+            return ins;
+        }
+
+        // Rutas alrededor de unas cuantas ciudades de la península, con flota de combustibles mixtos
+        static Instancia generar(int numRutas, int numVehiculos, long semilla) {
+            double[][] ciudades = {
+                    {40.4168, -3.7038}, {41.3874, 2.1686}, {39.4699, -0.3763}, {37.3891, -5.9845},
+                    {43.2630, -2.9350}, {41.6488, -0.8891}, {36.7213, -4.4214}, {42.8782, -8.5448}
+            };
+            String[] combustibles = {"diesel", "gasolina", "hibrido", "electrico"};
+            Random rnd = new Random(semilla);
+            Instancia ins = new Instancia();
+            ins.reservar(numRutas, numVehiculos);
+            for (int j = 0; j < numRutas; j++) {
+                double[] a = ciudades[rnd.nextInt(ciudades.length)];
+                double[] b = rnd.nextDouble() < 0.7 ? a : ciudades[rnd.nextInt(ciudades.length)];
+                ins.rutaIds[j] = "R" + j;
+                ins.latOrigen[j] = a[0] + rnd.nextGaussian() * 0.15;
+                ins.lonOrigen[j] = a[1] + rnd.nextGaussian() * 0.15;
+                ins.latDestino[j] = b[0] + rnd.nextGaussian() * 0.15;
+                ins.lonDestino[j] = b[1] + rnd.nextGaussian() * 0.15;
+                ins.longitud[j] = GeoUtils.distanciaKm(ins.latOrigen[j], ins.lonOrigen[j], ins.latDestino[j], ins.lonDestino[j]);
+            }
+            for (int v = 0; v < numVehiculos; v++) {
+                ins.vehiculoIds[v] = "V" + v;
+                ins.matriculas[v] = String.format("%04d-GEN", v);
+                ins.factorEmisiones[v] = factorEmisiones(combustibles[rnd.nextInt(combustibles.length)]);
+            }
+            return ins;
+        }
+
+        private void reservar(int n, int numVehiculos) {
+            rutaIds = new String[n];
+            latOrigen = new double[n];
+            lonOrigen = new double[n];
+            latDestino = new double[n];
+            lonDestino = new double[n];
+            longitud = new double[n];
+            vehiculoIds = new String[numVehiculos];
+            matriculas = new String[numVehiculos];
+            factorEmisiones = new double[numVehiculos];
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Resultado
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    @Data
+    public static class ResultadoOptimizacion {
+        private List<Asignacion> asignaciones = new ArrayList<>();
+        private List<String> sinAsignar = new ArrayList<>();
+        private double distanciaTotalKm;
+        private double emisionesTotalesKgCO2;
+        private double costeInicial; // solución voraz
+        private double costeFinal;   // tras la búsqueda local
+        private long tiempoMatrizMs;
+        private long tiempoTotalMs;
+        private int hilos;
+    }
+
+    @Data
+    public static class Asignacion {
+        private String vehiculoId;
+        private String matricula;
+        private String conductorId;
+        private String conductorNombre;
+        private List<String> rutas; // en orden de ejecución
+        private double distanciaKm;
+        private double emisionesKgCO2;
+    }
+}
@@ -0,0 +1,412 @@
+package com.ecofleet.service;
+
+import com.ecofleet.config.MongoTemplateEmpresas;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.util.ContextoEmpresa;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Reparto de los datos de las empresas entre la base compartida y las dedicadas.
+ *
+ * Relleno: repostajes y mantenimientos se guardaban sin usuarioId. Al arrancar, en cada
+ * base, se copia el usuarioId de su vehículo a los que no lo tienen, para que los índices
+ * usuario_* y el filtrado por empresa los encuentren. Es idempotente y solo toca los
+ * documentos sin empresa.
+ *
+ * Mover una empresa a su base (solo con ecofleet.empresas.admin.habilitado):
+ * 1. POST /api/empresas/{id}/copiar?base= congela la empresa y copia sus documentos de la
+ *    compartida a la nueva base por lotes y por _id. La congelación queda en
+ *    reparto_empresas y cada instancia la lee cada ecofleet.empresas.congelacion.refresco-ms:
+ *    desde entonces no se escribe nada de la empresa en la compartida (MongoTemplateEmpresas),
+ *    así que la copia no se queda atrás. Antes de copiar se espera a que la vean todas y se
+ *    vacía lo que hubiera en el destino de un intento anterior. Se puede repetir; al
+ *    terminar entera queda anotada.
+ * 2. Se añade "empresa:base" a ecofleet.empresas.dedicadas y se reinicia; desde ese momento
+ *    sus lecturas y escrituras van a la nueva base y se crean allí los índices. Las
+ *    instancias que aún no se han reiniciado siguen rechazando sus escrituras.
+ * 3. POST /api/empresas/{id}/liberar borra sus documentos de la compartida y levanta la
+ *    congelación. Se rechaza si no consta una copia completa, hecha con la empresa
+ *    congelada, hacia la base a la que está enrutada.
+ *
+ * Para abandonar un traslado antes de enrutar, POST /api/empresas/{id}/descongelar.
+ */
+@Service
+public class ParticionEmpresasService {
+
+    private static final Logger log = LoggerFactory.getLogger(ParticionEmpresasService.class);
+
+    private static final String CAMPO = MongoTemplateEmpresas.CAMPO;
+    private static final List<String> SIN_EMPRESA = List.of("repostajes", "mantenimientos",
+            "mantenimientos_preventivos", "mantenimientos_correctivos");
+    private static final List<String> RUTAS = List.of("rutas", "rutas_archivadas");
+    private static final String SNAPSHOTS = "snapshots_ruta";
+    private static final Pattern NOMBRE_BASE = Pattern.compile("[A-Za-z0-9_-]{1,63}");
+    // En la compartida: una entrada por empresa en traslado, con su congelación y su última copia completa
+    private static final String REPARTO = "reparto_empresas";
+
+    @Value("${ecofleet.empresas.admin.habilitado:false}")
+    private boolean adminHabilitado;
+
+    @Value("${ecofleet.empresas.relleno.habilitado:true}")
+    private boolean rellenoHabilitado;
+
+    @Value("${ecofleet.empresas.tamano-lote:500}")
+    private int tamanoLote;
+
+    // Pausa entre lotes de copia y borrado para no competir con el tráfico de las demás empresas
+    @Value("${ecofleet.empresas.pausa-ms:50}")
+    private long pausaMs;
+
+    // Cada cuánto lee cada instancia las empresas congeladas; la copia espera el doble antes de empezar
+    @Value("${ecofleet.empresas.congelacion.refresco-ms:5000}")
+    private long refrescoCongelacionMs;
+
+    @Autowired
+    private MongoTemplateEmpresas mongoTemplate;
+
+    private final AtomicBoolean enCurso = new AtomicBoolean();
+    private volatile boolean completada;
+    private volatile boolean detenido;
+    private volatile String operacion;
+    private volatile String ultimaOperacion;
+    private volatile String ultimoError;
+    private final Map<String, Long> documentos = new LinkedHashMap<>();
+    private final AtomicLong rellenados = new AtomicLong();
+
+    @PreDestroy
+    void detener() {
+        detenido = true;
+    }
+
+    public boolean adminHabilitado() {
+        return adminHabilitado;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Relleno de usuarioId
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    @EventListener(ApplicationReadyEvent.class)
+    void arrancar() {
+        if (!rellenoHabilitado) {
+            return;
+        }
+        Thread hilo = new Thread(() -> {
+            for (String base : mongoTemplate.bases()) {
+                ContextoEmpresa.enBase(base, () -> rellenar(base));
+            }
+        }, "relleno-empresa");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    private void rellenar(String base) {
+        long antes = rellenados.get();
+        Query conEmpresa = new Query(Criteria.where(CAMPO).ne(null));
+        conEmpresa.fields().include(CAMPO);
+        try (Stream<Vehiculo> vehiculos = mongoTemplate.stream(conEmpresa, Vehiculo.class)) {
+            vehiculos.takeWhile(v -> !detenido).forEach(v -> {
+                // usuarioId null primero: usa el prefijo de usuario_vehiculo_fecha
+                Query sinEmpresa = new Query(Criteria.where(CAMPO).is(null).and("vehiculoId").is(v.getId()));
+                for (String coleccion : SIN_EMPRESA) {
+                    rellenados.addAndGet(mongoTemplate.updateMulti(sinEmpresa, Update.update(CAMPO, v.getUsuarioId()), coleccion)
+                            .getModifiedCount());
+                }
+            });
+        } catch (DataAccessException e) {
+            log.warn("Relleno de usuarioId interrumpido en {}: {}", base, e.getMessage());
+            return;
+        }
+        if (rellenados.get() > antes) {
+            log.info("usuarioId rellenado en {}: {} documentos", base, rellenados.get() - antes);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Copia y liberación
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Congela la empresa y lanza en segundo plano la copia desde la compartida a la base indicada. */
+    public boolean copiar(String empresa, String base) {
+        if (!NOMBRE_BASE.matcher(base).matches() || base.equals(mongoTemplate.getBaseCompartida())) {
+            throw new IllegalArgumentException("Base de destino no válida: " + base);
+        }
+        String asignada = mongoTemplate.baseDe(empresa);
+        if (!asignada.equals(mongoTemplate.getBaseCompartida())) {
+            throw new IllegalArgumentException("La empresa ya está en la base " + asignada
+                    + ": la copia se hace antes de enrutarla");
+        }
+        Document estado = reparto().find(Filters.eq("_id", empresa)).first();
+        if (estado != null && estado.get("congelada") != null && !base.equals(estado.getString("base"))) {
+            throw new IllegalArgumentException("La empresa ya se está trasladando a " + estado.getString("base"));
+        }
+        return lanzar("copiar " + empresa + " → " + base, () -> {
+            Instant congelada = estado != null && estado.get("congelada") != null
+                    ? estado.getDate("congelada").toInstant() : Instant.now();
+            reparto().replaceOne(Filters.eq("_id", empresa), new Document(CAMPO, empresa).append("base", base)
+                    .append("congelada", congelada).append("copiaCompleta", null), new ReplaceOptions().upsert(true));
+            refrescarCongeladas();
+            // Las demás instancias ven la congelación en el siguiente refresco
+            esperar(2 * refrescoCongelacionMs);
+            if (detenido) {
+                completada = false;
+                return;
+            }
+            vaciarDestino(empresa, base);
+            for (String coleccion : MongoTemplateEmpresas.COLECCIONES_CON_EMPRESA) {
+                recorrer(coleccion, Filters.eq(CAMPO, empresa), lote -> {
+                    escribir(destino(base, coleccion), lote);
+                    if (RUTAS.contains(coleccion)) {
+                        copiarSnapshots(base, lote);
+                    }
+                });
+            }
+            if (completada) {
+                reparto().updateOne(Filters.eq("_id", empresa), Updates.set("copiaCompleta", Instant.now()));
+            }
+        });
+    }
+
+    /** Borra de la compartida los datos de una empresa que ya tiene base propia. */
+    public boolean liberar(String empresa) {
+        String base = mongoTemplate.baseDe(empresa);
+        if (base.equals(mongoTemplate.getBaseCompartida())) {
+            throw new IllegalArgumentException("La empresa no tiene base dedicada: sus datos están en la compartida");
+        }
+        Document estado = reparto().find(Filters.eq("_id", empresa)).first();
+        if (estado == null || !base.equals(estado.getString("base")) || estado.get("congelada") == null
+                || estado.get("copiaCompleta") == null) {
+            throw new IllegalStateException("No consta una copia completa a " + base
+                    + " con la empresa congelada: no se pueden borrar sus datos de la compartida");
+        }
+        return lanzar("liberar " + empresa, () -> {
+            for (String coleccion : MongoTemplateEmpresas.COLECCIONES_CON_EMPRESA) {
+                recorrer(coleccion, Filters.eq(CAMPO, empresa), lote -> {
+                    if (RUTAS.contains(coleccion)) {
+                        borrar(SNAPSHOTS, Filters.in("rutaId", rutaIds(lote)));
+                    }
+                    borrar(coleccion, Filters.in("_id", lote.stream().map(d -> d.get("_id")).toList()));
+                });
+            }
+            if (completada) {
+                reparto().updateOne(Filters.eq("_id", empresa),
+                        Updates.combine(Updates.unset("congelada"), Updates.set("liberada", Instant.now())));
+                refrescarCongeladas();
+            }
+        });
+    }
+
+    /** Abandona el traslado de una empresa que aún no se ha enrutado a su base. */
+    public void descongelar(String empresa) {
+        if (!mongoTemplate.baseDe(empresa).equals(mongoTemplate.getBaseCompartida())) {
+            throw new IllegalArgumentException("La empresa ya está enrutada a su base: se termina con liberar");
+        }
+        if (operacion != null && operacion.startsWith("copiar " + empresa + " ")) {
+            throw new IllegalStateException("Hay una copia de la empresa en curso");
+        }
+        // Sin la congelación, la copia deja de valer: la compartida vuelve a cambiar
+        reparto().updateOne(Filters.eq("_id", empresa),
+                Updates.combine(Updates.unset("congelada"), Updates.set("copiaCompleta", null)));
+        refrescarCongeladas();
+    }
+
+    @Scheduled(fixedDelayString = "${ecofleet.empresas.congelacion.refresco-ms:5000}")
+    public void refrescarCongeladas() {
+        try {
+            Set<String> congeladas = new HashSet<>();
+            for (Document estado : reparto().find(Filters.ne("congelada", null)).projection(Projections.include("_id"))) {
+                congeladas.add(estado.getString("_id"));
+            }
+            mongoTemplate.setCongeladas(congeladas);
+        } catch (MongoException | DataAccessException e) {
+            // Se mantienen las últimas leídas
+            log.warn("No se pudieron leer las empresas congeladas: {}", e.getMessage());
+        }
+    }
+
+    private boolean lanzar(String descripcion, Runnable trabajo) {
+        if (!enCurso.compareAndSet(false, true)) {
+            return false;
+        }
+        synchronized (documentos) {
+            documentos.clear();
+        }
+        operacion = descripcion;
+        ultimoError = null;
+        completada = true;
+        Thread hilo = new Thread(() -> {
+            try {
+                // Los recorridos leen siempre de la compartida
+                ContextoEmpresa.enBase(mongoTemplate.getBaseCompartida(), trabajo);
+                log.info("Reparto de empresas: {} terminado, {}", descripcion, documentos);
+            } catch (MongoException | DataAccessException e) {
+                ultimoError = e.getMessage();
+                log.warn("Reparto de empresas: {} interrumpido: {}", descripcion, e.getMessage());
+            } finally {
+                ultimaOperacion = descripcion + " (" + Instant.now() + ")";
+                operacion = null;
+                enCurso.set(false);
+            }
+        }, "reparto-empresas");
+        hilo.setDaemon(true);
+        hilo.start();
+        return true;
+    }
+
+    // Lotes por _id creciente desde la compartida; cada lote se procesa antes de leer el siguiente
+    private void recorrer(String coleccion, Bson filtro, Consumer<List<Document>> alLote) {
+        MongoCollection<Document> origen = mongoTemplate.getCollection(coleccion);
+        Object ultimoId = null;
+        while (true) {
+            if (detenido) {
+                completada = false;
+                return;
+            }
+            Bson pagina = ultimoId == null ? filtro : Filters.and(filtro, Filters.gt("_id", ultimoId));
+            List<Document> lote = origen.find(pagina).sort(Sorts.ascending("_id")).limit(tamanoLote).into(new ArrayList<>());
+            if (lote.isEmpty()) {
+                return;
+            }
+            alLote.accept(lote);
+            contar(coleccion, lote.size());
+            ultimoId = lote.get(lote.size() - 1).get("_id");
+            if (lote.size() < tamanoLote) {
+                return;
+            }
+            pausar();
+        }
+    }
+
+    private MongoCollection<Document> reparto() {
+        return mongoTemplate.getCollection(REPARTO);
+    }
+
+    // Lo que dejó en el destino un intento anterior; sin esto volvería lo borrado desde entonces
+    private void vaciarDestino(String empresa, String base) {
+        for (String coleccion : MongoTemplateEmpresas.COLECCIONES_CON_EMPRESA) {
+            MongoCollection<Document> destino = destino(base, coleccion);
+            if (RUTAS.contains(coleccion)) {
+                List<Document> rutas = new ArrayList<>(tamanoLote);
+                for (Document ruta : destino.find(Filters.eq(CAMPO, empresa)).projection(Projections.include("_id"))) {
+                    rutas.add(ruta);
+                    if (rutas.size() == tamanoLote) {
+                        destino(base, SNAPSHOTS).deleteMany(Filters.in("rutaId", rutaIds(rutas)));
+                        rutas.clear();
+                    }
+                }
+                if (!rutas.isEmpty()) {
+                    destino(base, SNAPSHOTS).deleteMany(Filters.in("rutaId", rutaIds(rutas)));
+                }
+            }
+            destino.deleteMany(Filters.eq(CAMPO, empresa));
+        }
+    }
+
+    // Sin pasar por el enrutado: la empresa aún no está asignada a la base de destino
+    private MongoCollection<Document> destino(String base, String coleccion) {
+        return mongoTemplate.getMongoDatabaseFactory().getMongoDatabase(base).getCollection(coleccion);
+    }
+
+    private void copiarSnapshots(String base, List<Document> rutas) {
+        List<Document> snapshots = mongoTemplate.getCollection(SNAPSHOTS).find(Filters.in("rutaId", rutaIds(rutas)))
+                .into(new ArrayList<>());
+        if (!snapshots.isEmpty()) {
+            escribir(destino(base, SNAPSHOTS), snapshots);
+            contar(SNAPSHOTS, snapshots.size());
+        }
+    }
+
+    // Con la empresa congelada la compartida no cambia: lo que se copia es la versión vigente
+    private static void escribir(MongoCollection<Document> destino, List<Document> lote) {
+        List<WriteModel<Document>> escrituras = new ArrayList<>(lote.size());
+        ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+        for (Document doc : lote) {
+            escrituras.add(new ReplaceOneModel<>(Filters.eq("_id", doc.get("_id")), doc, upsert));
+        }
+        destino.bulkWrite(escrituras, new BulkWriteOptions().ordered(false));
+    }
+
+    private void borrar(String coleccion, Bson filtro) {
+        mongoTemplate.getCollection(coleccion).deleteMany(filtro);
+    }
+
+    private static List<String> rutaIds(List<Document> rutas) {
+        return rutas.stream().map(d -> d.get("_id").toString()).toList();
+    }
+
+    private void contar(String coleccion, long n) {
+        synchronized (documentos) {
+            documentos.merge(coleccion, n, Long::sum);
+        }
+    }
+
+    private void pausar() {
+        esperar(pausaMs);
+    }
+
+    private void esperar(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            detenido = true;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // Consulta
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>(mongoTemplate.estadisticas());
+        stats.put("bases", mongoTemplate.bases());
+        stats.put("usuarioIdRellenados", rellenados.get());
+        stats.put("operacion", operacion);
+        stats.put("ultimaOperacion", ultimaOperacion);
+        stats.put("ultimoError", ultimoError);
+        synchronized (documentos) {
+            stats.put("documentos", new LinkedHashMap<>(documentos));
+        }
+        return stats;
+    }
+}
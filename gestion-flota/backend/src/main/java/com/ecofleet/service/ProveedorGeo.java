@@ -0,0 +1,15 @@
+package com.ecofleet.service;
+
+/**
+ * Origen de los datos de geocodificación y enrutado que sirve el proxy /api/geo.
+ * Las respuestas se devuelven como JSON en bruto para reenviarlas tal cual al frontend.
+ * Se elige con ecofleet.geo.proveedor: "osm" (Nominatim + OSRM) o "local" (sin red).
+ */
+public interface ProveedorGeo {
+
+    // Búsqueda de direcciones con el formato de respuesta de Nominatim (array JSON)
+    String geocodificar(String consulta, int limite, String paises);
+
+    // Ruta en coche entre dos puntos con el formato de respuesta de OSRM (geometría GeoJSON)
+    String calcularRuta(double latOrigen, double lonOrigen, double latDestino, double lonDestino);
+}
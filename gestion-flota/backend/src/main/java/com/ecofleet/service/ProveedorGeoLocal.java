@@ -0,0 +1,52 @@
+package com.ecofleet.service;
+
+import com.ecofleet.util.GeoUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Proveedor sin red para pruebas y desarrollo local.
+ * Geocodifica de forma determinista (misma consulta → mismas coordenadas dentro de la
+ * península) y devuelve rutas en línea recta con el mismo formato que OSRM.
+ */
+@Component
+@ConditionalOnProperty(name = "ecofleet.geo.proveedor", havingValue = "local")
+public class ProveedorGeoLocal implements ProveedorGeo {
+
+    // Velocidad media supuesta para estimar la duración de la ruta
+    private static final double VELOCIDAD_MEDIA_KMH = 60.0;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Override
+    public String geocodificar(String consulta, int limite, String paises) {
+        int hash = consulta.hashCode();
+        double lat = 36.5 + Math.floorMod(hash, 6000) / 1000.0;
+        double lon = -8.5 + Math.floorMod(hash / 6000, 11000) / 1000.0;
+        // La consulta va tal cual en display_name: que la escape Jackson (comillas, saltos de línea...)
+        ArrayNode resultado = objectMapper.createArrayNode();
+        ObjectNode lugar = resultado.addObject();
+        lugar.put("lat", String.format(Locale.ROOT, "%.6f", lat));
+        lugar.put("lon", String.format(Locale.ROOT, "%.6f", lon));
+        lugar.put("display_name", consulta);
+        lugar.putObject("address");
+        return resultado.toString();
+    }
+
+    @Override
+    public String calcularRuta(double latOrigen, double lonOrigen, double latDestino, double lonDestino) {
+        double metros = GeoUtils.distanciaKm(latOrigen, lonOrigen, latDestino, lonDestino) * 1000;
+        double segundos = metros / (VELOCIDAD_MEDIA_KMH / 3.6);
+        return String.format(Locale.ROOT,
+                "{\"code\":\"Ok\",\"routes\":[{\"distance\":%.1f,\"duration\":%.1f,"
+                        + "\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[%f,%f],[%f,%f]]}}]}",
+                metros, segundos, lonOrigen, latOrigen, lonDestino, latDestino);
+    }
+}
@@ -0,0 +1,114 @@
+package com.ecofleet.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Proveedor real: Nominatim para geocodificar y OSRM para calcular rutas.
+ *
+ * Las llamadas salientes se espacian por servicio (la política de Nominatim permite como
+ * mucho 1 petición por segundo): cada llamada reserva el siguiente hueco libre y espera a
+ * que llegue. Si el hueco queda más lejos que ecofleet.geo.espera-max-ms se rechaza en
+ * lugar de acumular hilos dormidos.
+ */
+@Component
+@ConditionalOnProperty(name = "ecofleet.geo.proveedor", havingValue = "osm", matchIfMissing = true)
+public class ProveedorGeoOsm implements ProveedorGeo {
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    @Value("${ecofleet.geo.nominatim-url:https://nominatim.openstreetmap.org}")
+    private String nominatimUrl;
+
+    @Value("${ecofleet.geo.osrm-url:https://router.project-osrm.org}")
+    private String osrmUrl;
+
+    @Value("${ecofleet.geo.nominatim-por-segundo:1}")
+    private double nominatimPorSegundo;
+
+    @Value("${ecofleet.geo.osrm-por-segundo:5}")
+    private double osrmPorSegundo;
+
+    @Value("${ecofleet.geo.espera-max-ms:5000}")
+    private long esperaMaxMs;
+
+    // Instante (nanoTime) del siguiente hueco libre de cada servicio
+    private final AtomicLong siguienteNominatim = new AtomicLong(System.nanoTime());
+    private final AtomicLong siguienteOsrm = new AtomicLong(System.nanoTime());
+
+    @Override
+    public String geocodificar(String consulta, int limite, String paises) {
+        String url = nominatimUrl + "/search?format=json&addressdetails=1&limit=" + limite
+                + "&q=" + URLEncoder.encode(consulta, StandardCharsets.UTF_8)
+                + (paises != null ? "&countrycodes=" + URLEncoder.encode(paises, StandardCharsets.UTF_8) : "");
+        esperarTurno(siguienteNominatim, nominatimPorSegundo, "Nominatim");
+        return get(url);
+    }
+
+    @Override
+    public String calcularRuta(double latOrigen, double lonOrigen, double latDestino, double lonDestino) {
+        String url = String.format(Locale.ROOT, "%s/route/v1/driving/%f,%f;%f,%f?overview=full&geometries=geojson",
+                osrmUrl, lonOrigen, latOrigen, lonDestino, latDestino);
+        esperarTurno(siguienteOsrm, osrmPorSegundo, "OSRM");
+        return get(url);
+    }
+
+    private void esperarTurno(AtomicLong siguiente, double porSegundo, String servicio) {
+        long intervalo = (long) (1_000_000_000L / porSegundo);
+        long ahora = System.nanoTime();
+        long turno;
+        long prevista;
+        do {
+            prevista = siguiente.get();
+            turno = Math.max(prevista, ahora);
+            if (turno - ahora > TimeUnit.MILLISECONDS.toNanos(esperaMaxMs)) {
+                throw new IllegalStateException("Demasiadas consultas pendientes a " + servicio + ", reintente más tarde");
+            }
+        } while (!siguiente.compareAndSet(prevista, turno + intervalo));
+        long espera = turno - ahora;
+        if (espera > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(espera);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Consulta interrumpida", e);
+            }
+        }
+    }
+
+    private String get(String url) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(10))
+                // La política de uso de Nominatim exige identificar la aplicación
+                .header("User-Agent", "EcoFleet-Backend/1.0")
+                .GET()
+                .build();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Respuesta " + response.statusCode() + " de " + URI.create(url).getHost());
+            }
+            return response.body();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error consultando " + URI.create(url).getHost() + ": " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Consulta interrumpida", e);
+        }
+    }
+}
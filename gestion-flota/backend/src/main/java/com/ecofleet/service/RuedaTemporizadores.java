@@ -0,0 +1,114 @@
+package com.ecofleet.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rueda de temporizadores con hash (hashed timing wheel).
+ *
+ * El tiempo avanza en ticks de tickMs; cada temporizador cuelga de la casilla
+ * (vencimiento mod casillas) en una lista doblemente enlazada, con el número de vueltas
+ * que le faltan. Programar, reprogramar y cancelar son O(1), y avanzar un tick solo
+ * recorre una casilla, así que mantener un plazo por ruta no cuesta nada por ruta viva
+ * mientras no venza. Si el hilo que avanza se retrasa, recorre los ticks perdidos.
+ *
+ * Las operaciones van bajo el monitor de la rueda: todas son de coste constante.
+ */
+class RuedaTemporizadores<T> {
+
+    static final class Temporizador<T> {
+        final T dato;
+        private Temporizador<T> anterior;
+        private Temporizador<T> siguiente;
+        private int casilla = -1;
+        private long vueltas;
+
+        Temporizador(T dato) {
+            this.dato = dato;
+        }
+    }
+
+    private final long tickMs;
+    private final int mascara;
+    private final Temporizador<T>[] casillas;
+    private final long origenMs;
+    private long tickActual;
+    private int programados;
+
+    @SuppressWarnings("unchecked")
+    RuedaTemporizadores(long tickMs, int numCasillas, long ahoraMs) {
+        int potencia = Integer.highestOneBit(Math.max(2, numCasillas - 1)) << 1;
+        this.tickMs = tickMs;
+        this.mascara = potencia - 1;
+        this.casillas = (Temporizador<T>[]) new Temporizador<?>[potencia];
+        for (int i = 0; i < potencia; i++) {
+            // Centinela: lista circular vacía
+            Temporizador<T> centinela = new Temporizador<>(null);
+            centinela.anterior = centinela;
+            centinela.siguiente = centinela;
+            casillas[i] = centinela;
+        }
+        this.origenMs = ahoraMs;
+    }
+
+    // Programa (o reprograma) t para que venza en vencimientoMs
+    synchronized void programar(Temporizador<T> t, long vencimientoMs) {
+        desenlazar(t);
+        long tickVencimiento = Math.max(tickActual + 1, Math.floorDiv(vencimientoMs - origenMs + tickMs - 1, tickMs));
+        long distancia = tickVencimiento - tickActual;
+        t.vueltas = (distancia - 1) / casillas.length;
+        t.casilla = (int) (tickVencimiento & mascara);
+        Temporizador<T> centinela = casillas[t.casilla];
+        t.anterior = centinela.anterior;
+        t.siguiente = centinela;
+        centinela.anterior.siguiente = t;
+        centinela.anterior = t;
+        programados++;
+    }
+
+    synchronized void cancelar(Temporizador<T> t) {
+        desenlazar(t);
+    }
+
+    synchronized boolean programado(Temporizador<T> t) {
+        return t.casilla >= 0;
+    }
+
+    // Avanza hasta ahoraMs y devuelve los temporizadores vencidos (ya desprogramados)
+    synchronized List<Temporizador<T>> avanzar(long ahoraMs) {
+        List<Temporizador<T>> vencidos = new ArrayList<>();
+        long objetivo = Math.floorDiv(ahoraMs - origenMs, tickMs);
+        while (tickActual < objetivo) {
+            tickActual++;
+            Temporizador<T> centinela = casillas[(int) (tickActual & mascara)];
+            Temporizador<T> t = centinela.siguiente;
+            while (t != centinela) {
+                Temporizador<T> siguiente = t.siguiente;
+                if (t.vueltas == 0) {
+                    desenlazar(t);
+                    vencidos.add(t);
+                } else {
+                    t.vueltas--;
+                }
+                t = siguiente;
+            }
+        }
+        return vencidos;
+    }
+
+    synchronized int programados() {
+        return programados;
+    }
+
+    private void desenlazar(Temporizador<T> t) {
+        if (t.casilla < 0) {
+            return;
+        }
+        t.anterior.siguiente = t.siguiente;
+        t.siguiente.anterior = t.anterior;
+        t.anterior = null;
+        t.siguiente = null;
+        t.casilla = -1;
+        programados--;
+    }
+}
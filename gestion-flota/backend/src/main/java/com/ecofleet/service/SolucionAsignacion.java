@@ -0,0 +1,210 @@
+package com.ecofleet.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Estado mutable de una asignación trabajos → vehículos para la búsqueda local.
+ *
+ * Cada vehículo recorre una lista doblemente enlazada de trabajos (anterior/siguiente),
+ * así que mover un trabajo es O(1) y el coste de cada movimiento se evalúa en O(1)
+ * con la matriz de distancias. El coste de un vehículo es su peso (1 + penalización
+ * de emisiones) por los km totales: con carga más en vacío.
+ */
+class SolucionAsignacion {
+
+    static final int NINGUNO = -1;
+    private static final int MAX_PROBADOS_SIN_VECINOS = 32;
+
+    final MatrizDistancias m;
+    final double[] pesoVehiculo;
+    final int capacidad;
+
+    final int[] vehiculo;
+    final int[] anterior;
+    final int[] siguiente;
+    final int[] primero;
+    final int[] ultimo;
+    final int[] cantidad;
+    double coste;
+
+    SolucionAsignacion(MatrizDistancias m, double[] pesoVehiculo, int capacidad) {
+        this.m = m;
+        this.pesoVehiculo = pesoVehiculo;
+        this.capacidad = capacidad;
+        int n = m.tamano();
+        int v = pesoVehiculo.length;
+        vehiculo = new int[n];
+        anterior = new int[n];
+        siguiente = new int[n];
+        primero = new int[v];
+        ultimo = new int[v];
+        cantidad = new int[v];
+        Arrays.fill(vehiculo, NINGUNO);
+        Arrays.fill(anterior, NINGUNO);
+        Arrays.fill(siguiente, NINGUNO);
+        Arrays.fill(primero, NINGUNO);
+        Arrays.fill(ultimo, NINGUNO);
+    }
+
+    private SolucionAsignacion(SolucionAsignacion otra) {
+        m = otra.m;
+        pesoVehiculo = otra.pesoVehiculo;
+        capacidad = otra.capacidad;
+        vehiculo = otra.vehiculo.clone();
+        anterior = otra.anterior.clone();
+        siguiente = otra.siguiente.clone();
+        primero = otra.primero.clone();
+        ultimo = otra.ultimo.clone();
+        cantidad = otra.cantidad.clone();
+        coste = otra.coste;
+    }
+
+    SolucionAsignacion copia() {
+        return new SolucionAsignacion(this);
+    }
+
+    int numVehiculos() {
+        return pesoVehiculo.length;
+    }
+
+    // ─── Construcción ───────────────────────────────────────────────────────────
+
+    // Inserción voraz: cada trabajo va al final del vehículo donde menos cuesta añadirlo.
+    // Solo se miran los vehículos que terminan en un vecino del trabajo y el vehículo vacío
+    // más limpio, para que la construcción sea O(n·k) y no O(n·vehículos).
+    void construirVoraz(int[] orden) {
+        Integer[] porPeso = new Integer[numVehiculos()];
+        for (int v = 0; v < porPeso.length; v++) {
+            porPeso[v] = v;
+        }
+        Arrays.sort(porPeso, (a, b) -> Double.compare(pesoVehiculo[a], pesoVehiculo[b]));
+        int siguienteVacio = 0;
+        int cursor = 0;
+
+        for (int j : orden) {
+            int mejor = NINGUNO;
+            double mejorDelta = Double.MAX_VALUE;
+            if (siguienteVacio < porPeso.length) {
+                mejor = porPeso[siguienteVacio];
+                mejorDelta = pesoVehiculo[mejor] * m.longitud(j);
+            }
+            for (int k : m.vecinosEntrada(j)) {
+                int v = vehiculo[k];
+                if (v == NINGUNO || ultimo[v] != k || cantidad[v] >= capacidad) continue;
+                double delta = pesoVehiculo[v] * (m.enVacio(k, j) + m.longitud(j));
+                if (delta < mejorDelta) {
+                    mejorDelta = delta;
+                    mejor = v;
+                }
+            }
+            if (mejor == NINGUNO) {
+                // Sin vecinos disponibles: se prueban unos pocos vehículos con hueco a partir de un cursor rotatorio
+                int probados = 0;
+                for (int i = 0; i < numVehiculos() && probados < MAX_PROBADOS_SIN_VECINOS; i++) {
+                    int v = (cursor + i) % numVehiculos();
+                    if (cantidad[v] >= capacidad) continue;
+                    probados++;
+                    double delta = pesoVehiculo[v] * (m.enVacio(ultimo[v], j) + m.longitud(j));
+                    if (delta < mejorDelta) {
+                        mejorDelta = delta;
+                        mejor = v;
+                    }
+                }
+                cursor = mejor == NINGUNO ? cursor : (mejor + 1) % numVehiculos();
+            }
+            if (mejor == NINGUNO) {
+                break;
+            }
+            if (cantidad[mejor] == 0) {
+                siguienteVacio++;
+            }
+            insertarEntre(j, mejor, ultimo[mejor], NINGUNO);
+            coste += mejorDelta;
+        }
+    }
+
+    // ─── Deltas de coste ───────────────────────────────────────────────────────
+
+    // Variación de coste al sacar j de su vehículo
+    double deltaQuitar(int j) {
+        int p = anterior[j], s = siguiente[j];
+        double km = m.enVacio(p, s) - m.enVacio(p, j) - m.enVacio(j, s) - m.longitud(j);
+        return pesoVehiculo[vehiculo[j]] * km;
+    }
+
+    // Variación de coste al meter j entre p y s del vehículo v (j fuera de la solución)
+    double deltaInsertar(int j, int v, int p, int s) {
+        double km = m.enVacio(p, j) + m.enVacio(j, s) - m.enVacio(p, s) + m.longitud(j);
+        return pesoVehiculo[v] * km;
+    }
+
+    // Variación al poner k en el hueco de j (j sale, k entra en su lugar)
+    double deltaReemplazar(int j, int k) {
+        int p = anterior[j], s = siguiente[j];
+        double km = m.enVacio(p, k) + m.enVacio(k, s) + m.longitud(k)
+                - m.enVacio(p, j) - m.enVacio(j, s) - m.longitud(j);
+        return pesoVehiculo[vehiculo[j]] * km;
+    }
+
+    // ─── Movimientos ───────────────────────────────────────────────────────────
+
+    void quitar(int j) {
+        int v = vehiculo[j], p = anterior[j], s = siguiente[j];
+        if (p != NINGUNO) siguiente[p] = s; else primero[v] = s;
+        if (s != NINGUNO) anterior[s] = p; else ultimo[v] = p;
+        anterior[j] = NINGUNO;
+        siguiente[j] = NINGUNO;
+        vehiculo[j] = NINGUNO;
+        cantidad[v]--;
+    }
+
+    void insertarEntre(int j, int v, int p, int s) {
+        vehiculo[j] = v;
+        anterior[j] = p;
+        siguiente[j] = s;
+        if (p != NINGUNO) siguiente[p] = j; else primero[v] = j;
+        if (s != NINGUNO) anterior[s] = j; else ultimo[v] = j;
+        cantidad[v]++;
+    }
+
+    // Intercambia dos trabajos de vehículos distintos
+    void intercambiar(int j, int k) {
+        int vj = vehiculo[j], pj = anterior[j], sj = siguiente[j];
+        int vk = vehiculo[k], pk = anterior[k], sk = siguiente[k];
+        quitar(j);
+        quitar(k);
+        insertarEntre(k, vj, pj, sj);
+        insertarEntre(j, vk, pk, sk);
+    }
+
+    // ─── Resultado ─────────────────────────────────────────────────────────────
+
+    double recalcularCoste() {
+        double total = 0;
+        for (int v = 0; v < numVehiculos(); v++) {
+            total += pesoVehiculo[v] * kmVehiculo(v);
+        }
+        coste = total;
+        return total;
+    }
+
+    double kmVehiculo(int v) {
+        double km = 0;
+        int previo = NINGUNO;
+        for (int j = primero[v]; j != NINGUNO; j = siguiente[j]) {
+            km += m.enVacio(previo, j) + m.longitud(j);
+            previo = j;
+        }
+        return km;
+    }
+
+    List<Integer> recorrido(int v) {
+        List<Integer> orden = new ArrayList<>(cantidad[v]);
+        for (int j = primero[v]; j != NINGUNO; j = siguiente[j]) {
+            orden.add(j);
+        }
+        return orden;
+    }
+}
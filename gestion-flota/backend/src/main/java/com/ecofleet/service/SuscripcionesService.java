@@ -0,0 +1,256 @@
+package com.ecofleet.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suscriptores SSE de este nodo a cambios de rutas y chat.
+ *
+ * Un visor se suscribe a una ruta concreta o a todas las de su empresa. Los eventos se
+ * serializan una sola vez y se encolan en la cola acotada de cada suscriptor; un pequeño
+ * grupo de hilos de entrega vacía cada cola por separado, así que un cliente lento solo
+ * retrasa sus propios eventos. Quien publica (el lector del change stream o un controlador)
+ * nunca espera a un envío: si la cola de un suscriptor se llena, o un envío se queda
+ * bloqueado más de ecofleet.sse.plazo-envio-ms, se le cierra la conexión y el navegador
+ * reconecta y recarga el estado.
+ */
+@Service
+public class SuscripcionesService {
+
+    @Value("${ecofleet.sse.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${ecofleet.sse.latido-ms:25000}")
+    private long latidoMs;
+
+    @Value("${ecofleet.sse.cola-suscriptor:256}")
+    private int tamanoCola;
+
+    @Value("${ecofleet.sse.hilos-entrega:4}")
+    private int hilosEntrega;
+
+    @Value("${ecofleet.sse.plazo-envio-ms:10000}")
+    private long plazoEnvioMs;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MetricasService metricasService;
+
+    private final ConcurrentHashMap<String, Set<Suscriptor>> porUsuario = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Suscriptor>> porRuta = new ConcurrentHashMap<>();
+
+    private final AtomicLong publicados = new AtomicLong();
+    private final AtomicLong entregados = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+    private final AtomicLong expulsados = new AtomicLong();
+
+    private ThreadPoolExecutor entrega;
+    private ScheduledExecutorService latidos;
+
+    @PostConstruct
+    void iniciar() {
+        // Sin cola acotada: cada suscriptor tiene como mucho un vaciado pendiente, así que
+        // las tareas en espera nunca superan el número de suscriptores
+        AtomicInteger hilos = new AtomicInteger();
+        entrega = new ThreadPoolExecutor(hilosEntrega, hilosEntrega, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "sse-entrega-" + hilos.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        latidos = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sse-latido");
+            t.setDaemon(true);
+            return t;
+        });
+        // El latido mantiene viva la conexión a través de proxies, detecta clientes caídos
+        // y expulsa a los que llevan demasiado tiempo bloqueados en un envío
+        latidos.scheduleAtFixedRate(this::enviarLatidos, latidoMs, latidoMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void detener() {
+        latidos.shutdownNow();
+        entrega.shutdownNow();
+    }
+
+    // Con rutaId se reciben solo los eventos de esa ruta; sin él, los de toda la empresa
+    public SseEmitter suscribir(String usuarioId, String rutaId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Suscriptor suscriptor = new Suscriptor(emitter, tamanoCola);
+        ConcurrentHashMap<String, Set<Suscriptor>> indice = rutaId != null ? porRuta : porUsuario;
+        String clave = rutaId != null ? rutaId : usuarioId;
+        Runnable baja = () -> {
+            suscriptor.cerrado = true;
+            Set<Suscriptor> conjunto = indice.get(clave);
+            if (conjunto != null && conjunto.remove(suscriptor)) {
+                metricasService.suscriptorSseDesconectado();
+                indice.computeIfPresent(clave, (k, s) -> s.isEmpty() ? null : s);
+            }
+        };
+        suscriptor.baja = baja;
+        indice.computeIfAbsent(clave, k -> ConcurrentHashMap.newKeySet()).add(suscriptor);
+        metricasService.suscriptorSseConectado();
+        emitter.onCompletion(baja);
+        emitter.onTimeout(baja);
+        emitter.onError(e -> baja.run());
+        return emitter;
+    }
+
+    public void publicar(String usuarioId, String rutaId, String evento, Object datos) {
+        Set<Suscriptor> deRuta = rutaId != null ? porRuta.get(rutaId) : null;
+        Set<Suscriptor> deUsuario = usuarioId != null ? porUsuario.get(usuarioId) : null;
+        if (deRuta == null && deUsuario == null) {
+            return;
+        }
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(datos);
+        } catch (JsonProcessingException e) {
+            return;
+        }
+        publicados.incrementAndGet();
+        Evento ev = new Evento(evento, json);
+        if (deRuta != null) deRuta.forEach(s -> encolar(s, ev));
+        if (deUsuario != null) deUsuario.forEach(s -> encolar(s, ev));
+    }
+
+    public Map<String, Object> estadisticas() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("suscriptoresRuta", porRuta.values().stream().mapToInt(Set::size).sum());
+        stats.put("suscriptoresEmpresa", porUsuario.values().stream().mapToInt(Set::size).sum());
+        stats.put("publicados", publicados.get());
+        stats.put("entregados", entregados.get());
+        stats.put("descartados", descartados.get());
+        stats.put("expulsados", expulsados.get());
+        stats.put("enCola", todos().stream().mapToInt(s -> s.cola.size()).sum());
+        return stats;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // ENTREGA POR SUSCRIPTOR
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    private void encolar(Suscriptor s, Evento ev) {
+        if (s.cerrado) {
+            return;
+        }
+        if (!s.cola.offer(ev)) {
+            // No da abasto: mejor cortar y que recargue al reconectar que perder eventos en silencio
+            expulsar(s, new IOException("Cola SSE del suscriptor llena"));
+            return;
+        }
+        if (s.programado.compareAndSet(false, true)) {
+            entrega.execute(() -> vaciar(s));
+        }
+    }
+
+    private void vaciar(Suscriptor s) {
+        try {
+            Evento ev;
+            while (!s.cerrado && (ev = s.cola.poll()) != null) {
+                SseEmitter.SseEventBuilder mensaje = ev.nombre() == null
+                        ? SseEmitter.event().comment(ev.json())
+                        : SseEmitter.event().name(ev.nombre()).data(ev.json());
+                s.envioDesde = System.currentTimeMillis();
+                try {
+                    s.emitter.send(mensaje);
+                    if (ev.nombre() != null) entregados.incrementAndGet();
+                } catch (IOException | IllegalStateException e) {
+                    // Cliente desconectado: completeWithError dispara la baja
+                    s.cerrado = true;
+                    s.emitter.completeWithError(e);
+                } finally {
+                    s.envioDesde = 0;
+                }
+            }
+        } finally {
+            s.programado.set(false);
+        }
+        if (s.cerrado) {
+            descartados.addAndGet(s.cola.size());
+            s.cola.clear();
+        } else if (!s.cola.isEmpty() && s.programado.compareAndSet(false, true)) {
+            // Algo entró entre el último poll y la liberación del testigo
+            entrega.execute(() -> vaciar(s));
+        }
+    }
+
+    private void expulsar(Suscriptor s, IOException causa) {
+        if (s.cerrado) {
+            return;
+        }
+        s.cerrado = true;
+        expulsados.incrementAndGet();
+        descartados.addAndGet(s.cola.size() + 1);
+        s.cola.clear();
+        // Se da de baja ya: si el hilo de entrega sigue bloqueado en el socket, el callback
+        // de completeWithError puede tardar en llegar
+        s.baja.run();
+        s.emitter.completeWithError(causa);
+    }
+
+    private void enviarLatidos() {
+        long ahora = System.currentTimeMillis();
+        for (Suscriptor s : todos()) {
+            long desde = s.envioDesde;
+            if (desde != 0 && ahora - desde > plazoEnvioMs) {
+                expulsar(s, new IOException("Envío SSE bloqueado más de " + plazoEnvioMs + " ms"));
+            } else if (s.cola.isEmpty()) {
+                // Con eventos pendientes el latido sobra; y va por la cola para no enviar a la vez que la entrega
+                encolar(s, LATIDO);
+            }
+        }
+    }
+
+    private List<Suscriptor> todos() {
+        List<Suscriptor> todos = new ArrayList<>();
+        porRuta.values().forEach(todos::addAll);
+        porUsuario.values().forEach(todos::addAll);
+        return todos;
+    }
+
+    private static final Evento LATIDO = new Evento(null, "latido");
+
+    // nombre null = comentario (latido)
+    private record Evento(String nombre, String json) {}
+
+    private static final class Suscriptor {
+        final SseEmitter emitter;
+        final ArrayBlockingQueue<Evento> cola;
+        final AtomicBoolean programado = new AtomicBoolean();
+        volatile boolean cerrado;
+        volatile long envioDesde;
+        volatile Runnable baja;
+
+        Suscriptor(SseEmitter emitter, int capacidad) {
+            this.emitter = emitter;
+            this.cola = new ArrayBlockingQueue<>(capacidad);
+        }
+    }
+}
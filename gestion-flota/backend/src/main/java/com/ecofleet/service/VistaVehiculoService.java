@@ -0,0 +1,282 @@
+package com.ecofleet.service;
+
+import com.ecofleet.model.Mantenimiento;
+import com.ecofleet.model.MantenimientoCorrectivo;
+import com.ecofleet.model.MantenimientoPreventivo;
+import com.ecofleet.model.Repostaje;
+import com.ecofleet.model.Vehiculo;
+import com.ecofleet.repository.MantenimientoCorrectivoRepository;
+import com.ecofleet.repository.MantenimientoPreventivoRepository;
+import com.ecofleet.repository.MantenimientoRepository;
+import com.ecofleet.repository.RepostajeRepository;
+import com.ecofleet.repository.RutaRepository;
+import com.ecofleet.util.ContextoEmpresa;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Vista completa de un vehículo para su página de detalle en una sola petición.
+ *
+ * El vehículo, sus últimas rutas, los repostajes y los tres tipos de mantenimiento se leen
+ * a la vez en un pool propio y se esperan con un único plazo, así que la latencia es la de
+ * la consulta más lenta y no la suma de todas. Si el plazo vence, se responde con lo que
+ * haya llegado y las partes que faltan se listan en "pendientes" (las que fallan, en
+ * "errores"); solo el vehículo es imprescindible. Con el pool saturado las consultas que no
+ * caben en la cola se rechazan en lugar de ejecutarse en el hilo de la petición, y también
+ * salen como "pendientes".
+ */
+@Service
+public class VistaVehiculoService {
+
+    private static final Comparator<Object> POR_FECHA_DESC = Comparator
+            .comparing(VistaVehiculoService::fechaMantenimiento, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    @Autowired
+    private CacheEntidadesService cacheEntidades;
+
+    @Autowired
+    private RutaRepository rutaRepository;
+
+    @Autowired
+    private RepostajeRepository repostajeRepository;
+
+    @Autowired
+    private MantenimientoRepository mantenimientoRepository;
+
+    @Autowired
+    private MantenimientoPreventivoRepository preventivoRepository;
+
+    @Autowired
+    private MantenimientoCorrectivoRepository correctivoRepository;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // Plazo único para todas las consultas de la vista
+    @Value("${ecofleet.vehiculo-overview.plazo-ms:2000}")
+    private long plazoMs;
+
+    @Value("${ecofleet.vehiculo-overview.hilos:8}")
+    private int hilos;
+
+    @Value("${ecofleet.vehiculo-overview.cola:256}")
+    private int capacidadCola;
+
+    @Value("${ecofleet.vehiculo-overview.rutas-recientes:10}")
+    private int rutasRecientes;
+
+    @Value("${ecofleet.vehiculo-overview.repostajes-recientes:5}")
+    private int repostajesRecientes;
+
+    private ThreadPoolExecutor executor;
+    private Timer timerVista;
+    private final AtomicLong vistasParciales = new AtomicLong();
+    private final AtomicLong partesRechazadas = new AtomicLong();
+
+    /** Resultado de la vista: el vehículo vacío si no existe (o es de otra empresa). */
+    public static class Vista {
+        public final Optional<Vehiculo> vehiculo;
+        public final boolean vehiculoPendiente;
+        public final Map<String, Object> cuerpo;
+
+        Vista(Optional<Vehiculo> vehiculo, boolean vehiculoPendiente, Map<String, Object> cuerpo) {
+            this.vehiculo = vehiculo;
+            this.vehiculoPendiente = vehiculoPendiente;
+            this.cuerpo = cuerpo;
+        }
+    }
+
+    @PostConstruct
+    void iniciar() {
+        AtomicInteger contador = new AtomicInteger();
+        ThreadFactory fabrica = r -> {
+            Thread t = new Thread(r, "vista-vehiculo-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        // Con la cola llena la consulta se rechaza: ejecutarla en el hilo que llama bloquearía la
+        // petición sin plazo y, en cascada, al resto de peticiones que comparten ese pool
+        executor = new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacidadCola), fabrica, new ThreadPoolExecutor.AbortPolicy());
+        timerVista = Timer.builder("ecofleet.vehiculo.overview")
+                .description("Tiempo de la vista de vehículo (la consulta más lenta o el plazo)")
+                .publishPercentileHistogram()
+                .register(registry);
+        registry.more().counter("ecofleet.vehiculo.overview.parciales", List.of(), vistasParciales);
+        registry.more().counter("ecofleet.vehiculo.overview.rechazadas", List.of(), partesRechazadas);
+    }
+
+    @PreDestroy
+    void detener() {
+        executor.shutdownNow();
+    }
+
+    public CompletableFuture<Vista> vista(String vehiculoId, String usuarioId) {
+        if (usuarioId == null) {
+            // Los controladores responden 400 antes de llegar aquí
+            throw new IllegalArgumentException("Falta la empresa (X-User-Id)");
+        }
+        long inicio = System.nanoTime();
+        Map<String, CompletableFuture<?>> partes = new LinkedHashMap<>();
+        CompletableFuture<Optional<Vehiculo>> vehiculo = parte("vehiculo", () -> cacheEntidades.vehiculo(vehiculoId));
+        partes.put("vehiculo", vehiculo);
+        partes.put("rutas", parte("rutas", () -> rutaRepository.findByUsuarioIdAndVehiculoIdOrderByFechaDesc(usuarioId, vehiculoId,
+                PageRequest.of(0, rutasRecientes))));
+        partes.put("combustible", parte("combustible", () -> combustible(repostajeRepository.findByUsuarioIdAndVehiculoIdOrderByFechaDesc(usuarioId, vehiculoId))));
+        partes.put("mantenimientos", mantenimientos(usuarioId, vehiculoId));
+
+        return CompletableFuture.allOf(partes.values().toArray(new CompletableFuture<?>[0]))
+                .exceptionally(e -> null)
+                .completeOnTimeout(null, plazoMs, TimeUnit.MILLISECONDS)
+                .thenApply(nada -> {
+                    Map<String, Object> cuerpo = new LinkedHashMap<>();
+                    List<String> pendientes = new ArrayList<>();
+                    List<String> errores = new ArrayList<>();
+                    for (Map.Entry<String, CompletableFuture<?>> parte : partes.entrySet()) {
+                        CompletableFuture<?> futuro = parte.getValue();
+                        if (!futuro.isDone() || rechazada(futuro)) {
+                            pendientes.add(parte.getKey());
+                        } else if (futuro.isCompletedExceptionally()) {
+                            errores.add(parte.getKey());
+                        } else if (!parte.getKey().equals("vehiculo")) {
+                            cuerpo.put(parte.getKey(), futuro.join());
+                        }
+                    }
+                    boolean vehiculoPendiente = !vehiculo.isDone() || vehiculo.isCompletedExceptionally();
+                    Optional<Vehiculo> encontrado = vehiculoPendiente ? Optional.empty() : vehiculo.join()
+                            .filter(v -> v.getUsuarioId() == null || usuarioId.equals(v.getUsuarioId()));
+                    encontrado.ifPresent(v -> cuerpo.put("vehiculo", v));
+                    if (!pendientes.isEmpty() || !errores.isEmpty()) {
+                        vistasParciales.incrementAndGet();
+                        cuerpo.put("pendientes", pendientes);
+                        cuerpo.put("errores", errores);
+                    }
+                    timerVista.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+                    return new Vista(encontrado, vehiculoPendiente, cuerpo);
+                });
+    }
+
+    /**
+     * Mantenimientos del vehículo (antiguos, preventivos y correctivos) de más reciente a
+     * más antiguo. Las tres colecciones se consultan a la vez.
+     */
+    public CompletableFuture<List<Object>> mantenimientos(String usuarioId, String vehiculoId) {
+        CompletableFuture<List<Mantenimiento>> antiguos = parte("mantenimientos",
+                () -> mantenimientoRepository.findByUsuarioIdAndVehiculoIdOrderByFechaDesc(usuarioId, vehiculoId));
+        CompletableFuture<List<MantenimientoPreventivo>> preventivos = parte("preventivos",
+                () -> preventivoRepository.findByUsuarioIdAndVehiculoIdOrderByFechaDesc(usuarioId, vehiculoId));
+        CompletableFuture<List<MantenimientoCorrectivo>> correctivos = parte("correctivos",
+                () -> correctivoRepository.findByUsuarioIdAndVehiculoIdOrderByFechaDesc(usuarioId, vehiculoId));
+        return CompletableFuture.allOf(antiguos, preventivos, correctivos).thenApply(nada -> {
+            List<Object> todos = new ArrayList<>(antiguos.join());
+            todos.addAll(preventivos.join());
+            todos.addAll(correctivos.join());
+            todos.sort(POR_FECHA_DESC);
+            return todos;
+        });
+    }
+
+    private <T> CompletableFuture<T> parte(String nombre, Supplier<T> consulta) {
+        Timer timer = Timer.builder("ecofleet.vehiculo.overview.parte")
+                .tag("parte", nombre)
+                .register(registry);
+        // El hilo del pool trabaja para la empresa de la petición (base y filtro)
+        try {
+            return CompletableFuture.supplyAsync(ContextoEmpresa.propagar(() -> timer.record(consulta)), executor);
+        } catch (RejectedExecutionException e) {
+            partesRechazadas.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // true si la parte (o una de las consultas de las que depende) no cupo en el pool
+    public static boolean rechazada(CompletableFuture<?> futuro) {
+        if (!futuro.isCompletedExceptionally()) {
+            return false;
+        }
+        Throwable causa = futuro.handle((valor, error) -> error).join();
+        while (causa instanceof CompletionException && causa.getCause() != null) {
+            causa = causa.getCause();
+        }
+        return causa instanceof RejectedExecutionException;
+    }
+
+    // Totales de combustible y los últimos repostajes (la lista llega de más reciente a más antiguo)
+    private Map<String, Object> combustible(List<Repostaje> repostajes) {
+        double litros = 0;
+        double coste = 0;
+        Double kmMin = null;
+        Double kmMax = null;
+        Double litrosUltimo = null;
+        for (Repostaje r : repostajes) {
+            if (r.getLitros() != null) {
+                litros += r.getLitros();
+            }
+            if (r.getCosteTotal() != null) {
+                coste += r.getCosteTotal();
+            }
+            Double km = r.getKilometrajeActual();
+            if (km != null) {
+                if (kmMin == null || km < kmMin) {
+                    kmMin = km;
+                    litrosUltimo = r.getLitros();
+                }
+                if (kmMax == null || km > kmMax) {
+                    kmMax = km;
+                }
+            }
+        }
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("repostajes", repostajes.size());
+        resultado.put("litros", redondear(litros));
+        resultado.put("coste", redondear(coste));
+        resultado.put("precioMedioLitro", litros > 0 ? redondear(coste / litros) : null);
+        // El primer repostaje llena el depósito: sus litros no se gastaron en el tramo medido
+        double litrosTramo = litros - (litrosUltimo != null ? litrosUltimo : 0);
+        resultado.put("consumoL100km", kmMax != null && kmMax > kmMin && litrosTramo > 0
+                ? redondear(litrosTramo * 100 / (kmMax - kmMin)) : null);
+        resultado.put("ultimos", repostajes.subList(0, Math.min(repostajesRecientes, repostajes.size())));
+        return resultado;
+    }
+
+    private static LocalDate fechaMantenimiento(Object m) {
+        if (m instanceof Mantenimiento antiguo) {
+            return antiguo.getFecha();
+        }
+        if (m instanceof MantenimientoPreventivo preventivo) {
+            return preventivo.getFecha();
+        }
+        if (m instanceof MantenimientoCorrectivo correctivo) {
+            return correctivo.getFecha();
+        }
+        return null;
+    }
+
+    private static double redondear(double valor) {
+        return Math.round(valor * 100) / 100.0;
+    }
+}
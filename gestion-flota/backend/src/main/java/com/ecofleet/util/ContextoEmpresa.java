@@ -0,0 +1,127 @@
+package com.ecofleet.util;
+
+import java.util.function.Supplier;
+
+/**
+ * Empresa (tenant) en cuyo nombre trabaja el hilo actual.
+ *
+ * En las peticiones la pone EmpresaFilter a partir de X-User-Id; los procesos en segundo
+ * plano que escriben o leen datos de una empresa concreta la fijan con ejecutarComo. El
+ * MongoTemplate de la aplicación la usa para filtrar las consultas por usuarioId y para
+ * elegir la base de datos de la empresa. Los pools que atienden trabajo de una petición
+ * deben envolver sus tareas con propagar, porque el ThreadLocal no pasa de un hilo a otro.
+ *
+ * Una petición sin empresa no puede tocar datos de empresa (sinAmbito): solo lo hacen sin
+ * filtrar los procesos internos, que declaran la base que recorren con enBase o la empresa
+ * con ejecutarComo. Fuera de una petición, sin nada fijado, se usa la base compartida.
+ */
+public final class ContextoEmpresa {
+
+    private static final ThreadLocal<String> EMPRESA = new ThreadLocal<>();
+    private static final ThreadLocal<String> BASE = new ThreadLocal<>();
+    // El hilo atiende una petición HTTP (o trabajo suyo pasado a un pool con propagar)
+    private static final ThreadLocal<Boolean> PETICION = new ThreadLocal<>();
+
+    private ContextoEmpresa() {
+    }
+
+    public static String actual() {
+        return EMPRESA.get();
+    }
+
+    // Base de datos fijada por un proceso que recorre todas las bases, o null
+    public static String base() {
+        return BASE.get();
+    }
+
+    // Petición sin empresa ni base declarada: no puede leer ni escribir datos de empresa
+    public static boolean sinAmbito() {
+        return PETICION.get() != null && EMPRESA.get() == null && BASE.get() == null;
+    }
+
+    public static void iniciarPeticion(String empresa) {
+        PETICION.set(Boolean.TRUE);
+        establecer(empresa);
+    }
+
+    public static void establecer(String empresa) {
+        if (empresa == null || empresa.isBlank()) {
+            EMPRESA.remove();
+        } else {
+            EMPRESA.set(empresa);
+        }
+    }
+
+    public static void limpiar() {
+        EMPRESA.remove();
+        BASE.remove();
+        PETICION.remove();
+    }
+
+    public static <T> T ejecutarComo(String empresa, Supplier<T> accion) {
+        String anterior = EMPRESA.get();
+        establecer(empresa);
+        try {
+            return accion.get();
+        } finally {
+            establecer(anterior);
+        }
+    }
+
+    public static void ejecutarComo(String empresa, Runnable accion) {
+        ejecutarComo(empresa, () -> {
+            accion.run();
+            return null;
+        });
+    }
+
+    /** Ejecuta sin empresa contra una base concreta (null = la compartida). */
+    public static void enBase(String base, Runnable accion) {
+        String empresaAnterior = EMPRESA.get();
+        String baseAnterior = BASE.get();
+        EMPRESA.remove();
+        if (base == null) {
+            BASE.remove();
+        } else {
+            BASE.set(base);
+        }
+        try {
+            accion.run();
+        } finally {
+            establecer(empresaAnterior);
+            if (baseAnterior == null) {
+                BASE.remove();
+            } else {
+                BASE.set(baseAnterior);
+            }
+        }
+    }
+
+    // Captura la empresa del hilo que crea la tarea para el hilo que la ejecute; el trabajo
+    // de una petición sigue siéndolo en el pool
+    public static <T> Supplier<T> propagar(Supplier<T> accion) {
+        String empresa = EMPRESA.get();
+        boolean peticion = PETICION.get() != null;
+        return () -> {
+            Boolean anterior = PETICION.get();
+            if (peticion) {
+                PETICION.set(Boolean.TRUE);
+            }
+            try {
+                return ejecutarComo(empresa, accion);
+            } finally {
+                if (anterior == null) {
+                    PETICION.remove();
+                }
+            }
+        };
+    }
+
+    public static Runnable propagar(Runnable accion) {
+        Supplier<Void> tarea = propagar(() -> {
+            accion.run();
+            return null;
+        });
+        return tarea::get;
+    }
+}
@@ -0,0 +1,58 @@
+package com.ecofleet.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CSV mínimo (RFC 4180 sin saltos de línea dentro de campos) para exportar e importar
+ * línea a línea sin cargar el fichero entero.
+ */
+public final class Csv {
+
+    private Csv() {
+    }
+
+    public static String escapar(Object valor) {
+        if (valor == null) {
+            return "";
+        }
+        String texto = valor.toString();
+        if (texto.indexOf(',') >= 0 || texto.indexOf('"') >= 0 || texto.indexOf('\n') >= 0 || texto.indexOf('\r') >= 0) {
+            return '"' + texto.replace("\"", "\"\"").replace('\n', ' ').replace('\r', ' ') + '"';
+        }
+        return texto;
+    }
+
+    public static List<String> parsearLinea(String linea) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        boolean entreComillas = false;
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (entreComillas) {
+                if (c == '"') {
+                    if (i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+                        actual.append('"');
+                        i++;
+                    } else {
+                        entreComillas = false;
+                    }
+                } else {
+                    actual.append(c);
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+            } else if (c == ',') {
+                campos.add(actual.toString());
+                actual.setLength(0);
+            } else {
+                actual.append(c);
+            }
+        }
+        if (entreComillas) {
+            throw new IllegalArgumentException("Comillas sin cerrar");
+        }
+        campos.add(actual.toString());
+        return campos;
+    }
+}
@@ -0,0 +1,66 @@
+package com.ecofleet.util;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Conversión de fechas compartida por los endpoints de rango, la migración y los
+ * convertidores de lectura de Mongo.
+ *
+ * Acepta tanto la fecha sola (2024-05-01) como la fecha-hora ISO con o sin zona. Los
+ * instantes sin zona se interpretan en UTC, igual que las marcas que generaba el backend;
+ * los rangos sobre LocalDateTime, en la hora local del servidor con la que se guardaron.
+ */
+public final class Fechas {
+
+    private Fechas() {
+    }
+
+    // Mongo guarda milisegundos: truncar evita que una ruta releída "cambie" respecto a la cacheada
+    public static Instant ahora() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    public static Instant instante(String valor) {
+        String texto = valor.trim();
+        if (texto.length() == 10) {
+            return LocalDate.parse(texto).atStartOfDay(ZoneOffset.UTC).toInstant();
+        }
+        try {
+            return OffsetDateTime.parse(texto).toInstant();
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(texto).toInstant(ZoneOffset.UTC);
+        }
+    }
+
+    public static LocalDate dia(String valor) {
+        String texto = valor.trim();
+        return texto.length() == 10 ? LocalDate.parse(texto) : LocalDate.ofInstant(instante(texto), ZoneOffset.UTC);
+    }
+
+    // Inicio de un rango sobre campos LocalDateTime (hora local del servidor): una fecha sola empieza a medianoche
+    public static LocalDateTime desde(String valor) {
+        String texto = valor.trim();
+        return texto.length() == 10 ? LocalDate.parse(texto).atStartOfDay() : horaLocal(texto);
+    }
+
+    // Fin de un rango (exclusivo): una fecha sola incluye el día entero
+    public static LocalDateTime hasta(String valor) {
+        String texto = valor.trim();
+        return texto.length() == 10 ? LocalDate.parse(texto).plusDays(1).atStartOfDay() : horaLocal(texto);
+    }
+
+    private static LocalDateTime horaLocal(String texto) {
+        try {
+            return OffsetDateTime.parse(texto).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(texto);
+        }
+    }
+}
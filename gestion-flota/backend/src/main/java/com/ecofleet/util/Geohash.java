@@ -0,0 +1,105 @@
+package com.ecofleet.util;
+
+import java.util.Arrays;
+
+/**
+ * Codificación geohash (base32 estándar) para agregar posiciones por celdas.
+ *
+ * Un geohash de precisión p alterna 5p bits de longitud y latitud, empezando por la
+ * longitud, así que el ancho y el alto de la celda solo dependen de p.
+ */
+public final class Geohash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+    private static final int[] VALOR = new int[128];
+
+    static {
+        Arrays.fill(VALOR, -1);
+        for (int i = 0; i < BASE32.length; i++) {
+            VALOR[BASE32[i]] = i;
+        }
+    }
+
+    private Geohash() {
+    }
+
+    public static String codificar(double latitud, double longitud, int precision) {
+        double latMin = -90, latMax = 90, lonMin = -180, lonMax = 180;
+        char[] hash = new char[precision];
+        boolean esLongitud = true;
+        int bit = 0;
+        int valor = 0;
+        int i = 0;
+        while (i < precision) {
+            if (esLongitud) {
+                double medio = (lonMin + lonMax) / 2;
+                if (longitud >= medio) {
+                    valor = (valor << 1) | 1;
+                    lonMin = medio;
+                } else {
+                    valor <<= 1;
+                    lonMax = medio;
+                }
+            } else {
+                double medio = (latMin + latMax) / 2;
+                if (latitud >= medio) {
+                    valor = (valor << 1) | 1;
+                    latMin = medio;
+                } else {
+                    valor <<= 1;
+                    latMax = medio;
+                }
+            }
+            esLongitud = !esLongitud;
+            if (++bit == 5) {
+                hash[i++] = BASE32[valor];
+                bit = 0;
+                valor = 0;
+            }
+        }
+        return new String(hash);
+    }
+
+    // Límites de la celda: {sur, oeste, norte, este}
+    public static double[] limites(String hash) {
+        double latMin = -90, latMax = 90, lonMin = -180, lonMax = 180;
+        boolean esLongitud = true;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            int valor = c < 128 ? VALOR[c] : -1;
+            if (valor < 0) {
+                throw new IllegalArgumentException("Carácter geohash no válido: " + c);
+            }
+            for (int bit = 4; bit >= 0; bit--) {
+                boolean uno = ((valor >> bit) & 1) == 1;
+                if (esLongitud) {
+                    double medio = (lonMin + lonMax) / 2;
+                    if (uno) {
+                        lonMin = medio;
+                    } else {
+                        lonMax = medio;
+                    }
+                } else {
+                    double medio = (latMin + latMax) / 2;
+                    if (uno) {
+                        latMin = medio;
+                    } else {
+                        latMax = medio;
+                    }
+                }
+                esLongitud = !esLongitud;
+            }
+        }
+        return new double[]{latMin, lonMin, latMax, lonMax};
+    }
+
+    public static double anchoGrados(int precision) {
+        int bitsLongitud = (5 * precision + 1) / 2;
+        return 360.0 / (1L << bitsLongitud);
+    }
+
+    public static double altoGrados(int precision) {
+        int bitsLatitud = 5 * precision / 2;
+        return 180.0 / (1L << bitsLatitud);
+    }
+}
@@ -0,0 +1,39 @@
+package com.ecofleet.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * Escritura de campos para los serializadores a mano de los modelos de listado: cada
+ * método omite el campo si el valor es nulo, igual que hace Jackson con NON_NULL.
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    public static void texto(JsonGenerator gen, String campo, String valor) throws IOException {
+        if (valor != null) {
+            gen.writeStringField(campo, valor);
+        }
+    }
+
+    public static void numero(JsonGenerator gen, String campo, Double valor) throws IOException {
+        if (valor != null) {
+            gen.writeNumberField(campo, valor);
+        }
+    }
+
+    public static void entero(JsonGenerator gen, String campo, Integer valor) throws IOException {
+        if (valor != null) {
+            gen.writeNumberField(campo, valor);
+        }
+    }
+
+    public static void booleano(JsonGenerator gen, String campo, Boolean valor) throws IOException {
+        if (valor != null) {
+            gen.writeBooleanField(campo, valor);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ecofleet.util;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logger muestreado para caminos calientes (ingesta GPS, login): escribe como mucho una
+ * línea por intervalo y cuenta las que se salta, para no pagar un log por petición.
+ * La escritura en sí es asíncrona (AsyncAppender en logback-spring.xml).
+ */
+public class LogMuestreado {
+
+    private final Logger logger;
+    private final long intervaloNanos;
+    private final AtomicLong ultimo = new AtomicLong(System.nanoTime() - Long.MAX_VALUE / 2);
+    private final AtomicLong suprimidos = new AtomicLong();
+
+    public LogMuestreado(Logger logger, long intervaloMs) {
+        this.logger = logger;
+        this.intervaloNanos = intervaloMs * 1_000_000L;
+    }
+
+    public void debug(String formato, Object... args) {
+        if (logger.isDebugEnabled() && tocaEscribir()) {
+            logger.debug(formato + " (+{} omitidos)", conOmitidos(args));
+        }
+    }
+
+    public void info(String formato, Object... args) {
+        if (logger.isInfoEnabled() && tocaEscribir()) {
+            logger.info(formato + " (+{} omitidos)", conOmitidos(args));
+        }
+    }
+
+    public void warn(String formato, Object... args) {
+        if (logger.isWarnEnabled() && tocaEscribir()) {
+            logger.warn(formato + " (+{} omitidos)", conOmitidos(args));
+        }
+    }
+
+    private boolean tocaEscribir() {
+        long ahora = System.nanoTime();
+        long previo = ultimo.get();
+        if (ahora - previo >= intervaloNanos && ultimo.compareAndSet(previo, ahora)) {
+            return true;
+        }
+        suprimidos.incrementAndGet();
+        return false;
+    }
+
+    private Object[] conOmitidos(Object[] args) {
+        Object[] todos = new Object[args.length + 1];
+        System.arraycopy(args, 0, todos, 0, args.length);
+        todos[args.length] = suprimidos.getAndSet(0);
+        return todos;
+    }
+}
@@ -119,13 +119,69 @@ export default function ConductorDashboard() {
         }
 
         cargarRutas();
-        const interval = setInterval(cargarRutas, 10000);
+
+        // Canal push del conductor: asignaciones, cambios de estado, chat y peticiones de posición
+        let canal: EventSource | null = null;
+        let canalAbierto = false;
+        try {
+            const user = JSON.parse(userStr);
+            if (user.role === 'CONDUCTOR' && user.id) {
+                // En la app Android el TrackingService atiende las peticiones de posición
+                (window as any).AndroidTracker?.setConductor?.(String(user.id));
+                if (user.empresaId) (window as any).AndroidTracker?.setEmpresa?.(String(user.empresaId));
+
+                // EventSource no envía cabeceras: la empresa va en el parámetro usuarioId
+                const empresa = user.empresaId ? `?usuarioId=${encodeURIComponent(String(user.empresaId))}` : '';
+                canal = new EventSource(`${API_URL}/api/conductores/${user.id}/canal/stream${empresa}`);
+                canal.onopen = () => { canalAbierto = true; };
+                canal.onerror = () => { canalAbierto = false; };
+                canal.addEventListener('comando', (ev) => atenderComando(String(user.id), JSON.parse((ev as MessageEvent).data)));
+            }
+        } catch (e) {
+            console.error("Error abriendo el canal del conductor", e);
+        }
+
+        // Polling de respaldo mientras el canal no está abierto
+        const interval = setInterval(() => {
+            if (!canalAbierto) cargarRutas();
+        }, 10000);
         return () => {
             clearInterval(interval);
+            canal?.close();
             stopBrowserGPS();
         };
     }, []);
 
+    const atenderComando = async (conductorId: string, comando: { id: string; tipo: string; rutaId?: string; datos?: any }) => {
+        if (comando.tipo === 'RUTA_ASIGNADA' || comando.tipo === 'RUTA_ESTADO') {
+            if (comando.tipo === 'RUTA_ASIGNADA') toast.info(`Nueva ruta asignada: ${comando.datos?.origen ?? ''} → ${comando.datos?.destino ?? ''}`);
+            cargarRutas();
+        } else if (comando.tipo === 'MENSAJE') {
+            toast.info(`💬 ${comando.datos?.contenido ?? 'Nuevo mensaje'}`);
+        } else if (comando.tipo === 'ENVIAR_POSICION' && comando.rutaId && !(window as any).AndroidTracker && navigator.geolocation) {
+            navigator.geolocation.getCurrentPosition((position) => {
+                fetch(`${API_URL}/api/rutas/${comando.rutaId}`, {
+                    method: 'PUT',
+                    headers: getAuthHeaders(),
+                    body: JSON.stringify({
+                        latitudActual: position.coords.latitude,
+                        longitudActual: position.coords.longitude
+                    })
+                }).catch(err => console.error("Error enviando posición solicitada:", err));
+            });
+        }
+        try {
+            await fetch(`${API_URL}/api/conductores/${conductorId}/canal/ack`, {
+                method: 'POST',
+                headers: getAuthHeaders(),
+                body: JSON.stringify({ ids: [comando.id] })
+            });
+        } catch (err) {
+            // Sin ack el comando se reenvía en la próxima conexión
+            console.error("Error confirmando comando:", err);
+        }
+    };
+
     // GPS Fallback para navegador
     const [gpsInterval, setGpsInterval] = useState<NodeJS.Timeout | null>(null);
 
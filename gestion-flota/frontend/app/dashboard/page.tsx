@@ -103,6 +103,30 @@ export default function Dashboard() {
     }
   }, [router]);
 
+  // Alertas de rutas en curso (sin GPS, exceso de velocidad, parada larga) por el stream de la empresa
+  useEffect(() => {
+    const userStr = localStorage.getItem("user");
+    if (!userStr) return;
+    let usuarioId: string | undefined;
+    try {
+      usuarioId = JSON.parse(userStr)?.id;
+    } catch (e) {
+      return;
+    }
+    if (!usuarioId) return;
+
+    const source = new EventSource(`${API_URL}/api/rutas/stream?usuarioId=${encodeURIComponent(String(usuarioId))}`);
+    source.addEventListener('alerta', (event) => {
+      try {
+        const alerta = JSON.parse((event as MessageEvent).data);
+        toast.warning(`🚨 ${alerta.mensaje}`, { duration: 10000 });
+      } catch (e) {
+        console.error("Alerta no válida:", e);
+      }
+    });
+    return () => source.close();
+  }, []);
+
   const handleLogout = () => {
     // Check if user is conductor to redirect correctly
     try {
@@ -307,7 +331,7 @@ export default function Dashboard() {
     }
     const geocode = async (query: string) => {
       try {
-        const response = await fetch(`https://nominatim.openstreetmap.org/search?format=json&q=${encodeURIComponent(query)}&limit=1`);
+        const response = await fetch(`${API_URL}/api/geo/geocode?q=${encodeURIComponent(query)}&limit=1`);
         const data = await response.json();
         if (data && data.length > 0) {
           return { lat: parseFloat(data[0].lat), lng: parseFloat(data[0].lon) };
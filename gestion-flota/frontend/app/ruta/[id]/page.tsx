@@ -76,7 +76,7 @@ export default function RutaTracking() {
             setIsCalculatingRoute(true);
             console.log('[RutaTracking] Calculando ruta dinámica desde:', { currentLat, currentLng }, 'hasta:', { destLat, destLng });
 
-            const url = `https://router.project-osrm.org/route/v1/driving/${currentLng},${currentLat};${destLng},${destLat}?overview=full&geometries=geojson`;
+            const url = `${API_URL}/api/geo/route?latOrigen=${currentLat}&lonOrigen=${currentLng}&latDestino=${destLat}&lonDestino=${destLng}&enVivo=true`;
 
             const response = await fetch(url);
             const data = await response.json();
@@ -108,7 +108,7 @@ export default function RutaTracking() {
 
         try {
             console.log('[RutaTracking] Cargando datos de ruta:', id);
-            const res = await fetch(`${API_URL}/api/rutas/${id}`, {
+            const res = await fetch(`${API_URL}/api/rutas/${id}?includeArchived=true`, {
                 signal: abortControllerRef.current.signal,
                 headers: getAuthHeaders() as any
             });
@@ -189,19 +189,31 @@ export default function RutaTracking() {
         // Cargar datos inmediatamente
         cargarDatos();
 
-        // Actualizar cada 2 segundos
+        // Cambios en tiempo real por SSE; el polling solo actúa mientras el stream no está abierto
+        let streamAbierto = false;
+        // EventSource no envía cabeceras: la empresa va en el parámetro usuarioId
+        const empresa = getAuthHeaders()['X-User-Id'];
+        const stream = new EventSource(`${API_URL}/api/rutas/stream?rutaId=${id}${empresa ? `&usuarioId=${encodeURIComponent(empresa)}` : ''}`);
+        stream.onopen = () => { streamAbierto = true; };
+        stream.onerror = () => { streamAbierto = false; }; // EventSource reconecta solo
+        stream.addEventListener('ruta', () => {
+            if (isMountedRef.current) cargarDatos();
+        });
+
+        // Actualizar cada 2 segundos si no hay stream
         const intervalId = setInterval(() => {
-            if (isMountedRef.current) {
+            if (isMountedRef.current && !streamAbierto) {
                 cargarDatos();
             }
         }, 2000);
 
         return () => {
             isMountedRef.current = false;
+            stream.close();
             if (intervalId) clearInterval(intervalId);
             if (abortControllerRef.current) abortControllerRef.current.abort();
         };
-    }, [cargarDatos]);
+    }, [cargarDatos, getAuthHeaders, id]);
 
     // Mostrar cargando mientras se obtienen datos por primera vez
     if (loading || (!ruta && !error)) {
@@ -43,6 +43,14 @@ interface Mantenimiento {
   proximoMantenimiento?: number;
 }
 
+interface ResumenCombustible {
+  repostajes: number;
+  litros: number;
+  coste: number;
+  precioMedioLitro: number | null;
+  consumoL100km: number | null;
+}
+
 const API_URL = process.env.NEXT_PUBLIC_API_URL || "https://saas-carcare-production.up.railway.app";
 
 export default function VehiculoDetalle() {
@@ -53,6 +61,7 @@ export default function VehiculoDetalle() {
 
   const [vehiculo, setVehiculo] = useState<Vehiculo | null>(null);
   const [mantenimientos, setMantenimientos] = useState<Mantenimiento[]>([]);
+  const [combustible, setCombustible] = useState<ResumenCombustible | null>(null);
   const [loading, setLoading] = useState(true);
   const [mostrarFormulario, setMostrarFormulario] = useState(false);
 
@@ -72,22 +81,34 @@ export default function VehiculoDetalle() {
     cargarDatos();
   }, [id]);
 
+  // Empresa de la sesión: el servidor solo devuelve y modifica datos de esa empresa
+  const getAuthHeaders = (): Record<string, string> => {
+    const headers: Record<string, string> = { "Content-Type": "application/json" };
+    const userStr = typeof window !== "undefined" ? localStorage.getItem("user") : null;
+    if (!userStr) return headers;
+    try {
+      const user = JSON.parse(userStr);
+      const tenantId = user?.role === "CONDUCTOR" ? user.empresaId : user?.id;
+      if (tenantId) headers["X-User-Id"] = String(tenantId);
+    } catch (e) {
+      console.error("Error parsing user from localStorage", e);
+    }
+    return headers;
+  };
+
   const cargarDatos = async () => {
     setLoading(true);
     try {
-      const [resVehiculo, resMantenimientos] = await Promise.all([
-        fetch(`${API_URL}/api/vehiculos/${id}`),
-        fetch(`${API_URL}/api/mantenimientos/vehiculo/${id}`),
-      ]);
-
-      if (resVehiculo.ok) {
-        const data = await resVehiculo.json();
-        setVehiculo(data);
-      }
+      // Una sola petición: el servidor lee vehículo, rutas, repostajes y mantenimientos a la vez
+      const res = await fetch(`${API_URL}/api/vehiculos/${id}/overview`, {
+        headers: getAuthHeaders(),
+      });
 
-      if (resMantenimientos.ok) {
-        const data = await resMantenimientos.json();
-        setMantenimientos(data);
+      if (res.ok) {
+        const data = await res.json();
+        setVehiculo(data.vehiculo);
+        if (data.mantenimientos) setMantenimientos(data.mantenimientos);
+        if (data.combustible) setCombustible(data.combustible);
       }
     } catch (err) {
       console.error("Error cargando datos:", err);
@@ -105,7 +126,7 @@ export default function VehiculoDetalle() {
     try {
       const res = await fetch(`${API_URL}${endpoint}`, {
         method: "POST",
-        headers: { "Content-Type": "application/json" },
+        headers: getAuthHeaders(),
         body: JSON.stringify({ ...nuevoMantenimiento, vehiculoId: id }),
       });
       if (res.ok) {
@@ -133,6 +154,7 @@ export default function VehiculoDetalle() {
     try {
       const res = await fetch(`${API_URL}/api/mantenimientos/${id}`, {
         method: "DELETE",
+        headers: getAuthHeaders(),
       });
       if (res.ok) {
         toast.success("Mantenimiento eliminado");
@@ -231,6 +253,20 @@ export default function VehiculoDetalle() {
                   {costoTotal.toFixed(2)} €
                 </span>
               </div>
+              {combustible && combustible.repostajes > 0 && (
+                <div className={styles.statRow}>
+                  <span className={styles.statLabel}>Gasto Combustible</span>
+                  <span className={styles.statValue}>
+                    {combustible.coste.toFixed(2)} € ({combustible.litros.toFixed(0)} L)
+                  </span>
+                </div>
+              )}
+              {combustible?.consumoL100km != null && (
+                <div className={styles.statRow}>
+                  <span className={styles.statLabel}>Consumo Medio</span>
+                  <span className={styles.statValue}>{combustible.consumoL100km.toFixed(1)} L/100 km</span>
+                </div>
+              )}
             </div>
           </div>
 
@@ -33,8 +33,10 @@ export default function ChatRuta({ rutaId, rol }: ChatProps) {
 
         try {
             const user = JSON.parse(userStr);
-            if (user && user.id) {
-                headers['X-User-Id'] = String(user.id);
+            // Un conductor habla en nombre de su empresa: los mensajes son de la empresa
+            const tenantId = user?.role === 'CONDUCTOR' ? user.empresaId : user?.id;
+            if (tenantId) {
+                headers['X-User-Id'] = String(tenantId);
             }
         } catch (e) {
             console.error("Error parsing user from localStorage", e);
@@ -3,6 +3,8 @@
 import { useState, useEffect, useRef } from "react";
 import styles from "../app/dashboard/page.module.css";
 
+const API_URL = process.env.NEXT_PUBLIC_API_URL || "https://saas-carcare-production.up.railway.app";
+
 interface Suggestion {
     display_name: string;
     lat: string;
@@ -43,7 +45,7 @@ export default function LocationInput({ label, value, placeholder, onChange }: L
         setLoading(true);
         try {
             const response = await fetch(
-                `https://nominatim.openstreetmap.org/search?format=json&q=${encodeURIComponent(query)}&addressdetails=1&limit=5&countrycodes=es`
+                `${API_URL}/api/geo/geocode?q=${encodeURIComponent(query)}&limit=5&countrycodes=es`
             );
             const data = await response.json();
             setSuggestions(data);
@@ -1,9 +1,14 @@
 "use client";
 
-import { MapContainer, TileLayer, Marker, Popup, Tooltip, useMap } from "react-leaflet";
+import { MapContainer, TileLayer, Marker, Popup, Tooltip, useMap, useMapEvents } from "react-leaflet";
 import L from "leaflet";
 import "leaflet/dist/leaflet.css";
-import { useEffect, useMemo } from "react";
+import { useCallback, useEffect, useMemo, useState } from "react";
+
+const API_URL = process.env.NEXT_PUBLIC_API_URL || "http://localhost:8080";
+
+// Cada cuánto se refrescan los clusters aunque no se mueva el mapa (las posiciones cambian)
+const REFRESCO_CLUSTERS_MS = 5000;
 
 // Fix for default marker icons
 const DefaultIcon = L.icon({
@@ -81,6 +86,13 @@ interface RutaConConductor {
     ultimaActualizacionGPS?: string;
 }
 
+interface ClusterRutas {
+    latitud: number;
+    longitud: number;
+    cantidad: number;
+    rutaId?: string;
+}
+
 interface MapTrackingGlobalProps {
     rutasActivas: RutaConConductor[];
     onRutaClick?: (rutaId: string) => void;
@@ -131,6 +143,53 @@ function getTimeAgo(isoTimestamp: string | undefined, hasActiveGPS: boolean = fa
     return { text, seconds: diffSeconds, status };
 }
 
+// Icono de cluster con el número de vehículos; crece con la cantidad
+function iconoCluster(cantidad: number) {
+    const size = cantidad < 10 ? 34 : cantidad < 100 ? 42 : 52;
+    return L.divIcon({
+        html: `<div style="
+            background: rgba(34, 197, 94, 0.85);
+            width: ${size}px;
+            height: ${size}px;
+            border-radius: 50%;
+            border: 3px solid rgba(255, 255, 255, 0.9);
+            box-shadow: 0 0 15px rgba(59, 246, 59, 0.6);
+            display: flex;
+            align-items: center;
+            justify-content: center;
+            color: white;
+            font-weight: bold;
+            font-size: 13px;
+        ">${cantidad}</div>`,
+        className: "custom-cluster-icon",
+        iconSize: [size, size],
+        iconAnchor: [size / 2, size / 2],
+    });
+}
+
+function getAuthHeaders(): Record<string, string> {
+    const headers: Record<string, string> = {};
+    if (typeof window === 'undefined') return headers;
+
+    const userStr = localStorage.getItem("user");
+    if (!userStr) return headers;
+
+    try {
+        const user = JSON.parse(userStr);
+        if (user && user.id) {
+            headers['X-User-Id'] = String(user.id);
+        }
+    } catch (e) {
+        console.error("Error parsing user from localStorage", e);
+    }
+    return headers;
+}
+
+// Rutas en curso con GPS: son las que agrupa el backend en /api/rutas/clusters
+function estaEnIndice(ruta: RutaConConductor): boolean {
+    return ruta.estado === 'EN_CURSO' && !!(ruta.latitudActual && ruta.longitudActual);
+}
+
 // Formato de hora legible
 function formatTimestamp(isoTimestamp: string | undefined): string {
     if (!isoTimestamp) return 'N/A';
@@ -143,6 +202,328 @@ function formatTimestamp(isoTimestamp: string | undefined): string {
     });
 }
 
+function MarcadorRuta({ ruta, posicion, onRutaClick }: { ruta: RutaConConductor; posicion?: [number, number]; onRutaClick?: (rutaId: string) => void }) {
+    const hasRealGPS = !!(ruta.latitudActual && ruta.longitudActual);
+    // Si viene del índice de clusters, su posición es la más reciente
+    const position: [number, number] = posicion
+        ?? (hasRealGPS
+            ? [ruta.latitudActual!, ruta.longitudActual!]
+            : [ruta.latitudOrigen || 40.4168, ruta.longitudOrigen || -3.7038]);
+
+    const isEnCurso = ruta.estado === 'EN_CURSO';
+    const timeAgo = getTimeAgo(ruta.ultimaActualizacionGPS, hasRealGPS);
+
+    // Seleccionar icono según estado de conexión
+    let icon = OfflineIcon;
+    if (isEnCurso && hasRealGPS) {
+        if (timeAgo.status === 'online') {
+            icon = OnlineIcon;
+        } else if (timeAgo.status === 'idle') {
+            icon = IdleIcon;
+        }
+    }
+
+    // Color del estado
+    const statusColors = {
+        online: '#22c55e',
+        idle: '#f59e0b',
+        offline: '#6b7280'
+    };
+    const statusLabels = {
+        online: '🟢 ONLINE',
+        idle: '🟡 ESPERANDO',
+        offline: '⚫ OFFLINE'
+    };
+
+    return (
+        <Marker
+            key={ruta.id}
+            position={position}
+            icon={icon}
+            eventHandlers={{
+                click: () => ruta.id && onRutaClick && onRutaClick(ruta.id)
+            }}
+        >
+            {/* Tooltip que aparece al hacer hover */}
+            <Tooltip
+                permanent={false}
+                direction="top"
+                offset={[0, -15]}
+                opacity={0.98}
+                className="custom-tooltip"
+            >
+                <div style={{
+                    minWidth: '200px',
+                    padding: '8px',
+                    fontSize: '0.8rem',
+                    lineHeight: '1.5',
+                    background: 'white',
+                    borderRadius: '8px',
+                    boxShadow: '0 4px 12px rgba(0,0,0,0.15)'
+                }}>
+                    {/* Estado con badge */}
+                    <div style={{
+                        display: 'flex',
+                        alignItems: 'center',
+                        justifyContent: 'space-between',
+                        marginBottom: '8px',
+                        paddingBottom: '8px',
+                        borderBottom: `2px solid ${statusColors[timeAgo.status]}`
+                    }}>
+                        <div style={{
+                            fontWeight: 'bold',
+                            color: '#1f2937',
+                            fontSize: '0.9rem'
+                        }}>
+                            {ruta.estado === 'EN_CURSO' ? '🚗 Conductor' : '📍 En Espera'}
+                        </div>
+                        <div style={{
+                            padding: '2px 8px',
+                            borderRadius: '12px',
+                            background: statusColors[timeAgo.status],
+                            color: 'white',
+                            fontSize: '0.7rem',
+                            fontWeight: 'bold',
+                            textTransform: 'uppercase'
+                        }}>
+                            {timeAgo.status === 'online' ? 'ONLINE' :
+                                timeAgo.status === 'idle' ? 'INACTIVO' : 'OFFLINE'}
+                        </div>
+                    </div>
+
+                    {/* Ruta */}
+                    <div style={{
+                        color: '#374151',
+                        marginBottom: '6px',
+                        fontSize: '0.85rem'
+                    }}>
+                        <strong>{ruta.origen}</strong>
+                        <span style={{ margin: '0 4px', color: '#9ca3af' }}>→</span>
+                        <strong>{ruta.destino}</strong>
+                    </div>
+
+                    {/* Timestamp info */}
+                    <div style={{
+                        marginTop: '8px',
+                        padding: '6px 8px',
+                        background: `${statusColors[timeAgo.status]}10`,
+                        borderRadius: '6px',
+                        borderLeft: `3px solid ${statusColors[timeAgo.status]}`
+                    }}>
+                        <div style={{
+                            fontSize: '0.75rem',
+                            color: '#6b7280',
+                            marginBottom: '2px'
+                        }}>
+                            📡 Última señal GPS
+                        </div>
+                        <div style={{
+                            fontSize: '0.85rem',
+                            fontWeight: 'bold',
+                            color: statusColors[timeAgo.status]
+                        }}>
+                            {timeAgo.text}
+                        </div>
+                        {ruta.ultimaActualizacionGPS && (
+                            <div style={{
+                                fontSize: '0.7rem',
+                                color: '#9ca3af',
+                                marginTop: '2px'
+                            }}>
+                                🕐 {formatTimestamp(ruta.ultimaActualizacionGPS)}
+                            </div>
+                        )}
+                    </div>
+
+                    {/* Indicador de GPS activo */}
+                    {hasRealGPS && (
+                        <div style={{
+                            marginTop: '6px',
+                            fontSize: '0.7rem',
+                            color: '#22c55e',
+                            textAlign: 'center',
+                            fontWeight: '600'
+                        }}>
+                            ✓ GPS Conectado
+                        </div>
+                    )}
+                </div>
+            </Tooltip>
+
+            {/* Popup con más detalles al hacer click */}
+            <Popup>
+                <div style={{ color: '#000', minWidth: '220px' }}>
+                    {/* Header con estado */}
+                    <div style={{
+                        fontWeight: 'bold',
+                        fontSize: '1rem',
+                        marginBottom: '0.6rem',
+                        borderBottom: '2px solid',
+                        borderColor: statusColors[timeAgo.status],
+                        paddingBottom: '0.5rem',
+                        display: 'flex',
+                        justifyContent: 'space-between',
+                        alignItems: 'center'
+                    }}>
+                        <span>{isEnCurso ? '🚗 Conductor' : '📍 En Espera'}</span>
+                        <span style={{
+                            fontSize: '0.7rem',
+                            padding: '2px 8px',
+                            borderRadius: '10px',
+                            background: statusColors[timeAgo.status],
+                            color: 'white'
+                        }}>
+                            {timeAgo.status.toUpperCase()}
+                        </span>
+                    </div>
+
+                    {/* Info de ruta */}
+                    <div style={{ fontSize: '0.85rem', color: '#333', marginBottom: '0.5rem' }}>
+                        <div><strong>Ruta:</strong> {ruta.origen} → {ruta.destino}</div>
+                        <div><strong>Vehículo:</strong> #{ruta.vehiculoId?.slice(-6) || 'N/A'}</div>
+                        <div><strong>Estado:</strong>
+                            <span style={{
+                                color: isEnCurso ? '#22c55e' : '#f59e0b',
+                                fontWeight: 'bold'
+                            }}>
+                                {' '}{ruta.estado}
+                            </span>
+                        </div>
+                    </div>
+
+                    {/* Timestamp box */}
+                    <div style={{
+                        marginTop: '0.6rem',
+                        padding: '0.5rem',
+                        background: 'linear-gradient(135deg, rgba(0,0,0,0.03), rgba(0,0,0,0.08))',
+                        borderRadius: '8px',
+                        border: `1px solid ${statusColors[timeAgo.status]}40`
+                    }}>
+                        <div style={{
+                            fontSize: '0.7rem',
+                            color: '#666',
+                            textTransform: 'uppercase',
+                            letterSpacing: '0.05em',
+                            marginBottom: '4px'
+                        }}>
+                            📡 Última Conexión Satelital
+                        </div>
+                        <div style={{
+                            fontSize: '1.1rem',
+                            fontWeight: 'bold',
+                            color: statusColors[timeAgo.status]
+                        }}>
+                            {timeAgo.text}
+                        </div>
+                        <div style={{
+                            fontSize: '0.75rem',
+                            color: '#888',
+                            marginTop: '2px'
+                        }}>
+                            {formatTimestamp(ruta.ultimaActualizacionGPS)}
+                        </div>
+                    </div>
+
+                    {/* Coordenadas GPS */}
+                    {hasRealGPS && (
+                        <div style={{
+                            marginTop: '0.5rem',
+                            fontSize: '0.7rem',
+                            color: '#22c55e',
+                            background: 'rgba(34, 197, 94, 0.1)',
+                            padding: '0.4rem',
+                            borderRadius: '4px',
+                            textAlign: 'center',
+                            fontFamily: 'monospace'
+                        }}>
+                            📍 {position[0].toFixed(6)}, {position[1].toFixed(6)}
+                        </div>
+                    )}
+
+                    {/* Botón */}
+                    <button
+                        onClick={() => ruta.id && onRutaClick && onRutaClick(ruta.id)}
+                        style={{
+                            marginTop: '0.6rem',
+                            width: '100%',
+                            padding: '0.5rem',
+                            background: 'linear-gradient(135deg, #3bf63b, #22c55e)',
+                            color: '#000',
+                            border: 'none',
+                            borderRadius: '8px',
+                            fontWeight: 'bold',
+                            cursor: 'pointer',
+                            fontSize: '0.85rem',
+                            boxShadow: '0 2px 8px rgba(59, 246, 59, 0.3)'
+                        }}
+                    >
+                        Ver Detalles de la Ruta →
+                    </button>
+                </div>
+            </Popup>
+        </Marker>
+    );
+}
+
+// Posiciones en vivo agrupadas en el servidor para el bbox y zoom visibles
+function ClustersEnVivo({ rutasPorId, onRutaClick }: { rutasPorId: Map<string, RutaConConductor>; onRutaClick?: (rutaId: string) => void }) {
+    const map = useMap();
+    const [clusters, setClusters] = useState<ClusterRutas[]>([]);
+
+    const cargar = useCallback(async () => {
+        const bbox = map.getBounds().toBBoxString();
+        try {
+            const res = await fetch(`${API_URL}/api/rutas/clusters?bbox=${bbox}&zoom=${map.getZoom()}`, {
+                headers: getAuthHeaders()
+            });
+            if (res.ok) {
+                const data = await res.json();
+                setClusters(data.clusters || []);
+            }
+        } catch (err) {
+            console.error("Error cargando clusters", err);
+        }
+    }, [map]);
+
+    useMapEvents({ moveend: cargar });
+
+    useEffect(() => {
+        cargar();
+        const intervalo = setInterval(cargar, REFRESCO_CLUSTERS_MS);
+        return () => clearInterval(intervalo);
+    }, [cargar]);
+
+    return (
+        <>
+            {clusters.map(cluster => {
+                const ruta = cluster.rutaId ? rutasPorId.get(cluster.rutaId) : undefined;
+                const posicion: [number, number] = [cluster.latitud, cluster.longitud];
+                if (ruta) {
+                    return <MarcadorRuta key={cluster.rutaId} ruta={ruta} posicion={posicion} onRutaClick={onRutaClick} />;
+                }
+                if (cluster.cantidad === 1) {
+                    // Ruta que aún no ha llegado al listado del dashboard
+                    return <Marker key={cluster.rutaId || `${cluster.latitud},${cluster.longitud}`} position={posicion} icon={OnlineIcon} />;
+                }
+                return (
+                    <Marker
+                        key={`${cluster.latitud},${cluster.longitud}`}
+                        position={posicion}
+                        icon={iconoCluster(cluster.cantidad)}
+                        eventHandlers={{
+                            click: () => map.setView(posicion, Math.min(map.getZoom() + 2, map.getMaxZoom()))
+                        }}
+                    >
+                        <Tooltip direction="top" offset={[0, -20]}>
+                            {cluster.cantidad} vehículos en ruta
+                        </Tooltip>
+                    </Marker>
+                );
+            })}
+        </>
+    );
+}
+
 function FitBounds({ positions }: { positions: [number, number][] }) {
     const map = useMap();
 
@@ -162,6 +543,14 @@ export default function MapTrackingGlobal({ rutasActivas, onRutaClick }: MapTrac
         (r.latitudActual && r.longitudActual) || (r.latitudOrigen && r.longitudOrigen)
     );
 
+    // Las rutas en curso con GPS llegan agrupadas del servidor; el resto se pinta una a una
+    const rutasSinIndice = rutasConGPS.filter(r => !estaEnIndice(r));
+    const rutasPorId = useMemo(() => {
+        const porId = new Map<string, RutaConConductor>();
+        rutasActivas.forEach(r => { if (r.id) porId.set(r.id, r); });
+        return porId;
+    }, [rutasActivas]);
+
     // Obtener todas las posiciones para ajustar el mapa
     const allPositions: [number, number][] = rutasConGPS.map(r => {
         if (r.latitudActual && r.longitudActual) {
@@ -196,266 +585,11 @@ export default function MapTrackingGlobal({ rutasActivas, onRutaClick }: MapTrac
                 attribution='&copy; <a href="https://www.openstreetmap.org/copyright">OpenStreetMap</a>'
             />
 
-            {rutasConGPS.map(ruta => {
-                const hasRealGPS = !!(ruta.latitudActual && ruta.longitudActual);
-                const position: [number, number] = hasRealGPS
-                    ? [ruta.latitudActual!, ruta.longitudActual!]
-                    : [ruta.latitudOrigen || 40.4168, ruta.longitudOrigen || -3.7038];
-
-                const isEnCurso = ruta.estado === 'EN_CURSO';
-                const timeAgo = getTimeAgo(ruta.ultimaActualizacionGPS, hasRealGPS);
-
-                // Seleccionar icono según estado de conexión
-                let icon = OfflineIcon;
-                if (isEnCurso && hasRealGPS) {
-                    if (timeAgo.status === 'online') {
-                        icon = OnlineIcon;
-                    } else if (timeAgo.status === 'idle') {
-                        icon = IdleIcon;
-                    }
-                }
-
-                // Color del estado
-                const statusColors = {
-                    online: '#22c55e',
-                    idle: '#f59e0b',
-                    offline: '#6b7280'
-                };
-                const statusLabels = {
-                    online: '🟢 ONLINE',
-                    idle: '🟡 ESPERANDO',
-                    offline: '⚫ OFFLINE'
-                };
+            {rutasSinIndice.map(ruta => (
+                <MarcadorRuta key={ruta.id} ruta={ruta} onRutaClick={onRutaClick} />
+            ))}
 
-                return (
-                    <Marker
-                        key={ruta.id}
-                        position={position}
-                        icon={icon}
-                        eventHandlers={{
-                            click: () => ruta.id && onRutaClick && onRutaClick(ruta.id)
-                        }}
-                    >
-                        {/* Tooltip que aparece al hacer hover */}
-                        <Tooltip
-                            permanent={false}
-                            direction="top"
-                            offset={[0, -15]}
-                            opacity={0.98}
-                            className="custom-tooltip"
-                        >
-                            <div style={{
-                                minWidth: '200px',
-                                padding: '8px',
-                                fontSize: '0.8rem',
-                                lineHeight: '1.5',
-                                background: 'white',
-                                borderRadius: '8px',
-                                boxShadow: '0 4px 12px rgba(0,0,0,0.15)'
-                            }}>
-                                {/* Estado con badge */}
-                                <div style={{
-                                    display: 'flex',
-                                    alignItems: 'center',
-                                    justifyContent: 'space-between',
-                                    marginBottom: '8px',
-                                    paddingBottom: '8px',
-                                    borderBottom: `2px solid ${statusColors[timeAgo.status]}`
-                                }}>
-                                    <div style={{
-                                        fontWeight: 'bold',
-                                        color: '#1f2937',
-                                        fontSize: '0.9rem'
-                                    }}>
-                                        {ruta.estado === 'EN_CURSO' ? '🚗 Conductor' : '📍 En Espera'}
-                                    </div>
-                                    <div style={{
-                                        padding: '2px 8px',
-                                        borderRadius: '12px',
-                                        background: statusColors[timeAgo.status],
-                                        color: 'white',
-                                        fontSize: '0.7rem',
-                                        fontWeight: 'bold',
-                                        textTransform: 'uppercase'
-                                    }}>
-                                        {timeAgo.status === 'online' ? 'ONLINE' :
-                                            timeAgo.status === 'idle' ? 'INACTIVO' : 'OFFLINE'}
-                                    </div>
-                                </div>
-
-                                {/* Ruta */}
-                                <div style={{
-                                    color: '#374151',
-                                    marginBottom: '6px',
-                                    fontSize: '0.85rem'
-                                }}>
-                                    <strong>{ruta.origen}</strong>
-                                    <span style={{ margin: '0 4px', color: '#9ca3af' }}>→</span>
-                                    <strong>{ruta.destino}</strong>
-                                </div>
-
-                                {/* Timestamp info */}
-                                <div style={{
-                                    marginTop: '8px',
-                                    padding: '6px 8px',
-                                    background: `${statusColors[timeAgo.status]}10`,
-                                    borderRadius: '6px',
-                                    borderLeft: `3px solid ${statusColors[timeAgo.status]}`
-                                }}>
-                                    <div style={{
-                                        fontSize: '0.75rem',
-                                        color: '#6b7280',
-                                        marginBottom: '2px'
-                                    }}>
-                                        📡 Última señal GPS
-                                    </div>
-                                    <div style={{
-                                        fontSize: '0.85rem',
-                                        fontWeight: 'bold',
-                                        color: statusColors[timeAgo.status]
-                                    }}>
-                                        {timeAgo.text}
-                                    </div>
-                                    {ruta.ultimaActualizacionGPS && (
-                                        <div style={{
-                                            fontSize: '0.7rem',
-                                            color: '#9ca3af',
-                                            marginTop: '2px'
-                                        }}>
-                                            🕐 {formatTimestamp(ruta.ultimaActualizacionGPS)}
-                                        </div>
-                                    )}
-                                </div>
-
-                                {/* Indicador de GPS activo */}
-                                {hasRealGPS && (
-                                    <div style={{
-                                        marginTop: '6px',
-                                        fontSize: '0.7rem',
-                                        color: '#22c55e',
-                                        textAlign: 'center',
-                                        fontWeight: '600'
-                                    }}>
-                                        ✓ GPS Conectado
-                                    </div>
-                                )}
-                            </div>
-                        </Tooltip>
-
-                        {/* Popup con más detalles al hacer click */}
-                        <Popup>
-                            <div style={{ color: '#000', minWidth: '220px' }}>
-                                {/* Header con estado */}
-                                <div style={{
-                                    fontWeight: 'bold',
-                                    fontSize: '1rem',
-                                    marginBottom: '0.6rem',
-                                    borderBottom: '2px solid',
-                                    borderColor: statusColors[timeAgo.status],
-                                    paddingBottom: '0.5rem',
-                                    display: 'flex',
-                                    justifyContent: 'space-between',
-                                    alignItems: 'center'
-                                }}>
-                                    <span>{isEnCurso ? '🚗 Conductor' : '📍 En Espera'}</span>
-                                    <span style={{
-                                        fontSize: '0.7rem',
-                                        padding: '2px 8px',
-                                        borderRadius: '10px',
-                                        background: statusColors[timeAgo.status],
-                                        color: 'white'
-                                    }}>
-                                        {timeAgo.status.toUpperCase()}
-                                    </span>
-                                </div>
-
-                                {/* Info de ruta */}
-                                <div style={{ fontSize: '0.85rem', color: '#333', marginBottom: '0.5rem' }}>
-                                    <div><strong>Ruta:</strong> {ruta.origen} → {ruta.destino}</div>
-                                    <div><strong>Vehículo:</strong> #{ruta.vehiculoId?.slice(-6) || 'N/A'}</div>
-                                    <div><strong>Estado:</strong>
-                                        <span style={{
-                                            color: isEnCurso ? '#22c55e' : '#f59e0b',
-                                            fontWeight: 'bold'
-                                        }}>
-                                            {' '}{ruta.estado}
-                                        </span>
-                                    </div>
-                                </div>
-
-                                {/* Timestamp box */}
-                                <div style={{
-                                    marginTop: '0.6rem',
-                                    padding: '0.5rem',
-                                    background: 'linear-gradient(135deg, rgba(0,0,0,0.03), rgba(0,0,0,0.08))',
-                                    borderRadius: '8px',
-                                    border: `1px solid ${statusColors[timeAgo.status]}40`
-                                }}>
-                                    <div style={{
-                                        fontSize: '0.7rem',
-                                        color: '#666',
-                                        textTransform: 'uppercase',
-                                        letterSpacing: '0.05em',
-                                        marginBottom: '4px'
-                                    }}>
-                                        📡 Última Conexión Satelital
-                                    </div>
-                                    <div style={{
-                                        fontSize: '1.1rem',
-                                        fontWeight: 'bold',
-                                        color: statusColors[timeAgo.status]
-                                    }}>
-                                        {timeAgo.text}
-                                    </div>
-                                    <div style={{
-                                        fontSize: '0.75rem',
-                                        color: '#888',
-                                        marginTop: '2px'
-                                    }}>
-                                        {formatTimestamp(ruta.ultimaActualizacionGPS)}
-                                    </div>
-                                </div>
-
-                                {/* Coordenadas GPS */}
-                                {hasRealGPS && (
-                                    <div style={{
-                                        marginTop: '0.5rem',
-                                        fontSize: '0.7rem',
-                                        color: '#22c55e',
-                                        background: 'rgba(34, 197, 94, 0.1)',
-                                        padding: '0.4rem',
-                                        borderRadius: '4px',
-                                        textAlign: 'center',
-                                        fontFamily: 'monospace'
-                                    }}>
-                                        📍 {position[0].toFixed(6)}, {position[1].toFixed(6)}
-                                    </div>
-                                )}
-
-                                {/* Botón */}
-                                <button
-                                    onClick={() => ruta.id && onRutaClick && onRutaClick(ruta.id)}
-                                    style={{
-                                        marginTop: '0.6rem',
-                                        width: '100%',
-                                        padding: '0.5rem',
-                                        background: 'linear-gradient(135deg, #3bf63b, #22c55e)',
-                                        color: '#000',
-                                        border: 'none',
-                                        borderRadius: '8px',
-                                        fontWeight: 'bold',
-                                        cursor: 'pointer',
-                                        fontSize: '0.85rem',
-                                        boxShadow: '0 2px 8px rgba(59, 246, 59, 0.3)'
-                                    }}
-                                >
-                                    Ver Detalles de la Ruta →
-                                </button>
-                            </div>
-                        </Popup>
-                    </Marker>
-                );
-            })}
+            <ClustersEnVivo rutasPorId={rutasPorId} onRutaClick={onRutaClick} />
 
             {allPositions.length > 1 && <FitBounds positions={allPositions} />}
         </MapContainer>